@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+/**
+ * A decoded frame held by the image cache. The pixel data are stored as a
+ * float[index] with index = col + row * width together with its statistics,
+ * calculated the first time they are asked for.
+ *
+ * The pixel array is shared between all users of the cache and must be
+ * treated as read only.
+ */
+public class CachedImage {
+
+	/**
+	 * Approximate overhead of the object and the array header.
+	 */
+	private static final long OVERHEAD = 64;
+
+	private final float[] data;
+	private final int     width, height;
+	private final long    loadTime;
+	private ImageStatistics statistics;
+
+	public CachedImage(final float[] data, final int width, final int height, final long loadTime) {
+		this.data     = data;
+		this.width    = width;
+		this.height   = height;
+		this.loadTime = loadTime;
+	}
+
+	public float[] getData() {
+		return data;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the statistics of the frame, computed once
+	 */
+	public synchronized ImageStatistics getStatistics() {
+		if (statistics == null) statistics = ImageStatistics.compute(data, width, height);
+		return statistics;
+	}
+
+	public float getMinimum() {
+		return getStatistics().getMinimum();
+	}
+
+	public float getMaximum() {
+		return getStatistics().getMaximum();
+	}
+
+	public float getMean() {
+		return (float) getStatistics().getMean();
+	}
+
+	/**
+	 * @return time in ms it took to read the frame
+	 */
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	/**
+	 * @return the number of bytes this frame holds on the heap
+	 */
+	public long getSizeInBytes() {
+		return 4L * data.length + OVERHEAD;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The EDF DataType values understood by the Java reader, with the same names
+ * as the DATA_TYPES table of fabio's edfimage.py.
+ */
+public enum EdfDataType {
+
+	SIGNED_BYTE(1, "SignedByte"),
+	UNSIGNED_BYTE(1, "UnsignedByte"),
+	SIGNED_SHORT(2, "SignedShort"),
+	UNSIGNED_SHORT(2, "UnsignedShort", "UnsignedShortInteger"),
+	SIGNED_INTEGER(4, "SignedInteger", "SignedLong"),
+	UNSIGNED_INTEGER(4, "UnsignedInteger", "UnsignedLong"),
+	FLOAT(4, "FloatValue", "Float", "FloatIEEE32", "Float32"),
+	DOUBLE(8, "DoubleValue", "Double", "FloatIEEE64", "DoubleIEEE64");
+
+	private final int      bytesPerPixel;
+	private final String[] names;
+
+	private EdfDataType(final int bytesPerPixel, final String... names) {
+		this.bytesPerPixel = bytesPerPixel;
+		this.names         = names;
+	}
+
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	/**
+	 * @param name
+	 *            the value of the DataType header key
+	 * @return the data type or null if the name is not known
+	 */
+	public static EdfDataType fromName(final String name) {
+		if (name == null) return null;
+		final String trimmed = name.trim();
+		for (EdfDataType type : values()) {
+			for (String n : type.names) {
+				if (n.equalsIgnoreCase(trimmed)) return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decode count pixels from the buffer, starting at its current position,
+	 * into the destination array. The byte order of the buffer must already
+	 * be set.
+	 *
+	 * @param src
+	 * @param dest
+	 * @param destOffset
+	 * @param count
+	 */
+	public void decode(final ByteBuffer src, final float[] dest, final int destOffset, final int count) {
+		switch (this) {
+		case SIGNED_BYTE:
+			for (int i = 0; i < count; i++) dest[destOffset + i] = src.get();
+			break;
+		case UNSIGNED_BYTE:
+			for (int i = 0; i < count; i++) dest[destOffset + i] = src.get() & 0xFF;
+			break;
+		case SIGNED_SHORT: {
+			final ShortBuffer buf = src.asShortBuffer();
+			for (int i = 0; i < count; i++) dest[destOffset + i] = buf.get(i);
+			break;
+		}
+		case UNSIGNED_SHORT: {
+			final ShortBuffer buf = src.asShortBuffer();
+			for (int i = 0; i < count; i++) dest[destOffset + i] = buf.get(i) & 0xFFFF;
+			break;
+		}
+		case SIGNED_INTEGER: {
+			final IntBuffer buf = src.asIntBuffer();
+			for (int i = 0; i < count; i++) dest[destOffset + i] = buf.get(i);
+			break;
+		}
+		case UNSIGNED_INTEGER: {
+			final IntBuffer buf = src.asIntBuffer();
+			for (int i = 0; i < count; i++) dest[destOffset + i] = buf.get(i) & 0xFFFFFFFFL;
+			break;
+		}
+		case FLOAT: {
+			final FloatBuffer buf = src.asFloatBuffer();
+			buf.get(dest, destOffset, count);
+			break;
+		}
+		case DOUBLE: {
+			final DoubleBuffer buf = src.asDoubleBuffer();
+			for (int i = 0; i < count; i++) dest[destOffset + i] = (float) buf.get(i);
+			break;
+		}
+		}
+		if (bytesPerPixel > 1) {
+			src.position(src.position() + count * bytesPerPixel);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The header of the first frame of an EDF file, parsed in Java. Only the
+ * header block is read from disk, the data are read by EdfReader.
+ *
+ * The header is the text between '{' and '}' made of "key = value ;" records,
+ * the binary data starts after the closing "}\n".
+ */
+public class EdfHeader {
+
+	/**
+	 * EDF headers are written in blocks of this size.
+	 */
+	public static final int BLOCKSIZE = 512;
+
+	/**
+	 * Headers larger than this are considered corrupt.
+	 */
+	private static final int MAX_HEADER_SIZE = 1024 * 1024;
+
+	private final LinkedHashMap<String, String> header;
+	private final Map<String, String>           capsKeys;
+	private final long                          dataOffset;
+
+	private EdfHeader(final LinkedHashMap<String, String> header, final long dataOffset) {
+		this.header     = header;
+		this.dataOffset = dataOffset;
+		this.capsKeys   = new HashMap<String, String>(header.size());
+		for (String key : header.keySet()) capsKeys.put(key.toUpperCase(), key);
+	}
+
+	/**
+	 * @param fileName
+	 * @return true if the file name has an EDF extension
+	 */
+	public static boolean isEdfFile(final String fileName) {
+		final String lower = fileName.toLowerCase();
+		return lower.endsWith(".edf");
+	}
+
+	/**
+	 * Read and parse the header of the first frame of the file.
+	 *
+	 * @param file
+	 * @return the header
+	 * @throws IOException
+	 *             if the file cannot be read or is not an EDF file
+	 */
+	public static EdfHeader read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			return read(in.getChannel());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the header from the start of the channel, reading one block at a
+	 * time until the closing brace is found.
+	 *
+	 * @param channel
+	 * @return the header
+	 * @throws IOException
+	 */
+	public static EdfHeader read(final FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BLOCKSIZE);
+		int searched = 0;
+		int end      = -1;
+		channel.position(0);
+		while (end < 0) {
+			if (!buffer.hasRemaining()) {
+				if (buffer.capacity() >= MAX_HEADER_SIZE) {
+					throw new IOException("EDF header larger than " + MAX_HEADER_SIZE + " bytes");
+				}
+				final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			final int read = channel.read(buffer);
+			if (read < 0) throw new IOException("No end of EDF header found");
+			for (int i = searched; i < buffer.position(); i++) {
+				if (buffer.get(i) == '}') {
+					end = i;
+					break;
+				}
+			}
+			searched = buffer.position();
+		}
+		return parse(buffer, end);
+	}
+
+	/**
+	 * Parse a header block which ends at the given index of the buffer.
+	 */
+	private static EdfHeader parse(final ByteBuffer buffer, final int end) throws IOException {
+
+		int start = -1;
+		for (int i = 0; i < end; i++) {
+			final byte b = buffer.get(i);
+			if (b == '{') {
+				start = i + 1;
+				break;
+			}
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t') break;
+		}
+		if (start < 0) throw new IOException("Not an EDF file, no '{' at the start of the header");
+
+		final LinkedHashMap<String, String> header = new LinkedHashMap<String, String>(64);
+		final StringBuilder record = new StringBuilder(128);
+		for (int i = start; i < end; i++) {
+			final char c = (char) (buffer.get(i) & 0xFF);
+			if (c == ';') {
+				addRecord(header, record);
+				record.setLength(0);
+			} else {
+				record.append(c);
+			}
+		}
+		addRecord(header, record);
+
+		long offset = end + 1;
+		if (offset < buffer.position() && buffer.get((int) offset) == '\r') offset++;
+		if (offset < buffer.position() && buffer.get((int) offset) == '\n') offset++;
+		return new EdfHeader(header, offset);
+	}
+
+	private static void addRecord(final Map<String, String> header, final CharSequence record) {
+		final String line = record.toString();
+		final int eq = line.indexOf('=');
+		if (eq < 0) return;
+		final String key = line.substring(0, eq).trim();
+		if (key.length() == 0) return;
+		header.put(key, line.substring(eq + 1).trim());
+	}
+
+	/**
+	 * @return the keys and values in the order they are in the file
+	 */
+	public LinkedHashMap<String, String> getHeader() {
+		return header;
+	}
+
+	/**
+	 * @param key
+	 * @return the value for the key ignoring case, or null
+	 */
+	public String getValue(final String key) {
+		final String k = capsKeys.get(key.toUpperCase());
+		return k != null ? header.get(k) : null;
+	}
+
+	private int getInt(final String key, final int defaultValue) {
+		final String value = getValue(key);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return offset in the file of the first byte of data
+	 */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public int getDim1() {
+		return getInt("Dim_1", 0);
+	}
+
+	public int getDim2() {
+		return getInt("Dim_2", 1);
+	}
+
+	/**
+	 * @return the data type, unsigned short if the header has none, or null if
+	 *         the data type is not known
+	 */
+	public EdfDataType getDataType() {
+		final String type = getValue("DataType");
+		if (type == null) return EdfDataType.UNSIGNED_SHORT;
+		return EdfDataType.fromName(type);
+	}
+
+	public ByteOrder getByteOrder() {
+		final String order = getValue("ByteOrder");
+		if (order != null && order.contains("High")) return ByteOrder.BIG_ENDIAN;
+		return ByteOrder.LITTLE_ENDIAN;
+	}
+
+	/**
+	 * @return true if the data are not compressed
+	 */
+	public boolean isUncompressed() {
+		final String compression = getValue("Compression");
+		return compression == null || compression.toUpperCase().startsWith("NO");
+	}
+
+	/**
+	 * @return the number of bytes of data in the first frame
+	 */
+	public long getDataSize() {
+		final EdfDataType type = getDataType();
+		final int bpp = type != null ? type.getBytesPerPixel() : 2;
+		return (long) getDim1() * getDim2() * bpp;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the first frame of an uncompressed EDF file, or a rectangle of it, in
+ * Java without going through Python. The data are memory mapped and decoded
+ * straight into the float array of the image.
+ */
+public class EdfReader {
+
+	/**
+	 * Read the first frame of the file.
+	 *
+	 * @param file
+	 * @return the image or null if the file is compressed or has a data type
+	 *         this reader does not know, in which case fabio should be used.
+	 * @throws IOException
+	 *             if the file is not a valid EDF file
+	 */
+	public static CachedImage read(final File file) throws IOException {
+		final long before = System.currentTimeMillis();
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final EdfHeader header = EdfHeader.read(channel);
+			if (!header.isUncompressed()) return null;
+			final EdfDataType type = header.getDataType();
+			if (type == null) return null;
+
+			final int  width  = header.getDim1();
+			final int  height = header.getDim2();
+			final long size   = header.getDataSize();
+			if (width <= 0 || height <= 0) {
+				throw new IOException("Invalid EDF dimensions " + width + "x" + height + " in " + file);
+			}
+			final long offset = getDataOffset(header, channel.size(), size);
+			if (offset < 0) {
+				throw new IOException("EDF file " + file + " is shorter than its header says");
+			}
+
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			buffer.order(header.getByteOrder());
+			final float[] data = new float[width * height];
+			type.decode(buffer, data, 0, data.length);
+			return new CachedImage(data, width, height, System.currentTimeMillis() - before);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a rectangle out of the first frame of the file. Only the rows of
+	 * the rectangle are mapped and only its columns are decoded. The area is
+	 * clipped to the frame.
+	 *
+	 * @param file
+	 * @param x
+	 *            first column
+	 * @param y
+	 *            first row
+	 * @param width
+	 * @param height
+	 * @return the area or null if the file is compressed or has a data type
+	 *         this reader does not know, in which case fabio should be used.
+	 * @throws IOException
+	 *             if the file is not a valid EDF file
+	 */
+	public static ImageArea readArea(final File file, final int x, final int y, final int width, final int height) throws IOException {
+		final long before = System.currentTimeMillis();
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final EdfHeader header = EdfHeader.read(channel);
+			if (!header.isUncompressed()) return null;
+			final EdfDataType type = header.getDataType();
+			if (type == null) return null;
+
+			final int dim1 = header.getDim1();
+			final int dim2 = header.getDim2();
+			if (dim1 <= 0 || dim2 <= 0) {
+				throw new IOException("Invalid EDF dimensions " + dim1 + "x" + dim2 + " in " + file);
+			}
+			final long offset = getDataOffset(header, channel.size(), header.getDataSize());
+			if (offset < 0) {
+				throw new IOException("EDF file " + file + " is shorter than its header says");
+			}
+
+			final int x1 = Math.max(0, x), y1 = Math.max(0, y);
+			final int x2 = Math.min(dim1, x + width), y2 = Math.min(dim2, y + height);
+			final int w  = Math.max(0, x2 - x1), h = Math.max(0, y2 - y1);
+			final float[] data = new float[w * h];
+			if (w > 0 && h > 0) {
+				final int  bpp   = type.getBytesPerPixel();
+				final long start = offset + ((long) y1 * dim1 + x1) * bpp;
+				final long size  = ((long) (h - 1) * dim1 + w) * bpp;
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+				buffer.order(header.getByteOrder());
+				for (int row = 0; row < h; row++) {
+					buffer.position(row * dim1 * bpp);
+					type.decode(buffer, data, row * w, w);
+				}
+			}
+			return new ImageArea(data, x1, y1, w, h, dim1, dim2, System.currentTimeMillis() - before);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The data follow the header. Some writers pad the header differently so
+	 * if the data do not fit after the header, we take them from the end of
+	 * the file as the old EdfFile did.
+	 *
+	 * @return the offset of the data or -1 if the file is too short
+	 */
+	static long getDataOffset(final EdfHeader header, final long fileSize, final long dataSize) {
+		final long offset = header.getDataOffset();
+		if (offset + dataSize <= fileSize) return offset;
+		if (dataSize <= fileSize) return fileSize - dataSize;
+		return -1;
+	}
+}
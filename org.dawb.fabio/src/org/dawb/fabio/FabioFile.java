@@ -10,14 +10,26 @@
 package org.dawb.fabio;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.swt.SWT;
@@ -30,10 +42,10 @@ import org.slf4j.LoggerFactory;
  * The FabioFile class is used to read files using the Python fabio package. It
  * uses the Jep interpreter to call Python. It can be used in multi-threaded
  * Java environments. Different thread should supply their own Jep interpreter.
- * The image data is stored in a cache so that the last N images will be read
- * from the cache and not from disk. This will be reflected in the time to read
- * i.e. it will be zero. The cache size can be increased in function of the
- * memory available. It is currently set to 20 i.e. 20*16 MB.
+ * The image data is stored in the shared ImageCache so that recently used
+ * images will be read from the cache and not from disk. This will be reflected
+ * in the time to read i.e. it will be zero. The cache is bounded in bytes, see
+ * ImageCache.setMaxBytes(...).
  * 
  * @author Andy Gotz + Gaelle Suchet
  * 
@@ -43,18 +55,13 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	private Semaphore semaphore = new Semaphore(1);
 	public boolean headerRead = false;
 	public boolean imageRead = false;
+	private boolean sizeRead = false; // width and height known from an area
 	private HashMap<String, String> header;
 	private String fullFileName;
 	private String fileName;
 	private Vector<String> vKeysInHeader; // a list of keys as they arrive in
 	// the header; useful in edfViewer
 	private int width, height;
-	private float minimum = Float.MAX_VALUE;
-	private float maximum = Float.MIN_VALUE;
-	private float sum = 0.f;
-	private float mean = Float.MIN_VALUE;
-	// private float stddev = Float.MIN_VALUE;
-	private int floatImageBufferI = 0;
 	private long timeToReadImage = 0;
 	private String stem; // GS for peaksearch
 	private String fileNumber; // Gs for peaksearch
@@ -63,14 +70,6 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	Logger logger;
 	private int index;
 	private boolean flag = true;
-	/*
-	 * to speed up FabioFile memory management we keep a buffer of the last N
-	 * images in memory. This caches the image so that the most recently read
-	 * images will be found in the cache and do not have to be read from disk
-	 */
-	private static float floatImageBuffer[][] = null;
-	private static int floatImageBufferPointer = 0;
-	private static String fileImageBuffer[] = null;
 
 	private String comparatorKey = "filename";
 	private int comparatorDir = SWT.DOWN;
@@ -87,15 +86,6 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	public FabioFile(String _fullFileName) throws FabioFileException {
 		
 		logger = LoggerFactory.getLogger(FabioFile.class);
-		if (floatImageBuffer == null) {
-			// logger.debug("initialise floatImageBuffer");
-			floatImageBuffer = new float[10][];
-			fileImageBuffer = new String[10];
-			for (int i = 0; i < 10; i++) {
-				floatImageBuffer[i] = null;
-				fileImageBuffer[i] = new String();
-			}
-		}
 		// Check if file exists - why ?
 		if (!new File(_fullFileName).exists()) {
 			throw new FabioFileException(this.getClass().getName(), "FabioFile", "File not found: " + _fullFileName);
@@ -184,8 +174,9 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	}
 
 	/**
-	 * Load only the header and not the image. loadHeader() uses the python
-	 * fabio module to read the header.
+	 * Load only the header and not the image. loadHeader() reads EDF, Bruker
+	 * and MAR CCD headers in Java and uses the python fabio module for the
+	 * other formats.
 	 * 
 	 * @throws FabioFileException
 	 * @throws Throwable
@@ -196,7 +187,9 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	public void loadHeader() throws FabioFileException {
 		if (!headerRead)
 			try {
-				loadHeader(getFableJep());
+				loadHeader(null);
+			} catch (FabioFileException e) {
+				throw e;
 			} catch (Throwable e) {
 				throw new FabioFileException(this.getClass().getName(),
 						"loadHeader" + fullFileName, e.getMessage());
@@ -204,48 +197,39 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	}
 
 	/**
-	 * Load only the header and not the image. loadHeader() uses the python
+	 * Load only the header and not the image. The header is read in Java if
+	 * HeaderScanner knows the format, otherwise loadHeader() uses the python
 	 * fabio module to read the header. Use the jep interpreter provided by the
 	 * callee. This is needed for reading headers in multithreaded environments.
 	 * 
+	 * @param fableJep
+	 *            the interpreter to use if fabio is needed, if null the
+	 *            interpreter of the calling thread is used.
 	 * @throws FabioFileException
 	 * 
 	 */
 	public synchronized void loadHeader(FableJep fableJep)
 			throws FabioFileException {
 
+		if (!headerRead && loadHeaderInJava()) {
+			return;
+		}
 		if (!headerRead) {
 			acquire();
 			File f = new File(fullFileName);
 			if (f.exists()) {
 				try {
-					importFabioModules(fableJep);
-					fableJep.set("filename", fullFileName);
-					fableJep.eval("im = fabio.openimage.openheader(filename)");
-					fableJep.eval("keys = im.header.keys()");
-					fableJep.eval("vals = im.header.values()");
-					fableJep.eval("res = len(keys)");
-					int n = (Integer) fableJep.getValue("res");
-					String key = "", val;
-					header = new HashMap<String, String>();
-					for (int i = 0; i < n; i++) {
-						fableJep.set("i", i);
-						fableJep.eval("res = str(keys[i])"); // have python
-						key = (String) fableJep.getValue("res");
-						try {
-							// coerce to str
-							fableJep.eval("res = str(vals[i])");
-							val = (String) fableJep.getValue("res");
-						} catch (Throwable e) {
-							// if header fails
-							val = "-1";
-						}
-						header.put(key, val);
-						vKeysInHeader.add(key);
+					if (fableJep == null) {
+						FableJepPool.getDefault().run(new FableJepPool.JepTask<Object>() {
+							@Override
+							public Object run(FableJep fj) throws Throwable {
+								readHeaderWithFabio(fj);
+								return null;
+							}
+						});
+					} else {
+						readHeaderWithFabio(fableJep);
 					}
-					// Add Gaelle for sorting
-					this.addHeaderInfo("name", fileName);
-					this.addHeaderInfo("#", "" + index);
 					headerRead = true;
 				} catch (Throwable e) {
 					release();
@@ -262,6 +246,140 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 		}
 	}
 
+	/**
+	 * Read the header with the fabio module of the interpreter, called by
+	 * loadHeader() which holds the lock of this file.
+	 */
+	private void readHeaderWithFabio(final FableJep fableJep) throws Throwable {
+		importFabioModules(fableJep);
+		fableJep.set("filename", fullFileName);
+		fableJep.eval("im = fabio.openimage.openheader(filename)");
+		fableJep.eval("keys = im.header.keys()");
+		fableJep.eval("vals = im.header.values()");
+		fableJep.eval("res = len(keys)");
+		int n = (Integer) fableJep.getValue("res");
+		String key = "", val;
+		header = new HashMap<String, String>();
+		for (int i = 0; i < n; i++) {
+			fableJep.set("i", i);
+			fableJep.eval("res = str(keys[i])"); // have python
+			key = (String) fableJep.getValue("res");
+			try {
+				// coerce to str
+				fableJep.eval("res = str(vals[i])");
+				val = (String) fableJep.getValue("res");
+			} catch (Throwable e) {
+				// if header fails
+				val = "-1";
+			}
+			header.put(key, val);
+			vKeysInHeader.add(key);
+		}
+		// Add Gaelle for sorting
+		this.addHeaderInfo("name", fileName);
+		this.addHeaderInfo("#", "" + index);
+	}
+
+	/**
+	 * Read the header with HeaderScanner.
+	 * 
+	 * @return true if the header was read, false if fabio is needed.
+	 */
+	private synchronized boolean loadHeaderInJava() {
+		if (headerRead) return true;
+		final LinkedHashMap<String, String> values;
+		try {
+			values = HeaderScanner.scan(new File(fullFileName));
+		} catch (IOException e) {
+			logger.debug("Cannot read header of " + fullFileName + " in Java, using fabio", e);
+			return false;
+		}
+		if (values == null) return false;
+		setHeader(values);
+		return true;
+	}
+
+	/**
+	 * Set the header from values read elsewhere, for instance a HeaderIndex,
+	 * so that the file itself is not read.
+	 * 
+	 * @param values
+	 *            the header keys and values in the order of the file
+	 */
+	public synchronized void setHeader(final Map<String, String> values) {
+		header = new HashMap<String, String>(values);
+		vKeysInHeader = new Vector<String>(values.keySet());
+		this.addHeaderInfo("name", fileName);
+		this.addHeaderInfo("#", "" + index);
+		headerRead = true;
+	}
+
+	/**
+	 * Forget the header of a file rewritten since it was read, it is read
+	 * again when it is needed.
+	 */
+	public synchronized void resetHeader() {
+		header = new HashMap<String, String>();
+		vKeysInHeader = new Vector<String>();
+		headerRead = false;
+	}
+
+	/**
+	 * @return a copy of the header in the order of the file without the keys
+	 *         added for sorting, or null if the header has not been read.
+	 */
+	public synchronized LinkedHashMap<String, String> getHeader() {
+		if (!headerRead) return null;
+		final LinkedHashMap<String, String> values = new LinkedHashMap<String, String>(vKeysInHeader.size());
+		for (String key : vKeysInHeader) {
+			values.put(key, header.get(key));
+		}
+		return values;
+	}
+
+	/**
+	 * Read the headers of many files in parallel. Headers HeaderScanner
+	 * understands are read by a pool of threads, the others are left to be
+	 * read by fabio the first time they are needed.
+	 * 
+	 * @param files
+	 * @param monitor
+	 *            may be null, checked for cancellation and given one unit of
+	 *            work per file.
+	 * @return the number of headers which still need fabio
+	 */
+	public static int loadHeaders(final Collection<FabioFile> files, final IProgressMonitor monitor) {
+		final int threads = Math.min(Math.max(1, files.size()),
+				2 * Runtime.getRuntime().availableProcessors());
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final AtomicInteger notRead = new AtomicInteger();
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+			for (final FabioFile file : files) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						if (monitor != null && monitor.isCanceled()) return;
+						if (!file.loadHeaderInJava()) notRead.incrementAndGet();
+						if (monitor != null) monitor.worked(1);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					notRead.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		return notRead.get();
+	}
+
 	/**
 	 * Add new key in header info
 	 */
@@ -363,6 +481,15 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 
 	}
 
+	/**
+	 * @param key
+	 * @return the value of the key, or null if the header has not been read
+	 *         or does not have the key
+	 */
+	synchronized String getHeaderValue(final String key) {
+		return headerRead ? header.get(key) : null;
+	}
+
 	/**
 	 * Gaelle : add a sample Vector index for this fabioFile
 	 * 
@@ -479,7 +606,7 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 */
 
 	public int getWidth() throws Throwable {
-		if (!imageRead) {
+		if (!imageRead && !sizeRead) {
 			readImage();
 		}
 		return width;
@@ -492,7 +619,7 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * @throws Throwable
 	 */
 	public int getHeight() throws Throwable {
-		if (!imageRead) {
+		if (!imageRead && !sizeRead) {
 			readImage();
 		}
 		return height;
@@ -517,164 +644,193 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * @throws Throwable
 	 */
 	public void readImageAsFloat() throws Throwable {
-		readImageAsFloat(getFableJep());
+		readImageAsFloat(null);
 	}
 
 	/**
-	 * read image as float into memory
+	 * read image as float into the image cache. The image is only read from
+	 * disk if it is not already in the cache.
 	 * 
+	 * @param fableJep
+	 *            the interpreter to use if the file has to be read, if null
+	 *            the interpreter of the calling thread is used.
 	 * @throws Throwable
 	 */
-	public synchronized void readImageAsFloat(FableJep fableJep) throws Throwable {
-		/* first check if the file is cached */
-		boolean fileCached = false;
-		if (floatImageBufferI > -1) {
-			if (fileImageBuffer[floatImageBufferI] != null) {
-				if (fileImageBuffer[floatImageBufferI]
-						.equalsIgnoreCase(fullFileName))
-					fileCached = true;
-			}
-		}
+	public void readImageAsFloat(FableJep fableJep) throws Throwable {
+		getCachedImage(fableJep);
+	}
+
+	/**
+	 * @return the key of the current version of this file in the image cache
+	 */
+	public ImageCacheKey getCacheKey() {
+		return ImageCacheKey.forFile(new File(fullFileName));
+	}
+
+	/**
+	 * Return the image from the image cache, reading it with fabio if needed.
+	 * Concurrent requests for the same file only read it once.
+	 * 
+	 * @param fableJep
+	 *            may be null
+	 * @return the cached image
+	 * @throws Throwable
+	 */
+	private synchronized CachedImage getCachedImage(final FableJep fableJep) throws Throwable {
 		timeToReadImage = 0;
-		if (!imageRead || !fileCached) {
-			logger.debug("read file " + fileName);
-			try {
-				long before = System.currentTimeMillis();
-				importFabioModules(fableJep);
-				fableJep.set("filename", fullFileName);
-				fableJep.eval("im = fabio.openimage.openimage(filename)");
-				fableJep.eval("res = im.data.astype(numpy.float32).tostring()");
-				floatImageBuffer[floatImageBufferPointer] = (float[]) fableJep
-						.getValue_floatarray("res");
-				floatImageBufferI = floatImageBufferPointer;
-				fileImageBuffer[floatImageBufferPointer] = fullFileName;
-				incrementBufferPointer();
-				// now overwrite data to free memory in python
-				fableJep.eval("res = im.dim1");
-				width = (Integer) fableJep.getValue("res");
-				fableJep.eval("res = im.dim2");
-				// KE: There are not used for anything
-				// long elapsed;
-				// long before_get;
-				height = (Integer) fableJep.getValue("res");
-				/*
-				 * getting the mean via Python takes too long (approx. 160 ms
-				 * for 2048x2048 image)
-				 */
-				/*
-				 * if (mean == Float.MIN_VALUE) { before_get =
-				 * System.currentTimeMillis(); jep.eval("res = im.getmean()");
-				 * mean = (Float) jep.getValue("res"); elapsed =
-				 * System.currentTimeMillis()-before_get;
-				 * logger.info("fabio.getmean() took "+elapsed+" ms"); }
-				 */
-				/*
-				 * getting the standard deviation via Python takes too long
-				 * (approx. 330 ms for 2048x2048 image)
-				 */
-				/*
-				 * if (stddev == Float.MIN_VALUE) { before_get =
-				 * System.currentTimeMillis(); jep.eval("res = im.getstddev()");
-				 * stddev = (Float) jep.getValue("res"); elapsed =
-				 * System.currentTimeMillis()-before_get;
-				 * logger.info("fabio.getstddev() took "+elapsed+" ms"); }
-				 */
-				// calculate min and max if not done so already
-				if (minimum == Float.MAX_VALUE || maximum == Float.MIN_VALUE) {
-					/*
-					 * could use fabio to calculate min, max and mean (if we
-					 * assume NumPy is faster than Java) but the data type
-					 * returned is undetermined and therefore I do not know how
-					 * to interpret the result
-					 */
-					/*
-					 * jep.eval("res = im.getmin()"); minimum = (float)
-					 * (Integer)jep.getValue("res");
-					 * jep.eval("res = im.getmax()"); maximum = (float)
-					 * (Integer)jep.getValue("res");
-					 */
-
-					// Java version to calculate minimum and maximum (takes only
-					// 60 ms for 2048x2048 image)
-					// before_get = System.currentTimeMillis();
-					sum = 0.f;
-					for (int i = 0; i < floatImageBuffer[floatImageBufferI].length; i++) {
-						sum += floatImageBuffer[floatImageBufferI][i];
-						if (floatImageBuffer[floatImageBufferI][i] < minimum)
-							minimum = floatImageBuffer[floatImageBufferI][i];
-						if (floatImageBuffer[floatImageBufferI][i] > maximum)
-							maximum = floatImageBuffer[floatImageBufferI][i];
-					}
-					mean = sum
-							/ (float) (floatImageBuffer[floatImageBufferI].length);
-					// elapsed = System.currentTimeMillis() - before_get;
-					// logger.info("java get mean,min.max took "+elapsed+" ms");
+		final CachedImage image = ImageCache.getDefault().get(getCacheKey(), new Callable<CachedImage>() {
+			@Override
+			public CachedImage call() throws Exception {
+				try {
+					final CachedImage read = loadImage(fableJep);
+					timeToReadImage = read.getLoadTime();
+					return read;
+				} catch (Exception e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new FabioFileException(FabioFile.class.getName(), "readImageAsFloat", e.getMessage());
 				}
-				timeToReadImage = System.currentTimeMillis() - before;
-				imageRead = true;
-			} catch (Throwable j) {
-				throw j;
-				// j.printStackTrace();
 			}
-		}
-		return;
+		});
+		width    = image.getWidth();
+		height   = image.getHeight();
+		imageRead = true;
+		return image;
 	}
 
 	/**
-	 * increment float image buffer pointer, wrap around if end of buffer
-	 * reached
+	 * Read the image, uncompressed EDF files are read in Java and all other
+	 * files with fabio.
+	 *
+	 * @param fableJep
+	 * @return the image read
+	 * @throws Throwable
 	 */
-	private void incrementBufferPointer() {
-		floatImageBufferPointer++;
-		if (floatImageBufferPointer >= floatImageBuffer.length)
-			floatImageBufferPointer = 0;
+	private CachedImage loadImage(FableJep fableJep) throws Throwable {
+		logger.debug("read file " + fileName);
+		if (EdfHeader.isEdfFile(fullFileName)) {
+			final CachedImage image = EdfReader.read(new File(fullFileName));
+			if (image != null) return image;
+		}
+		if (fableJep == null) {
+			return FableJepPool.getDefault().run(new FableJepPool.JepTask<CachedImage>() {
+				@Override
+				public CachedImage run(FableJep fj) throws Throwable {
+					return readImageWithFabio(fj);
+				}
+			});
+		}
+		return readImageWithFabio(fableJep);
+	}
+
+	private CachedImage readImageWithFabio(final FableJep fableJep) throws Throwable {
+		long before = System.currentTimeMillis();
+		importFabioModules(fableJep);
+		fableJep.set("filename", fullFileName);
+		fableJep.eval("im = fabio.openimage.openimage(filename)");
+		// float32 and integer images are sent in their own type
+		final float[] data = fableJep.getFloatArray("im.data");
+		fableJep.eval("res = im.dim1");
+		final int dim1 = (Integer) fableJep.getValue("res");
+		fableJep.eval("res = im.dim2");
+		final int dim2 = (Integer) fableJep.getValue("res");
+		/*
+		 * getting the mean and standard deviation via Python takes too long
+		 * (approx. 160 ms and 330 ms for 2048x2048 image), the statistics are
+		 * calculated in Java by CachedImage.
+		 */
+		return new CachedImage(data, dim1, dim2, System.currentTimeMillis() - before);
 	}
 
 	/**
-	 * Return image as floating pint array
+	 * Read the image with fabio in the type of the file, for callers which
+	 * do not need floats. The image is not cached.
 	 * 
-	 * @return image as floating point array
+	 * @param fableJep
+	 *            the interpreter to use, if null one of FableJepPool
+	 * @return the image, its shape is {rows, columns}
 	 * @throws Throwable
 	 */
+	public NumpyArray readImageArray(FableJep fableJep) throws Throwable {
+		if (fableJep == null) {
+			return FableJepPool.getDefault().run(new FableJepPool.JepTask<NumpyArray>() {
+				@Override
+				public NumpyArray run(FableJep fj) throws Throwable {
+					return readImageArray(fj);
+				}
+			});
+		}
+		importFabioModules(fableJep);
+		fableJep.set("filename", fullFileName);
+		fableJep.eval("im = fabio.openimage.openimage(filename)");
+		return fableJep.getArray("im.data");
+	}
 
-	public float[] getImageAsFloat() throws Throwable {
-		boolean fileCached = false;
-		if (floatImageBufferI > -1) {
-			if (fileImageBuffer[floatImageBufferI] != null) {
-				if (fileImageBuffer[floatImageBufferI]
-						.equalsIgnoreCase(fullFileName))
-					fileCached = true;
+	/**
+	 * Return a rectangle of the image. If the image is in the cache the area
+	 * is copied from it, uncompressed EDF files only read the rows of the
+	 * area and other files are read completely with fabio. The area is
+	 * clipped to the image.
+	 * 
+	 * @param fableJep
+	 *            the interpreter to use if fabio is needed, may be null.
+	 * @param x
+	 *            first column
+	 * @param y
+	 *            first row
+	 * @param areaWidth
+	 * @param areaHeight
+	 * @return the area
+	 * @throws Throwable
+	 */
+	public ImageArea getImageArea(FableJep fableJep, int x, int y,
+			int areaWidth, int areaHeight) throws Throwable {
+		final CachedImage cached = ImageCache.getDefault().getIfPresent(getCacheKey());
+		if (cached != null) {
+			return ImageArea.copyOf(cached, x, y, areaWidth, areaHeight);
+		}
+		if (EdfHeader.isEdfFile(fullFileName)) {
+			final ImageArea area = EdfReader.readArea(new File(fullFileName),
+					x, y, areaWidth, areaHeight);
+			if (area != null) {
+				synchronized (this) {
+					width = area.getFrameWidth();
+					height = area.getFrameHeight();
+					sizeRead = true;
+				}
+				return area;
 			}
 		}
-		timeToReadImage = 0;
-		if (!fileCached) readImageAsFloat();
-		return floatImageBuffer[floatImageBufferI];
+		return ImageArea.copyOf(getCachedImage(fableJep), x, y, areaWidth,
+				areaHeight);
 	}
 
 	/**
-	 * Return image as floating pint array
+	 * Return image as floating pint array. The array is shared with the image
+	 * cache and must not be modified.
 	 * 
 	 * @return image as floating point array
+	 * @throws Throwable
+	 */
+
+	public float[] getImageAsFloat() throws Throwable {
+		return getCachedImage(null).getData();
+	}
+
+	/**
+	 * Return image as floating pint array. The array is shared with the image
+	 * cache and must not be modified.
+	 * 
+	 * @return image as floating point array or null if it cannot be read
 	 */
 
 	public float[] getImageAsFloat(FableJep jep) {
-		boolean fileCached = false;
-		if (floatImageBufferI > -1) {
-			if (fileImageBuffer[floatImageBufferI] != null) {
-				if (fileImageBuffer[floatImageBufferI]
-						.equalsIgnoreCase(fullFileName))
-					fileCached = true;
-			}
+		try {
+			return getCachedImage(jep).getData();
+		} catch (Throwable e) {
+			logger.error("Cannot read " + fullFileName, e);
+			return null;
 		}
-		timeToReadImage = 0;
-		if (!fileCached)
-			try {
-				readImageAsFloat(jep);
-				fileCached = true;
-			} catch (Throwable e) {
-				// do not print exception - what should be done ?
-			}
-		return floatImageBuffer[floatImageBufferI];
 	}
 
 	/**
@@ -685,20 +841,10 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * @throws Throwable
 	 */
 	public int[] getImageAsInt() throws Throwable {
-		boolean fileCached = false;
-		if (floatImageBufferI > -1) {
-			if (fileImageBuffer[floatImageBufferI] != null) {
-				if (fileImageBuffer[floatImageBufferI]
-						.equalsIgnoreCase(fullFileName))
-					fileCached = true;
-			}
-		}
-		timeToReadImage = 0;
-		if (!fileCached)
-			readImageAsFloat();
-		int[] _imageAsInt = new int[getWidth() * getHeight()];
-		for (int i = 0; i < floatImageBuffer[floatImageBufferI].length; i++) {
-			_imageAsInt[i] = (int) floatImageBuffer[floatImageBufferI][i];
+		final float[] image = getImageAsFloat();
+		int[] _imageAsInt = new int[image.length];
+		for (int i = 0; i < image.length; i++) {
+			_imageAsInt[i] = (int) image[i];
 		}
 		return _imageAsInt;
 	}
@@ -711,10 +857,7 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * 
 	 */
 	public float getMinimum() throws Throwable {
-		if (!imageRead) {
-			readImage();
-		}
-		return minimum;
+		return getStatistics().getMinimum();
 	}
 
 	/**
@@ -725,10 +868,7 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * 
 	 */
 	public float getMaximum() throws Throwable {
-		if (!imageRead) {
-			readImage();
-		}
-		return maximum;
+		return getStatistics().getMaximum();
 	}
 
 	/**
@@ -739,10 +879,23 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 	 * 
 	 */
 	public float getMean() throws Throwable {
-		if (!imageRead) {
-			readImage();
+		return (float) getStatistics().getMean();
+	}
+
+	/**
+	 * return the statistics of the image, with its histogram. They are
+	 * computed once per image in the cache, the image is read if it is not in
+	 * the cache.
+	 * 
+	 * @return image statistics
+	 * @throws Throwable
+	 */
+	public ImageStatistics getStatistics() throws Throwable {
+		CachedImage image = ImageCache.getDefault().getIfPresent(getCacheKey());
+		if (image == null) {
+			image = getCachedImage(null);
 		}
-		return mean;
+		return image.getStatistics();
 	}
 
 	/*
@@ -766,11 +919,9 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 			String valueThis = this.getValue(comparatorKey);
 
 			if (comparatorDir == SWT.UP) {
-				comparedResult = valueOther.compareTo(valueThis);
-
+				comparedResult = HeaderSort.compare(valueOther, valueThis);
 			} else {
-				comparedResult = valueThis.compareTo(valueOther);
-
+				comparedResult = HeaderSort.compare(valueThis, valueOther);
 			}
 
 		} catch (FabioFileException e) {
@@ -804,8 +955,4 @@ public class FabioFile implements java.lang.Comparable<Object>, IPropertyChangeL
 		}
 
 	}
-
-	private FableJep getFableJep() throws Throwable {
-		return FableJep.getFableJep();
-	}
 }
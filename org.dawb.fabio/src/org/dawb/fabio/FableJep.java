@@ -13,7 +13,9 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import jep.Jep;
 import jep.JepException;
@@ -42,6 +44,10 @@ public class FableJep {
 	private Logger  logger;
 	private String  filename = "";
 	private boolean requireErrorMessage;
+	/**
+	 * The import statements already run by this interpreter.
+	 */
+	private final Set<String> imported = new HashSet<String>(7);
 	/**
 	 * This value is set to true to record Python calls into a file.
 	 */
@@ -203,10 +209,12 @@ public class FableJep {
 	 * @throws JepException
 	 */
 	public void jepImportModules(String _modules, boolean requireErrorMessage) throws JepException {
+		if (imported.contains("import " + _modules)) return;
 		try {
 			final Jep _jep = getJep();
 			_jep.eval("import " + _modules);
 			writeScript("import " + _modules);
+			imported.add("import " + _modules);
 		} catch (JepException e) {
 			if (System.currentTimeMillis() - jepLastError > 5000) {
 				jepLastError = System.currentTimeMillis();
@@ -271,10 +279,13 @@ public class FableJep {
 	 * @author SUCHET
 	 */
 	public void jepImportSpecificDefinition(String _from, String _import, final boolean requireMessage) throws JepException {
+		final String statement = "from " + _from + " import " + _import;
+		if (imported.contains(statement)) return;
 		try {
 			Jep _jep=getJep();
-			_jep.eval("from " + _from + " import " + _import);
-			writeScript("from " + _from + " import " + _import);
+			_jep.eval(statement);
+			writeScript(statement);
+			imported.add(statement);
 		} catch (JepException e) {
 			if (System.currentTimeMillis() - jepLastError > 5000) {
 				jepLastError = System.currentTimeMillis();
@@ -471,6 +482,31 @@ public class FableJep {
 		return jep.getValue_floatarray(str);
 	}
 
+	/**
+	 * Read a numpy array in its own type, see NumpyArray.
+	 * 
+	 * @param expression
+	 *            giving a numpy array
+	 * @return the array
+	 * @throws JepException
+	 */
+	public NumpyArray getArray(String expression) throws JepException {
+		return NumpyArray.get(jep, expression);
+	}
+
+	/**
+	 * Read a numpy array as floats without the astype(numpy.float32) copy
+	 * when the array is float32 or a small integer type.
+	 * 
+	 * @param expression
+	 *            giving a numpy array
+	 * @return the values
+	 * @throws JepException
+	 */
+	public float[] getFloatArray(String expression) throws JepException {
+		return NumpyArray.getFloats(jep, expression);
+	}
+
 	/**
 	 * Redirect stdout in a python program to a file.
 	 * 
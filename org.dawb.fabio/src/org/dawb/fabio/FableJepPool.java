@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of Python interpreters shared by the jobs which need fabio,
+ * instead of one interpreter for each thread which asks for one.
+ * <p>
+ * A Jep interpreter can only be used by the thread which made it, so the
+ * pool is a set of threads each owning a FableJep: a task is given to the
+ * pool, waits for a free interpreter and runs on its thread. The modules are
+ * imported when the interpreter is made so that tasks find them ready. An
+ * interpreter not used for some time is closed, by its own thread, and made
+ * again when needed.
+ * <p>
+ * The pool counts the tasks, the time they waited for an interpreter and
+ * the time interpreters were busy, see getStatistics().
+ */
+public class FableJepPool {
+
+	/**
+	 * Work done with an interpreter of the pool.
+	 */
+	public interface JepTask<T> {
+		T run(FableJep fableJep) throws Throwable;
+	}
+
+	/**
+	 * System property giving the number of interpreters of the default pool.
+	 */
+	public static final String SIZE_PROPERTY = "org.dawb.fabio.jep.pool.size";
+
+	/**
+	 * Modules imported in each interpreter of the default pool.
+	 */
+	public static final String[] FABIO_MODULES = { "sys", "numpy", "PIL", "fabio.openimage" };
+
+	private static final Logger logger = LoggerFactory.getLogger(FableJepPool.class);
+
+	private static FableJepPool defaultPool;
+
+	private final String[]           modules;
+	private final ThreadPoolExecutor executor;
+	private final long               started = System.nanoTime();
+
+	private final AtomicLong    tasks     = new AtomicLong();
+	private final AtomicLong    waitNanos = new AtomicLong();
+	private final AtomicLong    maxWait   = new AtomicLong();
+	private final AtomicLong    busyNanos = new AtomicLong();
+	private final AtomicInteger busy      = new AtomicInteger();
+	private final AtomicInteger created   = new AtomicInteger();
+
+	/**
+	 * The pool used to read files with fabio. Its size is the SIZE_PROPERTY
+	 * system property, by default the number of processors up to 4.
+	 */
+	public static synchronized FableJepPool getDefault() {
+		if (defaultPool == null) {
+			int size = Math.min(4, Runtime.getRuntime().availableProcessors());
+			try {
+				size = Integer.parseInt(System.getProperty(SIZE_PROPERTY, String.valueOf(size)));
+			} catch (NumberFormatException e) {
+				logger.error("Cannot read " + SIZE_PROPERTY, e);
+			}
+			defaultPool = new FableJepPool(size, 60, FABIO_MODULES);
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * @param size
+	 *            the largest number of interpreters
+	 * @param idleSeconds
+	 *            time after which an unused interpreter is closed
+	 * @param modules
+	 *            imported into each interpreter when it is made
+	 */
+	public FableJepPool(final int size, final long idleSeconds, final String[] modules) {
+		this.modules  = modules.clone();
+		this.executor = new ThreadPoolExecutor(Math.max(1, size), Math.max(1, size), idleSeconds,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private int count = 0;
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Worker(r, "Python interpreter " + (++count));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Make the interpreter of a thread of the pool, from that thread.
+	 *
+	 * @return the interpreter with the modules of the pool imported
+	 * @throws Throwable
+	 */
+	protected FableJep openInterpreter() throws Throwable {
+		final FableJep fableJep = FableJep.getFableJep();
+		for (String module : modules) {
+			fableJep.jepImportModules(module, false);
+		}
+		return fableJep;
+	}
+
+	/**
+	 * Close the interpreter of a thread of the pool, from that thread when it
+	 * ends.
+	 *
+	 * @param fableJep
+	 *            what openInterpreter() returned
+	 * @throws Throwable
+	 */
+	protected void closeInterpreter(final FableJep fableJep) throws Throwable {
+		FableJep.closeFableJep();
+	}
+
+	/**
+	 * A thread of the pool, which makes its interpreter when it starts and
+	 * closes it when it ends.
+	 */
+	private class Worker extends Thread {
+
+		private FableJep fableJep;
+		private boolean  open;
+
+		Worker(final Runnable r, final String name) {
+			super(r, name);
+		}
+
+		/**
+		 * @return the interpreter of this thread, made again if it could
+		 *         not be made before
+		 */
+		FableJep getInterpreter() throws Throwable {
+			if (!open) {
+				fableJep = openInterpreter();
+				open = true;
+				created.incrementAndGet();
+			}
+			return fableJep;
+		}
+
+		@Override
+		public void run() {
+			try {
+				getInterpreter();
+			} catch (Throwable e) {
+				// The task will fail with the same error
+				logger.error("Cannot prepare the Python interpreter", e);
+			}
+			try {
+				super.run();
+			} finally {
+				if (open) {
+					try {
+						closeInterpreter(fableJep);
+						logger.debug("Closed " + getName() + ", " + getStatistics());
+					} catch (Throwable e) {
+						logger.error("Cannot close the Python interpreter", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the task with a free interpreter of the pool, waiting for one if
+	 * they are all busy. A task run by a task uses the same interpreter.
+	 *
+	 * @param task
+	 * @return what the task returns
+	 * @throws Throwable
+	 *             what the task throws
+	 */
+	public <T> T run(final JepTask<T> task) throws Throwable {
+		if (Thread.currentThread() instanceof Worker) {
+			return task.run(((Worker) Thread.currentThread()).getInterpreter());
+		}
+		final long submitted = System.nanoTime();
+		final Future<T> future = executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				final long start = System.nanoTime();
+				final long wait = start - submitted;
+				waitNanos.addAndGet(wait);
+				long max = maxWait.get();
+				while (wait > max && !maxWait.compareAndSet(max, wait)) max = maxWait.get();
+				busy.incrementAndGet();
+				try {
+					return task.run(((Worker) Thread.currentThread()).getInterpreter());
+				} catch (Exception e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new ExecutionException(e);
+				} finally {
+					busy.decrementAndGet();
+					busyNanos.addAndGet(System.nanoTime() - start);
+					tasks.incrementAndGet();
+				}
+			}
+		});
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ExecutionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			throw cause;
+		}
+	}
+
+	public int getSize() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @param size
+	 *            the largest number of interpreters, taken into account for
+	 *            the next tasks
+	 */
+	public void setSize(final int size) {
+		final int n = Math.max(1, size);
+		if (n > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(n);
+			executor.setCorePoolSize(n);
+		} else {
+			executor.setCorePoolSize(n);
+			executor.setMaximumPoolSize(n);
+		}
+	}
+
+	/**
+	 * @return the number of interpreters open now
+	 */
+	public int getInterpreterCount() {
+		return executor.getPoolSize();
+	}
+
+	/**
+	 * @return the number of interpreters made since the pool was made
+	 */
+	public int getInterpretersCreated() {
+		return created.get();
+	}
+
+	/**
+	 * @return the number of interpreters running a task now
+	 */
+	public int getBusyCount() {
+		return busy.get();
+	}
+
+	/**
+	 * @return the number of tasks waiting for an interpreter
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	public long getTaskCount() {
+		return tasks.get();
+	}
+
+	/**
+	 * @return the mean time in ms tasks waited for an interpreter
+	 */
+	public double getMeanWait() {
+		final long n = tasks.get();
+		return n == 0 ? 0 : waitNanos.get() / 1e6 / n;
+	}
+
+	/**
+	 * @return the longest time in ms a task waited for an interpreter
+	 */
+	public double getMaxWait() {
+		return maxWait.get() / 1e6;
+	}
+
+	/**
+	 * @return the part of the time, from 0 to 1, the interpreters of the
+	 *         pool were busy since it was made
+	 */
+	public double getUtilisation() {
+		final double elapsed = (double) (System.nanoTime() - started) * getSize();
+		return elapsed <= 0 ? 0 : Math.min(1, busyNanos.get() / elapsed);
+	}
+
+	/**
+	 * @return the metrics of the pool in one line, for the log
+	 */
+	public String getStatistics() {
+		return "Python interpreters: " + getInterpreterCount() + "/" + getSize() + " open, "
+				+ getBusyCount() + " busy, " + getQueueLength() + " waiting, "
+				+ getTaskCount() + " tasks, wait mean " + Math.round(getMeanWait()) + " ms max "
+				+ Math.round(getMaxWait()) + " ms, utilisation "
+				+ Math.round(100 * getUtilisation()) + "%";
+	}
+}
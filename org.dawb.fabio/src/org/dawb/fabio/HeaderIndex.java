@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Headers of all the files of a directory, saved next to the files so that
+ * opening the directory again does not read every file. A file is known by
+ * its name, size and modification time; if either changed its row is not
+ * used.
+ * <p>
+ * The index is stored by column. Each key has a dictionary of the distinct
+ * values it takes and one int per file pointing in the dictionary, so the
+ * values of one key for all the files are read without building a map per
+ * file and each distinct value is converted to a double only once.
+ * <p>
+ * If the directory cannot be written, for instance beamline data, the
+ * index is kept in the .fable folder of the user's home instead.
+ */
+public class HeaderIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(HeaderIndex.class);
+
+	public static final String FILE_NAME = ".fable_headers.idx";
+
+	private static final int MAGIC   = 0x46484958; // FHIX
+	private static final int VERSION = 1;
+	private static final int MISSING = -1;
+
+	private final File indexFile;
+
+	private final List<String>          names;
+	private final Map<String, Integer>  rows;
+	private long[]                      sizes;
+	private long[]                      modified;
+	private final Map<String, Column>   columns;
+	private boolean                     dirty;
+
+	private HeaderIndex(final File indexFile) {
+		this.indexFile = indexFile;
+		this.names     = new ArrayList<String>();
+		this.rows      = new HashMap<String, Integer>();
+		this.sizes     = new long[64];
+		this.modified  = new long[64];
+		this.columns   = new LinkedHashMap<String, Column>();
+	}
+
+	/**
+	 * Read the index of the directory. A missing or unreadable index gives an
+	 * empty one which will be written on save().
+	 *
+	 * @param directory
+	 * @return the index, never null
+	 */
+	public static HeaderIndex open(final File directory) {
+		final HeaderIndex index = new HeaderIndex(getIndexFile(directory));
+		if (index.indexFile.exists()) {
+			try {
+				index.read();
+			} catch (IOException e) {
+				logger.warn("Cannot read header index " + index.indexFile + ", it will be rebuilt", e);
+				index.clear();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @param directory
+	 * @return the file the index of this directory is stored in
+	 */
+	public static File getIndexFile(final File directory) {
+		if (directory.canWrite()) return new File(directory, FILE_NAME);
+		final File home = new File(System.getProperty("user.home"), ".fable" + File.separator + "headerindex");
+		final String path = directory.getAbsolutePath();
+		return new File(home, directory.getName() + "-" + Integer.toHexString(path.hashCode()) + ".idx");
+	}
+
+	/**
+	 * The header of the file if it is in the index and the file did not
+	 * change since. A row found out of date is forgotten.
+	 *
+	 * @param file
+	 * @return the header in the order of the keys of the index, or null
+	 */
+	public synchronized LinkedHashMap<String, String> get(final File file) {
+		final Integer row = rows.get(file.getName());
+		if (row == null || sizes[row] == MISSING) return null;
+		if (sizes[row] != file.length() || modified[row] != file.lastModified()) {
+			sizes[row] = MISSING;
+			return null;
+		}
+		final LinkedHashMap<String, String> header = new LinkedHashMap<String, String>(columns.size());
+		for (Entry<String, Column> entry : columns.entrySet()) {
+			final String value = entry.getValue().get(row);
+			if (value != null) header.put(entry.getKey(), value);
+		}
+		return header;
+	}
+
+	/**
+	 * Add or replace the header of a file.
+	 *
+	 * @param file
+	 * @param header
+	 */
+	public synchronized void put(final File file, final Map<String, String> header) {
+		final String name = file.getName();
+		Integer row = rows.get(name);
+		if (row == null) {
+			row = names.size();
+			names.add(name);
+			rows.put(name, row);
+			if (row == sizes.length) {
+				sizes    = Arrays.copyOf(sizes,    2 * row);
+				modified = Arrays.copyOf(modified, 2 * row);
+			}
+		}
+		sizes[row]    = file.length();
+		modified[row] = file.lastModified();
+
+		for (Column column : columns.values()) column.set(row, null);
+		for (Entry<String, String> entry : header.entrySet()) {
+			Column column = columns.get(entry.getKey());
+			if (column == null) {
+				column = new Column(names.size());
+				columns.put(entry.getKey(), column);
+			}
+			column.set(row, entry.getValue());
+		}
+		dirty = true;
+	}
+
+	/**
+	 * The values of a key for the files, as numbers. Values which are not
+	 * numbers are NaN.
+	 *
+	 * @param key
+	 * @param files
+	 * @return the values in the order of the files, or null if one of the
+	 *         files is not in the index or the key is not known.
+	 */
+	public synchronized double[] getDoubles(final String key, final Collection<FabioFile> files) {
+		final Column column = columns.get(key);
+		if (column == null) return null;
+		final double[] numbers = column.getNumbers();
+		final double[] values  = new double[files.size()];
+		int i = 0;
+		for (FabioFile file : files) {
+			final int code = column.getCode(getValidRow(file));
+			if (code == MISSING) return null;
+			values[i++] = numbers[code];
+		}
+		return values;
+	}
+
+	/**
+	 * The values of a key for the files.
+	 *
+	 * @param key
+	 * @param files
+	 * @return the values in the order of the files, or null if one of the
+	 *         files is not in the index or the key is not known.
+	 */
+	public synchronized String[] getValues(final String key, final Collection<FabioFile> files) {
+		final Column column = columns.get(key);
+		if (column == null) return null;
+		final String[] values = new String[files.size()];
+		int i = 0;
+		for (FabioFile file : files) {
+			final int code = column.getCode(getValidRow(file));
+			if (code == MISSING) return null;
+			values[i++] = column.dictionary.get(code);
+		}
+		return values;
+	}
+
+	/**
+	 * The values of a key for the files which are in the index, so that only
+	 * the others need to be read.
+	 *
+	 * @param key
+	 * @param files
+	 * @param values
+	 *            set in the order of the files for the files found, null if
+	 *            the file does not have the key
+	 * @return for each file, true if it is in the index and did not change
+	 */
+	public synchronized boolean[] getValues(final String key, final List<FabioFile> files, final String[] values) {
+		final Column column = columns.get(key);
+		final boolean[] found = new boolean[files.size()];
+		for (int i = 0; i < found.length; i++) {
+			final int row = getValidRow(files.get(i));
+			if (row == MISSING) continue;
+			found[i]  = true;
+			values[i] = column == null ? null : column.get(row);
+		}
+		return found;
+	}
+
+	/**
+	 * @return the row of the file, or MISSING if it is not in the index or
+	 *         changed since, as get(File) does.
+	 */
+	private int getValidRow(final FabioFile fabioFile) {
+		final Integer row = rows.get(fabioFile.getFileName());
+		if (row == null || sizes[row] == MISSING) return MISSING;
+		final File file = new File(fabioFile.getFullFilename());
+		if (sizes[row] != file.length() || modified[row] != file.lastModified()) {
+			sizes[row] = MISSING;
+			return MISSING;
+		}
+		return row;
+	}
+
+	/**
+	 * @return true if the index changed since it was read or saved
+	 */
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * @return the number of files in the index
+	 */
+	public synchronized int size() {
+		return names.size();
+	}
+
+	private void clear() {
+		names.clear();
+		rows.clear();
+		columns.clear();
+		dirty = false;
+	}
+
+	/**
+	 * Write the index if it changed. The index is written to a temporary file
+	 * and renamed so that a reader never sees half an index.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) return;
+		final File parent = indexFile.getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		final File tmp = new File(parent, indexFile.getName() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			final int count = names.size();
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (String name : names) out.writeUTF(name);
+			for (int i = 0; i < count; i++) out.writeLong(sizes[i]);
+			for (int i = 0; i < count; i++) out.writeLong(modified[i]);
+
+			out.writeInt(columns.size());
+			for (Entry<String, Column> entry : columns.entrySet()) {
+				final Column column = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(column.dictionary.size());
+				for (String value : column.dictionary) out.writeUTF(value);
+				for (int i = 0; i < count; i++) out.writeInt(column.getCode(i));
+			}
+		} finally {
+			out.close();
+		}
+		if (indexFile.exists() && !indexFile.delete()) {
+			tmp.delete();
+			throw new IOException("Cannot replace " + indexFile);
+		}
+		if (!tmp.renameTo(indexFile)) {
+			throw new IOException("Cannot rename " + tmp + " to " + indexFile);
+		}
+		dirty = false;
+	}
+
+	private void read() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a header index or an older version");
+			}
+			final int count = in.readInt();
+			sizes    = new long[Math.max(64, count)];
+			modified = new long[sizes.length];
+			for (int i = 0; i < count; i++) {
+				final String name = in.readUTF();
+				names.add(name);
+				rows.put(name, i);
+			}
+			for (int i = 0; i < count; i++) sizes[i]    = in.readLong();
+			for (int i = 0; i < count; i++) modified[i] = in.readLong();
+
+			final int keys = in.readInt();
+			for (int k = 0; k < keys; k++) {
+				final String key = in.readUTF();
+				final Column column = new Column(count);
+				final int distinct = in.readInt();
+				for (int d = 0; d < distinct; d++) column.add(in.readUTF());
+				for (int i = 0; i < count; i++) column.codes[i] = in.readInt();
+				columns.put(key, column);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The values of one key, as codes in a dictionary of distinct values.
+	 */
+	private static class Column {
+
+		private final List<String>         dictionary = new ArrayList<String>();
+		private final Map<String, Integer> lookup     = new HashMap<String, Integer>();
+		private int[]                      codes;
+		private double[]                   numbers;
+
+		Column(final int rows) {
+			codes = new int[Math.max(64, rows)];
+			Arrays.fill(codes, MISSING);
+		}
+
+		int add(final String value) {
+			Integer code = lookup.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				lookup.put(value, code);
+				numbers = null;
+			}
+			return code;
+		}
+
+		void set(final int row, final String value) {
+			if (row >= codes.length) {
+				final int length = codes.length;
+				codes = Arrays.copyOf(codes, Math.max(2 * length, row + 1));
+				Arrays.fill(codes, length, codes.length, MISSING);
+			}
+			codes[row] = value == null ? MISSING : add(value);
+		}
+
+		int getCode(final int row) {
+			return row < 0 || row >= codes.length ? MISSING : codes[row];
+		}
+
+		String get(final int row) {
+			final int code = getCode(row);
+			return code == MISSING ? null : dictionary.get(code);
+		}
+
+		double[] getNumbers() {
+			if (numbers == null) {
+				numbers = new double[dictionary.size()];
+				for (int i = 0; i < numbers.length; i++) {
+					try {
+						numbers[i] = Double.parseDouble(dictionary.get(i).trim());
+					} catch (NumberFormatException ne) {
+						numbers[i] = Double.NaN;
+					}
+				}
+			}
+			return numbers;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Reads image headers in Java without the Python interpreter. Only the first
+ * few KB of the file are read. The keys and values are the same as the ones
+ * fabio returns for the formats understood:
+ * <ul>
+ * <li>EDF and ADSC, text header between '{' and '}'</li>
+ * <li>Bruker, 80 character "KEY:value" records in 512 byte blocks</li>
+ * <li>MAR CCD, binary frame_header after the first 1024 bytes of the tif,
+ * for files named .mccd as fabio only reads those as MAR CCD</li>
+ * </ul>
+ * Other formats return null so that fabio can be used instead.
+ */
+public class HeaderScanner {
+
+	private static final int BRUKER_BLOCK  = 512;
+	private static final int BRUKER_RECORD = 80;
+
+	private static final int MARCCD_OFFSET = 1024;
+	private static final int MARCCD_SIZE   = 3072;
+	private static final int MAXIMAGES     = 9;
+
+	/**
+	 * The MAR CCD frame_header as in fabio's marccdimage.py, one entry per
+	 * field: type (I=UINT32, i=INT32, H=UINT16, c=char), name and count.
+	 */
+	private static final String[] MARCCD_FIELDS = {
+		"I header_type", "c header_name 16", "I header_major_version", "I header_minor_version",
+		"I header_byte_order", "I data_byte_order", "I header_size", "I frame_type", "I magic_number",
+		"I compression_type", "I compression1", "I compression2", "I compression3", "I compression4",
+		"I compression5", "I compression6", "I nheaders", "I nfast", "I nslow", "I depth",
+		"I record_length", "I signif_bits", "I data_type", "I saturated_value", "I sequence",
+		"I nimages", "I origin", "I orientation", "I view_direction", "I overflow_location",
+		"I over_8_bits", "I over_16_bits", "I multiplexed", "I nfastimages", "I nslowimages",
+		"I background_applied", "I bias_applied", "I flatfield_applied", "I distortion_applied",
+		"I original_header_type", "I file_saved", "c reserve1 80",
+
+		"I total_counts 2", "I special_counts1 2", "I special_counts2 2", "I min", "I max", "I mean",
+		"I rms", "I p10", "I p90", "I stats_uptodate", "I pixel_noise " + MAXIMAGES,
+		"c reserve2 " + (32 - 13 - MAXIMAGES) * 4,
+
+		"H percentile 128",
+
+		"i xtal_to_detector", "i beam_x", "i beam_y", "i integration_time", "i exposure_time",
+		"i readout_time", "i nreads", "i start_twotheta", "i start_omega", "i start_chi",
+		"i start_kappa", "i start_phi", "i start_delta", "i start_gamma", "i start_xtal_to_detector",
+		"i end_twotheta", "i end_omega", "i end_chi", "i end_kappa", "i end_phi", "i end_delta",
+		"i end_gamma", "i end_xtal_to_detector", "i rotation_axis", "i rotation_range",
+		"i detector_rotx", "i detector_roty", "i detector_rotz", "c reserve3 16",
+
+		"i detector_type", "i pixelsize_x", "i pixelsize_y", "i mean_bias", "i photons_per_100adu",
+		"i measured_bias " + MAXIMAGES, "i measured_temperature " + MAXIMAGES,
+		"i measured_pressure " + MAXIMAGES,
+
+		"i source_type", "i source_dx", "i source_dy", "i source_wavelength", "i source_power",
+		"i source_voltage", "i source_current", "i source_bias", "i source_polarization_x",
+		"i source_polarization_y", "c reserve_source 16",
+		"i optics_type", "i optics_dx", "i optics_dy", "i optics_wavelength", "i optics_dispersion",
+		"i optics_crossfire_x", "i optics_crossfire_y", "i optics_angle", "i optics_polarization_x",
+		"i optics_polarization_y", "c reserve_optics 16", "c reserve5 16",
+
+		"c filetitle 128", "c filepath 128", "c filename 64", "c acquire_timestamp 32",
+		"c header_timestamp 32", "c save_timestamp 32", "c file_comments 512", "c reserve6 32",
+
+		"c dataset_comments 512", "c pad 512"
+	};
+
+	/**
+	 * Read the header of the file.
+	 *
+	 * @param file
+	 * @return the keys and values in the order of the file, or null if the
+	 *         format is not one this scanner understands.
+	 * @throws IOException
+	 */
+	public static LinkedHashMap<String, String> scan(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final ByteBuffer  start   = ByteBuffer.allocate(MARCCD_OFFSET + MARCCD_SIZE);
+			readFully(channel, start);
+
+			if (isEdf(start)) {
+				return EdfHeader.read(channel).getHeader();
+			}
+			if (startsWith(start, "FORMAT :")) {
+				return scanBruker(channel, start);
+			}
+			if (isMarCCD(file, start)) {
+				return scanMarCCD(start);
+			}
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fill the buffer from the channel or up to the end of the file, then
+	 * flip it ready to be read.
+	 */
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) break;
+		}
+		buffer.flip();
+	}
+
+	private static boolean isEdf(final ByteBuffer start) {
+		for (int i = 0; i < start.limit() && i < 2; i++) {
+			final byte b = start.get(i);
+			if (b == '{') return true;
+			if (b != '\r' && b != '\n') return false;
+		}
+		return false;
+	}
+
+	/**
+	 * A little endian tif named .mccd, as fabio's openimage requires, whose
+	 * header_byte_order is one of the two MAR CCD values. Other tif files
+	 * are left to fabio.
+	 */
+	private static boolean isMarCCD(final File file, final ByteBuffer start) {
+		if (!file.getName().toLowerCase(Locale.ENGLISH).endsWith(".mccd")) return false;
+		if (start.limit() < MARCCD_OFFSET + MARCCD_SIZE
+		    || start.get(0) != 0x49 || start.get(1) != 0x49 || start.get(2) != 0x2a
+		    || start.get(3) != 0x00 || start.get(4) != 0x08 || start.get(5) != 0x00) {
+			return false;
+		}
+		final ByteBuffer buffer = start.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final int order = buffer.getInt(MARCCD_OFFSET + 28), swapped = Integer.reverseBytes(order);
+		return order == 1234 || order == 4321 || swapped == 1234 || swapped == 4321;
+	}
+
+	private static boolean startsWith(final ByteBuffer buffer, final String magic) {
+		if (buffer.limit() < magic.length()) return false;
+		for (int i = 0; i < magic.length(); i++) {
+			if (buffer.get(i) != magic.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Bruker headers are HDRBLKS blocks of 512 bytes of 80 character
+	 * records. Repeated keys have their values joined with a new line.
+	 */
+	private static LinkedHashMap<String, String> scanBruker(final FileChannel channel, final ByteBuffer start) throws IOException {
+
+		final LinkedHashMap<String, String> header = new LinkedHashMap<String, String>(128);
+		int length = Math.min(start.limit(), 5 * BRUKER_BLOCK);
+		parseBrukerRecords(start, 0, length, header);
+
+		int blocks = 5;
+		try {
+			final String hdrblks = header.get("HDRBLKS");
+			if (hdrblks != null) blocks = Integer.parseInt(hdrblks.trim());
+		} catch (NumberFormatException ne) {
+			blocks = 5;
+		}
+		final int total = blocks * BRUKER_BLOCK;
+		if (total > length) {
+			final ByteBuffer rest = ByteBuffer.allocate(total);
+			channel.position(0);
+			readFully(channel, rest);
+			parseBrukerRecords(rest, length - length % BRUKER_RECORD, rest.limit(), header);
+		}
+		return header;
+	}
+
+	private static void parseBrukerRecords(final ByteBuffer buffer, final int from, final int to,
+			                               final LinkedHashMap<String, String> header) {
+		final StringBuilder record = new StringBuilder(BRUKER_RECORD);
+		for (int pos = from; pos + BRUKER_RECORD <= to; pos += BRUKER_RECORD) {
+			record.setLength(0);
+			for (int i = 0; i < BRUKER_RECORD; i++) {
+				record.append((char) (buffer.get(pos + i) & 0xFF));
+			}
+			final int colon = record.indexOf(":");
+			if (colon <= 0) continue;
+			final String key = record.substring(0, colon).trim();
+			final String val = record.substring(colon + 1).trim();
+			final String previous = header.get(key);
+			header.put(key, previous != null ? previous + '\n' + val : val);
+		}
+	}
+
+	/**
+	 * MAR CCD headers are a binary structure written in the byte order of the
+	 * machine: header_byte_order, 1234 or 4321, only reads as one of them in
+	 * the order it was written in.
+	 */
+	private static LinkedHashMap<String, String> scanMarCCD(final ByteBuffer start) {
+
+		final ByteBuffer buffer = start.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		final int order = buffer.getInt(MARCCD_OFFSET + 28);
+		if (order != 1234 && order != 4321) buffer.order(ByteOrder.BIG_ENDIAN);
+		buffer.position(MARCCD_OFFSET);
+
+		final LinkedHashMap<String, String> header = new LinkedHashMap<String, String>(MARCCD_FIELDS.length);
+		final StringBuilder value = new StringBuilder();
+		for (String field : MARCCD_FIELDS) {
+			final String[] def   = field.split(" ");
+			final char     type  = def[0].charAt(0);
+			final String   name  = def[1];
+			final int      count = def.length > 2 ? Integer.parseInt(def[2]) : 1;
+
+			value.setLength(0);
+			if (type == 'c') {
+				for (int i = 0; i < count; i++) {
+					final char c = (char) (buffer.get() & 0xFF);
+					if (c != 0) value.append(c);
+				}
+				header.put(name, value.toString().trim());
+				continue;
+			}
+			if (count > 1) value.append('[');
+			for (int i = 0; i < count; i++) {
+				if (i > 0) value.append(", ");
+				switch (type) {
+				case 'I':
+					value.append(buffer.getInt() & 0xFFFFFFFFL);
+					break;
+				case 'i':
+					value.append(buffer.getInt());
+					break;
+				case 'H':
+					value.append(buffer.getShort() & 0xFFFF);
+					break;
+				}
+			}
+			if (count > 1) value.append(']');
+			header.put(name, value.toString());
+		}
+		return header;
+	}
+}
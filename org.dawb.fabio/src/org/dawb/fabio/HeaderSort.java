@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders fabio files on the value of a header key.
+ * <p>
+ * The values are taken from the header index of the directory when it is
+ * given, the headers of the other files not read yet are read first, in
+ * parallel, so that no header is read while sorting. The value of each file
+ * is taken once and parsed to one type for all the files: a number if every
+ * value is one, a time in ms if every value is a date as written by the
+ * detectors, otherwise the text compared in natural order, numbers in it by
+ * value, so that image9 comes before image10. Each value becomes its rank among the sorted
+ * distinct values and the files are sorted as longs made of the rank and
+ * the position, so equal values keep their order. A descending order sorts
+ * on the ranks counted from the largest value, so that there too equal values
+ * keep their order and files without the key come last.
+ */
+public class HeaderSort {
+
+	private static final Logger logger = LoggerFactory.getLogger(HeaderSort.class);
+
+	/**
+	 * Format of the dates in the headers, also used by Sample for plots.
+	 */
+	public static final String DATE_FORMAT = "EEE MMM dd HH:mm:ss yyyy";
+
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat(DATE_FORMAT, Locale.UK);
+		}
+	};
+
+	/**
+	 * Compares text in natural order, then as String.compareTo(...) does so
+	 * that only equal strings compare as equal.
+	 */
+	public static final Comparator<String> NATURAL_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(final String a, final String b) {
+			final int result = compareNatural(a, b);
+			return result != 0 ? result : a.compareTo(b);
+		}
+	};
+
+	/**
+	 * @param files
+	 * @param key
+	 *            the header key, the files are left in their order if null
+	 * @param ascending
+	 * @return the positions of the files in sorted order
+	 */
+	public static int[] argsort(final List<FabioFile> files, final String key, final boolean ascending) {
+		return argsort(files, key, ascending, null);
+	}
+
+	/**
+	 * @param files
+	 * @param key
+	 *            the header key, the files are left in their order if null
+	 * @param ascending
+	 * @param index
+	 *            the header index of the directory of the files, may be null,
+	 *            only the files it does not have are read
+	 * @return the positions of the files in sorted order
+	 */
+	public static int[] argsort(final List<FabioFile> files, final String key, final boolean ascending,
+			final HeaderIndex index) {
+		final int n = files.size();
+		final String[] values = new String[n];
+		if (key != null) {
+			final boolean[] found = index == null ? new boolean[n] : index.getValues(key, files, values);
+			final List<FabioFile> missing = new ArrayList<FabioFile>();
+			for (int i = 0; i < n; i++) {
+				if (!found[i]) missing.add(files.get(i));
+			}
+			loadHeaders(missing);
+			for (int i = 0; i < n; i++) {
+				if (!found[i]) values[i] = files.get(i).getHeaderValue(key);
+			}
+		}
+
+		final int[] ranks = rank(values);
+		final long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			// Missing values have the rank n in both orders
+			final int rank = ascending || ranks[i] == n ? ranks[i] : n - 1 - ranks[i];
+			keys[i] = ((long) rank << 32) | i;
+		}
+		Arrays.sort(keys);
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Compare two header values as the sort does: as numbers if both are,
+	 * otherwise in natural order.
+	 */
+	public static int compare(final String a, final String b) {
+		final double x = parseDouble(a), y = parseDouble(b);
+		if (!Double.isNaN(x) && !Double.isNaN(y)) {
+			return Double.compare(x, y);
+		}
+		return NATURAL_ORDER.compare(a, b);
+	}
+
+	/**
+	 * @return the rank of each value among the sorted values, below the
+	 *         number of values, equal values having the same rank and missing
+	 *         values the rank n.
+	 */
+	static int[] rank(final String[] values) {
+		final int n = values.length;
+		final int[] ranks = new int[n];
+
+		final double[] numbers = parseNumbers(values);
+		if (numbers != null) {
+			final double[] sorted = numbers.clone();
+			Arrays.sort(sorted);
+			// The same value always finds the same place
+			for (int i = 0; i < n; i++) {
+				ranks[i] = Double.isNaN(numbers[i]) ? n : Arrays.binarySearch(sorted, numbers[i]);
+			}
+			return ranks;
+		}
+
+		final List<String> present = new ArrayList<String>(n);
+		for (String value : values) {
+			if (value != null) present.add(value);
+		}
+		final String[] sorted = present.toArray(new String[present.size()]);
+		Arrays.sort(sorted, NATURAL_ORDER);
+		for (int i = 0; i < n; i++) {
+			ranks[i] = values[i] == null ? n : Arrays.binarySearch(sorted, values[i], NATURAL_ORDER);
+		}
+		return ranks;
+	}
+
+	/**
+	 * @return the values as numbers or as times in ms, missing values being
+	 *         NaN, or null if they are neither.
+	 */
+	private static double[] parseNumbers(final String[] values) {
+		final double[] numbers = new double[values.length];
+		boolean all = true;
+		for (int i = 0; i < values.length && all; i++) {
+			numbers[i] = values[i] == null ? Double.NaN : parseDouble(values[i]);
+			all = values[i] == null || !Double.isNaN(numbers[i]);
+		}
+		if (all) return numbers;
+
+		for (int i = 0; i < values.length; i++) {
+			numbers[i] = parseDate(values[i]);
+			if (values[i] != null && Double.isNaN(numbers[i])) return null;
+		}
+		return numbers;
+	}
+
+	/**
+	 * Parse a date of a header, from any thread.
+	 * 
+	 * @param value
+	 * @return the time in ms, or NaN if the value is not a date in
+	 *         DATE_FORMAT
+	 */
+	public static double parseDate(final String value) {
+		if (value == null) return Double.NaN;
+		try {
+			return dateFormat.get().parse(value.trim()).getTime();
+		} catch (ParseException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return the value or NaN if it is not a number
+	 */
+	private static double parseDouble(final String value) {
+		if (value == null) return Double.NaN;
+		final String trimmed = value.trim();
+		if (trimmed.length() == 0) return Double.NaN;
+		final char first = trimmed.charAt(0);
+		// Avoid the exception for the common case of text
+		if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(trimmed);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Compare text with the runs of digits compared by value.
+	 */
+	private static int compareNatural(final String a, final String b) {
+		int i = 0, j = 0;
+		final int la = a.length(), lb = b.length();
+		while (i < la && j < lb) {
+			final char ca = a.charAt(i), cb = b.charAt(j);
+			if (Character.isDigit(ca) && Character.isDigit(cb)) {
+				// Skip leading zeros, then the longer run is the larger
+				int si = i, sj = j;
+				while (si < la && a.charAt(si) == '0') si++;
+				while (sj < lb && b.charAt(sj) == '0') sj++;
+				int ei = si, ej = sj;
+				while (ei < la && Character.isDigit(a.charAt(ei))) ei++;
+				while (ej < lb && Character.isDigit(b.charAt(ej))) ej++;
+				if (ei - si != ej - sj) return (ei - si) - (ej - sj);
+				for (int k = 0; k < ei - si; k++) {
+					final int d = a.charAt(si + k) - b.charAt(sj + k);
+					if (d != 0) return d;
+				}
+				i = ei;
+				j = ej;
+			} else {
+				if (ca != cb) return ca - cb;
+				i++;
+				j++;
+			}
+		}
+		return (la - i) - (lb - j);
+	}
+
+	/**
+	 * Read the headers not read yet: in Java by a pool of threads, the ones
+	 * needing fabio by as many threads as there are python interpreters.
+	 */
+	private static void loadHeaders(final List<FabioFile> files) {
+		final List<FabioFile> unread = new ArrayList<FabioFile>();
+		for (FabioFile file : files) {
+			if (!file.headerRead) unread.add(file);
+		}
+		if (unread.isEmpty()) return;
+		if (FabioFile.loadHeaders(unread, null) == 0) return;
+
+		final List<FabioFile> fabio = new ArrayList<FabioFile>();
+		for (FabioFile file : unread) {
+			if (!file.headerRead) fabio.add(file);
+		}
+		final int threads = Math.min(fabio.size(), FableJepPool.getDefault().getSize());
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>(fabio.size());
+			for (final FabioFile file : fabio) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							file.loadHeader();
+						} catch (FabioFileException e) {
+							logger.debug("Cannot read header of " + file.getFullFilename(), e);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.debug("Cannot read header", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A cache of decoded frames shared by all FabioFiles. Implementations must be
+ * thread safe, the cache is used from the UI thread and from Jobs at the same
+ * time. Use ImageCache.setDefault(...) to plug in another implementation.
+ */
+public interface IImageCache {
+
+	/**
+	 * Return the frame for the key, calling the loader if it is not in the
+	 * cache. If several threads ask for the same key at the same time, the
+	 * loader is called once and the other threads wait for its result. The
+	 * loader runs in the calling thread.
+	 *
+	 * @param key
+	 * @param loader
+	 * @return the frame, never null
+	 * @throws Exception if the loader failed
+	 */
+	public CachedImage get(final ImageCacheKey key, final Callable<CachedImage> loader) throws Exception;
+
+	/**
+	 * @param key
+	 * @return the frame or null if it is not in the cache
+	 */
+	public CachedImage getIfPresent(final ImageCacheKey key);
+
+	/**
+	 * Add a frame to the cache, evicting other frames if needed.
+	 *
+	 * @param key
+	 * @param image
+	 */
+	public void put(final ImageCacheKey key, final CachedImage image);
+
+	/**
+	 * Remove one frame from the cache.
+	 *
+	 * @param key
+	 */
+	public void invalidate(final ImageCacheKey key);
+
+	/**
+	 * Remove all frames from the cache.
+	 */
+	public void clear();
+
+	/**
+	 * @return the maximum number of bytes of pixel data held
+	 */
+	public long getMaxBytes();
+
+	/**
+	 * Change the budget, evicting frames straight away if needed.
+	 *
+	 * @param maxBytes
+	 */
+	public void setMaxBytes(final long maxBytes);
+
+	/**
+	 * @return the number of bytes currently held
+	 */
+	public long getSizeInBytes();
+
+	public long getHitCount();
+
+	public long getMissCount();
+
+	public long getEvictionCount();
+}
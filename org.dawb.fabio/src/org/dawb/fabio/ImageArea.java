@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+/**
+ * A rectangle of pixels out of a frame, stored as a float[index] with
+ * index = col + row * width like the full frames. The size of the frame it
+ * was taken from is kept so that frames of different sizes can be told
+ * apart without reading them completely.
+ */
+public class ImageArea {
+
+	private final float[] data;
+	private final int     x, y, width, height;
+	private final int     frameWidth, frameHeight;
+	private final long    loadTime;
+
+	public ImageArea(final float[] data,
+			         final int x, final int y, final int width, final int height,
+			         final int frameWidth, final int frameHeight,
+			         final long loadTime) {
+		this.data        = data;
+		this.x           = x;
+		this.y           = y;
+		this.width       = width;
+		this.height      = height;
+		this.frameWidth  = frameWidth;
+		this.frameHeight = frameHeight;
+		this.loadTime    = loadTime;
+	}
+
+	/**
+	 * Copy an area out of a frame which is already in memory. The area is
+	 * clipped to the frame.
+	 *
+	 * @param frame
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return the area
+	 */
+	public static ImageArea copyOf(final CachedImage frame, final int x, final int y, final int width, final int height) {
+		return copyOf(frame.getData(), frame.getWidth(), frame.getHeight(), x, y, width, height, 0);
+	}
+
+	/**
+	 * Copy an area out of an image. The area is clipped to the image.
+	 *
+	 * @param image
+	 * @param imageWidth
+	 * @param imageHeight
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @param loadTime
+	 *            time it took to read the image
+	 * @return the area
+	 */
+	public static ImageArea copyOf(final float[] image, final int imageWidth, final int imageHeight,
+			                       final int x, final int y, final int width, final int height,
+			                       final long loadTime) {
+		final int x1 = Math.max(0, x), y1 = Math.max(0, y);
+		final int x2 = Math.min(imageWidth,  x + width);
+		final int y2 = Math.min(imageHeight, y + height);
+		final int w  = Math.max(0, x2 - x1), h = Math.max(0, y2 - y1);
+
+		final float[] data = new float[w * h];
+		for (int row = 0; row < h; row++) {
+			System.arraycopy(image, (y1 + row) * imageWidth + x1, data, row * w, w);
+		}
+		return new ImageArea(data, x1, y1, w, h, imageWidth, imageHeight, loadTime);
+	}
+
+	public float[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return column of the first pixel of the area in the frame
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @return row of the first pixel of the area in the frame
+	 */
+	public int getY() {
+		return y;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFrameWidth() {
+		return frameWidth;
+	}
+
+	public int getFrameHeight() {
+		return frameHeight;
+	}
+
+	/**
+	 * @return value of the pixel at col, row in frame coordinates
+	 */
+	public float get(final int col, final int row) {
+		return data[(row - y) * width + col - x];
+	}
+
+	/**
+	 * @return time in ms it took to read the area
+	 */
+	public long getLoadTime() {
+		return loadTime;
+	}
+}
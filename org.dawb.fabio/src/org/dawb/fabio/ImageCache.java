@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least recently used cache of decoded frames bounded by the number of bytes
+ * of pixel data it holds. Frames which are being loaded are registered so
+ * that two threads asking for the same frame only read the file once.
+ */
+public class ImageCache implements IImageCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageCache.class);
+
+	/**
+	 * Size of a 2048x2048 float frame, used to convert a number of images
+	 * into a budget in bytes.
+	 */
+	public static final long NOMINAL_IMAGE_BYTES = 2048L * 2048L * 4L;
+
+	private static IImageCache defaultCache;
+
+	/**
+	 * @return the cache used by FabioFile, created with a budget of 10 nominal
+	 *         images if nobody configured one.
+	 */
+	public static synchronized IImageCache getDefault() {
+		if (defaultCache == null) {
+			defaultCache = new ImageCache(getBudget(10));
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Replace the cache used by FabioFile.
+	 *
+	 * @param cache
+	 */
+	public static synchronized void setDefault(final IImageCache cache) {
+		if (defaultCache != null && defaultCache != cache) defaultCache.clear();
+		defaultCache = cache;
+	}
+
+	/**
+	 * Convert a number of images into a budget in bytes. The budget is
+	 * limited to a quarter of the maximum heap so that a large preference
+	 * cannot exhaust the memory on a small machine.
+	 *
+	 * @param imagesCached
+	 * @return budget in bytes
+	 */
+	public static long getBudget(final int imagesCached) {
+		final long requested = Math.max(0, imagesCached) * NOMINAL_IMAGE_BYTES;
+		final long heapLimit = Runtime.getRuntime().maxMemory() / 4;
+		return Math.min(requested, heapLimit);
+	}
+
+	/**
+	 * Access ordered so that iteration starts with the least recently used
+	 * frame. Guarded by this.
+	 */
+	private final LinkedHashMap<ImageCacheKey, CachedImage> images;
+	private final ConcurrentHashMap<ImageCacheKey, FutureTask<CachedImage>> loading;
+
+	private long maxBytes;
+	private long sizeInBytes;
+
+	private final AtomicLong hits      = new AtomicLong();
+	private final AtomicLong misses    = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ImageCache(final long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.images   = new LinkedHashMap<ImageCacheKey, CachedImage>(16, 0.75f, true);
+		this.loading  = new ConcurrentHashMap<ImageCacheKey, FutureTask<CachedImage>>(16);
+	}
+
+	@Override
+	public CachedImage get(final ImageCacheKey key, final Callable<CachedImage> loader) throws Exception {
+
+		CachedImage image = getIfPresent(key);
+		if (image != null) return image;
+
+		final FutureTask<CachedImage> task     = new FutureTask<CachedImage>(loader);
+		final FutureTask<CachedImage> existing = loading.putIfAbsent(key, task);
+		if (existing != null) {
+			// Another thread is reading this frame, share its result.
+			hits.incrementAndGet();
+			return waitFor(existing);
+		}
+
+		try {
+			// The frame may have been added between the lookup and the registration.
+			synchronized (this) {
+				image = images.get(key);
+			}
+			if (image != null) {
+				hits.incrementAndGet();
+				return image;
+			}
+			misses.incrementAndGet();
+			task.run();
+			image = waitFor(task);
+			put(key, image);
+			return image;
+		} finally {
+			loading.remove(key, task);
+		}
+	}
+
+	private static CachedImage waitFor(final FutureTask<CachedImage> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	@Override
+	public CachedImage getIfPresent(final ImageCacheKey key) {
+		final CachedImage image;
+		synchronized (this) {
+			image = images.get(key);
+		}
+		if (image != null) hits.incrementAndGet();
+		return image;
+	}
+
+	@Override
+	public synchronized void put(final ImageCacheKey key, final CachedImage image) {
+		if (image == null) return;
+		final long size = image.getSizeInBytes();
+		if (size > maxBytes) {
+			logger.debug("Frame " + key + " is larger than the image cache, not cached");
+			return;
+		}
+		final CachedImage previous = images.put(key, image);
+		if (previous != null) sizeInBytes -= previous.getSizeInBytes();
+		sizeInBytes += size;
+		evict();
+	}
+
+	/**
+	 * Remove least recently used frames until the cache is within budget.
+	 * Must be called holding the lock.
+	 */
+	private void evict() {
+		final Iterator<Map.Entry<ImageCacheKey, CachedImage>> it = images.entrySet().iterator();
+		while (sizeInBytes > maxBytes && it.hasNext()) {
+			final CachedImage eldest = it.next().getValue();
+			it.remove();
+			sizeInBytes -= eldest.getSizeInBytes();
+			evictions.incrementAndGet();
+		}
+	}
+
+	@Override
+	public synchronized void invalidate(final ImageCacheKey key) {
+		final CachedImage previous = images.remove(key);
+		if (previous != null) sizeInBytes -= previous.getSizeInBytes();
+	}
+
+	@Override
+	public synchronized void clear() {
+		images.clear();
+		sizeInBytes = 0;
+	}
+
+	@Override
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	@Override
+	public synchronized void setMaxBytes(final long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	@Override
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public synchronized int size() {
+		return images.size();
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ImageCache [images=" + size() + ", bytes=" + getSizeInBytes() + "/" + getMaxBytes()
+				+ ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + "]";
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Key used by the image cache. A frame is identified by the canonical path of
+ * its file and the last modification time, so that a file which is rewritten
+ * on disk (e.g. during a live acquisition) is not served from the cache.
+ */
+public final class ImageCacheKey {
+
+	private final String path;
+	private final long   lastModified;
+	private final int    hash;
+
+	public ImageCacheKey(final String path, final long lastModified) {
+		this.path         = path;
+		this.lastModified = lastModified;
+		this.hash         = 31 * path.hashCode() + (int) (lastModified ^ (lastModified >>> 32));
+	}
+
+	/**
+	 * Create a key from a file on disk, resolving the canonical path if
+	 * possible.
+	 *
+	 * @param file
+	 * @return the key for the current version of the file
+	 */
+	public static ImageCacheKey forFile(final File file) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		return new ImageCacheKey(path, file.lastModified());
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof ImageCacheKey)) return false;
+		final ImageCacheKey other = (ImageCacheKey) obj;
+		return lastModified == other.lastModified && path.equals(other.path);
+	}
+
+	@Override
+	public String toString() {
+		return path + "@" + lastModified;
+	}
+}
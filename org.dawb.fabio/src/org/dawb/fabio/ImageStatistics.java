@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Minimum, maximum, mean, standard deviation and histogram of an image or of
+ * a rectangle of it, made in two passes over the pixels: the first for the
+ * range and the mean, the second for the histogram and the deviations from
+ * the mean. Sums are kept in doubles so the mean of large frames does not
+ * lose precision. Large images are split in bands of rows done in parallel.
+ * <p>
+ * NaN pixels are not counted. The histogram has BINS bins of equal width
+ * between the minimum and the maximum and gives percentiles, used to choose
+ * the display range without being fooled by a few hot pixels. The lowest and
+ * highest value in each bin are kept, so a percentile is still close when a
+ * single hot pixel squeezes all the others in the first bins.
+ */
+public class ImageStatistics {
+
+	public static final int BINS = 4096;
+
+	/**
+	 * Images smaller than this are done in the calling thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 256 * 256;
+
+	private static ExecutorService executor;
+
+	private final float  minimum, maximum;
+	private final double mean, deviation;
+	private final long   count;
+	private final int[]  histogram;
+	private final float[] binMinimum, binMaximum;
+
+	private ImageStatistics(final float minimum, final float maximum,
+			                final double mean, final double deviation,
+			                final long count, final int[] histogram,
+			                final float[] binMinimum, final float[] binMaximum) {
+		this.minimum    = minimum;
+		this.maximum    = maximum;
+		this.mean       = mean;
+		this.deviation  = deviation;
+		this.count      = count;
+		this.histogram  = histogram;
+		this.binMinimum = binMinimum;
+		this.binMaximum = binMaximum;
+	}
+
+	/**
+	 * @param data
+	 *            image, index = col + row * width
+	 * @param width
+	 * @param height
+	 * @return the statistics of the whole image
+	 * @throws OperationCanceledException
+	 *             if the thread is interrupted while the bands are done
+	 */
+	public static ImageStatistics compute(final float[] data, final int width, final int height) {
+		return compute(data, width, 0, 0, width, height);
+	}
+
+	/**
+	 * @param data
+	 *            image, index = col + row * width
+	 * @param width
+	 *            width of the image
+	 * @param x
+	 *            first column of the rectangle
+	 * @param y
+	 *            first row of the rectangle
+	 * @param w
+	 *            width of the rectangle
+	 * @param h
+	 *            height of the rectangle
+	 * @return the statistics of the rectangle
+	 * @throws OperationCanceledException
+	 *             if the thread is interrupted while the bands are done
+	 */
+	public static ImageStatistics compute(final float[] data, final int width,
+			                              final int x, final int y, final int w, final int h) {
+
+		final List<Band> bands = createBands(data, width, x, y, w, h);
+		run(bands, false);
+
+		float  min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		double sum = 0;
+		long   count = 0;
+		for (Band band : bands) {
+			min    = Math.min(min, band.min);
+			max    = Math.max(max, band.max);
+			sum   += band.sum;
+			count += band.count;
+		}
+		if (count == 0) {
+			return new ImageStatistics(Float.MAX_VALUE, -Float.MAX_VALUE, Double.NaN, Double.NaN, 0,
+					                   new int[BINS], new float[BINS], new float[BINS]);
+		}
+		final double mean = sum / count;
+		for (Band band : bands) {
+			band.min  = min;
+			band.max  = max;
+			band.mean = mean;
+		}
+		run(bands, true);
+
+		final int[]   histogram  = new int[BINS];
+		final float[] binMinimum = new float[BINS];
+		final float[] binMaximum = new float[BINS];
+		Arrays.fill(binMinimum, Float.MAX_VALUE);
+		Arrays.fill(binMaximum, -Float.MAX_VALUE);
+		double squares = 0;
+		for (Band band : bands) {
+			squares += band.squares;
+			for (int i = 0; i < BINS; i++) {
+				histogram[i] += band.histogram[i];
+				binMinimum[i] = Math.min(binMinimum[i], band.binMinimum[i]);
+				binMaximum[i] = Math.max(binMaximum[i], band.binMaximum[i]);
+			}
+		}
+		return new ImageStatistics(min, max, mean, Math.sqrt(squares / count), count,
+				                   histogram, binMinimum, binMaximum);
+	}
+
+	public float getMinimum() {
+		return minimum;
+	}
+
+	public float getMaximum() {
+		return maximum;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the standard deviation of the pixels
+	 */
+	public double getStandardDeviation() {
+		return deviation;
+	}
+
+	/**
+	 * @return the number of pixels which are not NaN
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return a copy of the histogram, BINS bins from minimum to maximum
+	 */
+	public int[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * @return {min, max, mean} as the image viewer uses them
+	 */
+	public float[] toArray() {
+		return new float[] { minimum, maximum, (float) mean };
+	}
+
+	/**
+	 * The value below which a fraction of the pixels lie, interpolated between
+	 * the lowest and highest value of the bin of the histogram it falls in.
+	 *
+	 * @param fraction
+	 *            between 0 and 1
+	 * @return the value, the minimum for 0 and the maximum for 1
+	 */
+	public float getPercentile(final double fraction) {
+		if (count == 0) return Float.NaN;
+		if (fraction <= 0) return minimum;
+		if (fraction >= 1) return maximum;
+		final double target = fraction * count;
+		long below = 0;
+		for (int i = 0; i < BINS; i++) {
+			if (histogram[i] > 0 && below + histogram[i] >= target) {
+				final double inBin = (target - below) / histogram[i];
+				return (float) (binMinimum[i] + inBin * ((double) binMaximum[i] - binMinimum[i]));
+			}
+			below += histogram[i];
+		}
+		return maximum;
+	}
+
+	private static List<Band> createBands(final float[] data, final int width,
+			                              final int x, final int y, final int w, final int h) {
+		final List<Band> bands = new ArrayList<Band>();
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		if ((long) w * h < PARALLEL_THRESHOLD || cpus < 2) {
+			bands.add(new Band(data, width, x, y, w, h));
+			return bands;
+		}
+		final int rows = (h + 2 * cpus - 1) / (2 * cpus);
+		for (int first = 0; first < h; first += rows) {
+			bands.add(new Band(data, width, x, y + first, w, Math.min(rows, h - first)));
+		}
+		return bands;
+	}
+
+	private static void run(final List<Band> bands, final boolean second) {
+		if (bands.size() == 1) {
+			bands.get(0).run(second);
+			return;
+		}
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(bands.size());
+		for (final Band band : bands) {
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					band.run(second);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			// The results of the tasks are not complete
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Image statistics " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Rows of the rectangle done by one thread, keeps its partial sums.
+	 */
+	private static class Band {
+
+		private final float[] data;
+		private final int     width, x, y, w, h;
+
+		private float  min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		private double sum, mean, squares;
+		private long   count;
+		private int[]  histogram;
+		private float[] binMinimum, binMaximum;
+
+		Band(final float[] data, final int width, final int x, final int y, final int w, final int h) {
+			this.data  = data;
+			this.width = width;
+			this.x     = x;
+			this.y     = y;
+			this.w     = w;
+			this.h     = h;
+		}
+
+		void run(final boolean second) {
+			if (second) {
+				histogram();
+			} else {
+				range();
+			}
+		}
+
+		private void range() {
+			float  min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			double sum = 0;
+			long   count = 0;
+			for (int j = 0; j < h; j++) {
+				final int offset = x + (y + j) * width;
+				for (int i = offset; i < offset + w; i++) {
+					final float val = data[i];
+					if (val != val) continue; // NaN
+					if (val < min) min = val;
+					if (val > max) max = val;
+					sum += val;
+					count++;
+				}
+			}
+			this.min   = min;
+			this.max   = max;
+			this.sum   = sum;
+			this.count = count;
+		}
+
+		private void histogram() {
+			final int[]   histogram  = new int[BINS];
+			final float[] binMinimum = new float[BINS];
+			final float[] binMaximum = new float[BINS];
+			Arrays.fill(binMinimum, Float.MAX_VALUE);
+			Arrays.fill(binMaximum, -Float.MAX_VALUE);
+			final double scale = max > min ? BINS / ((double) max - min) : 0;
+			double squares = 0;
+			for (int j = 0; j < h; j++) {
+				final int offset = x + (y + j) * width;
+				for (int i = offset; i < offset + w; i++) {
+					final float val = data[i];
+					if (val != val) continue; // NaN
+					final double diff = val - mean;
+					squares += diff * diff;
+					int bin = (int) ((val - min) * scale);
+					if (bin >= BINS) bin = BINS - 1;
+					histogram[bin]++;
+					if (val < binMinimum[bin]) binMinimum[bin] = val;
+					if (val > binMaximum[bin]) binMaximum[bin] = val;
+				}
+			}
+			this.histogram  = histogram;
+			this.binMinimum = binMinimum;
+			this.binMaximum = binMaximum;
+			this.squares    = squares;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.fabio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import jep.Jep;
+import jep.JepException;
+
+/**
+ * A numpy array read from the interpreter with its own type.
+ * <p>
+ * The bytes of the array come to Java in one copy, from the numpy buffer to
+ * a byte[], with no astype() to float32 before: a uint16 image crosses as
+ * two bytes per pixel. The typed buffers returned are views of these bytes
+ * in the byte order of the array, so pixels are read without another copy;
+ * toFloatArray() converts for the callers which need floats.
+ */
+public class NumpyArray {
+
+	/**
+	 * Name of the python variable holding the array being read.
+	 */
+	private static final String VARIABLE = "_fable_array";
+
+	private final ByteBuffer buffer;
+	private final char       kind;
+	private final int        itemSize;
+	private final int[]      shape;
+
+	/**
+	 * @param bytes
+	 *            the data, not copied
+	 * @param dtype
+	 *            the numpy type string, e.g. "&lt;u2", "&lt;f4" or "|u1"
+	 * @param shape
+	 */
+	public NumpyArray(final byte[] bytes, final String dtype, final int[] shape) {
+		if (dtype == null || dtype.length() < 3) {
+			throw new IllegalArgumentException("Bad numpy type " + dtype);
+		}
+		this.kind     = dtype.charAt(1);
+		this.itemSize = Integer.parseInt(dtype.substring(2));
+		this.shape    = shape.clone();
+		final ByteOrder order = dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN
+				: dtype.charAt(0) == '<' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.nativeOrder();
+		this.buffer = ByteBuffer.wrap(bytes).order(order);
+		if ("fiub".indexOf(kind) < 0 || !isSupportedSize()) {
+			throw new IllegalArgumentException("Numpy type " + dtype + " is not supported");
+		}
+		if (bytes.length != size() * itemSize) {
+			throw new IllegalArgumentException("Expected " + size() * itemSize + " bytes, got " + bytes.length);
+		}
+	}
+
+	private boolean isSupportedSize() {
+		if (kind == 'f') return itemSize == 4 || itemSize == 8;
+		return itemSize == 1 || itemSize == 2 || itemSize == 4 || itemSize == 8;
+	}
+
+	/**
+	 * Read an array from the interpreter in its own type.
+	 *
+	 * @param jep
+	 * @param expression
+	 *            python expression giving a numpy array, numpy must be
+	 *            imported
+	 * @return the array
+	 * @throws JepException
+	 */
+	public static NumpyArray get(final Jep jep, final String expression) throws JepException {
+		return get(jep, expression, false);
+	}
+
+	/**
+	 * Read an array as float32 or as an integer type, whichever crosses in
+	 * fewer bytes: float64 and 64 bit integers are converted by numpy, the
+	 * other types are sent as they are and converted by toFloatArray().
+	 *
+	 * @param jep
+	 * @param expression
+	 *            python expression giving a numpy array, numpy must be
+	 *            imported
+	 * @return the values
+	 * @throws JepException
+	 */
+	public static float[] getFloats(final Jep jep, final String expression) throws JepException {
+		return get(jep, expression, true).toFloatArray();
+	}
+
+	private static NumpyArray get(final Jep jep, final String expression, final boolean narrow) throws JepException {
+		try {
+			jep.eval(VARIABLE + " = numpy.ascontiguousarray(" + expression + ")");
+			if (narrow) {
+				jep.eval("if " + VARIABLE + ".dtype.itemsize > 4 or " + VARIABLE + ".dtype.kind not in 'fiub': "
+						+ VARIABLE + " = " + VARIABLE + ".astype(numpy.float32)");
+			}
+			final String dtype = (String) jep.getValue(VARIABLE + ".dtype.str");
+			final String dims  = (String) jep.getValue("','.join([str(n) for n in " + VARIABLE + ".shape])");
+			final byte[] bytes = jep.getValue_bytearray(VARIABLE + ".tostring()");
+			final String[] split = dims.length() == 0 ? new String[0] : dims.split(",");
+			final int[] shape = new int[split.length];
+			for (int i = 0; i < shape.length; i++) {
+				shape[i] = Integer.parseInt(split[i].trim());
+			}
+			try {
+				return new NumpyArray(bytes == null ? new byte[0] : bytes, dtype, shape);
+			} catch (IllegalArgumentException e) {
+				throw new JepException("Cannot read " + expression + ": " + e.getMessage());
+			}
+		} finally {
+			jep.eval(VARIABLE + " = None");
+		}
+	}
+
+	/**
+	 * @return 'f' float, 'i' signed integer, 'u' unsigned integer or 'b'
+	 *         boolean
+	 */
+	public char getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the number of bytes of one value
+	 */
+	public int getItemSize() {
+		return itemSize;
+	}
+
+	/**
+	 * @return the numpy name of the type, e.g. "uint16"
+	 */
+	public String getTypeName() {
+		switch (kind) {
+		case 'f':
+			return "float" + 8 * itemSize;
+		case 'i':
+			return "int" + 8 * itemSize;
+		case 'u':
+			return "uint" + 8 * itemSize;
+		default:
+			return "bool";
+		}
+	}
+
+	/**
+	 * @return the dimensions, for an image {rows, columns}
+	 */
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public int size() {
+		int size = 1;
+		for (int n : shape) size *= n;
+		return size;
+	}
+
+	/**
+	 * @return the bytes of the array in its byte order, not a copy
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer.duplicate().order(buffer.order());
+	}
+
+	/**
+	 * @return a view of a float32 array
+	 */
+	public FloatBuffer asFloatBuffer() {
+		check('f', 4);
+		return getBuffer().asFloatBuffer();
+	}
+
+	/**
+	 * @return a view of a float64 array
+	 */
+	public DoubleBuffer asDoubleBuffer() {
+		check('f', 8);
+		return getBuffer().asDoubleBuffer();
+	}
+
+	/**
+	 * @return a view of an int16 or uint16 array, uint16 values are read with
+	 *         value & 0xffff
+	 */
+	public ShortBuffer asShortBuffer() {
+		check('i', 2);
+		return getBuffer().asShortBuffer();
+	}
+
+	/**
+	 * @return a view of an int32 or uint32 array
+	 */
+	public IntBuffer asIntBuffer() {
+		check('i', 4);
+		return getBuffer().asIntBuffer();
+	}
+
+	private void check(final char k, final int size) {
+		final char actual = kind == 'u' ? 'i' : kind;
+		if (actual != k || itemSize != size) {
+			throw new IllegalStateException("The array is " + getTypeName());
+		}
+	}
+
+	/**
+	 * @param i
+	 *            index of the value in the flattened array
+	 * @return the value converted to float
+	 */
+	public float getFloat(final int i) {
+		final int at = i * itemSize;
+		switch (itemSize) {
+		case 1:
+			return kind == 'i' ? buffer.get(at) : buffer.get(at) & 0xff;
+		case 2:
+			return kind == 'i' ? buffer.getShort(at) : buffer.getShort(at) & 0xffff;
+		case 4:
+			if (kind == 'f') return buffer.getFloat(at);
+			return kind == 'i' ? buffer.getInt(at) : buffer.getInt(at) & 0xffffffffL;
+		default:
+			if (kind == 'f') return (float) buffer.getDouble(at);
+			final long value = buffer.getLong(at);
+			if (kind == 'u' && value < 0) return (float) (value >>> 1) * 2f;
+			return value;
+		}
+	}
+
+	/**
+	 * @return a new float array with the values
+	 */
+	public float[] toFloatArray() {
+		final float[] values = new float[size()];
+		if (kind == 'f' && itemSize == 4) {
+			asFloatBuffer().get(values);
+			return values;
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = getFloat(i);
+		}
+		return values;
+	}
+}
@@ -116,13 +116,14 @@ public class SampleController implements IPropertyChangeListener {
 	}
 
 	public void removeSample(int index) {
+		vSample.elementAt(index).dispose();
 		vSample.removeElementAt(index);
 	}
 
 	public void removeSample(Sample s) {
 		fireSampleRemoved(s);
 		vSample.remove(s);
-
+		s.dispose();
 	}
 
 	public int getCurrentFileIndex() {
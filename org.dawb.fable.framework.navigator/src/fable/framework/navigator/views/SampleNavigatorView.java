@@ -15,6 +15,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 import java.util.regex.Pattern;
 
@@ -84,11 +87,13 @@ import fable.framework.navigator.controller.SampleController;
 import fable.framework.navigator.preferences.FabioPreferenceConstants;
 import fable.framework.navigator.toolBox.IImagesKeys;
 import fable.framework.navigator.toolBox.IVarKeys;
+import fable.framework.toolbox.DirectoryWatcher;
 import fable.framework.toolbox.StringText;
 import fable.framework.toolbox.ToolBox;
 import fable.framework.views.FableMessageConsole;
 import fable.python.Experiment;
 import fable.python.Sample;
+import fable.python.SampleDelta;
 import fable.python.SampleException;
 import fable.python.contentprovider.SampleTableContentProvider;
 import fable.python.labelprovider.SampleTablelabelProvider;
@@ -251,6 +256,8 @@ public class SampleNavigatorView extends ViewPart implements
 	/** a global flag to indicate if automatic update has been selected or not */
 	private boolean autoUpdate = false;
 	private Job autoUpdateJob;
+	/** Finds the files created and deleted in the directory of the sample */
+	private volatile DirectoryWatcher watcher;
 	// private Slice1DAction slice1DAction;
 	/**
 	 * Context menu manager for the file table.
@@ -325,11 +332,15 @@ public class SampleNavigatorView extends ViewPart implements
 					removeKeyInTable.setEnabled(false);
 				}
 				final int dirForThread = dir;
+				final Sample sortedSample = currentSample;
+				// Headers not read yet are read by the sort, off the display
 				new Thread(new Runnable() {
 					public void run() {
+						final Vector<FabioFile> sorted = sortedSample.getSortedFiles();
 						Display.getDefault().asyncExec(new Runnable() {
 							public void run() {
-								sort = currentSample.getSortedFiles();
+								if (sortedSample != currentSample || fileTable.isDisposed()) return;
+								sort = sorted;
 								populateFileTable();
 								// update data displayed in table
 								fileTable.setSortDirection(dirForThread);
@@ -345,7 +356,7 @@ public class SampleNavigatorView extends ViewPart implements
 							}
 						});
 					}
-				});
+				}, "Sort " + sortedSample.getDirectoryName()).start();
 			}
 		};
 
@@ -1137,6 +1148,13 @@ public class SampleNavigatorView extends ViewPart implements
 					monitor.done();
 					return Status.CANCEL_STATUS;
 				}
+				// Read the headers in parallel here rather than one by one
+				// in the UI thread when the table asks for the values.
+				FabioFile.loadHeaders(currentSample.getFilteredfiles(), monitor);
+				if (monitor.isCanceled()) {
+					monitor.done();
+					return Status.CANCEL_STATUS;
+				}
 				display.syncExec(new Runnable() {
 
 					// @Override
@@ -1464,6 +1482,9 @@ public class SampleNavigatorView extends ViewPart implements
 	 */
 	private void clearAll() {
 		if (listOfSamples != null) {
+			for (Sample sample : listOfSamples) {
+				sample.dispose();
+			}
 			listOfSamples.removeAllElements();
 		}
 		sampleTable.getTable().removeAll();
@@ -1529,6 +1550,19 @@ public class SampleNavigatorView extends ViewPart implements
 	 */
 	private File[] getFiles(String dir) {
 		File[] rFile = null;
+		rFile = fable.framework.toolbox.ToolBox.getFilesByEntireRegex(dir,
+				getFileExpression(), true);
+
+		// Sort (Important to sort for peakSearch)
+		ToolBox.quicksort(rFile, 0, rFile.length);
+
+		return rFile;
+	}
+
+	/**
+	 * @return the regular expression of the names of the files of a sample
+	 */
+	private String getFileExpression() {
 		if (regularExpressionForExtension.toLowerCase().contains("bruker")) {
 			// Pattern p = Pattern.compile("\\.*bruker\\.*",
 			// Pattern.CASE_INSENSITIVE);
@@ -1545,14 +1579,7 @@ public class SampleNavigatorView extends ViewPart implements
 		 * dot in them but end in ccd
 		 */
 		// String expression = ".+\\.(" + regularExpressionForExtension + ")";
-		String expression = ".+(" + regularExpressionForExtension + ")";
-		rFile = fable.framework.toolbox.ToolBox.getFilesByEntireRegex(dir,
-				expression, true);
-
-		// Sort (Important to sort for peakSearch)
-		ToolBox.quicksort(rFile, 0, rFile.length);
-
-		return rFile;
+		return ".+(" + regularExpressionForExtension + ")";
 	}
 
 	public String getExperimentName() {
@@ -1731,6 +1758,17 @@ public class SampleNavigatorView extends ViewPart implements
 	 * 29/07/2008.
 	 */
 	public void updateDirectory() {
+		updateDirectory(null);
+	}
+
+	/**
+	 * Update the current sample with the files created, rewritten and deleted
+	 * in its directory, or with all the files of the directory.
+	 * 
+	 * @param changes
+	 *            found by the watcher, null to list the directory
+	 */
+	private void updateDirectory(final DirectoryWatcher.Changes changes) {
 		if (currentSample != null) {
 			try {
 				boolean indexLastFile = false;
@@ -1740,8 +1778,21 @@ public class SampleNavigatorView extends ViewPart implements
 				if (controller.getCurrentFileIndex() >= controller
 						.getCurrentsample().getFilteredfiles().size() - 1)
 					indexLastFile = true;
-				File[] files = getFiles(currentSample.getDirectoryPath());
-				currentSample.updateFabioFiles(files);
+				SampleDelta delta = null;
+				if (changes == null) {
+					File[] files = getFiles(currentSample.getDirectoryPath());
+					currentSample.updateFabioFiles(files);
+					// The watcher starts again from these files
+					watcher = null;
+				} else {
+					delta = currentSample.updateFabioFiles(changes.added,
+							changes.modified, changes.removed);
+					if (delta.isEmpty()) {
+						// Files which do not pass the filter may have been added
+						if (currentSample.hasFile()) updateFilterInfo();
+						return;
+					}
+				}
 				if (currentSample.hasFile()) {
 					sort = currentSample.getFilteredfiles();
 					updateFilterInfo();
@@ -1749,8 +1800,15 @@ public class SampleNavigatorView extends ViewPart implements
 				if (sort.size() > 0) {
 					f_fabio = currentSample.getCurrentFabioFile();
 				}
-				populateFileTable();
-				populateCombo();
+				if (delta != null && delta.isAppended()
+						&& listKeys.getItemCount() > 0) {
+					// Only the new rows, the others did not change
+					fileTable.setItemCount(sort.size());
+					clearRows(delta.getModified());
+				} else {
+					populateFileTable();
+					populateCombo();
+				}
 				/*
 				 * if the last file was being displayed make sure this is still
 				 * the case
@@ -1774,6 +1832,21 @@ public class SampleNavigatorView extends ViewPart implements
 		}
 	}
 
+	/**
+	 * Have the rows of these files filled again, from their headers read
+	 * again.
+	 * 
+	 * @param files
+	 *            files of the current sample
+	 */
+	private void clearRows(final Collection<FabioFile> files) {
+		if (files.isEmpty()) return;
+		final Set<FabioFile> cleared = new HashSet<FabioFile>(files);
+		for (int i = 0; i < sort.size(); i++) {
+			if (cleared.contains(sort.elementAt(i))) fileTable.clear(i);
+		}
+	}
+
 	/**
 	 * This function is called when a directory is selected.
 	 * <p>
@@ -1898,6 +1971,11 @@ public class SampleNavigatorView extends ViewPart implements
 	public void dispose() {
 		Activator.getDefault().getPreferenceStore()
 				.removePropertyChangeListener(preferencesListener);
+		if (listOfSamples != null) {
+			for (Sample sample : listOfSamples) {
+				sample.dispose();
+			}
+		}
 		super.dispose();
 	}
 
@@ -2026,12 +2104,11 @@ public class SampleNavigatorView extends ViewPart implements
 	}
 
 	/**
-	 * Start a system job to update the current directory automatically every 10
+	 * Start a system job to update the current directory automatically every 2
 	 * seconds This is useful for surveying directories on the beamline where
 	 * files are constantly being created or where a data analysis program is
-	 * producing new files
-	 * 
-	 * @author andy
+	 * producing new files. The directory is watched in the job and only the
+	 * files created or deleted are given to the sample in the display thread.
 	 */
 	private void autoUpdateJobStart() {
 		logger.info("start job to automatically update the directory");
@@ -2039,16 +2116,30 @@ public class SampleNavigatorView extends ViewPart implements
 				"Automatically update files in current directory") {
 			protected IStatus run(final IProgressMonitor monitor) {
 				try {
-					if (autoUpdate && !monitor.isCanceled()) {
-						display.syncExec(new Runnable() {
-							// @Override
-							public void run() {
-								if (currentSample != null) {
-									logger.info("update directory");
-									updateDirectory();
+					final Sample sample = currentSample;
+					if (autoUpdate && !monitor.isCanceled() && sample != null
+							&& sample.getDirectoryPath() != null) {
+						final DirectoryWatcher sampleWatcher = getWatcher(sample);
+						final DirectoryWatcher.Changes changes = sampleWatcher
+								.poll();
+						if (!changes.isEmpty() && !display.isDisposed()) {
+							display.asyncExec(new Runnable() {
+								public void run() {
+									// Not if the directory was listed since
+									if (currentSample == sample && autoUpdate
+											&& watcher == sampleWatcher) {
+										logger.info("update directory, "
+												+ changes.added.length
+												+ " new files, "
+												+ changes.modified.length
+												+ " modified, "
+												+ changes.removed.length
+												+ " deleted");
+										updateDirectory(changes);
+									}
 								}
-							}
-						});
+							});
+						}
 					}
 					if (!autoUpdate || monitor.isCanceled()) {
 						logger.info("cancel auto update job");
@@ -2057,11 +2148,27 @@ public class SampleNavigatorView extends ViewPart implements
 					return Status.OK_STATUS;
 				} finally {
 					if (autoUpdate)
-						schedule(10000); // start again in 10 seconds
+						schedule(2000); // start again in 2 seconds
 				}
 			}
 		};
 		autoUpdateJob.setSystem(true);
 		autoUpdateJob.schedule();
 	}
+
+	/**
+	 * @param sample
+	 * @return the watcher of the directory of the sample, made if needed
+	 *         with the files of the sample as known files
+	 */
+	private synchronized DirectoryWatcher getWatcher(final Sample sample) {
+		final File directory = new File(sample.getDirectoryPath());
+		final String expression = getFileExpression();
+		if (watcher == null || !watcher.getDirectory().equals(directory)
+				|| !watcher.getRegex().equals(expression)) {
+			watcher = new DirectoryWatcher(directory, expression);
+			watcher.setKnownFiles(sample.getFiles());
+		}
+		return watcher;
+	}
 }
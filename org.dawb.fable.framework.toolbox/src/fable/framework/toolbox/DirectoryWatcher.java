@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.framework.toolbox;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the files of a directory whose names match a regular expression,
+ * for directories where an acquisition is writing files.
+ * <p>
+ * Each call to poll() returns the files created, modified and deleted since
+ * the last call. The directory is listed again only when its time changed,
+ * or in the few seconds after, as file systems keep it in seconds; a listing
+ * matches every name against the expression and looks for the known files
+ * which are gone, so it costs as much as the number of files in the
+ * directory. During an acquisition the time changes at nearly every poll.
+ * Only the new files are then looked at until they settle: a new file is
+ * returned once its size and time have not changed for the settle time, so
+ * that files still being written are not read. The known files are checked
+ * for modification a few at each poll, in turn, so a file rewritten in place
+ * is found within a number of polls that grows with the number of files.
+ * This works on network file systems, which do not send events.
+ */
+public class DirectoryWatcher {
+
+	/**
+	 * The changes found by one poll, each array sorted by path.
+	 */
+	public static class Changes {
+		public final File[] added;
+		public final File[] modified;
+		public final File[] removed;
+
+		Changes(final File[] added, final File[] modified, final File[] removed) {
+			this.added    = added;
+			this.modified = modified;
+			this.removed  = removed;
+		}
+
+		public boolean isEmpty() {
+			return added.length == 0 && modified.length == 0 && removed.length == 0;
+		}
+	}
+
+	/**
+	 * Many file systems keep the time of a directory in seconds, a listing
+	 * made in the same second as a change may not see it.
+	 */
+	private static final long TIME_RESOLUTION = 2000;
+
+	/**
+	 * Known files checked for modification at each poll.
+	 */
+	private static final int CHECKED_PER_POLL = 256;
+
+	private final File    directory;
+	private final Pattern pattern;
+	private long          settleTime = 2000;
+
+	/** Files returned, name to {length, last modified} */
+	private final Map<String, long[]> known = new HashMap<String, long[]>();
+	/** Order in which known files are checked for modification */
+	private final List<String> checkOrder = new ArrayList<String>();
+	private int nextCheck;
+	/** New files not settled yet, name to {length, last modified, time of the last change seen} */
+	private final Map<String, long[]> pending = new HashMap<String, long[]>();
+	/** Directories matching the pattern, never returned */
+	private final Set<String> ignored = new HashSet<String>();
+
+	private long directoryModified = -1;
+	private long listed = -1;
+
+	/**
+	 * @param directory
+	 * @param regex
+	 *            the names of the files to follow must match it entirely
+	 */
+	public DirectoryWatcher(final File directory, final String regex) {
+		this.directory = directory;
+		this.pattern   = Pattern.compile(regex);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public String getRegex() {
+		return pattern.pattern();
+	}
+
+	/**
+	 * @param settleTime
+	 *            time in ms the size and time of a new file must stay the
+	 *            same before it is returned
+	 */
+	public void setSettleTime(final long settleTime) {
+		this.settleTime = settleTime;
+	}
+
+	/**
+	 * Give the files already known, they are not returned as added by the
+	 * next poll.
+	 *
+	 * @param paths
+	 *            paths of files of the directory
+	 */
+	public synchronized void setKnownFiles(final String[] paths) {
+		known.clear();
+		checkOrder.clear();
+		pending.clear();
+		nextCheck = 0;
+		for (int i = 0; paths != null && i < paths.length; i++) {
+			final File file = new File(paths[i]);
+			final String name = file.getName();
+			if (known.put(name, new long[] { -1, -1 }) == null) {
+				checkOrder.add(name);
+			}
+		}
+		// List at the next poll
+		directoryModified = -1;
+	}
+
+	/**
+	 * @return the files created, modified or deleted since the last poll
+	 */
+	public synchronized Changes poll() {
+		final long now = System.currentTimeMillis();
+		final List<String> removed = new ArrayList<String>();
+		final long modified = directory.lastModified();
+		if (modified != directoryModified || modified + TIME_RESOLUTION >= listed) {
+			final String[] names = directory.list();
+			if (names == null) {
+				// The directory is gone
+				removed.addAll(known.keySet());
+				known.clear();
+				checkOrder.clear();
+				pending.clear();
+			} else {
+				list(names, removed);
+			}
+			directoryModified = modified;
+			listed = now;
+		}
+
+		final List<String> added = new ArrayList<String>();
+		for (Iterator<Map.Entry<String, long[]>> it = pending.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<String, long[]> entry = it.next();
+			final File file = new File(directory, entry.getKey());
+			if (file.isDirectory()) {
+				ignored.add(entry.getKey());
+				it.remove();
+				continue;
+			}
+			final long[] state = entry.getValue();
+			final long length = file.length(), time = file.lastModified();
+			final boolean first = state[2] < 0;
+			if (first || length != state[0] || time != state[1]) {
+				state[0] = length;
+				state[1] = time;
+				state[2] = now;
+			}
+			if (time == 0) continue; // Deleted before it was seen
+			if ((first && now - time >= settleTime) || (!first && now - state[2] >= settleTime)) {
+				known.put(entry.getKey(), new long[] { length, time });
+				checkOrder.add(entry.getKey());
+				added.add(entry.getKey());
+				it.remove();
+			}
+		}
+
+		return new Changes(toFiles(added), toFiles(checkModified()), toFiles(removed));
+	}
+
+	private void list(final String[] names, final List<String> removed) {
+		final Set<String> seen = new HashSet<String>(2 * names.length);
+		for (String name : names) {
+			if (!pattern.matcher(name).matches()) continue;
+			seen.add(name);
+			if (!known.containsKey(name) && !pending.containsKey(name) && !ignored.contains(name)) {
+				pending.put(name, new long[] { -1, -1, -1 });
+			}
+		}
+		for (Iterator<String> it = known.keySet().iterator(); it.hasNext();) {
+			final String name = it.next();
+			if (!seen.contains(name)) {
+				removed.add(name);
+				it.remove();
+			}
+		}
+		if (!removed.isEmpty()) {
+			checkOrder.removeAll(new HashSet<String>(removed));
+			nextCheck = 0;
+		}
+		pending.keySet().retainAll(seen);
+		ignored.retainAll(seen);
+	}
+
+	/**
+	 * Check the next few known files.
+	 *
+	 * @return the names of the files which changed
+	 */
+	private List<String> checkModified() {
+		final List<String> modified = new ArrayList<String>();
+		final int n = Math.min(CHECKED_PER_POLL, checkOrder.size());
+		for (int i = 0; i < n; i++) {
+			if (nextCheck >= checkOrder.size()) nextCheck = 0;
+			final String name = checkOrder.get(nextCheck++);
+			final long[] state = known.get(name);
+			final File file = new File(directory, name);
+			final long length = file.length(), time = file.lastModified();
+			if (time == 0) continue; // Deleted, the next listing will tell
+			if (state[1] >= 0 && (length != state[0] || time != state[1])) {
+				modified.add(name);
+			}
+			state[0] = length;
+			state[1] = time;
+		}
+		return modified;
+	}
+
+	private File[] toFiles(final List<String> names) {
+		final File[] files = new File[names.size()];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new File(directory, names.get(i));
+		}
+		Arrays.sort(files);
+		return files;
+	}
+}
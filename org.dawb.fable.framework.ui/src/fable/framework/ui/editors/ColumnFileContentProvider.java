@@ -15,20 +15,37 @@ import org.eclipse.jface.viewers.Viewer;
 
 import fable.python.ColumnFile;
 
+/**
+ * Gives the rows of a ColumnFile to a virtual table. Rows are taken from the
+ * Java table of the ColumnFile a page at a time, the page holding the row
+ * asked for, so scrolling does not go to python.
+ */
 public class ColumnFileContentProvider implements ILazyContentProvider {
 
+	/** Number of rows fetched together */
+	private static final int PAGE_SIZE = 256;
+
 	private TableViewer viewer;
 	// private Row[] rows;
 	private ColumnFile columnFile;
+	private float[][] page;
+	private int pageStart;
 
 	public ColumnFileContentProvider(TableViewer tv) {
 		viewer = tv;
 	}
 
 	public void updateElement(int index) {
-		float[] floatArray = columnFile.getRowAt(index);
-		if (floatArray != null) {
-			viewer.replace(floatArray, index);
+		if (columnFile == null) {
+			return;
+		}
+		if (page == null || index < pageStart
+				|| index >= pageStart + page.length) {
+			pageStart = index - index % PAGE_SIZE;
+			page = columnFile.getRowsAt(pageStart, PAGE_SIZE);
+		}
+		if (index - pageStart < page.length) {
+			viewer.replace(page[index - pageStart], index);
 		}
 
 	}
@@ -40,6 +57,8 @@ public class ColumnFileContentProvider implements ILazyContentProvider {
 
 	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
 		this.columnFile = (ColumnFile) newInput;
+		// The rows may have been sorted or filtered
+		page = null;
 
 	}
 
@@ -12,6 +12,8 @@ package fable.framework.ui.views;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.Iterator;
@@ -54,6 +56,8 @@ import fable.framework.imageprint.JLChartActions;
 import fable.framework.ui.object.ColumnFileController;
 import fable.framework.ui.rcp.Activator;
 import fable.python.ColumnFile;
+import fable.python.PlotDecimator;
+import fable.python.RowIndex;
 import fr.esrf.tangoatk.widget.util.chart.IJLChartActionListener;
 import fr.esrf.tangoatk.widget.util.chart.IJLChartListener;
 import fr.esrf.tangoatk.widget.util.chart.JLAxis;
@@ -142,6 +146,12 @@ public class ColFileXYPlot implements IJLChartListener {
 	double[] currentXData;
 	double[] currentYData;
 	private JLDataView currentDataView = null;
+	/** Size in screen pixels of the cells of which one point is drawn */
+	private static final int DECIMATION_CELL = 2;
+	/** Visible range the data view was decimated for, null if not decimated */
+	private double[] decimatedRange = null;
+	/** Version of the column file the plotted columns were taken from */
+	private int plottedVersion;
 	ColumnFile currentColumnFile = null;
 	private Text txtY1Min, txtY1Max, txtXMax, txtXMin;
 	private Button removeDataButton, keepDataButton;
@@ -179,6 +189,8 @@ public class ColFileXYPlot implements IJLChartListener {
 	/** This dataview is used to display selected spot in table. */
 	private JLDataView markedDataView;
 	private int[] selectedRowsId;
+	/** Ids of the spots selected in table, to mark them again after a plot */
+	private double[] selectedIds;
 
 	/**
 	 * ColFileXYPlot constructor
@@ -610,17 +622,10 @@ public class ColFileXYPlot implements IJLChartListener {
 				 * double[] listX = ((double[])
 				 * xKeysCombo.getData(sxAxisLabel));
 				 */
-				double[] listX = ((double[]) currentColumnFile
-						.getColumnstoPlot().get(sxAxisLabel));
-				int len = listX != null ? listX.length : 0;
-				if (len > 0) {
-					currentXData = new double[len];
-					/*
-					 * currentXData = (double[])
-					 * (xKeysCombo.getData(sxAxisLabel));
-					 */
-					currentXData = (double[]) currentColumnFile
-							.getColumnstoPlot().get(sxAxisLabel);
+				double[] listX = currentColumnFile
+						.getColumnToPlot(sxAxisLabel);
+				if (listX != null && listX.length > 0) {
+					currentXData = listX;
 				}
 				/** ***************Y**************************** */
 				/* get data from column file rather than from combo */
@@ -628,19 +633,10 @@ public class ColFileXYPlot implements IJLChartListener {
 				 * double[] listY = ((double[])
 				 * yKeysCombo.getData(syAxisLabel));
 				 */
-				double[] listY = ((double[]) currentColumnFile
-						.getColumnstoPlot().get(syAxisLabel));
-
-				len = listY != null ? listY.length : 0;
-				if (len > 0) {
-
-					currentYData = new double[len];
-					/*
-					 * currentYData = (double[])
-					 * yKeysCombo.getData(syAxisLabel);
-					 */
-					currentYData = (double[]) currentColumnFile
-							.getColumnstoPlot().get(syAxisLabel);
+				double[] listY = currentColumnFile
+						.getColumnToPlot(syAxisLabel);
+				if (listY != null && listY.length > 0) {
+					currentYData = listY;
 				}
 				/** ****************UPDATE **************************** */
 				updateChart(currentXData, currentYData);
@@ -784,6 +780,22 @@ public class ColFileXYPlot implements IJLChartListener {
 		txtY1Max = new Text(editGroup, SWT.BORDER);
 		txtY1Max.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
 
+		// Enter shows the range typed, an empty range shows all the values
+		SelectionAdapter applyRange = new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				setAxisRange(chart.getXAxis(), txtXMin, txtXMax);
+				setAxisRange(chart.getY1Axis(), txtY1Min, txtY1Max);
+				replot();
+				repaint();
+			}
+		};
+		for (Text text : new Text[] { txtXMin, txtXMax, txtY1Min, txtY1Max }) {
+			text.setToolTipText("Press Enter to show this range, "
+					+ "leave empty to show all the values");
+			text.addSelectionListener(applyRange);
+		}
+
 		// ------------------------BUTTONS-------------------------------------/
 
 		keepDataButton = new Button(editGroup, SWT.PUSH);
@@ -877,6 +889,26 @@ public class ColFileXYPlot implements IJLChartListener {
 		});
 	}
 
+	/**
+	 * Show the range of the text fields on the axis, or all the values if a
+	 * field is empty or not a number.
+	 */
+	private void setAxisRange(JLAxis axis, Text min, Text max) {
+		try {
+			double minimum = Double.parseDouble(min.getText().trim());
+			double maximum = Double.parseDouble(max.getText().trim());
+			if (minimum < maximum) {
+				axis.setMinimum(minimum);
+				axis.setMaximum(maximum);
+				axis.setAutoScale(false);
+				return;
+			}
+		} catch (NumberFormatException e) {
+			// All the values
+		}
+		axis.setAutoScale(true);
+	}
+
 	/**
 	 * remove all dots selected in the border of the plots in column file
 	 * 
@@ -1028,6 +1060,19 @@ public class ColFileXYPlot implements IJLChartListener {
 		// Since 15/07/2008 : to customize popup info : display label name
 		chart.setJLChartListener(this);
 
+		// More or fewer points fit in the new size
+		chart.addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				Display.getDefault().asyncExec(new Runnable() {
+					public void run() {
+						if (chart != null) {
+							replot();
+						}
+					}
+				});
+			}
+		});
+
 		chart.addMouseListener(new MouseAdapter() {
 			public void mouseReleased(MouseEvent e) {
 				Display.getDefault().asyncExec(new Runnable() {
@@ -1053,6 +1098,8 @@ public class ColFileXYPlot implements IJLChartListener {
 						txtXMax.setText(String.valueOf(maxX));
 						txtXMin.setText(String.valueOf(minX));
 
+						// Zoomed in or out : show the points hidden until now
+						replot();
 					}
 				});
 			}
@@ -1095,17 +1142,15 @@ public class ColFileXYPlot implements IJLChartListener {
 			markedDataView.reset();
 
 		}
-		double[] allid = currentColumnFile.getColumnstoPlot().get(name);
-		for (int j = 0; j < id.length; j++) {
-			for (int i = 0; i < allid.length; i++) {
-				if (allid[i] == id[j]) {
-					selectedRowsId[j] = i;
-					if (currentDataView != null) {
-						double x = currentDataView.getXValueByIndex(i);
-						double y = currentDataView.getYValueByIndex(i);
-						markedDataView.add(x, y);
-					}
-					break;
+		selectedIds = id.clone();
+		RowIndex index = currentColumnFile.getRowIndex(name);
+		for (int j = 0; index != null && j < id.length; j++) {
+			int i = index.getRow(id[j]);
+			if (i >= 0) {
+				selectedRowsId[j] = i;
+				if (currentXData != null && i < currentXData.length
+						&& i < currentYData.length) {
+					markedDataView.add(currentXData[i], currentYData[i]);
 				}
 			}
 		}
@@ -1137,17 +1182,15 @@ public class ColFileXYPlot implements IJLChartListener {
 			chart.getXAxis().setName(sxAxisLabel);
 		}
 
+		if (currentColumnFile != null) {
+			plottedVersion = currentColumnFile.getVersion();
+		}
 		/* double[] listX = ((double[]) xKeysCombo.getData(sxAxisLabel)); */
-		int len = 0;
 		if (sxAxisLabel != null && currentColumnFile != null) {
-			double[] listX = currentColumnFile.getColumnstoPlot().get(
-					sxAxisLabel);
-			len = listX != null ? listX.length : 0;
-		}
-		if (len > 0) {
-			currentXData = new double[len];
-			currentXData = currentColumnFile.getColumnstoPlot()
-					.get(sxAxisLabel);
+			double[] listX = currentColumnFile.getColumnToPlot(sxAxisLabel);
+			if (listX != null && listX.length > 0) {
+				currentXData = listX;
+			}
 		}
 		/** ***************Y**************************** */
 		if (yKeysCombo.getItemCount() > currentYIndex && currentYIndex > -1) {
@@ -1157,24 +1200,17 @@ public class ColFileXYPlot implements IJLChartListener {
 
 		/* double[] listY = ((double[]) yKeysCombo.getData(syAxisLabel)); */
 		if (syAxisLabel != null && currentColumnFile != null) {
-			double[] listY = currentColumnFile.getColumnstoPlot().get(
-					syAxisLabel);
-			len = listY != null ? listY.length : 0;
-		}
-
-		if (len > 0) {
-
-			currentYData = new double[len];
-			currentYData = currentColumnFile.getColumnstoPlot()
-					.get(syAxisLabel);
+			double[] listY = currentColumnFile.getColumnToPlot(syAxisLabel);
+			if (listY != null && listY.length > 0) {
+				currentYData = listY;
+			}
 		}
 		if (currentXData != null && currentYData != null) {
 			if (!syAxisLabel.equals("") && !sxAxisLabel.equals("")) {
 				if (currentDataView == null) {
 					currentDataView = new JLDataView();
 				}
-				currentDataView.setXDataSorted(false);
-				currentDataView.setData(currentXData, currentYData);
+				setPlotData(currentXData, currentYData);
 			}
 			chart.setHeader(currentColumnFile.getFileName());
 		} else {
@@ -1192,20 +1228,17 @@ public class ColFileXYPlot implements IJLChartListener {
 	 * user plot other data.
 	 */
 	private void updateRowsMarked() {
-		if (selectedRowsId != null && selectedRowsId.length > 0) {
+		if (selectedIds != null && selectedIds.length > 0) {
 			markedDataView.reset();
-			double[] allid = currentColumnFile.getColumnstoPlot().get(
-					currentColumnFile.getColumnfileId());
-			for (int j = 0; j < selectedRowsId.length; j++) {
-				for (int i = 0; i < allid.length; i++) {
-					if (allid[i] == selectedRowsId[j]) {
-
-						if (currentDataView != null) {
-							double x = currentDataView.getXValueByIndex(i);
-							double y = currentDataView.getYValueByIndex(i);
-							markedDataView.add(x, y);
-						}
-						break;
+			RowIndex index = currentColumnFile.getRowIndex(currentColumnFile
+					.getColumnfileId());
+			for (int j = 0; index != null && j < selectedIds.length; j++) {
+				int i = index.getRow(selectedIds[j]);
+				if (i >= 0) {
+					selectedRowsId[j] = i;
+					if (currentXData != null && i < currentXData.length
+							&& i < currentYData.length) {
+						markedDataView.add(currentXData[i], currentYData[i]);
 					}
 				}
 			}
@@ -1226,8 +1259,7 @@ public class ColFileXYPlot implements IJLChartListener {
 					if (currentDataView == null) {
 						currentDataView = new JLDataView();
 					}
-					currentDataView.setXDataSorted(false);
-					currentDataView.setData(x, y);
+					setPlotData(x, y);
 				}
 			} else {
 				chart.setNoValueString("No value to display");
@@ -1237,6 +1269,103 @@ public class ColFileXYPlot implements IJLChartListener {
 		return currentDataView = null;
 	}
 
+	/**
+	 * Draw the points which can be seen at the present zoom if they are not
+	 * the ones drawn, with the columns taken again if the column file was
+	 * loaded or filtered since they were.
+	 */
+	private void replot() {
+		if (currentColumnFile != null
+				&& currentColumnFile.getVersion() != plottedVersion) {
+			updateChart();
+		} else if (currentDataView != null && currentXData != null
+				&& currentYData != null
+				&& !sameRange(decimatedRange, getVisibleRange())) {
+			setPlotData(currentXData, currentYData);
+			updateRowsMarked();
+			repaint();
+		}
+	}
+
+	/**
+	 * Give the data view the points which can be seen at the present zoom,
+	 * at most one per few pixels of the chart. The full data stays in
+	 * currentXData and currentYData.
+	 */
+	private void setPlotData(final double[] x, final double[] y) {
+		currentDataView.setXDataSorted(false);
+		decimatedRange = null;
+		// Not shown yet, or log axes: all the points
+		if (chart.getWidth() > 0 && chart.getHeight() > 0
+				&& chart.getXAxis().getScale() != JLAxis.LOG_SCALE
+				&& chart.getY1Axis().getScale() != JLAxis.LOG_SCALE) {
+			double[] range = getVisibleRange();
+			if (Double.isNaN(range[0])) {
+				double[] xRange = PlotDecimator.getRange(x);
+				range[0] = xRange[0];
+				range[1] = xRange[1];
+			}
+			if (Double.isNaN(range[2])) {
+				double[] yRange = PlotDecimator.getRange(y);
+				range[2] = yRange[0];
+				range[3] = yRange[1];
+			}
+			int[] rows = PlotDecimator.scatter(x, y, range[0], range[1],
+					range[2], range[3], chart.getWidth() / DECIMATION_CELL
+							+ 1, chart.getHeight() / DECIMATION_CELL + 1);
+			if (rows != null) {
+				decimatedRange = getVisibleRange();
+				currentDataView.setData(PlotDecimator.gather(x, rows),
+						PlotDecimator.gather(y, rows));
+				return;
+			}
+		}
+		currentDataView.setData(x, y);
+	}
+
+	/**
+	 * @return {xMin, xMax, yMin, yMax} of the axes, NaN for an axis which
+	 *         shows all the values, then the size of the chart
+	 */
+	private double[] getVisibleRange() {
+		double[] x = getVisibleRange(chart.getXAxis());
+		double[] y = getVisibleRange(chart.getY1Axis());
+		return new double[] { x[0], x[1], y[0], y[1], chart.getWidth(),
+				chart.getHeight() };
+	}
+
+	/**
+	 * @return {min, max} of a zoomed axis or of an axis with a range set from
+	 *         the plot editor, NaN otherwise
+	 */
+	private static double[] getVisibleRange(JLAxis axis) {
+		if (axis.isZoomed()) {
+			return new double[] { axis.getMin(), axis.getMax() };
+		}
+		if (!axis.isAutoScale()) {
+			return new double[] { axis.getMinimum(), axis.getMaximum() };
+		}
+		return new double[] { Double.NaN, Double.NaN };
+	}
+
+	/**
+	 * @return true if the data view was decimated for the range and the size
+	 *         of the chart, or was not decimated and needs not be
+	 */
+	private boolean sameRange(double[] decimated, double[] visible) {
+		if (decimated == null) {
+			// All points are there, unless the chart was resized
+			return currentDataView.getDataLength() == Math.min(
+					currentXData.length, currentYData.length);
+		}
+		for (int i = 0; i < decimated.length; i++) {
+			if (Double.compare(decimated[i], visible[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public void updateColumnFile(ColumnFile col) {
 		populateListsKeys(col);
 	}
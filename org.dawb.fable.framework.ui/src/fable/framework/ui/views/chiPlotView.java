@@ -48,6 +48,7 @@ import fable.framework.toolbox.ToolBox;
 import fable.framework.ui.rcp.Activator;
 import fable.framework.views.FableMessageConsole;
 import fable.python.ChiFile;
+import fable.python.PlotDecimator;
 
 public class chiPlotView extends ViewPart {
 
@@ -351,9 +352,15 @@ public class chiPlotView extends ViewPart {
 		GL11.glNewList(reliefList, GL11.GL_COMPILE);
 		GL11.glColor3f(1.0f, 1.0f, 1.0f); // white
 		GL11.glPointSize(pointSize);
-		for (int i = 0; i < imageWidth - 1; i++) {
+		// A long pattern is drawn with the first, lowest, highest and last
+		// points of each half pixel of the canvas, the list stays small
+		int[] points = PlotDecimator.envelope(image, imageWidth,
+				2 * canvasWidth);
+		int count = points != null ? points.length : imageWidth;
+		for (int k = 0; k < count - 1; k++) {
 			GL11.glBegin(GL11.GL_LINE_STRIP);
-			int j = i + 1;
+			int i = points != null ? points[k] : k;
+			int j = points != null ? points[k + 1] : k + 1;
 			int color_index = (int) image[i];
 			if (color_index < 0)
 				color_index = 0;
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.tests.gui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dawb.fabio.EdfHeader;
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.IImageCache;
+import org.dawb.fabio.ImageCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fable.imageviewer.internal.ImagePrefetcher;
+
+/**
+ * Reads ahead EDF frames, which are read in Java, into a cache of its own.
+ */
+public class ImagePrefetcherTest {
+
+	private IImageCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new ImageCache(ImageCache.getBudget(1));
+		ImageCache.setDefault(cache);
+	}
+
+	@After
+	public void tearDown() {
+		ImageCache.setDefault(null);
+	}
+
+	/**
+	 * @return a 4 x 4 unsigned short EDF frame
+	 */
+	private static FabioFile createFrame() throws IOException, FabioFileException {
+		StringBuilder header = new StringBuilder("{\n");
+		header.append("HeaderID = EH:000001:000000:000000 ;\n");
+		header.append("ByteOrder = LowByteFirst ;\n");
+		header.append("DataType = UnsignedShort ;\n");
+		header.append("Dim_1 = 4 ;\nDim_2 = 4 ;\nSize = 32 ;\n");
+		while (header.length() < EdfHeader.BLOCKSIZE - 2) {
+			header.append(' ');
+		}
+		header.append("}\n");
+		File file = File.createTempFile("frame", ".edf");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(header.toString().getBytes("ISO-8859-1"));
+			out.write(new byte[32]);
+		} finally {
+			out.close();
+		}
+		return new FabioFile(file.getPath());
+	}
+
+	@Test
+	public void testPrefetch() throws Throwable {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (int i = 0; i < 5; i++) {
+			files.add(createFrame());
+		}
+		ImagePrefetcher prefetcher = new ImagePrefetcher(2);
+		try {
+			assertFalse(prefetcher.isLoaded(files.get(0)));
+			prefetcher.prefetch(files);
+			for (FabioFile file : files) {
+				assertTrue(prefetcher.await(file, 10000));
+			}
+			assertEquals(5, cache.getMissCount());
+
+			// Frames in the cache are not read again
+			prefetcher.prefetch(files);
+			for (FabioFile file : files) {
+				assertTrue(prefetcher.await(file, 10000));
+			}
+			files.get(2).readImageAsFloat();
+			assertEquals(5, cache.getMissCount());
+		} finally {
+			prefetcher.dispose();
+		}
+	}
+
+	@Test
+	public void testNotWanted() throws Exception {
+		FabioFile file = createFrame();
+		ImagePrefetcher prefetcher = new ImagePrefetcher(1);
+		prefetcher.dispose();
+		assertFalse(prefetcher.await(file, 100));
+		assertEquals(0, cache.getMissCount());
+	}
+}
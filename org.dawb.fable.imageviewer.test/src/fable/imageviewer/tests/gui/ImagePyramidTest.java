@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.tests.gui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.swt.graphics.Rectangle;
+import org.junit.Test;
+
+import fable.imageviewer.model.ImagePyramid;
+import fable.imageviewer.model.ImagePyramid.Binning;
+
+/**
+ * Checks the binning and the rectangles of ImagePyramid.
+ */
+public class ImagePyramidTest {
+
+	private static float[] createImage(int width, int height) {
+		final float[] data = new float[width * height];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = 1f;
+		}
+		return data;
+	}
+
+	@Test
+	public void testMaxKeepsHotPixel() {
+		final float[] data = createImage(64, 64);
+		data[37 + 21 * 64] = 1000f;
+		final ImagePyramid pyramid = new ImagePyramid(data, 64, 64, Binning.MAX);
+		assertArrayEquals(new int[] { 16, 16 }, pyramid.getSize(2));
+		assertEquals(1000f, pyramid.getLevelData(2)[9 + 5 * 16], 0);
+		assertEquals(1f, pyramid.getLevelData(2)[0], 0);
+	}
+
+	@Test
+	public void testMeanOfOddSize() {
+		final float[] data = { 1, 3, 5, 7, 9, 11 };
+		final ImagePyramid pyramid = new ImagePyramid(data, 3, 2, Binning.MEAN);
+		assertArrayEquals(new int[] { 2, 1 }, pyramid.getSize(1));
+		assertArrayEquals(new float[] { 5, 8 }, pyramid.getLevelData(1), 0);
+	}
+
+	@Test
+	public void testLevelAndRect() {
+		final ImagePyramid pyramid = new ImagePyramid(createImage(2048, 2048), 2048, 2048, Binning.MAX);
+		assertEquals(0, pyramid.getLevel(0.5));
+		assertEquals(0, pyramid.getLevel(1.9));
+		assertEquals(1, pyramid.getLevel(2));
+		assertEquals(2, pyramid.getLevel(4.5));
+		assertEquals(7, pyramid.getLevel(1000));
+		assertEquals(new Rectangle(2, 0, 4, 1), pyramid.getRect(2, new Rectangle(10, 0, 11, 3)));
+		assertEquals(16, pyramid.getData(2, new Rectangle(0, 0, 16, 16)).length);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.tests.gui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fable.imageviewer.internal.IImagesVarKeys;
+import fable.imageviewer.internal.ImageRenderer;
+
+/**
+ * Compares ImageRenderer with the pixel by pixel loop the image component
+ * used before, for every orientation.
+ */
+public class ImageRendererTest implements IImagesVarKeys {
+
+	private static final int[] ORIENTATIONS = { O_MOOM, O_MOOP, O_POOM,
+			O_POOP, O_OMPO, O_OPMO, O_OMMO, O_OPPO };
+
+	private static float[] createImage(int width, int height) {
+		final Random random = new Random(width * 31 + height);
+		final float[] data = new float[width * height];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat() * 1200f - 100f;
+		}
+		data[0] = Float.NaN;
+		return data;
+	}
+
+	/**
+	 * The loop of ImageComponentImage.createImageData() before ImageRenderer.
+	 */
+	private static byte[] reference(float[] data, int width, int height,
+			int orientation, float minimum, float maximum) {
+		float scale_8bit;
+		float maxPixel;
+		if (maximum > minimum) {
+			scale_8bit = 255f / (maximum - minimum);
+			maxPixel = maximum - minimum;
+		} else {
+			scale_8bit = 1f;
+			maxPixel = 0xFF;
+		}
+		final boolean transposed = orientation >= O_OMPO;
+		final int orientedWidth = transposed ? height : width;
+		final byte[] bytes = new byte[data.length];
+		for (int i = 0; i < data.length; i++) {
+			float scaled_pixel;
+			if (data[i] < minimum) {
+				scaled_pixel = 0;
+			} else if (data[i] >= maximum) {
+				scaled_pixel = maxPixel;
+			} else {
+				scaled_pixel = data[i] - minimum;
+			}
+			scaled_pixel = scaled_pixel * scale_8bit;
+			final int x = i % width, y = i / width;
+			int x3 = x, y3 = y;
+			switch (orientation) {
+			case O_MOOP: x3 = width - x - 1; break;
+			case O_POOM: y3 = height - y - 1; break;
+			case O_POOP: x3 = width - x - 1; y3 = height - y - 1; break;
+			case O_OMMO: x3 = y; y3 = x; break;
+			case O_OPMO: x3 = height - y - 1; y3 = x; break;
+			case O_OMPO: x3 = y; y3 = width - x - 1; break;
+			case O_OPPO: x3 = height - y - 1; y3 = width - x - 1; break;
+			}
+			bytes[y3 * orientedWidth + x3] = (byte) (0x000000FF & ((int) scaled_pixel));
+		}
+		return bytes;
+	}
+
+	@Test
+	public void testOrientations() {
+		final ImageRenderer renderer = new ImageRenderer();
+		// Small images are rendered in one thread, large ones in bands
+		final int[][] sizes = { { 7, 5 }, { 1024, 600 } };
+		for (int[] size : sizes) {
+			final float[] data = createImage(size[0], size[1]);
+			for (int orientation : ORIENTATIONS) {
+				assertArrayEquals("Orientation " + orientation,
+						reference(data, size[0], size[1], orientation, 0f, 1000f),
+						renderer.render(data, size[0], size[1], orientation, 0f, 1000f));
+			}
+			assertArrayEquals(reference(data, size[0], size[1], O_MOOM, 5f, 5f),
+					renderer.render(data, size[0], size[1], O_MOOM, 5f, 5f));
+		}
+	}
+
+	@Test
+	public void testBufferReused() {
+		final ImageRenderer renderer = new ImageRenderer();
+		final float[] data = createImage(20, 10);
+		final byte[] first = renderer.render(data, 20, 10, O_MOOM, 0f, 1000f);
+		assertSame(first, renderer.render(data, 20, 10, O_OPPO, 0f, 1000f));
+		assertEquals(100, renderer.render(data, 10, 10, O_MOOM, 0f, 1000f).length);
+	}
+
+	@Test
+	public void testLookupTable() {
+		final ImageRenderer renderer = new ImageRenderer();
+		renderer.setLookupTable(ImageRenderer.createLookupTable(4096, 1.0));
+		final float[] data = { -5f, 0f, 500f, 1000f, 2000f, Float.NaN };
+		final byte[] bytes = renderer.render(data, 6, 1, O_MOOM, 0f, 1000f);
+		assertEquals(0, bytes[0] & 0xFF);
+		assertEquals(0, bytes[1] & 0xFF);
+		assertEquals(127, bytes[2] & 0xFF);
+		assertEquals(255, bytes[3] & 0xFF);
+		assertEquals(255, bytes[4] & 0xFF);
+		assertEquals(0, bytes[5] & 0xFF);
+	}
+}
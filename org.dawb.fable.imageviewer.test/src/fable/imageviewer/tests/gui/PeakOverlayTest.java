@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.tests.gui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fable.imageviewer.model.PeakOverlay;
+
+/**
+ * Checks the grid search and the selection of PeakOverlay.
+ */
+public class PeakOverlayTest {
+
+	@Test
+	public void testFind() {
+		final int n = 100000;
+		final float[] positions = new float[2 * n];
+		final Random random = new Random(5);
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = random.nextFloat() * 2048;
+		}
+		positions[10] = Float.NaN;
+		final PeakOverlay overlay = new PeakOverlay(positions);
+		assertEquals(n, overlay.size());
+
+		final int[] found = overlay.find(100, 1500, 300.5f, 1600);
+		int expected = 0;
+		for (int i = 0; i < n; i++) {
+			final float y = positions[2 * i], z = positions[2 * i + 1];
+			if (y >= 100 && y < 300.5f && z >= 1500 && z < 1600) expected++;
+		}
+		assertEquals(expected, found.length);
+		for (int peak : found) {
+			assertTrue(overlay.getY(peak) >= 100 && overlay.getY(peak) < 300.5f);
+			assertTrue(overlay.getZ(peak) >= 1500 && overlay.getZ(peak) < 1600);
+		}
+		assertEquals(n - 1, overlay.find(-1, -1, 3000, 3000).length);
+		assertEquals(0, overlay.find(5000, 5000, 6000, 6000).length);
+		assertEquals(0, new PeakOverlay(new float[0]).find(0, 0, 10, 10).length);
+	}
+
+	@Test
+	public void testSelect() {
+		final float[] positions = { 1, 1, 10, 20, 30.5f, 40, 50, 60, 10, 20 };
+		final PeakOverlay overlay = new PeakOverlay(positions);
+		assertEquals(1, overlay.indexOf(10, 20));
+		assertEquals(-1, overlay.indexOf(10, 21));
+
+		assertArrayEquals(new int[] { 1, 2 }, overlay.select(new float[] { 10, 20, 30.5f, 40, 7, 7 }));
+		assertTrue(overlay.isSelected(1) && overlay.isSelected(2));
+		assertFalse(overlay.isSelected(0));
+
+		// Only the peaks which changed
+		final int[] changed = overlay.select(new float[] { 30.5f, 40, 50, 60 });
+		Arrays.sort(changed);
+		assertArrayEquals(new int[] { 1, 3 }, changed);
+		assertArrayEquals(new int[] { 2, 3 }, overlay.select(null));
+		assertEquals(0, overlay.select(null).length);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.tests.gui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.FableJep;
+import org.dawb.fabio.ImageArea;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+import fable.imageviewer.internal.RockingCurveIntegrator;
+import fable.imageviewer.internal.RockingCurveIntegrator.Result;
+
+/**
+ * Checks the sums of RockingCurveIntegrator on frames made in memory.
+ */
+public class RockingCurveIntegratorTest {
+
+	private static final int WIDTH = 8, HEIGHT = 6;
+
+	/**
+	 * A frame whose pixels are all its value, with an omega key.
+	 */
+	private static class Frame extends FabioFile {
+
+		private final float value;
+		private final int width;
+
+		Frame(File file, float value, String omega, int width) throws FabioFileException {
+			super(file.getPath());
+			this.value = value;
+			this.width = width;
+			setHeader(omega == null ? Collections.<String, String> emptyMap()
+					: Collections.singletonMap("omega", omega));
+		}
+
+		@Override
+		public ImageArea getImageArea(FableJep fableJep, int x, int y, int areaWidth, int areaHeight) {
+			// Clipped to the frame as the readers do
+			areaWidth = Math.min(areaWidth, width - x);
+			areaHeight = Math.min(areaHeight, HEIGHT - y);
+			float[] data = new float[areaWidth * areaHeight];
+			Arrays.fill(data, value);
+			return new ImageArea(data, x, y, areaWidth, areaHeight, width, HEIGHT, 0);
+		}
+	}
+
+	private static List<FabioFile> createFrames(String[] omegas, int[] widths) throws IOException,
+			FabioFileException {
+		File file = File.createTempFile("frame", ".edf");
+		file.deleteOnExit();
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (int i = 0; i < omegas.length; i++) {
+			files.add(new Frame(file, i + 1, omegas[i], widths[i]));
+		}
+		return files;
+	}
+
+	@Test
+	public void testAreas() throws Exception {
+		List<FabioFile> files = createFrames(new String[] { "0.5", "1", "1.5" }, new int[] { WIDTH, WIDTH, WIDTH });
+		List<int[]> areas = new ArrayList<int[]>();
+		areas.add(new int[] { 0, 0, 2, 3 });
+		// Half outside the frame
+		areas.add(new int[] { 6, 4, 10, 8 });
+		Result result = new RockingCurveIntegrator(files, 0, 2, areas, "omega", false, WIDTH, HEIGHT).integrate(
+				new NullProgressMonitor(), null);
+		assertEquals(0, result.getErrors());
+		assertArrayEquals(new double[] { 0.5, 1, 1.5 }, result.getX(), 0);
+		assertArrayEquals(new double[] { 6, 12, 18 }, result.getIntensity(0), 0);
+		assertArrayEquals(new double[] { 4, 8, 12 }, result.getIntensity(1), 0);
+
+		// Averaged on the whole area
+		result = new RockingCurveIntegrator(files, 1, 2, areas, null, true, WIDTH, HEIGHT).integrate(
+				new NullProgressMonitor(), null);
+		assertArrayEquals(new double[] { 1, 2 }, result.getX(), 0);
+		assertArrayEquals(new double[] { 2, 3 }, result.getIntensity(0), 0);
+		assertArrayEquals(new double[] { 2 * 4 / 16., 3 * 4 / 16. }, result.getIntensity(1), 0);
+	}
+
+	@Test
+	public void testSkippedFrames() throws Exception {
+		// No omega, omega not a number and another size
+		List<FabioFile> files = createFrames(new String[] { "1", null, "2", "x", "3" }, new int[] { WIDTH, WIDTH,
+				WIDTH, WIDTH, WIDTH + 1 });
+		List<int[]> areas = Collections.singletonList(new int[] { 0, 0, 1, 1 });
+		Result result = new RockingCurveIntegrator(files, 0, 4, areas, "omega", false, WIDTH, HEIGHT).integrate(
+				new NullProgressMonitor(), null);
+		assertEquals(3, result.getErrors());
+		// The frame of another size has an x but no intensity
+		assertArrayEquals(new double[] { 1, 2, 3 }, result.getX(), 0);
+		assertEquals(1, result.getIntensity(0)[0], 0);
+		assertEquals(3, result.getIntensity(0)[1], 0);
+		assertEquals(Double.NaN, result.getIntensity(0)[2], 0);
+	}
+}
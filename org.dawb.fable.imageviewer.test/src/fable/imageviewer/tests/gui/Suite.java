@@ -15,7 +15,12 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(org.junit.runners.Suite.class)
 @SuiteClasses({ 
 	
-    ImageViewTest.class
+    ImageViewTest.class,
+    ImageRendererTest.class,
+    ImagePyramidTest.class,
+    PeakOverlayTest.class,
+    RockingCurveIntegratorTest.class,
+    ImagePrefetcherTest.class
 })public class Suite {
 
 }
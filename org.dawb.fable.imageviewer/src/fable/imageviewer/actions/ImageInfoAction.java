@@ -96,6 +96,9 @@ public class ImageInfoAction extends AbstractImageComponentAction implements IVi
 		info += "min = " + statistics[0] + "\n";
 		info += "max = " + statistics[1] + "\n";
 		info += "mean = " + statistics[2] + "\n";
+		info += "std dev = "
+				+ (float) imageModel.getImageStatistics().getStandardDeviation()
+				+ "\n";
 		imageModel = imageComp.getImageSavedModel();
 		if(imageComp.isImageDiffOn() && imageModel != null) {
 			statistics = imageModel.getStatistics();
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.actions;
+
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.ui.IViewActionDelegate;
+
+import fable.imageviewer.internal.ImageUtils;
+import fable.python.ImageProjection;
+
+/**
+ * Action to show the maximum, sum, mean or standard deviation of all the
+ * filtered files of the current sample. The type is taken from the end of
+ * the id of the action: Max, Sum, Mean or Std.
+ */
+public class ProjectionAction extends AbstractImageComponentAction implements IViewActionDelegate {
+
+	/**
+	 * Do-nothing default constructor.
+	 */
+	public ProjectionAction() {
+	}
+
+	@Override
+	public void run(IAction action) {
+		final String id = action.getId();
+		if (id == null || id.endsWith("Max")) {
+			ImageUtils.Projection(ImageProjection.MAX);
+		} else if (id.endsWith("Sum")) {
+			ImageUtils.Projection(ImageProjection.SUM);
+		} else if (id.endsWith("Mean")) {
+			ImageUtils.Projection(ImageProjection.MEAN);
+		} else if (id.endsWith("Std")) {
+			ImageUtils.Projection(ImageProjection.STD);
+		}
+	}
+
+	@Override
+	public void run() {
+		run(this);
+	}
+
+	@Override
+	public void selectionChanged(IAction action, ISelection selection) {
+		// Projections are of all the filtered files
+	}
+}
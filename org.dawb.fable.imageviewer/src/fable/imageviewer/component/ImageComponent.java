@@ -9,13 +9,13 @@
  */ 
 package fable.imageviewer.component;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import javax.swing.SpringLayout.Constraints;
 
 import org.apache.lucene.util.Constants;
 import org.dawb.common.ui.image.PaletteFactory;
-import org.dawb.fabio.FableJep;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -52,6 +52,7 @@ import fable.imageviewer.internal.IImagesVarKeys;
 import fable.imageviewer.internal.ZoomSelection;
 import fable.imageviewer.model.ImageModel;
 import fable.imageviewer.model.ImageModelFactory;
+import fable.imageviewer.model.PeakOverlay;
 import fable.imageviewer.preferences.PreferenceConstants;
 import fable.imageviewer.rcp.Activator;
 import fable.imageviewer.views.ImageView;
@@ -152,6 +153,11 @@ public class ImageComponent implements IPropertyChangeListener,
 	 * these.
 	 */
 	public static final String SECONDARY_ID_SLICE2D = "Slice 2D";
+	/**
+	 * Secondary ID for the ImageView showing the projections of a sample.
+	 * There should be zero or one of these.
+	 */
+	public static final String SECONDARY_ID_PROJECTION = "Projection";
 	/**
 	 * Number to use for the secondary ID for the first copy ImageView. Do not
 	 * use this explicitly as a secondary ID. Use zoomSecondaryID and increment
@@ -192,7 +198,10 @@ public class ImageComponent implements IPropertyChangeListener,
 	private ImageModel imageSavedModel = null;
 	// KE: TODO: This is not set anywhere
 	private String fileNameSaved = "";
-	private Vector<Float> peaks;
+	private PeakOverlay peakOverlay;
+	/** The peak file the overlay was made from and its version then */
+	private PeakSearchSpt peakSource;
+	private int peakSourceVersion;
 	/**
 	 * Coordinates representing the current coordinate system. Note that this
 	 * system is related to the oriented image.
@@ -419,11 +428,9 @@ public class ImageComponent implements IPropertyChangeListener,
 					setPeaksOn(true);
 					image.displayImage();
 					// Show peaks if there are some peaks
-					Vector<Float> vals = peakFile.getTabChildren();
-					if (vals != null) {
-						setPeaks(vals);
-						image.showPeaks();
-					}
+					setPeaks(peakFile);
+					peakOverlay.select(null);
+					image.showPeaks();
 				}
 			} else if (first instanceof Peak) {
 				// Only do this for the main or zoom secondaryId
@@ -437,24 +444,22 @@ public class ImageComponent implements IPropertyChangeListener,
 				int nPeaksToDisplay = selections.length;
 
 				float[] coloredPeak = new float[nPeaksToDisplay * 2];
-				int j;
 				int k = 0;
 				for (int ip = 0; ip < selections.length; ip++) {
+					if (!(selections[ip] instanceof Peak)) {
+						continue;
+					}
 					Peak peak = (Peak) selections[ip];
 					if (peak.isVisible()) {
-						j = k + 1;
-						coloredPeak[k] = Float.valueOf(peak.getS());
-						coloredPeak[j] = Float.valueOf(peak.getF());
-						k += 2;
+						coloredPeak[k++] = peak.getFloatValue("s");
+						coloredPeak[k++] = peak.getFloatValue("f");
 					}
 				}
-				Vector<Float> vals = parent.getTabChildren();
-				if (vals != null) {
-					setPeaks(vals);
-				}
+				// Only made again if peaks were read, shown or hidden
+				setPeaks(parent);
 				setPeaksOn(true);
 				// Draw peaks in red with selected peaks in green
-				image.showSelectedPeaks(coloredPeak);
+				image.showSelectedPeaks(Arrays.copyOf(coloredPeak, k));
 			}
 		}
 
@@ -500,7 +505,8 @@ public class ImageComponent implements IPropertyChangeListener,
 				controls.setStatusText("Loading... ");
 			}
 	
-			peaks = null;
+			peakOverlay = null;
+			peakSource = null;
 			if (image.isDisposed()) return;
 			
 			image.setImageChanged(true);
@@ -674,7 +680,41 @@ public class ImageComponent implements IPropertyChangeListener,
 	 *            - list of peaks as pairs of [y,z] coordinates
 	 */
 	public void setPeaks(Vector<Float> vals) {
-		peaks = vals;
+		float[] positions = null;
+		if (vals != null) {
+			positions = new float[vals.size()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = vals.elementAt(i);
+			}
+		}
+		setPeaks(positions);
+	}
+
+	/**
+	 * set the peaks to display
+	 * 
+	 * @param positions
+	 *            - peaks as pairs of [y,z] coordinates, null for none
+	 */
+	public void setPeaks(float[] positions) {
+		peakOverlay = positions != null ? new PeakOverlay(positions) : null;
+		peakSource = null;
+	}
+
+	/**
+	 * Display the visible peaks of a peak file, keeping the overlay if the
+	 * peaks did not change since it was made.
+	 * 
+	 * @param peakFile
+	 */
+	private void setPeaks(PeakSearchSpt peakFile) {
+		int version = peakFile.getVersion();
+		if (peakOverlay == null || peakSource != peakFile
+				|| peakSourceVersion != version) {
+			setPeaks(peakFile.getPositions());
+			peakSource = peakFile;
+			peakSourceVersion = version;
+		}
 	}
 
 	/*
@@ -738,9 +778,7 @@ public class ImageComponent implements IPropertyChangeListener,
 							FableUtils.excNoTraceMsg(this,
 									"Reading files ahead interrupted", ex);
 						}
-						FableJep fableJep;
 						try {
-							fableJep = FableJep.getFableJep();
 							for (int i = fileReadFrom; i <= fileReadTo; i++) {
 								/*
 								 * do not read the current file in the
@@ -754,11 +792,10 @@ public class ImageComponent implements IPropertyChangeListener,
 										&& i != sampleIndex) {
 									controller.getCurrentsample()
 											.getFilteredfiles().get(i)
-											.readImageAsFloat(fableJep);
+											.readImageAsFloat(null);
 								}
 								monitor.worked(1);
 							}
-							fableJep.close();
 						} catch (Throwable ex) {
 							/*
 							 * FableUtils.excNoTraceMsg(this,
@@ -852,7 +889,9 @@ public class ImageComponent implements IPropertyChangeListener,
 		// since this method runs after the side plot it updated.
 		//this.setUserMinimum(src.getUserMinimum());
 		//this.setUserMaximum(src.getUserMaximum());
-		this.setPeaks(src.getPeaks());
+		// A copy, the selection of each view is its own
+		PeakOverlay overlay = src.getPeakOverlay();
+		this.setPeaks(overlay != null ? overlay.getPositions() : null);
 		this.setPeaksOn(src.isPeaksOn());
 		
 		// This must be done last
@@ -1169,12 +1208,28 @@ public class ImageComponent implements IPropertyChangeListener,
 	}
 
 	/**
-	 * @return the peaks
+	 * @return the peaks as pairs of [y,z] coordinates
+	 * @see #getPeakOverlay()
 	 */
 	public Vector<Float> getPeaks() {
+		if (peakOverlay == null) {
+			return null;
+		}
+		float[] positions = peakOverlay.getPositions();
+		Vector<Float> peaks = new Vector<Float>(positions.length);
+		for (float position : positions) {
+			peaks.add(position);
+		}
 		return peaks;
 	}
 
+	/**
+	 * @return the peaks to draw and the selected ones, null if there are none
+	 */
+	public PeakOverlay getPeakOverlay() {
+		return peakOverlay;
+	}
+
 	/**
 	 * @return the imageDiffOn
 	 */
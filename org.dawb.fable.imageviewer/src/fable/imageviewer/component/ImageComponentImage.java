@@ -12,11 +12,11 @@ package fable.imageviewer.component;
 import java.awt.event.MouseWheelEvent;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Vector;
 
 import javax.sound.sampled.Line;
 import javax.swing.border.LineBorder;
 
+import org.dawb.fabio.ImageStatistics;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.dnd.DND;
@@ -65,9 +65,12 @@ import fable.framework.navigator.controller.SampleController;
 import fable.framework.toolbox.EclipseUtils;
 import fable.framework.toolbox.FableUtils;
 import fable.imageviewer.internal.IImagesVarKeys;
+import fable.imageviewer.internal.ImageRenderer;
 import fable.imageviewer.internal.ZoomSelection;
 import fable.imageviewer.model.ImageModel;
 import fable.imageviewer.model.ImageModelFactory;
+import fable.imageviewer.model.ImagePyramid;
+import fable.imageviewer.model.PeakOverlay;
 import fable.imageviewer.preferences.PreferenceConstants;
 import fable.imageviewer.rcp.Activator;
 import fable.imageviewer.views.ImageView;
@@ -120,16 +123,33 @@ public class ImageComponentImage implements IImagesVarKeys {
 	 * The device-independent description of the image.
 	 */
 	private ImageData imageData;
+	/** The pyramid level and the range imageData was made with */
+	private int imageDataLevel = -1;
+	private float imageDataMinimum, imageDataMaximum;
 	/**
 	 * The device-independent description of the legend.
 	 */
 	private ImageData legendData;
+	/**
+	 * Scales and orients the pixels for imageData.
+	 */
+	private final ImageRenderer renderer = new ImageRenderer();
+	/**
+	 * Fractions of the pixels shown as the lowest and the highest colour of
+	 * the palette when autoscaling.
+	 */
+	private static final double AUTOSCALE_LOW = 0.001;
+	private static final double AUTOSCALE_HIGH = 0.999;
 	/**
 	 * Rectangle representing the zoomed, non-oriented image. x and y are
 	 * relative to the full non-oriented image. The float arrays correspond to
 	 * this Rectangle.
 	 */
 	private Rectangle imageRect = new Rectangle(0, 0, 0, 0);
+	/** True while the peaks drawn by showPeaks() are on the canvas */
+	private boolean peaksDrawn = false;
+	/** The overlay whose peaks showPeaks() drew last */
+	private PeakOverlay drawnOverlay;
 	/**
 	 * Rectangle representing the full, non-oriented image. x and y are zero. Is
 	 * the same as imageModel.getRectangle() and is included for convenience.
@@ -390,6 +410,14 @@ public class ImageComponentImage implements IImagesVarKeys {
 						|| canvasHeight != bounds.height) {
 					double imageXScale = xScale;
 					double imageYScale = yScale;
+					// Another level of the pyramid may be closer to the new
+					// size, a coarse one would be blurred when enlarged
+					ImageModel model = getShownModel();
+					if (imageData != null && model != null
+							&& getDisplayLevel(model) != imageDataLevel) {
+						imageData = createImageData(imageDataMinimum,
+								imageDataMaximum, iv.getPalette());
+					}
 					createScreenImage(imageData);
 					
 					
@@ -1503,36 +1531,32 @@ public class ImageComponentImage implements IImagesVarKeys {
 	}
 
 	/**
-	 * Draws red squares around all peaks using the currentLinePeakWidth.
+	 * Draws red squares around the peaks in the image rectangle, green ones
+	 * around those which are selected, using the currentLinePeakWidth.
 	 */
 	public void showPeaks() {
-		Vector<Float> peaks = iv.getPeaks();
-		if (peaks != null) {
-			Rectangle rect;
-			Color color = display.getSystemColor(SWT.COLOR_RED);
-			imageCanvasGC.setForeground(color);
-			imageCanvasGC.setLineWidth(1);
-			int x, y;
-			Point point = new Point(0, 0);
-			int peakMarkerSize = iv.getPeakMarkerSize();
-			for (int i = 0; i < peaks.size() / 2; i++) {
-				// Convert TotalCrys to screen coordinates
-				// Add .5 as the pixel values are effectively at the upper left
-				point = tcToScreen(peaks.elementAt(i * 2) + .5f, peaks
-						.elementAt(i * 2 + 1) + .5f);
-				x = point.x;
-				y = point.y;
-				x -= (peakMarkerSize / 2);
-				y -= (peakMarkerSize / 2);
-				rect = new Rectangle(x, y, peakMarkerSize, peakMarkerSize);
-				imageCanvasGC.drawRectangle(rect);
-			}
+		PeakOverlay overlay = iv.getPeakOverlay();
+		if (overlay != null) {
+			// Peaks whose marker can be seen, the marker may stick out of
+			// the image by half its size
+			float margin = (float) (iv.getPeakMarkerSize()
+					* Math.max(xScale, yScale) / 2 + 1);
+			int[] visible = overlay.find(imageRect.x - .5f - margin,
+					imageRect.y - .5f - margin, imageRect.x + imageRect.width
+							- .5f + margin, imageRect.y + imageRect.height
+							- .5f + margin);
+			drawPeaks(overlay, visible);
+			peaksDrawn = true;
+			drawnOverlay = overlay;
 		}
 	}
 
 	/**
-	 * First calls showPeaks to draw red squares, then draws green squares
-	 * around all peaks in the array using the currentLinePeakWidth.
+	 * Marks the peaks in the array in green and the other peaks in red. When
+	 * the peaks of the same overlay are already drawn, only those which were
+	 * selected or not selected before are drawn again. When the overlay was
+	 * replaced, for instance because peaks were hidden, the image is drawn
+	 * again to erase the old markers.
 	 * 
 	 * @param peaksToColor
 	 *            An array of TotalCryst coordinates [y0,z0,y1,z1,...] to have a
@@ -1540,28 +1564,42 @@ public class ImageComponentImage implements IImagesVarKeys {
 	 *            peaks in green.
 	 */
 	public void showSelectedPeaks(float[] peaksToColor) {
-		showPeaks();
-		if (peaksToColor != null) {
-			Rectangle rect;
-			Color color = display.getSystemColor(SWT.COLOR_GREEN);
-			imageCanvasGC.setForeground(color);
-			imageCanvasGC.setLineWidth(1);
-			int x, y, index;
-			Point point = new Point(0, 0);
-			int peakMarkerSize = iv.getPeakMarkerSize();
-			for (int i = 0; i < peaksToColor.length / 2; i++) {
-				index = i * 2;
-				// Add .5 as the pixel values are effectively at the upper left
-				point = tcToScreen(peaksToColor[index] + .5f,
-						peaksToColor[index + 1] + .5f);
-				// Convert TotalCrys to screen coordinates
-				x = point.x;
-				y = point.y;
-				x -= (peakMarkerSize / 2);
-				y -= (peakMarkerSize / 2);
-				rect = new Rectangle(x, y, peakMarkerSize, peakMarkerSize);
-				imageCanvasGC.drawRectangle(rect);
+		PeakOverlay overlay = iv.getPeakOverlay();
+		if (overlay == null) {
+			return;
+		}
+		int[] changed = overlay.select(peaksToColor);
+		if (peaksDrawn && overlay != drawnOverlay) {
+			drawImage(false);
+		}
+		if (peaksDrawn) {
+			drawPeaks(overlay, changed);
+		} else {
+			showPeaks();
+		}
+	}
+
+	/**
+	 * Draws the markers of some peaks, in green if they are selected.
+	 */
+	private void drawPeaks(PeakOverlay overlay, int[] indices) {
+		Color red = display.getSystemColor(SWT.COLOR_RED);
+		Color green = display.getSystemColor(SWT.COLOR_GREEN);
+		imageCanvasGC.setLineWidth(1);
+		int peakMarkerSize = iv.getPeakMarkerSize();
+		Color current = null;
+		for (int peak : indices) {
+			Color color = overlay.isSelected(peak) ? green : red;
+			if (color != current) {
+				imageCanvasGC.setForeground(color);
+				current = color;
 			}
+			// Convert TotalCrys to screen coordinates
+			// Add .5 as the pixel values are effectively at the upper left
+			Point point = tcToScreen(overlay.getY(peak) + .5f, overlay
+					.getZ(peak) + .5f);
+			imageCanvasGC.drawRectangle(point.x - peakMarkerSize / 2, point.y
+					- peakMarkerSize / 2, peakMarkerSize, peakMarkerSize);
 		}
 	}
 
@@ -2191,10 +2229,19 @@ public class ImageComponentImage implements IImagesVarKeys {
 		float min, max;
 		final boolean isAutoScale = Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.P_AUTOSCALE);
 		if (isAutoScale) {
-			min = iv.getMinimum();
-			max = 3*iv.getMean();
-			if (max > iv.getMaximum())	
+			// Scale between percentiles of the histogram so that a few hot
+			// or dead pixels do not set the range
+			ImageModel model = iv.isImageDiffOn() ? iv.getImageDiffModel()
+					: iv.getImageModel();
+			if (model == null)
+				model = iv.getImageModel();
+			ImageStatistics statistics = model.getImageStatistics(imageRect);
+			min = statistics.getPercentile(AUTOSCALE_LOW);
+			max = statistics.getPercentile(AUTOSCALE_HIGH);
+			if (!(max > min)) {
+				min = iv.getMinimum();
 				max = iv.getMaximum();
+			}
 		} else {
 			min = iv.getUserMinimum();
 			max = iv.getUserMaximum();
@@ -2227,65 +2274,87 @@ public class ImageComponentImage implements IImagesVarKeys {
 	public ImageData createImageData(final float _minimum, 
 			                         final float _maximum,
 			                         final PaletteData palette) {
+		ImageModel model = getShownModel();
 		// Check for zero length
-		float[] screenImageData;
-		if (!iv.isImageDiffOn()) {
-			screenImageData = iv.getImageModel().getData(imageRect);
-		} else {
-			screenImageData = iv.getImageDiffModel().getData(imageRect);
-		}
-
-		int len = screenImageData.length;
-		if (len == 0)
+		if (model.getData() == null || imageRect.width * imageRect.height == 0)
 			return null;
 		// Calculate the oriented rectangles
 		// TODO: Are these needed here?
 		calculateMainRectangles();
 		iv.resetCoordinates();
 
-		// Loop over pixels
-		float scale_8bit;
-		float maxPixel;
-		if (_maximum > _minimum) {
-			scale_8bit = 255f / (_maximum - _minimum);
-			maxPixel = _maximum - _minimum;
-		} else {
-			scale_8bit = 1f;
-			maxPixel = 0xFF;
+		// Take the pixels from the level of the pyramid closest to the size
+		// of the canvas. The level is rounded out to whole bins, which moves
+		// the image by less than a screen pixel.
+		ImagePyramid pyramid = model.getPyramid(getBinning());
+		int level = pyramid.getLevel(getDisplayScale());
+		imageDataLevel = level;
+		imageDataMinimum = _minimum;
+		imageDataMaximum = _maximum;
+		Rectangle levelRect = pyramid.getRect(level, imageRect);
+		float[] screenImageData = pyramid.getData(level, imageRect);
+
+		// Scale and orient in one pass, the bytes are reused while the
+		// zoomed area keeps the same size
+		int orientation = iv.getOrientation();
+		byte[] scaledImageAsByte = renderer.render(screenImageData,
+				levelRect.width, levelRect.height, orientation,
+				_minimum, _maximum);
+		boolean transposed = orientation == O_OMPO || orientation == O_OPMO
+				|| orientation == O_OMMO || orientation == O_OPPO;
+		ImageData imageData = new ImageData(transposed ? levelRect.height
+				: levelRect.width, transposed ? levelRect.width
+				: levelRect.height, 8, palette, 1, scaledImageAsByte);
+		return imageData;
+	}
+
+	/**
+	 * @return The model whose pixels are shown, the difference model when
+	 *         the difference is on.
+	 */
+	private ImageModel getShownModel() {
+		if (!iv.isImageDiffOn()) {
+			return iv.getImageModel();
 		}
-		byte[] scaledImageAsByte = new byte[len];
-		float scaled_pixel;
-		byte pixel;
-		Point p1;
-		Point p2 = new Point(0, 0);
-		int index;
-		for (int i = 0; i < len; i++) {
-			if (screenImageData[i] < _minimum) {
-				scaled_pixel = 0;
-			} else if (screenImageData[i] >= _maximum) {
-				scaled_pixel = maxPixel;
-			} else {
-				scaled_pixel = screenImageData[i] - _minimum;
-			}
-			scaled_pixel = scaled_pixel * scale_8bit;
-			// Keep it in bounds
-			pixel = (byte) (0x000000FF & ((int) scaled_pixel));
-			p2.x = i % imageRect.width;
-			p2.y = i / imageRect.width;
-			p1 = imageToOriented(p2);
-			index = p1.y * orientedRect.width + p1.x;
-			// if (false) {
-			// // If this is needed, we have a problem
-			// if (index >= len)
-			// index = len - 1;
-			// if (index < 0)
-			// index = 0;
-			// }
-			scaledImageAsByte[index] = pixel;
+		return iv.getImageDiffModel();
+	}
+
+	/**
+	 * @return The level of the pyramid of the model closest to the size of
+	 *         the canvas.
+	 */
+	private int getDisplayLevel(ImageModel model) {
+		return model.getPyramid(getBinning()).getLevel(getDisplayScale());
+	}
+
+	/**
+	 * Returns the number of image pixels per screen pixel the image will be
+	 * shown with, the smaller of the two directions unless the aspect ratio is
+	 * kept.
+	 * 
+	 * @return The scale, 1 if the canvas has no size yet.
+	 */
+	private double getDisplayScale() {
+		Rectangle bounds = imageCanvas.getBounds();
+		if (bounds.width <= 0 || bounds.height <= 0)
+			return 1;
+		double x = (double) orientedRect.width / (double) bounds.width;
+		double y = (double) orientedRect.height / (double) bounds.height;
+		final boolean isKeepAspect = Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.P_KEEPASPECT);
+		return isKeepAspect ? Math.max(x, y) : Math.min(x, y);
+	}
+
+	/**
+	 * @return How pixels are binned when the image is shown smaller than its
+	 *         size, from the preferences.
+	 */
+	private ImagePyramid.Binning getBinning() {
+		String binning = Activator.getDefault().getPreferenceStore().getString(PreferenceConstants.P_BINNING);
+		try {
+			return ImagePyramid.Binning.valueOf(binning);
+		} catch (IllegalArgumentException e) {
+			return ImagePyramid.Binning.MAX;
 		}
-		ImageData imageData = new ImageData(orientedRect.width,
-				orientedRect.height, 8, palette, 1, scaledImageAsByte);
-		return imageData;
 	}
 
 	/**
@@ -2358,6 +2427,7 @@ public class ImageComponentImage implements IImagesVarKeys {
 	
 		if (imageCanvasGC == null || image == null) return;
 		imageCanvasGC.drawImage(image, 0, 0);
+		peaksDrawn = false;
 		
 		
 		if (iv.isPeaksOn()) {
@@ -3034,6 +3104,7 @@ public class ImageComponentImage implements IImagesVarKeys {
 		if (imageCanvas != null && imageCanvasGC != null) {
 			Rectangle bounds = imageCanvas.getBounds();
 			imageCanvasGC.fillRectangle(0, 0, bounds.width, bounds.height);
+			peaksDrawn = false;
 		}
 		// TODO
 		// Set it to not defining a selection rectangle and not showing the
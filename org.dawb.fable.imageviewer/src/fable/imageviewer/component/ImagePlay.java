@@ -9,8 +9,11 @@
  */ 
 package fable.imageviewer.component;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
+import org.dawb.fabio.FabioFile;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -19,17 +22,24 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.ui.part.ViewPart;
 
 import fable.framework.navigator.controller.SampleController;
 import fable.framework.navigator.views.SampleNavigatorView;
 import fable.framework.toolbox.FableUtils;
+import fable.imageviewer.internal.ImagePrefetcher;
 
 /**
  * ImagePlay implements a view to step through images and/or play images in a
  * loop. The play controls view does not allow multiple views. The view can be
  * detached for ease of use.
  * 
+ * While playing, the next frames are read into the image cache on background
+ * threads. Frames are shown at the chosen rate; when the display falls behind,
+ * frames are skipped rather than slowing down, and the rate reached is shown.
+ * 
  * @author Andy Gotz (ESRF)
  * 
  */
@@ -39,12 +49,29 @@ public class ImagePlay extends ViewPart {
 	private Button imageNextButton, imagePreviousButton;
 	private Button imageFirstButton, imageLastButton;
 	private Button imagePauseButton;
+	private Spinner rateSpinner;
+	private Label rateLabel;
 	/**
 	 * Flag indicating whether it is playing or paused.
 	 */
-	private boolean advancePlay = false;
-	private int currentFileIndex = 0, playStep = 1, playWait = 3000;
+	private volatile boolean advancePlay = false;
+	private volatile int playStep = 1, playRate = DEFAULT_RATE;
+	/**
+	 * Factor of the rate chosen for the play button used last, FAST for the
+	 * fast buttons.
+	 */
+	private int playFactor = 1;
+	private int currentFileIndex = 0;
 	private Thread playThread = null;
+	/**
+	 * Frames per second and the factor for the fast buttons.
+	 */
+	private static final int DEFAULT_RATE = 10, MAX_RATE = 100, FAST = 10;
+	/**
+	 * Threads reading frames ahead and the maximum number of frames read
+	 * ahead.
+	 */
+	private static final int READ_THREADS = 2, MAX_READ_AHEAD = 32;
 	private static ImageComponent iv = null;
 
 	public ImagePlay() {
@@ -70,7 +97,7 @@ public class ImagePlay extends ViewPart {
 		imageFirstButton.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
 				if (isAdvancePlay()) {
-					startPlay(-1, 300);
+					startPlay(-1, FAST);
 				} else {
 					if (iv == null) {
 						FableUtils.errMsg(this,
@@ -92,7 +119,7 @@ public class ImagePlay extends ViewPart {
 		imagePreviousButton.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent e) {
 				if (isAdvancePlay()) {
-					startPlay(-1, 3000);
+					startPlay(-1, 1);
 				} else {
 					if (iv == null) {
 						FableUtils.errMsg(this,
@@ -123,7 +150,7 @@ public class ImagePlay extends ViewPart {
 			public void widgetSelected(SelectionEvent e) {
 				setAdvancePlay(!isAdvancePlay());
 				if (isAdvancePlay()) {
-					startPlay(1, 3000);
+					startPlay(1, 1);
 					imagePauseButton.setText("||");
 					imagePauseButton.setToolTipText("Pause");
 				} else {
@@ -145,7 +172,7 @@ public class ImagePlay extends ViewPart {
 
 			public void widgetSelected(SelectionEvent e) {
 				if (isAdvancePlay()) {
-					startPlay(1, 3000);
+					startPlay(1, 1);
 				} else {
 					if (iv == null) {
 						FableUtils.errMsg(this,
@@ -176,7 +203,7 @@ public class ImagePlay extends ViewPart {
 
 			public void widgetSelected(SelectionEvent e) {
 				if (isAdvancePlay()) {
-					startPlay(1, 300);
+					startPlay(1, FAST);
 				} else {
 					if (iv == null) {
 						FableUtils.errMsg(this,
@@ -194,6 +221,44 @@ public class ImagePlay extends ViewPart {
 			}
 		});
 
+		Label label = new Label(parent, SWT.NONE);
+		label.setText("Frames/s");
+		label.setLayoutData(new GridData(SWT.END, SWT.CENTER, true, false));
+		rateSpinner = new Spinner(parent, SWT.BORDER);
+		rateSpinner.setMinimum(1);
+		rateSpinner.setMaximum(MAX_RATE);
+		rateSpinner.setSelection(DEFAULT_RATE);
+		rateSpinner.setLayoutData(new GridData(buttonAlignH, buttonAlignV,
+				buttonGrabH, buttonGrabV));
+		rateSpinner.setToolTipText("Number of images to show per second, "
+				+ FAST + " times more with << and >>");
+		rateSpinner.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				updatePlayRate();
+			}
+		});
+		rateLabel = new Label(parent, SWT.NONE);
+		rateLabel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true,
+				false, 3, 1));
+		rateLabel.setToolTipText("Images shown per second and images skipped "
+				+ "to keep up");
+	}
+
+	/**
+	 * @return the rate chosen in frames per second
+	 */
+	private int getRate() {
+		if (rateSpinner == null || rateSpinner.isDisposed()) {
+			return DEFAULT_RATE;
+		}
+		return rateSpinner.getSelection();
+	}
+
+	/**
+	 * Play at the rate chosen times the factor of the play button used last.
+	 */
+	private void updatePlayRate() {
+		playRate = Math.max(1, Math.min(getRate() * playFactor, MAX_RATE * FAST));
 	}
 
 	@Override
@@ -217,9 +282,18 @@ public class ImagePlay extends ViewPart {
 		this.advancePlay = advancePlay;
 	}
 
-	public void startPlay(int step, int wait) {
+	/**
+	 * Start playing, or change the direction and the rate if already playing.
+	 * 
+	 * @param step
+	 *            number of images to advance by, negative to play backwards
+	 * @param factor
+	 *            of the rate chosen, 1 or FAST
+	 */
+	public void startPlay(int step, int factor) {
 		playStep = step;
-		playWait = wait;
+		playFactor = factor;
+		updatePlayRate();
 		if (playThread == null) {
 			playThread = PlayThread();
 			playThread.start();
@@ -235,15 +309,16 @@ public class ImagePlay extends ViewPart {
 	 * @return play thread
 	 */
 	public Thread PlayThread() {
-		return new Thread() {
+		return new Thread("Image play") {
 			public void run() {
 				if (iv == null) {
 					FableUtils.errMsg(this,
 							"PlayThread: Unable to find a main ImageView");
+					playThread = null;
 					return;
 				}
-				SampleController controller = iv.getController();
-				Vector<Integer> selectedFiles = SampleNavigatorView.view
+				final SampleController controller = iv.getController();
+				final Vector<Integer> selectedFiles = SampleNavigatorView.view
 						.getSelectedFilesIndex();
 				int selectedFilesIndex = 0;
 				if (selectedFiles.size() <= 1) {
@@ -251,55 +326,143 @@ public class ImagePlay extends ViewPart {
 				} else {
 					currentFileIndex = selectedFiles.firstElement();
 				}
-				while (advancePlay) {
-					try {
+				final ImagePrefetcher prefetcher = new ImagePrefetcher(
+						READ_THREADS);
+				long due = System.nanoTime();
+				long rateStart = due;
+				int shown = 0, skipped = 0;
+				try {
+					while (advancePlay) {
+						if (controller.getCurrentsample() == null
+								|| controller.getCurrentsample()
+										.getFilteredfiles().size() == 0) {
+							Thread.sleep(1000 / playRate);
+							continue;
+						}
+						final Vector<FabioFile> files = controller
+								.getCurrentsample().getFilteredfiles();
+						final long interval = 1000000000L / playRate;
+						final int step = playStep;
+
+						// Skip the frames whose time has already passed
+						int advance = 1;
+						long now = System.nanoTime();
+						if (now - due > interval) {
+							advance += (int) ((now - due) / interval);
+							skipped += advance - 1;
+							due = now;
+						}
 						if (selectedFiles.size() <= 1) {
-							currentFileIndex += playStep;
+							currentFileIndex = wrap(currentFileIndex + advance
+									* step, files.size());
 						} else {
-							selectedFilesIndex += playStep;
-							if (selectedFilesIndex >= selectedFiles.size())
-								selectedFilesIndex = 0;
+							selectedFilesIndex = wrap(selectedFilesIndex
+									+ advance * step, selectedFiles.size());
 							currentFileIndex = selectedFiles
 									.elementAt(selectedFilesIndex);
+							if (currentFileIndex >= files.size()) {
+								currentFileIndex = 0;
+							}
 						}
+
+						// Read about a second ahead
+						final int readAhead = Math.min(MAX_READ_AHEAD,
+								Math.max(4, playRate));
+						final List<FabioFile> next = new ArrayList<FabioFile>(
+								readAhead + 1);
+						next.add(files.get(currentFileIndex));
+						for (int i = 1; i <= readAhead; i++) {
+							int index;
+							if (selectedFiles.size() <= 1) {
+								index = wrap(currentFileIndex + i * step,
+										files.size());
+							} else {
+								index = selectedFiles.elementAt(wrap(
+										selectedFilesIndex + i * step,
+										selectedFiles.size()));
+							}
+							if (index < files.size()) {
+								next.add(files.get(index));
+							}
+						}
+						prefetcher.prefetch(next);
+						prefetcher.await(files.get(currentFileIndex),
+								Math.max(1000, interval / 1000000L));
+
+						long wait = (due - System.nanoTime()) / 1000000L;
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						due += interval;
+
 						/** Added by Gaelle for 2d peaks file. */
-						controller.getNext(playStep);
+						controller.getNext(advance * step);
 						/***/
-						if (controller.getCurrentsample() != null) {
-							if (currentFileIndex >= controller
-									.getCurrentsample().getFilteredfiles()
-									.size()) {
-								currentFileIndex = 0;
-							} else if (currentFileIndex < 0) {
-								currentFileIndex = controller
-										.getCurrentsample().getFilteredfiles()
-										.size() - 1;
-							}
 
-							/*
-							 * why does the controller need to be in the SWT
-							 * thread to set the sample file index ?
-							 */
-							Display.getDefault().asyncExec(new Runnable() {
-								public void run() {
-									iv.getController().setCurrentFileIndex(
-											currentFileIndex);
-								}
-							});
+						shown++;
+						now = System.nanoTime();
+						String rate = null;
+						if (now - rateStart >= 1000000000L) {
+							rate = String.format("%.1f images/s, %d skipped",
+									shown * 1e9 / (now - rateStart), skipped);
+							shown = 0;
+							skipped = 0;
+							rateStart = now;
 						}
-						Thread.sleep(playWait);
-					} catch (InterruptedException ex) {
-						// KE: Is this an unexpected occurrence. If not, better
-						// to use a SWTUtils dialog.
-						FableUtils.excTraceMsg(this, "PlayThread Interrupted",
-								ex);
+						showFile(currentFileIndex, rate);
 					}
+				} catch (InterruptedException ex) {
+					// KE: Is this an unexpected occurrence. If not, better
+					// to use a SWTUtils dialog.
+					FableUtils.excTraceMsg(this, "PlayThread Interrupted", ex);
+				} finally {
+					prefetcher.dispose();
+					playThread = null;
 				}
-				playThread = null;
+				showFile(-1, "");
 			}
 		};
 	}
 
+	/**
+	 * @return index wrapped around to stay between 0 and size - 1
+	 */
+	private static int wrap(int index, int size) {
+		index = index % size;
+		return index < 0 ? index + size : index;
+	}
+
+	/**
+	 * Show a file and the rate reached. Waits for the image to be shown so
+	 * that the rate is not faster than the display.
+	 * 
+	 * @param fileIndex
+	 *            the file to show, -1 for none
+	 * @param rate
+	 *            the text for the rate, null to leave it
+	 */
+	private void showFile(final int fileIndex, final String rate) {
+		final Display display = Display.getDefault();
+		if (display.isDisposed()) {
+			return;
+		}
+		/*
+		 * why does the controller need to be in the SWT thread to set the
+		 * sample file index ?
+		 */
+		display.syncExec(new Runnable() {
+			public void run() {
+				if (fileIndex >= 0) {
+					iv.getController().setCurrentFileIndex(fileIndex);
+				}
+				if (rate != null && rateLabel != null
+						&& !rateLabel.isDisposed()) {
+					rateLabel.setText(rate);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Set the view to which the play controls will apply (usually the main
 	 * image view)
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.internal;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.ImageCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the frames which are going to be shown next into the image cache on
+ * background threads, so that the viewer finds them in memory when it gets
+ * to them.
+ * <p>
+ * Each call to prefetch(...) gives the frames wanted, in the order they will
+ * be shown. Frames already in the cache or being read are not asked for
+ * twice and reads of frames which are no longer wanted, for instance after
+ * the direction changed, are cancelled if they did not start yet.
+ */
+public class ImagePrefetcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImagePrefetcher.class);
+
+	private final ExecutorService           executor;
+	private final Map<FabioFile, Future<?>> pending;
+
+	/**
+	 * @param threads
+	 *            number of frames read at the same time
+	 */
+	public ImagePrefetcher(final int threads) {
+		this.pending  = new LinkedHashMap<FabioFile, Future<?>>();
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "Image prefetch " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Read these frames into the cache unless they are there already.
+	 *
+	 * @param files
+	 *            the frames in the order they are needed
+	 */
+	public synchronized void prefetch(final List<FabioFile> files) {
+		final Set<FabioFile> wanted = new HashSet<FabioFile>(files);
+		for (Iterator<Entry<FabioFile, Future<?>>> it = pending.entrySet().iterator(); it.hasNext();) {
+			final Entry<FabioFile, Future<?>> entry = it.next();
+			if (entry.getValue().isDone()) {
+				it.remove();
+			} else if (!wanted.contains(entry.getKey())) {
+				entry.getValue().cancel(false);
+				it.remove();
+			}
+		}
+		for (final FabioFile file : files) {
+			if (pending.containsKey(file) || isLoaded(file)) continue;
+			pending.put(file, executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						file.readImageAsFloat(null);
+					} catch (Throwable e) {
+						logger.debug("Cannot read ahead " + file.getFileName(), e);
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return true if the frame is in the image cache
+	 */
+	public boolean isLoaded(final FabioFile file) {
+		return ImageCache.getDefault().getIfPresent(file.getCacheKey()) != null;
+	}
+
+	/**
+	 * Wait for a frame asked for with prefetch(...) to be read.
+	 *
+	 * @param file
+	 * @param timeout
+	 *            in ms
+	 * @return true if the frame is in the cache
+	 */
+	public boolean await(final FabioFile file, final long timeout) throws InterruptedException {
+		final Future<?> future;
+		synchronized (this) {
+			future = pending.get(file);
+		}
+		if (future != null) {
+			try {
+				future.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException e) {
+				return false;
+			} catch (TimeoutException e) {
+				return false;
+			} catch (CancellationException e) {
+				return false;
+			}
+		}
+		return isLoaded(file);
+	}
+
+	/**
+	 * Cancel the reads not started yet, the threads stop when the frames
+	 * being read are in the cache.
+	 */
+	public synchronized void dispose() {
+		for (Future<?> future : pending.values()) future.cancel(false);
+		pending.clear();
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scales a float image to 8 bit pixels and orients it in one pass.
+ * <p>
+ * Each orientation is a start index and two strides in the oriented image,
+ * so the inner loop has no branch on the orientation and no division.
+ * Large images are split in bands of rows rendered by a pool of threads.
+ * The byte array is reused while the image size does not change.
+ * <p>
+ * Pixels are scaled linearly between minimum and maximum like the viewer
+ * always did, or through a lookup table if one is set.
+ */
+public class ImageRenderer implements IImagesVarKeys {
+
+	/**
+	 * Images smaller than this are rendered in the calling thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 512 * 512;
+
+	/**
+	 * Rows rendered together when the image is turned by 90 degrees.
+	 */
+	private static final int TILE = 32;
+
+	private static ExecutorService executor;
+
+	private byte[] buffer;
+	private byte[] lookupTable;
+
+	/**
+	 * Set a lookup table spread evenly between the minimum and the maximum
+	 * of render(...). Values below the minimum take the first entry and
+	 * values above the maximum the last one.
+	 *
+	 * @param lut
+	 *            the 8 bit value of each bin, null to scale linearly
+	 */
+	public void setLookupTable(final byte[] lut) {
+		this.lookupTable = lut;
+	}
+
+	public byte[] getLookupTable() {
+		return lookupTable;
+	}
+
+	/**
+	 * Create a lookup table with a gamma curve, 1 gives a linear scale and
+	 * values below 1 brighten the weak pixels.
+	 *
+	 * @param size
+	 *            number of bins
+	 * @param gamma
+	 * @return the lookup table
+	 */
+	public static byte[] createLookupTable(final int size, final double gamma) {
+		final byte[] lut = new byte[size];
+		for (int i = 0; i < size; i++) {
+			lut[i] = (byte) (0xFF & (int) (255.0 * Math.pow((double) i / (size - 1), gamma)));
+		}
+		return lut;
+	}
+
+	/**
+	 * Return the index of the first pixel and the strides of x and y in the
+	 * oriented image for the pixels of an image of this size.
+	 *
+	 * @param orientation
+	 *            one of the O_XXXX constants
+	 * @param width
+	 *            width of the image before orientation
+	 * @param height
+	 *            height of the image before orientation
+	 * @return {start, xStride, yStride}
+	 */
+	public static int[] getStrides(final int orientation, final int width, final int height) {
+		switch (orientation) {
+		default:
+		case O_MOOM:
+			return new int[] { 0, 1, width };
+		case O_MOOP:
+			return new int[] { width - 1, -1, width };
+		case O_POOM:
+			return new int[] { (height - 1) * width, 1, -width };
+		case O_POOP:
+			return new int[] { (height - 1) * width + width - 1, -1, -width };
+		case O_OMMO:
+			return new int[] { 0, height, 1 };
+		case O_OPMO:
+			return new int[] { height - 1, height, -1 };
+		case O_OMPO:
+			return new int[] { (width - 1) * height, -height, 1 };
+		case O_OPPO:
+			return new int[] { (width - 1) * height + height - 1, -height, -1 };
+		}
+	}
+
+	/**
+	 * Scale and orient the image. The returned array is reused by the next
+	 * call for an image of the same size.
+	 *
+	 * @param data
+	 *            pixels, index = x + y * width
+	 * @param width
+	 * @param height
+	 * @param orientation
+	 *            one of the O_XXXX constants
+	 * @param minimum
+	 *            value shown as 0
+	 * @param maximum
+	 *            value shown as 255
+	 * @return the 8 bit oriented image
+	 */
+	public byte[] render(final float[] data, final int width, final int height,
+			             final int orientation, final float minimum, final float maximum) {
+
+		final int len = width * height;
+		if (buffer == null || buffer.length != len) buffer = new byte[len];
+		final byte[] out = buffer;
+		final int[] strides = getStrides(orientation, width, height);
+		final byte[] lut = lookupTable;
+
+		if (len < PARALLEL_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2) {
+			renderRows(data, width, 0, height, strides, minimum, maximum, lut, out);
+			return out;
+		}
+
+		final int bands = 2 * Runtime.getRuntime().availableProcessors();
+		final int rows  = (height + bands - 1) / bands;
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(bands);
+		for (int first = 0; first < height; first += rows) {
+			final int from = first, to = Math.min(height, first + rows);
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					renderRows(data, width, from, to, strides, minimum, maximum, lut, out);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return out;
+	}
+
+	/**
+	 * Render rows from to to. When the image is turned by 90 degrees the rows
+	 * are done in blocks, column by column, so that the bytes are written in
+	 * order instead of one row of the output apart.
+	 */
+	private static void renderRows(final float[] data, final int width, final int from, final int to,
+			                       final int[] strides, final float minimum, final float maximum,
+			                       final byte[] lut, final byte[] out) {
+		final int start = strides[0], xStride = strides[1], yStride = strides[2];
+		final int block = Math.abs(xStride) == 1 ? 1 : TILE;
+
+		final int   last     = lut != null ? lut.length - 1 : 0;
+		final float binScale = lut != null && maximum > minimum ? lut.length / (maximum - minimum) : 0f;
+		final float scale, maxPixel;
+		if (maximum > minimum) {
+			scale    = 255f / (maximum - minimum);
+			maxPixel = maximum - minimum;
+		} else {
+			scale    = 1f;
+			maxPixel = 0xFF;
+		}
+
+		for (int y0 = from; y0 < to; y0 += block) {
+			final int y1 = Math.min(to, y0 + block);
+			for (int x = 0; x < width; x++) {
+				int src   = y0 * width + x;
+				int index = start + x * xStride + y0 * yStride;
+				for (int y = y0; y < y1; y++, src += width, index += yStride) {
+					final float value = data[src];
+					if (lut != null) {
+						int bin = (int) ((value - minimum) * binScale);
+						if (bin < 0) bin = 0;
+						else if (bin > last) bin = last;
+						out[index] = lut[bin];
+						continue;
+					}
+					final float pixel;
+					if (value < minimum) {
+						pixel = 0;
+					} else if (value >= maximum) {
+						pixel = maxPixel;
+					} else {
+						pixel = value - minimum;
+					}
+					out[index] = (byte) (0x000000FF & ((int) (pixel * scale)));
+				}
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Image renderer " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
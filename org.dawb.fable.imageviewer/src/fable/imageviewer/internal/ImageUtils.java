@@ -9,14 +9,15 @@
  */ 
 package fable.imageviewer.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
-import jep.JepException;
-
 import org.dawb.fabio.FabioFile;
-import org.dawb.fabio.FableJep;
+import org.dawb.fabio.ImageArea;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.swt.graphics.Rectangle;
@@ -34,7 +35,11 @@ import fable.framework.toolbox.EclipseUtils;
 import fable.framework.toolbox.FableUtils;
 import fable.imageviewer.component.ImageComponent;
 import fable.imageviewer.editor.ImageEditor;
+import fable.imageviewer.model.ImageModel;
+import fable.imageviewer.model.ImageModelFactory;
 import fable.imageviewer.views.ImageView;
+import fable.python.ImageProjection;
+import fable.python.ImageStack;
 import fable.python.Sample;
 
 /**
@@ -75,9 +80,7 @@ public class ImageUtils {
 				Vector<Integer> selectedFiles = SampleNavigatorView.view
 						.getSelectedFilesIndex();
 				monitor.beginTask("Make 1D Slice", selectedFiles.size());
-				FableJep fableJep;
 				try {
-					fableJep = FableJep.getFableJep();
 					final int imageWidth = selectedFiles.size();
 					final int imageHeight;
 					int lineZLength = Math.abs(z2 - z1);
@@ -88,28 +91,29 @@ public class ImageUtils {
 						imageHeight = lineYLength;
 					}
 					float sliceImage[] = new float[imageWidth * imageHeight];
+					// The frames are read once into the stack of the sample
+					// when the same frames are sliced again
+					final List<FabioFile> files = getFiles(fabioFiles,
+							selectedFiles);
+					final ImageStack stack = sample.getImageStack(files,
+							monitor);
 					for (int i = 0; i < selectedFiles.size(); i++) {
 						float line[];
 						if (monitor.isCanceled())
 							return Status.CANCEL_STATUS;
-						try {
-							line = SelectLine(fabioFiles.elementAt(
-									selectedFiles.elementAt(i))
-									.getImageAsFloat(fableJep), fabioFiles
-									.elementAt(selectedFiles.elementAt(i))
-									.getWidth(), fabioFiles.elementAt(
-									selectedFiles.elementAt(i)).getHeight(),
-									y1, z1, y2, z2, width);
-							for (int j = 0; j < imageHeight; j++) {
-								sliceImage[j * imageWidth + i] = line[j];
-							}
-						} catch (JepException ex) {
-							FableUtils.excNoTraceMsg(this, "Error using Jep",
-									ex);
+						// Only read the rectangle around the line
+						ImageArea area = getArea(stack, files, i, y1, z1, y2,
+								z2, width / 2 + 1);
+						if (stack == null)
+							monitor.worked(1);
+						line = SelectLine(area.getData(), area.getWidth(),
+								area.getHeight(), y1 - area.getX(), z1
+										- area.getY(), y2 - area.getX(), z2
+										- area.getY(), width);
+						for (int j = 0; j < imageHeight; j++) {
+							sliceImage[j * imageWidth + i] = line[j];
 						}
-						monitor.worked(1);
 					}
-					fableJep.close();
 					final float[] _sliceImage = sliceImage;
 					Display.getDefault().asyncExec(new Runnable() {
 						public void run() {
@@ -134,8 +138,10 @@ public class ImageUtils {
 							}
 						}
 					});
+				} catch (OperationCanceledException ex) {
+					return Status.CANCEL_STATUS;
 				} catch (Throwable ex) {
-					FableUtils.excNoTraceMsg(this, "Error using Jep", ex);
+					FableUtils.excNoTraceMsg(this, "Error reading the images", ex);
 				}
 				monitor.done();
 				return Status.OK_STATUS;
@@ -173,11 +179,9 @@ public class ImageUtils {
 				monitor.beginTask("Read " + selectedFiles.size()
 						+ " files and select area [" + y1 + "," + z1 + "] to ["
 						+ y2 + "," + z2 + "] ...", selectedFiles.size());
-				FableJep fableJep;
 				Logger logger = FableLogger
 						.getLogger((Class<?>) ImageUtils.class);
 				try {
-					fableJep = FableJep.getFableJep();
 					int selectedWidth, selectedHeight;
 					selectedWidth = Math.abs(y2 - y1);
 					selectedHeight = Math.abs(z2 - z1);
@@ -188,39 +192,34 @@ public class ImageUtils {
 					float sliceImage[] = new float[imageWidth * imageHeight];
 					logger.debug("image width " + imageWidth + " height "
 							+ imageHeight);
+					// The frames are read once into the stack of the sample
+					// when the same frames are sliced again
+					final List<FabioFile> files = getFiles(fabioFiles,
+							selectedFiles);
+					final ImageStack stack = sample.getImageStack(files,
+							monitor);
 					for (int i = 0; i < selectedFiles.size(); i++) {
 						float area[];
 						if (monitor.isCanceled())
 							return Status.CANCEL_STATUS;
-						try {
-							monitor.subTask("Reading file "
-									+ i
-									+ " "
-									+ fabioFiles.elementAt(
-											selectedFiles.elementAt(i))
-											.getFileName() + " ...");
-							area = SelectArea(fabioFiles.elementAt(
-									selectedFiles.elementAt(i))
-									.getImageAsFloat(fableJep), fabioFiles
-									.elementAt(selectedFiles.elementAt(i))
-									.getWidth(), fabioFiles.elementAt(
-									selectedFiles.elementAt(i)).getHeight(),
-									y1, z1, y2, z2);
-							for (int j = 0; j < selectedWidth; j++) {
-								for (int k = 0; k < selectedHeight; k++) {
-									float intensity;
-									intensity = area[k * selectedWidth + j];
-									sliceImage[k * imageWidth + i
-											* selectedWidth + j] = intensity;
-								}
+						// Only read the selected rectangle
+						ImageArea read = getArea(stack, files, i, y1, z1, y2,
+								z2, 0);
+						if (stack == null)
+							monitor.worked(1);
+						area = SelectArea(read.getData(), read.getWidth(),
+								read.getHeight(), y1 - read.getX(), z1
+										- read.getY(), y2 - read.getX(), z2
+										- read.getY());
+						for (int j = 0; j < selectedWidth; j++) {
+							for (int k = 0; k < selectedHeight; k++) {
+								float intensity;
+								intensity = area[k * selectedWidth + j];
+								sliceImage[k * imageWidth + i * selectedWidth
+										+ j] = intensity;
 							}
-						} catch (JepException ex) {
-							FableUtils.excNoTraceMsg(this, "Error using Jep",
-									ex);
 						}
-						monitor.worked(1);
 					}
-					fableJep.close();
 					final float[] _sliceImage = sliceImage;
 					Display.getDefault().asyncExec(new Runnable() {
 						public void run() {
@@ -245,8 +244,10 @@ public class ImageUtils {
 							}
 						}
 					});
+				} catch (OperationCanceledException ex) {
+					return Status.CANCEL_STATUS;
 				} catch (Throwable ex) {
-					FableUtils.excNoTraceMsg(this, "Error using Jep", ex);
+					FableUtils.excNoTraceMsg(this, "Error reading the images", ex);
 				}
 				monitor.done();
 				return Status.OK_STATUS;
@@ -256,6 +257,118 @@ public class ImageUtils {
 		job.schedule();
 	}
 
+	/**
+	 * Show a projection of all the filtered files of the current sample in
+	 * the projection ImageView. The files are read once for all the types
+	 * of projection, see Sample.getProjection(...).
+	 * 
+	 * This action runs as a job because it can take a lot time to read all the
+	 * images.
+	 * 
+	 * @param type
+	 *            - ImageProjection.MAX, SUM, MEAN or STD
+	 */
+	public static void Projection(final int type) {
+		final Sample sample = SampleController.getController()
+				.getCurrentsample();
+		if (sample == null) return;
+		final String name = ImageProjection.getName(type) + " of "
+				+ sample.getDirectoryName();
+		Job job = new Job("Make " + name) {
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask("Read " + sample.getFilteredfiles().size()
+						+ " files", sample.getFilteredfiles().size());
+				try {
+					final ImageProjection projection = sample
+							.getProjection(monitor);
+					final ImageModel model = ImageModelFactory.getImageModel(
+							name, projection.getWidth(), projection
+									.getHeight(), projection.getImage(type));
+					Display.getDefault().asyncExec(new Runnable() {
+						public void run() {
+							try {
+								ImageView projectionView = (ImageView) PlatformUI
+										.getWorkbench()
+										.getActiveWorkbenchWindow()
+										.getActivePage().showView(ImageView.ID,
+												ImageComponent.SECONDARY_ID_PROJECTION,
+												IWorkbenchPage.VIEW_ACTIVATE);
+								projectionView.getImageComponent().loadModel(
+										model);
+								projectionView.setPartName(name);
+							} catch (PartInitException ex) {
+								FableUtils.excMsg(this,
+										"Error opening Projection view", ex);
+							}
+						}
+					});
+				} catch (OperationCanceledException ex) {
+					return Status.CANCEL_STATUS;
+				} catch (Throwable ex) {
+					FableUtils.excNoTraceMsg(this, "Error reading the images", ex);
+				}
+				monitor.done();
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+	}
+
+	/**
+	 * @param fabioFiles
+	 *            - filtered files of the sample
+	 * @param selectedFiles
+	 *            - indices of the selected files in fabioFiles
+	 * @return the selected files
+	 */
+	private static List<FabioFile> getFiles(Vector<FabioFile> fabioFiles,
+			Vector<Integer> selectedFiles) {
+		List<FabioFile> files = new ArrayList<FabioFile>(selectedFiles.size());
+		for (Integer index : selectedFiles) {
+			files.add(fabioFiles.elementAt(index));
+		}
+		return files;
+	}
+
+	/**
+	 * Copy the rectangle between two corners, in any order, plus a margin,
+	 * out of one frame of a stack, or read it from the file if there is no
+	 * stack. The rectangle is clipped to the frame so that the selection
+	 * made in it is clamped at the same place as in the whole image.
+	 * 
+	 * @param stack
+	 *            - may be null
+	 * @param files
+	 *            - the frames of the stack
+	 * @param frame
+	 * @param y1
+	 *            - first corner column
+	 * @param z1
+	 *            - first corner row
+	 * @param y2
+	 *            - second corner column
+	 * @param z2
+	 *            - second corner row
+	 * @param margin
+	 *            - pixels to add on each side
+	 * @return the area
+	 * @throws Throwable
+	 */
+	private static ImageArea getArea(ImageStack stack, List<FabioFile> files,
+			int frame, int y1, int z1, int y2, int z2, int margin)
+			throws Throwable {
+		int y = Math.min(y1, y2) - margin;
+		int z = Math.min(z1, z2) - margin;
+		int width = Math.abs(y2 - y1) + 1 + 2 * margin;
+		int height = Math.abs(z2 - z1) + 1 + 2 * margin;
+		if (stack != null) {
+			return stack.getArea(frame, y, z, width, height);
+		}
+		// Files which need fabio are read by the interpreters of FableJepPool
+		return files.get(frame).getImageArea(null, y, z, width, height);
+	}
+
 	/**
 	 * Select an area over the requested range from the image array with the
 	 * given dimensions. Returns an array with the pixel intensities of the
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.ImageArea;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Integrates the intensity of one or more areas over a range of frames for
+ * the rocking curve.
+ * <p>
+ * A few reader threads read the rectangle around all the areas out of each
+ * frame and hand it to worker threads which sum the areas. The number of
+ * frames between the readers and the workers is bounded so that a long scan
+ * does not fill the memory.
+ * All the areas are integrated in the same pass over the files. Partial
+ * results are given to the listener while the frames arrive and the monitor
+ * is checked between frames.
+ */
+public class RockingCurveIntegrator {
+
+	private static final Logger logger = LoggerFactory.getLogger(RockingCurveIntegrator.class);
+
+	/**
+	 * Time between two partial results in ms
+	 */
+	private static final long UPDATE_INTERVAL = 250;
+
+	/**
+	 * Told of the results while the integration runs.
+	 */
+	public interface IRockingCurveListener {
+		/**
+		 * Called from the thread running integrate(...).
+		 *
+		 * @param result
+		 *            a copy which may be kept
+		 * @param finished
+		 *            true for the last call
+		 */
+		void resultChanged(Result result, boolean finished);
+	}
+
+	/**
+	 * The curve of each area for the frames which have an x value, frames
+	 * not integrated yet are NaN.
+	 */
+	public static class Result {
+		private final double[]   x;
+		private final double[][] intensity;
+		private final int        errors;
+
+		Result(final double[] x, final double[][] intensity, final int errors) {
+			this.x         = x;
+			this.intensity = intensity;
+			this.errors    = errors;
+		}
+
+		public double[] getX() {
+			return x;
+		}
+
+		/**
+		 * @param area
+		 * @return intensity of this area for each frame
+		 */
+		public double[] getIntensity(final int area) {
+			return intensity[area];
+		}
+
+		public int getAreaCount() {
+			return intensity.length;
+		}
+
+		/**
+		 * @return number of frames which were not integrated because their
+		 *         size differs or the x value could not be read
+		 */
+		public int getErrors() {
+			return errors;
+		}
+	}
+
+	private final List<FabioFile> files;
+	private final int             start;
+	private final int             end;
+	private final List<int[]>     areas;
+	private final String          xKey;
+	private final boolean         average;
+	private final int             width;
+	private final int             height;
+
+	/**
+	 * @param files
+	 *            the files of the sample
+	 * @param start
+	 *            first frame
+	 * @param end
+	 *            last frame, included
+	 * @param areas
+	 *            {y1, z1, y2, z2} of each area, y2 and z2 excluded
+	 * @param xKey
+	 *            header key for the x axis or null for the frame number
+	 * @param average
+	 *            true to divide the sums by the number of pixels
+	 * @param width
+	 *            width of the frames to integrate, other sizes are errors
+	 * @param height
+	 *            height of the frames to integrate
+	 */
+	public RockingCurveIntegrator(final List<FabioFile> files,
+			                      final int start, final int end,
+			                      final List<int[]> areas,
+			                      final String xKey, final boolean average,
+			                      final int width, final int height) {
+		this.files   = files;
+		this.start   = start;
+		this.end     = end;
+		this.areas   = new ArrayList<int[]>(areas);
+		this.xKey    = xKey;
+		this.average = average;
+		this.width   = width;
+		this.height  = height;
+	}
+
+	/**
+	 * Integrate the frames. Blocks until all the frames are done or the
+	 * monitor is cancelled.
+	 *
+	 * @param monitor
+	 *            given one unit of work per frame
+	 * @param listener
+	 *            may be null
+	 * @return the result, partial if the monitor was cancelled
+	 */
+	public Result integrate(final IProgressMonitor monitor, final IRockingCurveListener listener) {
+
+		final int frames = end - start + 1;
+		final double[]   x         = getX(frames);
+		final double[][] intensity = new double[areas.size()][frames];
+		for (double[] curve : intensity) Arrays.fill(curve, Double.NaN);
+
+		final AtomicInteger errors   = new AtomicInteger(countNaN(x));
+		final CountDownLatch done    = new CountDownLatch(frames);
+		final int            cpus    = Runtime.getRuntime().availableProcessors();
+		final int            nReaders = Math.max(1, Math.min(4, cpus));
+		final ExecutorService readers = Executors.newFixedThreadPool(nReaders);
+		final ExecutorService workers = Executors.newFixedThreadPool(cpus);
+		final Semaphore       inFlight = new Semaphore(2 * cpus);
+
+		try {
+			for (int i = start; i <= end; i++) {
+				final int frame = i - start;
+				final FabioFile file = files.get(i);
+				// Counted as an error, it could not be plotted
+				if (Double.isNaN(x[frame])) {
+					done.countDown();
+					continue;
+				}
+				readers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (monitor.isCanceled()) return;
+							inFlight.acquire();
+							final ImageArea image = read(file);
+							if (image == null) {
+								inFlight.release();
+								errors.incrementAndGet();
+								done.countDown();
+								return;
+							}
+							workers.execute(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										sum(image, frame, intensity);
+									} finally {
+										inFlight.release();
+										done.countDown();
+									}
+								}
+							});
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+
+			long remaining = frames;
+			while (remaining > 0) {
+				if (monitor.isCanceled()) break;
+				done.await(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+				final long count = done.getCount();
+				if (count != remaining) {
+					monitor.worked((int) (remaining - count));
+					remaining = count;
+					if (remaining > 0 && listener != null) {
+						listener.resultChanged(copy(x, intensity, errors.get()), false);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			readers.shutdownNow();
+			workers.shutdown();
+		}
+
+		final Result result = copy(x, intensity, errors.get());
+		if (listener != null) listener.resultChanged(result, true);
+		return result;
+	}
+
+	/**
+	 * @return the rectangle around the areas or null if the frame cannot be
+	 *         read or has another size
+	 */
+	private ImageArea read(final FabioFile file) {
+		int y1 = Integer.MAX_VALUE, z1 = Integer.MAX_VALUE;
+		int y2 = Integer.MIN_VALUE, z2 = Integer.MIN_VALUE;
+		for (int[] area : areas) {
+			y1 = Math.min(y1, area[0]);
+			z1 = Math.min(z1, area[1]);
+			y2 = Math.max(y2, area[2]);
+			z2 = Math.max(z2, area[3]);
+		}
+		try {
+			final ImageArea image = file.getImageArea(null, y1, z1, y2 - y1, z2 - z1);
+			if (image.getFrameWidth() != width || image.getFrameHeight() != height) return null;
+			return image;
+		} catch (Throwable e) {
+			logger.debug("Cannot read " + file.getFileName(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sum the areas, the parts of the areas outside the frame are ignored.
+	 */
+	private void sum(final ImageArea image, final int frame, final double[][] intensity) {
+		final float[] data = image.getData();
+		for (int a = 0; a < areas.size(); a++) {
+			final int[] area = areas.get(a);
+			final int y1 = Math.max(area[0], image.getX());
+			final int z1 = Math.max(area[1], image.getY());
+			final int y2 = Math.min(area[2], image.getX() + image.getWidth());
+			final int z2 = Math.min(area[3], image.getY() + image.getHeight());
+			double sum = 0;
+			for (int z = z1; z < z2; z++) {
+				final int offset = image.getWidth() * (z - image.getY()) - image.getX();
+				for (int y = y1; y < y2; y++) {
+					sum += data[offset + y];
+				}
+			}
+			if (average) {
+				final int npoints = (area[2] - area[0]) * (area[3] - area[1]);
+				sum = sum / npoints;
+			}
+			synchronized (intensity) {
+				intensity[a][frame] = sum;
+			}
+		}
+	}
+
+	/**
+	 * The x value of each frame, read before the images so that the header
+	 * key is not parsed while integrating. Headers are read in parallel.
+	 */
+	private double[] getX(final int frames) {
+		final double[] x = new double[frames];
+		if (xKey == null) {
+			for (int i = 0; i < frames; i++) x[i] = start + i;
+			return x;
+		}
+		FabioFile.loadHeaders(files.subList(start, end + 1), null);
+		for (int i = 0; i < frames; i++) {
+			try {
+				x[i] = Double.parseDouble(files.get(start + i).getValue(xKey).trim());
+			} catch (FabioFileException e) {
+				logger.debug("No " + xKey + " in " + files.get(start + i).getFileName());
+				x[i] = Double.NaN;
+			} catch (NumberFormatException e) {
+				x[i] = Double.NaN;
+			}
+		}
+		return x;
+	}
+
+	private static int countNaN(final double[] values) {
+		int count = 0;
+		for (double value : values) {
+			if (Double.isNaN(value)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the values of the frames which have an x value
+	 */
+	private static Result copy(final double[] x, final double[][] intensity, final int errors) {
+		final int count = x.length - countNaN(x);
+		final double[] xs = new double[count];
+		final double[][] curves = new double[intensity.length][count];
+		synchronized (intensity) {
+			for (int i = 0, j = 0; i < x.length; i++) {
+				if (Double.isNaN(x[i])) continue;
+				xs[j] = x[i];
+				for (int a = 0; a < intensity.length; a++) curves[a][j] = intensity[a][i];
+				j++;
+			}
+		}
+		return new Result(xs, curves, errors);
+	}
+}
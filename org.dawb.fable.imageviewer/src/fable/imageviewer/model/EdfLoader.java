@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.model;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+import org.dawb.fabio.CachedImage;
+import org.dawb.fabio.EdfHeader;
+import org.dawb.fabio.EdfReader;
+import org.dawb.fabio.ImageArea;
+import org.dawb.fabio.ImageCache;
+import org.dawb.fabio.ImageCacheKey;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Loads uncompressed EDF files in Java using memory mapping, without the
+ * Python interpreter. Frames are shared with FabioFile through the image
+ * cache. Returns null for other files and for compressed EDF files so that
+ * the next loader (or fabio) is used.
+ * 
+ * Areas are copied from the cache if the frame is there, otherwise only the
+ * rows of the area are read.
+ */
+public class EdfLoader implements IFableAreaLoader {
+
+	@Override
+	public IFableImage loadFile(final String           path,
+			                    final String           name,
+			                    final boolean          isFabioConfigured,
+			                    final IProgressMonitor monitor) throws Exception {
+
+		if (name != null || !EdfHeader.isEdfFile(path)) return null;
+
+		final File file = new File(path);
+		if (!file.exists()) return null;
+
+		final long[] loadTime = new long[] { 0 };
+		try {
+			final CachedImage image = ImageCache.getDefault().get(ImageCacheKey.forFile(file), new Callable<CachedImage>() {
+				@Override
+				public CachedImage call() throws Exception {
+					final CachedImage read = EdfReader.read(file);
+					if (read == null) throw new UnsupportedEdfException();
+					loadTime[0] = read.getLoadTime();
+					return read;
+				}
+			});
+			return new EdfImage(file.getName(), image, loadTime[0]);
+		} catch (UnsupportedEdfException ne) {
+			return null;
+		}
+	}
+
+	@Override
+	public IFableAreaImage loadArea(final String           path,
+			                        final String           name,
+			                        final int x, final int y,
+			                        final int width, final int height,
+			                        final boolean          isFabioConfigured,
+			                        final IProgressMonitor monitor) throws Exception {
+
+		if (name != null || !EdfHeader.isEdfFile(path)) return null;
+
+		final File file = new File(path);
+		if (!file.exists()) return null;
+
+		final CachedImage cached = ImageCache.getDefault().getIfPresent(ImageCacheKey.forFile(file));
+		final ImageArea area = cached != null
+				             ? ImageArea.copyOf(cached, x, y, width, height)
+				             : EdfReader.readArea(file, x, y, width, height);
+		if (area == null) return null;
+		return new FableAreaImage(file.getName(), area);
+	}
+
+	/**
+	 * Thrown out of the cache loader so that unsupported files are not cached.
+	 */
+	private static class UnsupportedEdfException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class EdfImage implements IFableImage {
+
+		private final String      fileName;
+		private final CachedImage image;
+		private final long        loadTime;
+
+		EdfImage(final String fileName, final CachedImage image, final long loadTime) {
+			this.fileName = fileName;
+			this.image    = image;
+			this.loadTime = loadTime;
+		}
+
+		@Override
+		public String getFileName() {
+			return fileName;
+		}
+
+		@Override
+		public int getWidth() {
+			return image.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return image.getHeight();
+		}
+
+		@Override
+		public float[] getImage() {
+			return image.getData();
+		}
+
+		@Override
+		public long getLoadTime() {
+			return loadTime;
+		}
+	}
+}
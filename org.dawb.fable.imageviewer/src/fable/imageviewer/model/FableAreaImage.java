@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */ 
+package fable.imageviewer.model;
+
+import org.dawb.fabio.ImageArea;
+
+/**
+ * IFableAreaImage backed by an ImageArea read by fabio or a loader.
+ */
+public class FableAreaImage implements IFableAreaImage {
+
+	private final String    fileName;
+	private final ImageArea area;
+
+	public FableAreaImage(final String fileName, final ImageArea area) {
+		this.fileName = fileName;
+		this.area     = area;
+	}
+
+	@Override
+	public String getFileName() {
+		return fileName;
+	}
+
+	@Override
+	public int getWidth() {
+		return area.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return area.getHeight();
+	}
+
+	@Override
+	public float[] getImage() {
+		return area.getData();
+	}
+
+	@Override
+	public long getLoadTime() {
+		return area.getLoadTime();
+	}
+
+	@Override
+	public int getX() {
+		return area.getX();
+	}
+
+	@Override
+	public int getY() {
+		return area.getY();
+	}
+
+	@Override
+	public int getImageWidth() {
+		return area.getFrameWidth();
+	}
+
+	@Override
+	public int getImageHeight() {
+		return area.getFrameHeight();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */ 
+package fable.imageviewer.model;
+
+/**
+ * A rectangle out of an image. getWidth(), getHeight() and getImage() are
+ * those of the rectangle.
+ */
+public interface IFableAreaImage extends IFableImage {
+
+	/**
+	 * Column of the first pixel of the area in the image
+	 * @return
+	 */
+	public int getX();
+
+	/**
+	 * Row of the first pixel of the area in the image
+	 * @return
+	 */
+	public int getY();
+
+	/**
+	 * The first dimension of the whole image
+	 * @return
+	 */
+	public int getImageWidth();
+
+	/**
+	 * The second dimension of the whole image
+	 * @return
+	 */
+	public int getImageHeight();
+
+}
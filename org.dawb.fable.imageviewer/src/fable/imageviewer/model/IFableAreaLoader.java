@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */ 
+package fable.imageviewer.model;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A loader which can read a rectangle of an image without reading the whole
+ * image. Loaders contributed to the extension point may implement this
+ * interface instead of IFableLoader.
+ */
+public interface IFableAreaLoader extends IFableLoader {
+
+	/**
+	 * Please implement this method to return the rectangle of the image
+	 * clipped to the image. NOTE monitor can be null as can name.
+	 * 
+	 * Should throw and exception if there is a genuine error or
+	 * return null if the file simply cannot be loaded with this
+	 * loader.
+	 * 
+	 * @param path
+	 * @param name optional parameter which says the image required
+	 *        if the file contains more than one image.
+	 * @param x first column
+	 * @param y first row
+	 * @param width
+	 * @param height
+	 * @param monitor
+	 * @return
+	 */
+	public IFableAreaImage loadArea(final String path, 
+			                        final String name,
+			                        final int x, final int y,
+			                        final int width, final int height,
+			                        final boolean isFabioConfigured,
+			                        final IProgressMonitor monitor) throws Exception;
+
+}
@@ -16,14 +16,15 @@ import javax.swing.event.EventListenerList;
 import jep.JepException;
 
 import org.dawb.fabio.FabioFile;
-import org.dawb.fabio.FableJep;
+import org.dawb.fabio.ImageStatistics;
 import org.eclipse.swt.graphics.Rectangle;
 
 /**
  * This class implements a simple image model that stores the the width, height,
  * and the pixel data. The data are stored as a float[index] with index = col +
- * row * width. It calculates the statistics (min, max, and mean) when requested
- * and then stores the values.
+ * row * width. It calculates the statistics (min, max, mean, standard deviation
+ * and histogram) when requested and then stores the values. The statistics of
+ * the last sub Rectangle asked for are kept too.
  * 
  * @author evans
  * 
@@ -35,7 +36,10 @@ public class ImageModel {
 	private int width = 0;
 	private int height = 0;
 	private float[] data = null;
-	private float[] statistics = null;
+	private ImageStatistics statistics = null;
+	private Rectangle rectStatisticsRect = null;
+	private ImageStatistics rectStatistics = null;
+	private ImagePyramid pyramid = null;
 	private long time;
 
 	// Property change names
@@ -149,12 +153,15 @@ public class ImageModel {
 	 */
 	public void set(FabioFile fabioFile) throws Throwable {
 		try {
-			statistics = null;
+			clearStatistics();
+			pyramid = null;
 			this.fileName = fabioFile.getFileName();
-			this.data     = fabioFile.getImageAsFloat(FableJep.getFableJep());
+			this.data     = fabioFile.getImageAsFloat(null);
 			this.width    = fabioFile.getWidth();
 			this.height   = fabioFile.getHeight();
 			this.time     = fabioFile.getTimeToReadImage();
+			// The cached frame keeps its statistics, reuse them
+			this.statistics = fabioFile.getStatistics();
 		} finally {
 			fireImageModelEvent(RESET, this, this);
 		}
@@ -171,7 +178,8 @@ public class ImageModel {
 	 * @param data
 	 */
 	public void reset(String fileName, int width, int height, float[] data) {
-		statistics = null;
+		clearStatistics();
+		pyramid = null;
 		this.fileName = fileName;
 		this.width = width;
 		this.height = height;
@@ -179,12 +187,10 @@ public class ImageModel {
 		fireImageModelEvent(RESET, this, this);
 	}
 
-	/**
-	 * Calculates the statistics (min, max, mean) for the whole image and stores
-	 * it.
-	 */
-	private void calculateStatistics() {
-		statistics = getStatistics(new Rectangle(0,0,width,height));
+	private void clearStatistics() {
+		statistics = null;
+		rectStatistics = null;
+		rectStatisticsRect = null;
 	}
 
 	// Getters and setters
@@ -221,35 +227,53 @@ public class ImageModel {
 	 * @return The statistics as float[3] = {min, max, mean}.
 	 */
 	public float[] getStatistics() {
+		return getImageStatistics().toArray();
+	}
+
+	/**
+	 * Get the statistics (min, max, mean) for a sub Rectangle. NaN pixels are
+	 * not counted.
+	 * 
+	 * @param rect
+	 * @return The statistics as float[3] = {min, max, mean}.
+	 */
+	public float[] getStatistics(Rectangle rect) {
+		return getImageStatistics(rect).toArray();
+	}
+
+	/**
+	 * Get the statistics with the standard deviation and the histogram for
+	 * the whole image. They are calculated once.
+	 * 
+	 * @return The statistics.
+	 */
+	public ImageStatistics getImageStatistics() {
 		if (statistics == null) {
-			calculateStatistics();
+			statistics = ImageStatistics.compute(data, width, height);
 		}
 		return statistics;
 	}
 
 	/**
-	 * Get the statistics (min, max, mean) for a sub Rectangle. These are
-	 * calculated each time this method is called.
+	 * Get the statistics with the standard deviation and the histogram for a
+	 * sub Rectangle. The whole image and the last Rectangle asked for are
+	 * not calculated again.
 	 * 
 	 * @param rect
-	 * @return The statistics as float[3] = {min, max, mean}.
+	 * @return The statistics.
 	 */
-	public float[] getStatistics(Rectangle rect) {
-		float min = Float.MAX_VALUE;
-		float max = -Float.MAX_VALUE;
-		float mean = 0.0f;
-		float sum = 0.0f;
-		float val;
-		for (int j = 0; j < rect.height; j++) {
-			for (int i = 0; i < rect.width; i++) {
-				val = data[rect.x + i + (rect.y + j) * width];
-				sum += val;
-				if (val < min) min = val;
-				if (val > max) max = val;
-			}
+	public ImageStatistics getImageStatistics(Rectangle rect) {
+		if (rect.x == 0 && rect.y == 0 && rect.width == width
+				&& rect.height == height) {
+			return getImageStatistics();
 		}
-		mean = sum / (rect.width * rect.height);
-		return new float[] { min, max, mean };
+		if (rectStatistics == null || !rect.equals(rectStatisticsRect)) {
+			rectStatistics = ImageStatistics.compute(data, width, rect.x,
+					rect.y, rect.width, rect.height);
+			rectStatisticsRect = new Rectangle(rect.x, rect.y, rect.width,
+					rect.height);
+		}
+		return rectStatistics;
 	}
 
 	/**
@@ -313,6 +337,25 @@ public class ImageModel {
 		return array;
 	}
 
+	/**
+	 * Get the reduced copies of the image used to display it smaller than its
+	 * size. They are kept until the data change or another binning is asked
+	 * for.
+	 * 
+	 * @param binning
+	 *            how 2 x 2 pixels are combined
+	 * @return The pyramid or null if there is no data.
+	 */
+	public ImagePyramid getPyramid(ImagePyramid.Binning binning) {
+		if (data == null) {
+			return null;
+		}
+		if (pyramid == null || pyramid.getBinning() != binning) {
+			pyramid = new ImagePyramid(data, width, height, binning);
+		}
+		return pyramid;
+	}
+
 	/**
 	 * Sets a new value for the data and cause a DATA_CHANGED ImageModelEvent to
 	 * be fired.
@@ -323,7 +366,8 @@ public class ImageModel {
 	public void setData(float[] data) {
 		float[] oldValue = this.data;
 		if (data != oldValue) {
-			statistics = null;
+			clearStatistics();
+			pyramid = null;
 			this.data = data;
 			fireImageModelEvent(DATA_CHANGED, oldValue, data);
 		}
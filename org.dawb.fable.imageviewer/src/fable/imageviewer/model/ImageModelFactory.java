@@ -9,7 +9,15 @@
  */ 
 package fable.imageviewer.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.ImageArea;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.Platform;
 
@@ -41,10 +49,53 @@ public class ImageModelFactory {
 	}
 	
 	/**
-	 * This extension point is implemented ouside fable code base.
+	 * This extension point is implemented ouside fable code base and by
+	 * EdfLoader for uncompressed EDF files.
 	 */
 	private static final String IFABLE_LOADER_ID = "fable.imageviewer.model.fableLoader";
 
+	private static List<IFableLoader> loaders;
+
+	/**
+	 * Creates the loaders contributed to the extension point once, sorted by
+	 * decreasing priority.
+	 * 
+	 * @return the loaders, may be empty
+	 * @throws CoreException
+	 */
+	private static synchronized List<IFableLoader> getLoaders() throws CoreException {
+		
+		if (loaders!=null) return loaders;
+		
+		final IConfigurationElement[] config = Platform.getExtensionRegistry().getConfigurationElementsFor(IFABLE_LOADER_ID);
+		final List<IConfigurationElement> elements = new ArrayList<IConfigurationElement>();
+		if (config!=null) elements.addAll(Arrays.asList(config));
+		Collections.sort(elements, new Comparator<IConfigurationElement>() {
+			@Override
+			public int compare(IConfigurationElement o1, IConfigurationElement o2) {
+				final int p1 = getPriority(o1), p2 = getPriority(o2);
+				return p1 > p2 ? -1 : (p1 == p2 ? 0 : 1);
+			}
+		});
+		
+		final List<IFableLoader> created = new ArrayList<IFableLoader>(elements.size());
+		for (IConfigurationElement element : elements) {
+			created.add((IFableLoader)element.createExecutableExtension("class"));
+		}
+		loaders = created;
+		return loaders;
+	}
+
+	private static int getPriority(final IConfigurationElement element) {
+		final String priority = element.getAttribute("priority");
+		if (priority==null) return 0;
+		try {
+			return Integer.parseInt(priority.trim());
+		} catch (NumberFormatException ne) {
+			return 0;
+		}
+	}
+
 	/**
 	 * Gets ImageModel from path
 	 * @param path
@@ -53,20 +104,20 @@ public class ImageModelFactory {
 	 */
 	public static ImageModel getImageModel(String path)  throws Throwable {
 		
-		IConfigurationElement[] config = Platform.getExtensionRegistry().getConfigurationElementsFor(IFABLE_LOADER_ID);
-		if (config!=null && config.length>0) {
-			final IFableLoader loader = (IFableLoader)config[0].createExecutableExtension("class");
+		final List<IFableLoader> loaders = getLoaders();
+		if (!loaders.isEmpty()) {
 			final boolean      isFabio= Activator.getDefault().getPreferenceStore().getBoolean(FabioPreferenceConstants.USE_FABIO);
 			
 			path = path.replace("%20", " ");
-			final IFableImage  file   = loader.loadFile(path, null, isFabio, null);
-			
-			if (file!=null) {
-				return new ImageModel(file.getFileName(),
-						              file.getWidth(),
-						              file.getHeight(),
-						              file.getImage(),
-						              file.getLoadTime());
+			for (IFableLoader loader : loaders) {
+				final IFableImage  file   = loader.loadFile(path, null, isFabio, null);
+				if (file!=null) {
+					return new ImageModel(file.getFileName(),
+							              file.getWidth(),
+							              file.getHeight(),
+							              file.getImage(),
+							              file.getLoadTime());
+				}
 			}
 		}
 		
@@ -76,6 +127,45 @@ public class ImageModelFactory {
 		return ImageModelFactory.getImageModel(new FabioFile(path));
 	}
 
+	/**
+	 * Gets a rectangle of the image without reading the whole image when the
+	 * loader can do so. Files no loader can read are read with fabio.
+	 * 
+	 * @param path
+	 * @param x first column
+	 * @param y first row
+	 * @param width
+	 * @param height
+	 * @return the area clipped to the image
+	 * @throws Throwable
+	 */
+	public static IFableAreaImage getImageArea(String path, int x, int y, int width, int height) throws Throwable {
+		
+		final List<IFableLoader> loaders = getLoaders();
+		if (!loaders.isEmpty()) {
+			final boolean      isFabio= Activator.getDefault().getPreferenceStore().getBoolean(FabioPreferenceConstants.USE_FABIO);
+			
+			path = path.replace("%20", " ");
+			for (IFableLoader loader : loaders) {
+				if (loader instanceof IFableAreaLoader) {
+					final IFableAreaImage area = ((IFableAreaLoader)loader).loadArea(path, null, x, y, width, height, isFabio, null);
+					if (area!=null) return area;
+				} else {
+					final IFableImage file = loader.loadFile(path, null, isFabio, null);
+					if (file!=null) {
+						return new FableAreaImage(file.getFileName(),
+								                  ImageArea.copyOf(file.getImage(), file.getWidth(), file.getHeight(),
+								                                   x, y, width, height, file.getLoadTime()));
+					}
+				}
+			}
+		}
+		
+		final FabioFile fabioFile = new FabioFile(path);
+		final ImageArea area      = fabioFile.getImageArea(null, x, y, width, height);
+		return new FableAreaImage(fabioFile.getFileName(), area);
+	}
+
 	/**
 	 * Gets ImageModel directly from data.
 	 * @param fileName
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Copies of an image at half, a quarter, ... of its size so that a large
+ * frame is shown from the level closest to the size of the canvas instead of
+ * being scaled down from all its pixels on each redraw.
+ * <p>
+ * Each pixel of a level is the maximum or the mean of 2 x 2 pixels of the
+ * level below. The maximum keeps hot pixels and peaks visible, the mean
+ * gives a smoother picture. Levels are made when first asked for and kept
+ * until the image changes. Level 0 is the image itself.
+ */
+public class ImagePyramid {
+
+	public enum Binning {
+		MAX, MEAN
+	}
+
+	/**
+	 * Levels are not made smaller than this in either direction.
+	 */
+	private static final int MIN_SIZE = 16;
+
+	private final Binning       binning;
+	private final List<float[]> levels;
+	private final List<int[]>   sizes;
+
+	/**
+	 * @param data
+	 *            the image, index = col + row * width
+	 * @param width
+	 * @param height
+	 * @param binning
+	 */
+	public ImagePyramid(final float[] data, final int width, final int height, final Binning binning) {
+		this.binning = binning;
+		this.levels  = new ArrayList<float[]>();
+		this.sizes   = new ArrayList<int[]>();
+		levels.add(data);
+		sizes.add(new int[] { width, height });
+	}
+
+	public Binning getBinning() {
+		return binning;
+	}
+
+	/**
+	 * The level to show an image scaled down by this factor, the largest
+	 * level which still has at least as many pixels as the screen.
+	 *
+	 * @param scale
+	 *            image pixels per screen pixel
+	 * @return the level
+	 */
+	public int getLevel(final double scale) {
+		final int[] size = sizes.get(0);
+		int level = 0;
+		while (2 << level <= scale
+				&& (size[0] >> (level + 1)) >= MIN_SIZE
+				&& (size[1] >> (level + 1)) >= MIN_SIZE) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * @param level
+	 * @return {width, height} of the level
+	 */
+	public synchronized int[] getSize(final int level) {
+		make(level);
+		return sizes.get(level).clone();
+	}
+
+	/**
+	 * The pixels of a level, index = col + row * width of the level.
+	 *
+	 * @param level
+	 * @return the data of the level
+	 */
+	public synchronized float[] getLevelData(final int level) {
+		make(level);
+		return levels.get(level);
+	}
+
+	/**
+	 * The rectangle of a level which covers a rectangle of the image. It is
+	 * rounded outwards so that no pixel of the image is left out.
+	 *
+	 * @param level
+	 * @param rect
+	 *            a rectangle in pixels of the image
+	 * @return the rectangle in pixels of the level
+	 */
+	public synchronized Rectangle getRect(final int level, final Rectangle rect) {
+		make(level);
+		final int[] size = sizes.get(level);
+		final int   bin  = 1 << level;
+		final int x1 = rect.x / bin, y1 = rect.y / bin;
+		final int x2 = Math.min(size[0], (rect.x + rect.width  + bin - 1) / bin);
+		final int y2 = Math.min(size[1], (rect.y + rect.height + bin - 1) / bin);
+		return new Rectangle(x1, y1, Math.max(0, x2 - x1), Math.max(0, y2 - y1));
+	}
+
+	/**
+	 * A copy of the part of a level covering a rectangle of the image.
+	 *
+	 * @param level
+	 * @param rect
+	 *            a rectangle in pixels of the image
+	 * @return the pixels of getRect(level, rect)
+	 */
+	public synchronized float[] getData(final int level, final Rectangle rect) {
+		final Rectangle r     = getRect(level, rect);
+		final float[]   data  = levels.get(level);
+		final int       width = sizes.get(level)[0];
+		final float[]   array = new float[r.width * r.height];
+		for (int j = 0; j < r.height; j++) {
+			System.arraycopy(data, r.x + (r.y + j) * width, array, j * r.width, r.width);
+		}
+		return array;
+	}
+
+	private void make(final int level) {
+		while (levels.size() <= level) {
+			final int[]   size = sizes.get(levels.size() - 1);
+			final float[] data = levels.get(levels.size() - 1);
+			final int width  = (size[0] + 1) / 2;
+			final int height = (size[1] + 1) / 2;
+			levels.add(bin(data, size[0], size[1], width, height));
+			sizes.add(new int[] { width, height });
+		}
+	}
+
+	/**
+	 * Bin 2 x 2 pixels, the last row or column of an odd size is binned with
+	 * itself only.
+	 */
+	private float[] bin(final float[] data, final int width, final int height,
+			            final int binnedWidth, final int binnedHeight) {
+		final float[] binned = new float[binnedWidth * binnedHeight];
+		for (int j = 0; j < binnedHeight; j++) {
+			final int row1 = 2 * j * width;
+			final int row2 = 2 * j + 1 < height ? row1 + width : row1;
+			for (int i = 0; i < binnedWidth; i++) {
+				final int col1 = 2 * i;
+				final int col2 = col1 + 1 < width ? col1 + 1 : col1;
+				final float a = data[row1 + col1], b = data[row1 + col2];
+				final float c = data[row2 + col1], d = data[row2 + col2];
+				final float value;
+				if (binning == Binning.MAX) {
+					value = Math.max(Math.max(a, b), Math.max(c, d));
+				} else {
+					value = (a + b + c + d) / 4f;
+				}
+				binned[i + j * binnedWidth] = value;
+			}
+		}
+		return binned;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.imageviewer.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The peaks drawn over an image, as TotalCryst coordinates (y, z) in one
+ * float array, with the peaks which are selected.
+ * <p>
+ * The peaks are put in the cells of a grid over their bounding box, about
+ * four per cell, so that the peaks in a zoomed part of the image and the
+ * peak at a position are found by looking at a few cells instead of all
+ * the peaks. A selection returns the peaks whose state changed, so that
+ * only their markers are drawn again.
+ */
+public class PeakOverlay {
+
+	private static final int PEAKS_PER_CELL = 4;
+	private static final int MAX_CELLS      = 1024;
+
+	private final float[] positions;
+	private final int     count;
+
+	private final float minY, minZ;
+	private final float cellWidth, cellHeight;
+	private final int   columns, rows;
+	/** Peaks of cell c are cellPeaks[cellStart[c]] to cellPeaks[cellStart[c + 1] - 1] */
+	private final int[] cellStart;
+	private final int[] cellPeaks;
+
+	private BitSet selected = new BitSet();
+
+	/**
+	 * @param positions
+	 *            [y0, z0, y1, z1, ...], not copied
+	 */
+	public PeakOverlay(final float[] positions) {
+		this.positions = positions;
+		this.count     = positions.length / 2;
+
+		float y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			final float y = positions[2 * i], z = positions[2 * i + 1];
+			if (y < y0) y0 = y;
+			if (y > y1) y1 = y;
+			if (z < z0) z0 = z;
+			if (z > z1) z1 = z;
+		}
+		if (y0 > y1 || z0 > z1) {
+			y0 = y1 = z0 = z1 = 0;
+		}
+		final int side = (int) Math.min(MAX_CELLS, Math.max(1, Math.ceil(Math.sqrt(count / (double) PEAKS_PER_CELL))));
+		minY       = y0;
+		minZ       = z0;
+		columns    = side;
+		rows       = side;
+		cellWidth  = Math.max((y1 - y0) / side, Float.MIN_NORMAL);
+		cellHeight = Math.max((z1 - z0) / side, Float.MIN_NORMAL);
+
+		// Count the peaks of each cell, then place them
+		cellStart = new int[columns * rows + 1];
+		final int[] cells = new int[count];
+		for (int i = 0; i < count; i++) {
+			cells[i] = cellOf(positions[2 * i], positions[2 * i + 1]);
+			if (cells[i] >= 0) cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < columns * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		cellPeaks = new int[cellStart[columns * rows]];
+		final int[] next = Arrays.copyOf(cellStart, columns * rows);
+		for (int i = 0; i < count; i++) {
+			if (cells[i] >= 0) cellPeaks[next[cells[i]]++] = i;
+		}
+	}
+
+	/**
+	 * @return the number of peaks
+	 */
+	public int size() {
+		return count;
+	}
+
+	public float getY(final int peak) {
+		return positions[2 * peak];
+	}
+
+	public float getZ(final int peak) {
+		return positions[2 * peak + 1];
+	}
+
+	/**
+	 * @return [y0, z0, y1, z1, ...], not a copy
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * @return the cell of a position, -1 for NaN
+	 */
+	private int cellOf(final float y, final float z) {
+		if (Float.isNaN(y) || Float.isNaN(z)) return -1;
+		return column(y) + row(z) * columns;
+	}
+
+	private int column(final float y) {
+		return (int) Math.max(0, Math.min(columns - 1, (y - minY) / cellWidth));
+	}
+
+	private int row(final float z) {
+		return (int) Math.max(0, Math.min(rows - 1, (z - minZ) / cellHeight));
+	}
+
+	/**
+	 * @param yMin
+	 * @param zMin
+	 * @param yMax
+	 * @param zMax
+	 * @return the peaks with yMin <= y < yMax and zMin <= z < zMax
+	 */
+	public int[] find(final float yMin, final float zMin, final float yMax, final float zMax) {
+		if (count == 0 || !(yMax > yMin) || !(zMax > zMin)) return new int[0];
+		int[] found = new int[Math.min(count, 64)];
+		int n = 0;
+		final int c1 = column(yMax), r1 = row(zMax);
+		for (int r = row(zMin); r <= r1; r++) {
+			for (int c = column(yMin); c <= c1; c++) {
+				final int cell = c + r * columns;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					final int peak = cellPeaks[k];
+					final float y = positions[2 * peak], z = positions[2 * peak + 1];
+					if (y >= yMin && y < yMax && z >= zMin && z < zMax) {
+						if (n == found.length) found = Arrays.copyOf(found, Math.min(count, 2 * n));
+						found[n++] = peak;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	/**
+	 * @param y
+	 * @param z
+	 * @return the first peak at exactly this position, -1 if there is none
+	 */
+	public int indexOf(final float y, final float z) {
+		final int cell = cellOf(y, z);
+		if (cell < 0 || count == 0) return -1;
+		for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+			final int peak = cellPeaks[k];
+			if (positions[2 * peak] == y && positions[2 * peak + 1] == z) return peak;
+		}
+		return -1;
+	}
+
+	public boolean isSelected(final int peak) {
+		return selected.get(peak);
+	}
+
+	/**
+	 * Select the peaks at these positions, the others are not selected any
+	 * more. Positions which are not peaks of the overlay are left out.
+	 *
+	 * @param selectedPositions
+	 *            [y0, z0, y1, z1, ...], null to select none
+	 * @return the peaks which were selected and are not, or the other way
+	 */
+	public int[] select(final float[] selectedPositions) {
+		final BitSet selection = new BitSet(count);
+		for (int i = 0; selectedPositions != null && i < selectedPositions.length / 2; i++) {
+			final int peak = indexOf(selectedPositions[2 * i], selectedPositions[2 * i + 1]);
+			if (peak >= 0) selection.set(peak);
+		}
+		final BitSet changed = (BitSet) selection.clone();
+		changed.xor(selected);
+		selected = selection;
+
+		final int[] peaks = new int[changed.cardinality()];
+		int n = 0;
+		for (int peak = changed.nextSetBit(0); peak >= 0; peak = changed.nextSetBit(peak + 1)) {
+			peaks[n++] = peak;
+		}
+		return peaks;
+	}
+}
@@ -18,6 +18,7 @@ import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
 import fable.imageviewer.internal.IImagesVarKeys;
+import fable.imageviewer.model.ImagePyramid;
 import fable.imageviewer.rcp.Activator;
 
 /**
@@ -86,6 +87,11 @@ public class ImageviewerPreferencePage extends FieldEditorPreferencePage
 		addField(new StringFieldEditor(PreferenceConstants.P_COORD_YNAME,
 				"Custom coordinates y name :", getFieldEditorParent()));
 		addField(new BooleanFieldEditor(PreferenceConstants.P_RELIEFMOVE,"Move 3D relief",getFieldEditorParent()));
+		addField(new ComboFieldEditor(PreferenceConstants.P_BINNING,
+				"Reduce large images by :", new String[][] {
+						{ "Maximum of pixels (keeps peaks)", ImagePyramid.Binning.MAX.name() },
+						{ "Mean of pixels", ImagePyramid.Binning.MEAN.name() } },
+				getFieldEditorParent()));
 	}
 
 	/*
@@ -12,6 +12,7 @@ package fable.imageviewer.preferences;
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import fable.imageviewer.model.ImagePyramid;
 import fable.imageviewer.rcp.Activator;
 
 /**
@@ -45,6 +46,7 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		
 		store.setDefault(PreferenceConstants.P_AUTOSCALE,  true);
 		store.setDefault(PreferenceConstants.P_KEEPASPECT, true);
+		store.setDefault(PreferenceConstants.P_BINNING,    ImagePyramid.Binning.MAX.name());
 	}
 
 }
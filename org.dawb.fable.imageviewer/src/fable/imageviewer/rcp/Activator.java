@@ -9,10 +9,17 @@
  */ 
 package fable.imageviewer.rcp;
 
+import org.dawb.fabio.ImageCache;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fable.imageviewer.preferences.PreferenceConstants;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -25,6 +32,10 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 
+	private static final Logger logger = LoggerFactory.getLogger(Activator.class);
+
+	private IPropertyChangeListener cacheListener;
+
 	/**
 	 * The constructor
 	 */
@@ -41,6 +52,16 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		configureImageCache();
+		cacheListener = new IPropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent event) {
+				if (PreferenceConstants.P_IMAGES_CACHED.equals(event.getProperty())) {
+					configureImageCache();
+				}
+			}
+		};
+		getPreferenceStore().addPropertyChangeListener(cacheListener);
 		/*
 		Logger logger = FableLogger.getLogger((Class<?>) Activator.class);
 		logger.info("ImageViewer application starting");
@@ -55,6 +76,10 @@ public class Activator extends AbstractUIPlugin {
 	 * )
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if (cacheListener != null) {
+			getPreferenceStore().removePropertyChangeListener(cacheListener);
+			cacheListener = null;
+		}
 		plugin = null;
 		super.stop(context);
 	}
@@ -69,6 +94,23 @@ public class Activator extends AbstractUIPlugin {
 	}
 	
 
+	/**
+	 * Sizes the image cache from the number of images to cache preference. The
+	 * preference counts 2048x2048 images, the budget is limited by the
+	 * maximum heap.
+	 */
+	private void configureImageCache() {
+		int imagesCached;
+		try {
+			imagesCached = Integer.parseInt(getPreferenceStore().getString(
+					PreferenceConstants.P_IMAGES_CACHED).trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid number of images to cache, using 10");
+			imagesCached = 10;
+		}
+		ImageCache.getDefault().setMaxBytes(ImageCache.getBudget(imagesCached));
+	}
+
 	/**
 	 * Creates the image, this should be disposed later.
 	 * @param path
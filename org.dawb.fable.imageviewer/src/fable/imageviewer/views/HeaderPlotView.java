@@ -20,12 +20,6 @@ import java.util.Vector;
 
 import javax.swing.JApplet;
 
-import org.dawb.fabio.FabioFile;
-import org.dawb.fabio.FabioFileException;
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -1063,115 +1057,18 @@ public class HeaderPlotView extends ViewPart implements
 	}
 
 	/**
-	 * sample should have fabio files
+	 * sample should have fabio files. The values are read by the sample in a
+	 * job, which updates the plot as they come.
 	 * 
 	 * @param key
 	 * @param s
-	 * @return
 	 * @throws SampleException
 	 */
 	public void plotHeaderValues(final String key, final Sample s)
 			throws SampleException {
-
-		final Job job = new Job("Loading file header") {
-
-			@Override
-			protected IStatus run(final IProgressMonitor monitor) {
-				monitor.beginTask("Wait while getting values for " + key
-						+ " in sample " + s.getDirectoryName(), s
-						.getFilteredfiles().size());
-
-				if (s.hasFile()) {
-
-					int i = 0;
-					// get all header values if it has not been done for this
-					// key\
-					for (Iterator<FabioFile> it = s.getFilteredfiles()
-							.iterator(); it.hasNext();) {
-						if (monitor.isCanceled()) {
-
-							return Status.CANCEL_STATUS;
-						}
-
-						final FabioFile f = ((FabioFile) it.next());
-
-						try {
-							if (i < s.getHeaderValues(key).length) {
-								final int j = i;
-
-								Display.getDefault().syncExec(new Runnable() {
-									public void run() {
-										double[] fillValues;
-										try {
-											fillValues = s.getHeaderValues(key);
-											fillValues[j] = Double.valueOf(f
-													.getValue(key));
-										} catch (SampleException ex) {
-											FableUtils
-													.excMsg(
-															this,
-															"Unable to load file headers",
-															ex);
-										} catch (NumberFormatException ex) {
-											FableUtils
-													.excMsg(
-															this,
-															"Unable to load file headers",
-															ex);
-											monitor.setCanceled(true);
-										} catch (FabioFileException ex) {
-											FableUtils
-													.excMsg(
-															this,
-															"Unable to load file headers",
-															ex);
-											monitor.setCanceled(true);
-										}
-									}
-								});
-
-								i++;
-								monitor.worked(1);
-
-							}
-						} catch (SampleException e) {
-
-							e.printStackTrace();
-						}
-
-					}
-				}
-				monitor.done();
-
-				return Status.OK_STATUS;
-			}
-
-		};
-		int size;
 		if (s.hasFile()) {
-			size = s.getFilteredfiles().size();
-			double[] values = s.getHeaderValues(key);
-			job.setUser(true);
-			if (values == null || values.length != size) {
-				values = new double[size];
-				s.addHeaderValues(key, values);
-				// Load header values
-				new Thread() {
-					@Override
-					public void run() {
-						job.schedule();
-						while (job.getResult() == null) {
-							HeaderPlotView.view.showBusy(true);
-
-						}
-						HeaderPlotView.view.showBusy(false);
-
-					}
-				}.start();
-
-			}
+			s.getHeaderValues(key);
 		}
-
 	}
 
 	/**
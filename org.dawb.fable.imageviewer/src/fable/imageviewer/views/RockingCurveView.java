@@ -13,9 +13,12 @@
 
 package fable.imageviewer.views;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Frame;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 import javax.swing.JApplet;
@@ -24,7 +27,6 @@ import jep.JepException;
 
 import org.dawb.fabio.FabioFile;
 import org.dawb.fabio.FabioFileException;
-import org.dawb.fabio.FableJep;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -48,6 +50,9 @@ import org.slf4j.LoggerFactory;
 
 import fable.framework.navigator.controller.SampleController;
 import fable.framework.toolbox.FableUtils;
+import fable.imageviewer.internal.RockingCurveIntegrator;
+import fable.imageviewer.internal.RockingCurveIntegrator.IRockingCurveListener;
+import fable.imageviewer.internal.RockingCurveIntegrator.Result;
 import fable.python.Sample;
 import fr.esrf.tangoatk.widget.util.chart.JLAxis;
 import fr.esrf.tangoatk.widget.util.chart.JLChart;
@@ -63,8 +68,9 @@ import fr.esrf.tangoatk.widget.util.chart.JLDataView;
  * It uses JLChart to do the plotting. It will plot the data set as a line. The
  * image view gathers the user's selection and sends the data to plot to the
  * RockingCurveView. The user can change the range of images over which to
- * integrate and plot. Fabio is used to read the image and integrate the
- * intensity.
+ * integrate and plot. With "Add area" checked a new selection is added to the
+ * areas already plotted, all the areas are integrated in one pass over the
+ * images. The curves are plotted while the images are read.
  * 
  * @author goetz
  */
@@ -72,15 +78,18 @@ import fr.esrf.tangoatk.widget.util.chart.JLDataView;
 public class RockingCurveView extends ViewPart {
 
 	public final static String ID = "fable.imageviewer.views.RockingCurveView";
-	private JLDataView dataView;
+	private static final Color[] AREA_COLORS = { Color.RED, Color.BLUE,
+			Color.GREEN.darker(), Color.MAGENTA, Color.ORANGE, Color.CYAN.darker(),
+			Color.BLACK };
+	private List<JLDataView> dataViews = new ArrayList<JLDataView>();
 	private JLChart chart;
 	String title;
 	private int rockStart = -1, rockCenter = -1, rockEnd = -1, rockRange;
-	private int xAxis = 0, rockArea[] = new int[4];
-	private float rockX[], rockIntensity[];
+	private int xAxis = 0;
+	private List<int[]> rockAreas = new ArrayList<int[]>();
 	private Spinner rockStartSpinner, rockEndSpinner;
 	private Label rockStartLabel, rockEndLabel;
-	private Button updateButton, averageButton;
+	private Button updateButton, averageButton, addAreaButton;
 	private Combo xAxisCombo;
 	public static RockingCurveView view;
 	private Composite swtAwtComponent;
@@ -89,10 +98,9 @@ public class RockingCurveView extends ViewPart {
 	private Frame chartFrame;
 	private JApplet chartContainer;
 	private static final Logger logger = LoggerFactory.getLogger(RockingCurveView.class);
-	private IProgressMonitor jobMonitor;
+	private Job integrateJob;
 	private final String[] imageNumber = { "image number" };
 	private String[] xAxisItems = imageNumber;
-	private boolean jobRunning = false;
 	private boolean average = true;
 
 	// private Composite parent;
@@ -117,7 +125,7 @@ public class RockingCurveView extends ViewPart {
 		createChart();
 		Composite controlPanelComposite = new Composite(parent, SWT.NULL);
 		GridLayout controlGridLayout = new GridLayout();
-		controlGridLayout.numColumns = 8;
+		controlGridLayout.numColumns = 9;
 		controlPanelComposite.setLayout(controlGridLayout);
 		controlPanelComposite.setLayoutData(new GridData(SWT.FILL, SWT.NONE,
 				true, false));
@@ -151,6 +159,11 @@ public class RockingCurveView extends ViewPart {
 				}
 			}
 		});
+		addAreaButton = new Button(controlPanelComposite, SWT.CHECK);
+		addAreaButton.setText("Add area");
+		addAreaButton
+				.setToolTipText("Add the next selected area to the plot instead of replacing it");
+		addAreaButton.setSelection(false);
 		updateButton = new Button(controlPanelComposite, SWT.NULL);
 		updateButton.setText("Update");
 		updateButton.addSelectionListener(new SelectionAdapter() {
@@ -195,18 +208,36 @@ public class RockingCurveView extends ViewPart {
 		chart.getXAxis().setAnnotation(JLAxis.VALUE_ANNO);
 		chart.getY1Axis().setGridVisible(true);
 		chart.getY1Axis().setSubGridVisible(true);
-		dataView = new JLDataView();
-		dataView
-				.setName("integrated intensity [" + rockArea[0] + ","
-						+ rockArea[1] + "] - [" + rockArea[2] + ","
-						+ rockArea[3] + "]");
-		chart.getY1Axis().addDataView(dataView);
 		chartContainer.add(chart);
 	}
 
+	/**
+	 * Make one data view per area, reusing the existing ones.
+	 */
+	private void updateDataViews() {
+		while (dataViews.size() > rockAreas.size()) {
+			chart.getY1Axis().removeDataView(
+					dataViews.remove(dataViews.size() - 1));
+		}
+		while (dataViews.size() < rockAreas.size()) {
+			JLDataView dataView = new JLDataView();
+			dataView.setColor(AREA_COLORS[dataViews.size()
+					% AREA_COLORS.length]);
+			chart.getY1Axis().addDataView(dataView);
+			dataViews.add(dataView);
+		}
+		for (int i = 0; i < rockAreas.size(); i++) {
+			int[] rockArea = rockAreas.get(i);
+			dataViews.get(i).setName(
+					"integrated intensity [" + rockArea[0] + "," + rockArea[1]
+							+ "] - [" + rockArea[2] + "," + rockArea[3] + "]");
+		}
+	}
+
 	/**
 	 * Set the new area, center and sample to integrate and display it as a line
-	 * plot
+	 * plot. If "Add area" is checked the area is added to the ones already
+	 * plotted. An integration still running is cancelled.
 	 * 
 	 * @param title
 	 *            - title to display with plot
@@ -218,56 +249,59 @@ public class RockingCurveView extends ViewPart {
 	 */
 	public void setCenterArea(String _title, int center, int y1, int z1,
 			int y2, int z2) throws Throwable {
-		if (!jobRunning) {
-			jobRunning = true;
-			if (sample == null || sample != controller.getCurrentsample()) {
-				sample = controller.getCurrentsample();
-				if (sample == null) {
-					FableUtils.errMsg(this, "Rocking curve requires a Sample."
-							+ "  Cannot find a Sample.");
-					return;
-				}
-				try {
-					String[] headerItems = sample.getFilteredfiles().get(0)
-							.getKeys();
-					xAxisItems = new String[1 + headerItems.length];
-					xAxisItems[0] = "image number";
-					for (int i = 0; i < headerItems.length; i++) {
-						xAxisItems[i + 1] = headerItems[i];
-					}
-				} catch (FabioFileException ex) {
-					FableUtils.excNoTraceMsg(this, "Error setting center area",
-							ex);
-				} catch (JepException ex) {
-					FableUtils.excNoTraceMsg(this, "Error setting center area",
-							ex);
-				}
-				xAxisCombo.setItems(xAxisItems);
-				xAxisCombo.select(0);
-				xAxis = 0;
-			}
-			title = _title;
-			rockStartSpinner.setMaximum(sample.getFilteredfiles().size() - 1);
-			rockEndSpinner.setMaximum(sample.getFilteredfiles().size() - 1);
-			rockArea[0] = y1;
-			rockArea[1] = z1;
-			rockArea[2] = y2;
-			rockArea[3] = z2;
-			rockCenter = center;
-			rockRange = rockEnd - rockStart;
-			if (rockRange <= 3) {
-				rockStart = center - 3;
-			} else {
-				rockStart = center - rockRange / 2;
+		if (integrateJob != null) {
+			integrateJob.cancel();
+		}
+		boolean sampleChanged = false;
+		if (sample == null || sample != controller.getCurrentsample()) {
+			sampleChanged = true;
+			sample = controller.getCurrentsample();
+			if (sample == null) {
+				FableUtils.errMsg(this, "Rocking curve requires a Sample."
+						+ "  Cannot find a Sample.");
+				return;
 			}
-			if (rockRange <= 3) {
-				rockEnd = center + 3;
-			} else {
-				rockEnd = center + (rockRange + 1) / 2;
+			try {
+				String[] headerItems = sample.getFilteredfiles().get(0)
+						.getKeys();
+				xAxisItems = new String[1 + headerItems.length];
+				xAxisItems[0] = "image number";
+				for (int i = 0; i < headerItems.length; i++) {
+					xAxisItems[i + 1] = headerItems[i];
+				}
+			} catch (FabioFileException ex) {
+				FableUtils.excNoTraceMsg(this, "Error setting center area",
+						ex);
+			} catch (JepException ex) {
+				FableUtils.excNoTraceMsg(this, "Error setting center area",
+						ex);
 			}
-			checkRockRange();
-			runIntegratePlotJob();
+			xAxisCombo.setItems(xAxisItems);
+			xAxisCombo.select(0);
+			xAxis = 0;
+		}
+		title = _title;
+		rockStartSpinner.setMaximum(sample.getFilteredfiles().size() - 1);
+		rockEndSpinner.setMaximum(sample.getFilteredfiles().size() - 1);
+		if (sampleChanged || !addAreaButton.getSelection()) {
+			rockAreas.clear();
+		}
+		rockAreas.add(new int[] { y1, z1, y2, z2 });
+		updateDataViews();
+		rockCenter = center;
+		rockRange = rockEnd - rockStart;
+		if (rockRange <= 3) {
+			rockStart = center - 3;
+		} else {
+			rockStart = center - rockRange / 2;
 		}
+		if (rockRange <= 3) {
+			rockEnd = center + 3;
+		} else {
+			rockEnd = center + (rockRange + 1) / 2;
+		}
+		checkRockRange();
+		runIntegratePlotJob();
 	}
 
 	public void checkRockRange() {
@@ -287,125 +321,82 @@ public class RockingCurveView extends ViewPart {
 	}
 
 	public void runIntegratePlotJob() {
-		Job job = new Job("Integrate rocking curve for sample "
+		if (integrateJob != null) {
+			integrateJob.cancel();
+		}
+		final RockingCurveIntegrator integrator = createIntegrator();
+		if (integrator == null) {
+			return;
+		}
+		final int first = rockStart, last = rockEnd;
+		integrateJob = new Job("Integrate rocking curve for sample "
 				+ sample.getDirectoryName() + " ... ") {
 			protected IStatus run(IProgressMonitor monitor) {
-				jobMonitor = monitor;
 				monitor.beginTask("Integrate rocking curve for sample "
-						+ sample.getDirectoryName() + " ... ", rockEnd
-						- rockStart + 1);
-				if (Integrate() != 0) {
-					monitor.done();
+						+ sample.getDirectoryName() + " ... ", last - first
+						+ 1);
+				final Job job = this;
+				Result integrated = integrator.integrate(monitor,
+						new IRockingCurveListener() {
+							public void resultChanged(final Result result,
+									boolean finished) {
+								Display.getDefault().asyncExec(new Runnable() {
+									public void run() {
+										// A newer integration may have started
+										if (integrateJob == job) {
+											Plot(result);
+										}
+									}
+								});
+							}
+						});
+				monitor.done();
+				if (monitor.isCanceled()) {
 					return Status.CANCEL_STATUS;
 				}
-				Display.getDefault().asyncExec(new Runnable() {
-					public void run() {
-						Plot();
-					}
-				});
-				monitor.done();
-				jobRunning = false;
+				if (integrated.getErrors() != 0) {
+					final String message;
+					message = integrated.getErrors()
+							+ " files will not be plotted on the rocking curve "
+							+ "because their size differs or the key chosen for "
+							+ "the x axis does not exist";
+					Display.getDefault().asyncExec(new Runnable() {
+						public void run() {
+							MessageDialog.openConfirm(Display.getDefault()
+									.getActiveShell(), "Confirm", message);
+						}
+					});
+				}
 				return Status.OK_STATUS;
 			}
 		};
-		job.setUser(false);
-		job.schedule();
+		integrateJob.setUser(false);
+		integrateJob.schedule();
 
 	}
 
-	// KE: Is this method name supposed to start with a cap?
-	public int Integrate() {
-		FableJep fableJep = null;
-		try {
-			fableJep = FableJep.getFableJep();
-		} catch (Throwable ex) {
-			FableUtils.excMsg(this, "Error in Integrate creating FableJep", ex);
-		}
+	/**
+	 * Read the settings of the view for the integration job. The frames must
+	 * have the size of the center frame.
+	 * 
+	 * @return the integrator or null if the center frame cannot be read
+	 */
+	private RockingCurveIntegrator createIntegrator() {
 		Vector<FabioFile> fabioFiles = sample.getFilteredfiles();
-		int width, height, npoints;
-		FabioFile fabioFile;
-		fabioFile = fabioFiles.get(rockCenter);
+		FabioFile fabioFile = fabioFiles.get(rockCenter);
 		try {
-			width = fabioFile.getWidth();
-
-			height = fabioFile.getHeight();
-
-			npoints = (rockArea[2] - rockArea[0]) * (rockArea[3] - rockArea[1]);
-			rockX = new float[rockEnd - rockStart + 1];
-			rockIntensity = new float[rockEnd - rockStart + 1];
-			int rockingCurveErrors = 0;
-			for (int i = rockStart; i <= rockEnd; i++) {
-				jobMonitor.worked(1);
-				float imageFloat[];
-				fabioFile = fabioFiles.get(i);
-				imageFloat = fabioFile.getImageAsFloat(fableJep);
-				/*
-				 * only do rocking curve for those files which have the same
-				 * size as the center file
-				 */
-				if (fabioFile.getWidth() == width
-						&& fabioFile.getHeight() == height) {
-					float sum = 0;
-					for (int z = rockArea[1]; z < rockArea[3]; z++) {
-						int zOffset;
-						zOffset = width * z;
-						for (int y = rockArea[0]; y < rockArea[2]; y++) {
-							sum = sum + imageFloat[zOffset + y];
-						}
-					}
-					if (average) {
-						rockIntensity[i - rockStart] = sum / (float) npoints;
-					} else {
-						rockIntensity[i - rockStart] = sum;
-					}
-				} else {
-					rockIntensity[i - rockStart] = Float.NaN;
-					rockingCurveErrors++;
-				}
-				if (xAxis != 0) {
-					rockX[i - rockStart] = Float.NaN;
-					String keyValue = "";
-					try {
-						if (!fabioFile.headerRead)
-							fabioFile.loadHeader(fableJep);
-						keyValue = fabioFile.getValue(xAxisItems[xAxis]);
-					} catch (FabioFileException ex) {
-						FableUtils.excNoTraceMsg(this,
-								"Error in Integrate loading header", ex);
-					}
-					try {
-						rockX[i - rockStart] = Float.parseFloat(keyValue);
-					} catch (NumberFormatException ex) {
-						FableUtils.excNoTraceMsg(this,
-								"Error in Integrate loading header", ex);
-						rockingCurveErrors++;
-					}
-				} else {
-					rockX[i - rockStart] = i;
-				}
-			}
-
-			if (rockingCurveErrors != 0) {
-				final String message;
-				message = rockingCurveErrors
-						+ " files will not be plotted on the rocking curve "
-						+ "because their size differs or the key chosen for "
-						+ "the x axis does not exist";
-				Display.getDefault().asyncExec(new Runnable() {
-					public void run() {
-						MessageDialog.openConfirm(Display.getDefault()
-								.getActiveShell(), "Confirm", message);
-					}
-				});
-				return 1;
-			}
+			int width = fabioFile.getWidth();
+			int height = fabioFile.getHeight();
+			return new RockingCurveIntegrator(fabioFiles, rockStart, rockEnd,
+					rockAreas, xAxis != 0 ? xAxisItems[xAxis] : null, average,
+					width, height);
 		} catch (Throwable ex) {
 			FableUtils.excNoTraceMsg(this, "Error in Integrate", ex);
+			return null;
 		}
-		return 0;
 	}
 
-	public void Plot() {
+	public void Plot(Result result) {
 		if (average) {
 			chart.getY1Axis().setName("average intensity");
 		} else {
@@ -413,17 +404,9 @@ public class RockingCurveView extends ViewPart {
 		}
 		chart.getXAxis().setName(xAxisItems[xAxis]);
 		chart.setHeader(title);
-		double[] x = new double[rockEnd - rockStart + 1];
-		double[] y = new double[rockEnd - rockStart + 1];
-		for (int i = 0; i < rockEnd - rockStart + 1; i++) {
-			x[i] = rockX[i];
-			y[i] = Double.valueOf(rockIntensity[i]);
+		for (int i = 0; i < result.getAreaCount() && i < dataViews.size(); i++) {
+			dataViews.get(i).setData(result.getX(), result.getIntensity(i));
 		}
-		dataView.setData(x, y);
-		dataView
-				.setName("integrated intensity [" + rockArea[0] + ","
-						+ rockArea[1] + "] - [" + rockArea[2] + ","
-						+ rockArea[3] + "]");
 		Dimension chartSize = chartContainer.getSize();
 		chart.setSize(chartSize);
 		javax.swing.SwingUtilities.invokeLater(new Runnable() {
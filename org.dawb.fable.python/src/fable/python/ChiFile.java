@@ -60,8 +60,7 @@ public class ChiFile {
 		if (numDots > 0) {
 			numDots = numDots / 2;
 			dots = new float[numDots];
-			dots = (float[]) fableJep
-					.getValue_floatarray("reader.dots.astype(numpy.float32).tostring()");
+			dots = fableJep.getFloatArray("reader.dots");
 			setMinIntensity(fableJep.getFloatValue("reader.getminIntensity()"));
 			setMaxIntensity(fableJep.getFloatValue("reader.getmaxIntensity()"));
 			setMeanIntensity(fableJep
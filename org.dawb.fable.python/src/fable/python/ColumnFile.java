@@ -10,6 +10,7 @@
 package fable.python;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -37,6 +38,11 @@ import fable.framework.toolbox.FableUtils;
  * columnfile represents an ascii file with titles begining "#" and multiple
  * lines of data. An equals sign "=" on a "#" line implies a parameter = value
  * pair
+ * <p>
+ * Files are read in Java by ColumnFileReader, then sorted, filtered and
+ * saved in Java. Filters keep a view of the rows left, the columns are only
+ * copied when the file is saved. The python column_object is only made from
+ * the file when Java cannot read it.
  * 
  * @author SUCHET
  * 
@@ -54,14 +60,24 @@ public class ColumnFile {
 	float[] unitCell;
 	public String[] titles;
 
-	private float[] table_data;
-	private HashMap<String, Integer> column_index;
+	/** The data of the file, in Java */
+	private ColumnTable table;
+	/** True if column_object in jep holds this file */
+	private boolean pythonLoaded;
+	/** True if the file was read by ColumnFileReader */
+	private boolean readInJava;
+	/** Changed each time the table is loaded or filtered */
+	private volatile int version;
+	/** Indexes of the values of the columns, for the current table */
+	private final HashMap<String, RowIndex> rowIndexes = new HashMap<String, RowIndex>();
+	/** All the values of the current table in one array, made when asked for */
+	private float[] bigArray;
 	/** To sort tableViewer for editor, please set selected columnindex */
 	private int sortedColumnIndex;
 	/** To know if we should sort in ascendant or descendant oder. */
 	private int sortedDirection;
-	/** Sorted index */
-	private float[] bigArraySorted;
+	/** Rows of table in the order they are shown */
+	private int[] sortedRows;
 
 	/**
 	 * Class constructor
@@ -70,8 +86,6 @@ public class ColumnFile {
 	 * 
 	 */
 	public ColumnFile() throws Throwable {
-		fableJep = FableJep.getFableJep();
-		importModules();
 		logger = LoggerFactory.getLogger(ColumnFile.class);
 
 	}
@@ -84,6 +98,7 @@ public class ColumnFile {
 	 */
 	public ColumnFile(FableJep jep_as_parameter) throws JepException {
 		fableJep = jep_as_parameter;
+		pythonLoaded = true;
 		importModules();
 		logger = LoggerFactory.getLogger(ColumnFile.class);
 		// name = (String)fableJep.getValue("column_object.filename");
@@ -117,12 +132,12 @@ public class ColumnFile {
 	}
 
 	/**
-	 * open a new column file in the current jep Init sort index, based on the
-	 * file id, or on the first column if it is not defined.
+	 * open a new column file, in Java or in the current jep if Java cannot
+	 * read it. Init sort index, based on the file id, or on the first column
+	 * if it is not defined.
 	 * 
 	 * @param _fileName
 	 *            - name of column file to open
-	 * @throws JepException
 	 */
 	public void loadColumnFile(String _fileName) {
 
@@ -131,27 +146,94 @@ public class ColumnFile {
 		 * imageDescriptorFromPlugin(Activator.PLUGIN_ID, "fable.gif");
 		 */
 
+		setFileName(_fileName);
+		pythonLoaded = false;
+		readInJava = false;
 		try {
-			fableJep.set("name", _fileName); //$NON-NLS-1$
-			setFileName(_fileName);
+			setTable(new ColumnFileReader().read(_fileName));
+			readInJava = true;
+		} catch (IOException e) {
+			logger.debug("Cannot read " + _fileName + " in Java, trying python : " //$NON-NLS-1$ //$NON-NLS-2$
+					+ e.getMessage());
+			if (!loadPythonObject()) {
+				return;
+			}
+			loadRows();
+		}
+		sortedColumnIndex = getColumnIDIndex();
+		setSortedIndex(sortedColumnIndex, SWT.UP);
+		if (sortedColumnIndex < 0) {
+			sortedColumnIndex = 0;
+		}
+		fireAddColumnFile();
+	}
+
+	/**
+	 * Make column_object in jep from the file if it is not there yet.
+	 * 
+	 * @return true if column_object holds this file
+	 */
+	private boolean loadPythonObject() {
+		if (pythonLoaded) {
+			return true;
+		}
+		if (fullFileName == null) {
+			return false;
+		}
+		try {
+			if (fableJep == null) {
+				fableJep = FableJep.getFableJep();
+				importModules();
+			}
+			fableJep.set("name", fullFileName); //$NON-NLS-1$
 			fableJep.eval("column_object=columnfile.columnfile(name)"); //$NON-NLS-1$
 			fableJep.eval("column_object.readfile(name)"); //$NON-NLS-1$
+			pythonLoaded = true;
+		} catch (Throwable e) {
+			logger.debug(e.getMessage());
+		}
+		return pythonLoaded;
+	}
 
-			loadRows();
-			sortedColumnIndex = getColumnIDIndex();
-			setSortedIndex(sortedColumnIndex, SWT.UP);
-			if (sortedColumnIndex < 0) {
-				sortedColumnIndex = 0;
-			}
-			fireAddColumnFile();
+	private void setTable(ColumnTable newTable) {
+		synchronized (columns) {
+			table = newTable;
+			clearColumns();
+		}
+		titles = table.getTitles();
+		nCols = table.getColumnCount();
+		nRows = table.getRowCount();
+		initSortedRows();
+	}
 
-		} catch (JepException e) {
-			// TODO Auto-generated catch block
-			logger.debug(e.getMessage());
-			// e.printStackTrace();
+	/**
+	 * Forget the columns to plot and their indexes, they are made again from
+	 * the current rows when asked for.
+	 */
+	private void clearColumns() {
+		synchronized (columns) {
+			columns.clear();
+			rowIndexes.clear();
+			bigArray = null;
+			version++;
 		}
 	}
 
+	/**
+	 * @return a number which changes each time the rows are loaded or
+	 *         filtered, to know if data taken from this file is still valid
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the data of the file
+	 */
+	public ColumnTable getTable() {
+		return table;
+	}
+
 	/***
 	 * For example, in transformer, colmnfile object exists in python object
 	 * transformer. So we don't create a new columnfile like it is created in
@@ -191,16 +273,22 @@ public class ColumnFile {
 	public void setPythonObject(FableJep jep_as_parameter) throws JepException {
 
 		fableJep = jep_as_parameter;
+		pythonLoaded = true;
+		readInJava = false;
 		logger = LoggerFactory.getLogger(ColumnFile.class);
 		fullFileName = (String) fableJep.getValue("column_object.filename"); //$NON-NLS-1$
-
+		clearColumns();
 	}
 
 	/**
-	 * This method load a big array of float from python object.
+	 * This method load a big array of float from python object. Nothing is
+	 * done if the file was read in Java and is not in python.
 	 * 
 	 */
 	public void loadRows() {
+		if (!pythonLoaded) {
+			return;
+		}
 		try {
 			float f = 0f;
 			Object objRows = fableJep.getValue("column_object.nrows");
@@ -226,18 +314,17 @@ public class ColumnFile {
 				nCols = (int) f;
 
 			}
-			titles = new String[nCols];
-			column_index = new HashMap<String, Integer>();
+			String[] names = new String[nCols];
 			for (int i = 0; i < nCols; i++) {
 				fableJep.set("i", i); //$NON-NLS-1$
 
-				titles[i] = (String) fableJep
+				names[i] = (String) fableJep
 						.getValue("column_object.titles[i]"); //$NON-NLS-1$
-				column_index.put(titles[i], i);
 			}
 
-			table_data = (float[]) fableJep
-					.getValue_floatarray("column_object.bigarray.astype(numpy.float32).tostring()"); //$NON-NLS-1$
+			float[] table_data = fableJep
+					.getFloatArray("column_object.bigarray"); //$NON-NLS-1$
+			setTable(ColumnTable.fromBigArray(names, table_data, nRows));
 
 		} catch (JepException e) {
 			logger.error("can not create loadRows : " + e.getMessage()); //$NON-NLS-1$
@@ -285,41 +372,20 @@ public class ColumnFile {
 	}
 
 	/**
-	 * This methods have been created (thanks to Jon for its help in python), to
-	 * sort columns in table viewer, as it is now virtual. In fact, the content
-	 * provider <code>ILazyContentProvider</code> is not compatible with a sort
-	 * set on the table. <br>
-	 * <b>Numpy module for python side of this method must have been imported
-	 * previously.
+	 * This methods have been created to sort columns in table viewer, as it
+	 * is now virtual. In fact, the content provider
+	 * <code>ILazyContentProvider</code> is not compatible with a sort set on
+	 * the table. The rows are sorted in Java, in the current direction.
 	 * 
 	 * @param the
 	 *            index of the column to sort
 	 * @return a table with sorted index
 	 */
-	public float[] getSortedIndex(int columnIndex) {
-		try {
-			fableJep.set("i", columnIndex); //$NON-NLS-1$
-			// fableJep.set("sortedTable", columnIndex);
-			// numpy sort returns a table of sorted values
-			/*
-			 * fableJep.eval("sortedTable =" +
-			 * "numpy.argsort(column_object.bigarray[:i])");
-			 */
-			if (sortedDirection == SWT.UP) {
-				return (float[]) fableJep
-						.getValue_floatarray("numpy.argsort(column_object.bigarray[i,:]).astype(numpy.float32)." //$NON-NLS-1$
-								+ "tostring()"); //$NON-NLS-1$
-			} else {
-				return (float[]) fableJep
-						.getValue_floatarray("numpy.argsort(column_object.bigarray[i,:])[::-1]." + //$NON-NLS-1$
-								"astype(numpy.float32)." //$NON-NLS-1$
-								+ "tostring()"); //$NON-NLS-1$
-			}
-		} catch (JepException e) {
-			logger.debug(e.getMessage());
+	public int[] getSortedIndex(int columnIndex) {
+		if (table == null) {
+			return null;
 		}
-		return null;
-
+		return ColumnSort.argsort(table, columnIndex, sortedDirection == SWT.UP);
 	}
 
 	/**
@@ -332,6 +398,20 @@ public class ColumnFile {
 	 */
 	public boolean saveColumnFile(String filename) {
 		boolean bok = true;
+		if (readInJava) {
+			try {
+				ColumnFileWriter.write(table, filename);
+				setFileName(filename);
+				fireSaveDone();
+			} catch (IOException e) {
+				logger.error("Cannot save " + filename + " : " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				bok = false;
+			}
+			return bok;
+		}
+		if (!loadPythonObject()) {
+			return false;
+		}
 		try {
 			fableJep.set("filename", filename); //$NON-NLS-1$
 			fableJep.eval("column_object.writefile(filename)"); //$NON-NLS-1$
@@ -344,16 +424,33 @@ public class ColumnFile {
 	}
 
 	/**
+	 * The columns of a file read in python are taken from column_object
+	 * once, then kept like the ones of a file read in Java until the rows are
+	 * loaded or filtered again.
+	 * 
 	 * @return A HashMap<String, double[]> with keys for column label and
 	 *         double[] for values to plot.
 	 */
 	public HashMap<String, double[]> getColumnstoPlot() {
+		if (readInJava) {
+			for (int i = 0; i < nCols; i++) {
+				getColumnToPlot(titles[i]);
+			}
+			return columns;
+		}
+		final int taken;
+		synchronized (columns) {
+			if (!columns.isEmpty()) {
+				return columns;
+			}
+			taken = version;
+		}
+		final HashMap<String, double[]> values = new HashMap<String, double[]>();
 		// Get column file
 		Display.getDefault().syncExec(new Runnable() {
 			// @Override
 			public void run() {
 				try {
-					columns.clear();
 					if (fableJep == null) {
 						throw new InvalidObjectException("FableJep is null");
 					}
@@ -369,8 +466,8 @@ public class ColumnFile {
 									.eval("filteredValues=column_object.getcolumn(" + //$NON-NLS-1$
 											"column_object.titles[i])"); //$NON-NLS-1$
 
-							float[] myData = (float[]) fableJep
-									.getValue_floatarray("filteredValues.astype(numpy.float32).tostring()"); //$NON-NLS-1$
+							float[] myData = fableJep
+									.getFloatArray("filteredValues"); //$NON-NLS-1$
 							double[] myDoubleToplot = new double[myData.length];
 							nRows = myData.length;
 
@@ -380,7 +477,7 @@ public class ColumnFile {
 
 							}
 							titles[i] = name;
-							columns.put(name, myDoubleToplot);
+							values.put(name, myDoubleToplot);
 						}
 					}
 				} catch (JepException ex) {
@@ -392,7 +489,63 @@ public class ColumnFile {
 				}
 			}
 		});
-		return columns;
+		synchronized (columns) {
+			// Not kept if the rows changed while they were taken
+			if (version == taken) {
+				columns.putAll(values);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * The values of one column to plot. They are made once and kept until
+	 * the rows are loaded or filtered again.
+	 * 
+	 * @param title
+	 * @return the values of the column or null if there is no such column
+	 */
+	public double[] getColumnToPlot(String title) {
+		if (!readInJava) {
+			return getColumnstoPlot().get(title);
+		}
+		synchronized (columns) {
+			double[] values = columns.get(title);
+			if (values == null) {
+				int column = table.getColumnIndex(title);
+				if (column < 0) {
+					return null;
+				}
+				values = table.getDoubleColumn(column);
+				columns.put(title, values);
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * An index to find the row of a value of a column, for example of a
+	 * spot3d_id. It is kept with the columns to plot.
+	 * 
+	 * @param title
+	 * @return the index or null if there is no such column
+	 */
+	public RowIndex getRowIndex(String title) {
+		double[] values = getColumnToPlot(title);
+		if (values == null) {
+			return null;
+		}
+		synchronized (columns) {
+			RowIndex index = rowIndexes.get(title);
+			if (index == null) {
+				index = new RowIndex(values);
+				// Not kept for columns taken before the rows changed
+				if (columns.get(title) == values) {
+					rowIndexes.put(title, index);
+				}
+			}
+			return index;
+		}
 	}
 
 	/***
@@ -407,12 +560,9 @@ public class ColumnFile {
 	public float getColumnFileCell(int index, String colName) {
 		float returnValue = 0;
 
-		Integer indexColumn = column_index.get(colName);
-		if (indexColumn != null) {
-			index = index + (indexColumn * nRows);
-			if (index < table_data.length) {
-				returnValue = table_data[index];
-			}
+		int indexColumn = table != null ? table.getColumnIndex(colName) : -1;
+		if (indexColumn >= 0 && index < nRows) {
+			returnValue = table.getFloat(index, indexColumn);
 		}
 		return returnValue;
 	}
@@ -551,7 +701,9 @@ public class ColumnFile {
 	 */
 	public void removeDots(String key1, double key1min, double key1max,
 			String key2, double key2min, double key2max) throws JepException {
-		if (fableJep != null) {
+		if (readInJava) {
+			filterDots(key1, key1min, key1max, key2, key2min, key2max, false);
+		} else if (loadPythonObject()) {
 			fableJep.set("key1min", key1min); //$NON-NLS-1$
 			fableJep.set("key1max", key1max); //$NON-NLS-1$
 			fableJep.set("key2min", key2min); //$NON-NLS-1$
@@ -563,7 +715,7 @@ public class ColumnFile {
 					+ "(column_object." + key2 + "<= key2max)"); //$NON-NLS-1$ //$NON-NLS-2$
 			fableJep.eval("column_object.filter(~mask)"); //$NON-NLS-1$
 			loadRows();
-			initBigArraySorted();
+			initSortedRows();
 			update();
 		}
 	}
@@ -577,12 +729,14 @@ public class ColumnFile {
 	 *            columnFile id.
 	 */
 	public void removeRow(Object[] idlist, String id) {
-		if (fableJep != null) {
+		if (readInJava) {
+			filterRows(idlist, id, false);
+		} else if (loadPythonObject()) {
 			makeMaskForSelectedRows(idlist, id);
 			try {
 				fableJep.eval("column_object.filter(~mask)"); //$NON-NLS-1$
 				loadRows();
-				initBigArraySorted();
+				initSortedRows();
 			} catch (JepException e) {
 				logger.debug("filter on selected rows canno be apply."); //$NON-NLS-1$
 				logger.debug(e.getMessage());
@@ -600,13 +754,15 @@ public class ColumnFile {
 	 *            columnFile id.
 	 */
 	public void keepRow(Object[] rows, String id) {
-		if (fableJep != null) {
+		if (readInJava) {
+			filterRows(rows, id, true);
+		} else if (loadPythonObject()) {
 			makeMaskForSelectedRows(rows, id);
 			try {
 				fableJep.eval("column_object.filter(mask)"); //$NON-NLS-1$
 				loadRows();
-				// Update bigArraySorted
-				initBigArraySorted();
+				// Update sortedRows
+				initSortedRows();
 			} catch (JepException e) {
 				logger.debug("filter on selected rows cannot be apply."); //$NON-NLS-1$
 				logger.debug(e.getMessage());
@@ -616,11 +772,49 @@ public class ColumnFile {
 	}
 
 	/**
-	 * This method inits or reallocate this array containing a list of index.
+	 * Keep the rows with both values in their range, or the other rows, in
+	 * Java. The table becomes a view of the rows kept.
+	 */
+	private void filterDots(String key1, double key1min, double key1max,
+			String key2, double key2min, double key2max, boolean inside) {
+		int column1 = table.getColumnIndex(key1);
+		int column2 = table.getColumnIndex(key2);
+		if (column1 < 0 || column2 < 0) {
+			logger.debug("No column " + (column1 < 0 ? key1 : key2)); //$NON-NLS-1$
+			return;
+		}
+		setTable(table.select(ColumnFilter.inRanges(table, column1, key1min,
+				key1max, column2, key2min, key2max, inside)));
+		update();
+	}
+
+	/**
+	 * Keep the rows whose id is in the list, or the other rows, in Java.
+	 */
+	private void filterRows(Object[] idlist, String id, boolean inside) {
+		int column = table.getColumnIndex(id);
+		if (column < 0) {
+			logger.debug("No column " + id); //$NON-NLS-1$
+			return;
+		}
+		int[] ids = new int[idlist.length];
+		for (int i = 0; i < idlist.length; i++) {
+			if (idlist[i] instanceof Number) {
+				ids[i] = ((Number) idlist[i]).intValue();
+			} else {
+				ids[i] = (int) Double.parseDouble(String.valueOf(idlist[i]));
+			}
+		}
+		setTable(table.select(ColumnFilter.inSet(table, column, ids, inside)));
+		update();
+	}
+
+	/**
+	 * This method resets the order of the rows, it is made again when a row
+	 * is asked for.
 	 */
-	private void initBigArraySorted() {
-		bigArraySorted = new float[nRows];
-		bigArraySorted = getSortedIndex(sortedColumnIndex);
+	private synchronized void initSortedRows() {
+		sortedRows = null;
 	}
 
 	/**
@@ -681,7 +875,9 @@ public class ColumnFile {
 	 */
 	public void keepDots(String key1, double key1min, double key1max,
 			String key2, double key2min, double key2max) throws JepException {
-		if (fableJep != null) {
+		if (readInJava) {
+			filterDots(key1, key1min, key1max, key2, key2min, key2max, true);
+		} else if (loadPythonObject()) {
 			fableJep.set("key1min", key1min); //$NON-NLS-1$
 			fableJep.set("key1max", key1max); //$NON-NLS-1$
 			fableJep.set("key2min", key2min); //$NON-NLS-1$
@@ -693,7 +889,7 @@ public class ColumnFile {
 			fableJep.eval("column_object.filter(mask)"); //$NON-NLS-1$
 
 			loadRows();
-			initBigArraySorted();
+			initSortedRows();
 			update();
 		}
 	}
@@ -705,6 +901,10 @@ public class ColumnFile {
 	 * @param xyLabel
 	 */
 	public void displayComputedData(String[] xyLabel) {
+		// The columns computed in column_object are taken again
+		if (!readInJava) {
+			clearColumns();
+		}
 		firePlotData(xyLabel);
 	}
 
@@ -742,9 +942,19 @@ public class ColumnFile {
 		}
 	}
 
+	/**
+	 * The values are copied from the table once and kept until the rows are
+	 * loaded or filtered again, the array must not be modified.
+	 * 
+	 * @return all the values, index = row + column * nRows
+	 */
 	public float[] getData() {
-		return table_data;
-
+		synchronized (columns) {
+			if (bigArray == null && table != null) {
+				bigArray = table.toBigArray();
+			}
+			return bigArray;
+		}
 	}
 
 	/*
@@ -755,34 +965,54 @@ public class ColumnFile {
 	public void setSortedIndex(int index, int dir) {
 		sortedColumnIndex = index;
 		sortedDirection = dir;
-		initBigArraySorted();
+		initSortedRows();
+	}
+
+	/**
+	 * The order of the rows on the sorted column, made in Java the first time
+	 * it is needed after a sort or a filter.
+	 * 
+	 * @return the row of the table shown at each index
+	 */
+	public synchronized int[] getSortedRows() {
+		if (sortedRows == null) {
+			sortedRows = getSortedIndex(sortedColumnIndex);
+		}
+		return sortedRows;
 	}
 
 	/**
 	 * This method return a row at index
 	 * 
 	 * @param index
-	 * @return
+	 * @return the values of the row in the order of the titles
 	 */
 	public float[] getRowAt(int index) {
-		float[] f = null;
-		try {
-
-			fableJep.set("col", bigArraySorted[index]); //$NON-NLS-1$
-
-		} catch (JepException e) {
-			logger.debug("getRowAt/bigArraySorted" + e.getMessage());
+		final int[] rows = getSortedRows();
+		if (rows == null || index < 0 || index >= rows.length) {
+			return null;
 		}
-		try {
-
-			f = (float[]) fableJep.getValue_floatarray("column_object." + //$NON-NLS-1$
-					"bigarray[:,col].astype(numpy.float32).tostring()"); //$NON-NLS-1$
+		return table.getRow(rows[index], null);
+	}
 
-		} catch (JepException e) {
-			logger.debug("getRowAt/getValue_floatarray" + e.getMessage());
+	/**
+	 * This method returns count rows from index, for a table showing a page
+	 * of rows at a time.
+	 * 
+	 * @param index
+	 * @param count
+	 * @return the rows, fewer than count at the end of the table
+	 */
+	public float[][] getRowsAt(int index, int count) {
+		final int[] rows = getSortedRows();
+		if (rows == null || index < 0 || index >= rows.length) {
+			return new float[0][];
 		}
-
-		return f;
+		final float[][] values = new float[Math.min(count, rows.length - index)][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = table.getRow(rows[index + i], null);
+		}
+		return values;
 	}
 }
 /**/
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads an ImageD11 columnfile (.flt, .gve, ...) in Java, without python.
+ * <p>
+ * The header is made of lines starting with "#": "# name = value" lines are
+ * parameters, the last other one gives the titles of the columns. Then each
+ * line has one number per column.
+ * <p>
+ * The data is cut in chunks at line ends which are read by several threads
+ * in two passes: the first counts the rows of each chunk so that the columns
+ * are made at their final size, the second parses the numbers straight into
+ * them. Numbers are parsed from the bytes without making strings, so memory
+ * used is the columns plus one chunk per thread whatever the size of the
+ * file.
+ */
+public class ColumnFileReader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+	private static ExecutorService executor;
+
+	private boolean doublePrecision = false;
+	private int     threads         = Runtime.getRuntime().availableProcessors();
+	private int     chunkSize       = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * @param doublePrecision
+	 *            true to keep the values as doubles, false (the default) for
+	 *            floats as the python columnfile gives them
+	 */
+	public void setDoublePrecision(final boolean doublePrecision) {
+		this.doublePrecision = doublePrecision;
+	}
+
+	/**
+	 * @param threads
+	 *            number of chunks read at the same time
+	 */
+	public void setThreads(final int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            approximate size in bytes of the parts the file is cut in
+	 */
+	public void setChunkSize(final int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * @param fileName
+	 * @return the titles, parameters and columns of the file
+	 * @throws IOException
+	 *             if the file cannot be read or a line is not one number per
+	 *             title
+	 */
+	public ColumnTable read(final String fileName) throws IOException {
+
+		final Map<String, String> parameters = new LinkedHashMap<String, String>();
+		final String[][] titles = new String[1][];
+		final long dataStart = readHeader(fileName, parameters, titles);
+		if (titles[0] == null) {
+			throw new IOException("No titles in " + fileName);
+		}
+
+		final RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final long[] bounds = split(channel, dataStart);
+			final int chunks = bounds.length - 1;
+
+			final int[] counts = new int[chunks];
+			run(channel, bounds, new Chunks() {
+				@Override
+				public void process(final int chunk, final byte[] buffer, final int length) {
+					counts[chunk] = countRows(buffer, length);
+				}
+			});
+
+			final int[] firstRows = new int[chunks];
+			long rows = 0;
+			for (int i = 0; i < chunks; i++) {
+				firstRows[i] = (int) rows;
+				rows += counts[i];
+			}
+			if (rows > Integer.MAX_VALUE) {
+				throw new IOException("Too many rows in " + fileName);
+			}
+
+			final int cols = titles[0].length;
+			final float[][]  floats  = doublePrecision ? null : new float[cols][(int) rows];
+			final double[][] doubles = doublePrecision ? new double[cols][(int) rows] : null;
+			run(channel, bounds, new Chunks() {
+				@Override
+				public void process(final int chunk, final byte[] buffer, final int length) throws IOException {
+					new Parser(floats, doubles, cols).parse(buffer, length, firstRows[chunk]);
+				}
+			});
+
+			if (doublePrecision) {
+				return new ColumnTable(titles[0], parameters, doubles, (int) rows);
+			}
+			return new ColumnTable(titles[0], parameters, floats, (int) rows);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the "#" lines at the start of the file.
+	 *
+	 * @return the offset of the first line of data
+	 */
+	private static long readHeader(final String fileName, final Map<String, String> parameters,
+			                       final String[][] titles) throws IOException {
+		final InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+		try {
+			final StringBuilder line = new StringBuilder();
+			long offset = 0;
+			while (true) {
+				final long start = offset;
+				line.setLength(0);
+				int c;
+				while ((c = in.read()) >= 0) {
+					offset++;
+					if (c == '\n') break;
+					line.append((char) c);
+				}
+				if (line.length() == 0 || line.charAt(0) != '#') return start;
+
+				final String text = line.substring(1).trim();
+				final int equals = text.indexOf('=');
+				if (equals >= 0) {
+					parameters.put(text.substring(0, equals).trim(), text.substring(equals + 1).trim());
+				} else if (text.length() > 0) {
+					titles[0] = text.split("\\s+");
+				}
+				if (c < 0) return offset;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Cut the data in chunks of about chunkSize bytes ending after a '\n'.
+	 *
+	 * @return the offsets of the chunks followed by the size of the file
+	 */
+	private long[] split(final FileChannel channel, final long dataStart) throws IOException {
+		final long size = channel.size();
+		final List<Long> bounds = new ArrayList<Long>();
+		bounds.add(dataStart);
+		final ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = dataStart + chunkSize;
+		while (position < size) {
+			// Move to the end of the line the nominal bound falls in
+			long end = -1;
+			long read = position - 1;
+			while (end < 0 && read < size) {
+				buffer.clear();
+				final int n = channel.read(buffer, read);
+				if (n <= 0) break;
+				for (int i = 0; i < n; i++) {
+					if (buffer.get(i) == '\n') {
+						end = read + i + 1;
+						break;
+					}
+				}
+				read += n;
+			}
+			if (end < 0 || end >= size) break;
+			bounds.add(end);
+			position = end + chunkSize;
+		}
+		bounds.add(size);
+
+		final long[] array = new long[bounds.size()];
+		for (int i = 0; i < array.length; i++) array[i] = bounds.get(i);
+		return array;
+	}
+
+	/**
+	 * Give each chunk to process(...) using up to threads threads, each with
+	 * its own buffer.
+	 */
+	private void run(final FileChannel channel, final long[] bounds, final Chunks chunks) throws IOException {
+		final int count = bounds.length - 1;
+		int longest = 0;
+		for (int i = 0; i < count; i++) {
+			longest = (int) Math.max(longest, bounds[i + 1] - bounds[i]);
+		}
+		final int bufferSize = longest;
+		final AtomicInteger next = new AtomicInteger();
+		final Callable<Object> worker = new Callable<Object>() {
+			@Override
+			public Object call() throws IOException {
+				final byte[] buffer = new byte[bufferSize];
+				for (int chunk = next.getAndIncrement(); chunk < count; chunk = next.getAndIncrement()) {
+					final int length = (int) (bounds[chunk + 1] - bounds[chunk]);
+					final ByteBuffer wrap = ByteBuffer.wrap(buffer, 0, length);
+					while (wrap.hasRemaining()) {
+						if (channel.read(wrap, bounds[chunk] + wrap.position()) < 0) {
+							throw new IOException("File shorter than expected");
+						}
+					}
+					chunks.process(chunk, buffer, length);
+				}
+				return null;
+			}
+		};
+
+		final int workers = Math.min(threads, count);
+		if (workers <= 1) {
+			try {
+				worker.call();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(workers);
+		for (int i = 0; i < workers; i++) tasks.add(worker);
+		try {
+			for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Columnfile reader " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the number of lines which are not blank or comments
+	 */
+	private static int countRows(final byte[] bytes, final int length) {
+		int rows = 0;
+		int i = 0;
+		while (i < length) {
+			while (i < length && NumberParser.isBlank(bytes[i])) i++;
+			if (i < length && bytes[i] != '\n' && bytes[i] != '#') rows++;
+			while (i < length && bytes[i] != '\n') i++;
+			i++;
+		}
+		return rows;
+	}
+
+	private interface Chunks {
+		void process(int chunk, byte[] buffer, int length) throws IOException;
+	}
+
+	/**
+	 * Parses the lines of one chunk into the columns.
+	 */
+	private class Parser {
+
+		private final float[][]  floats;
+		private final double[][] doubles;
+		private final int        cols;
+		private final NumberParser numbers;
+
+		Parser(final float[][] floats, final double[][] doubles, final int cols) {
+			this.floats  = floats;
+			this.doubles = doubles;
+			this.cols    = cols;
+			this.numbers = new NumberParser(floats != null);
+		}
+
+		void parse(final byte[] bytes, final int length, int row) throws IOException {
+			int i = 0;
+			while (i < length) {
+				while (i < length && NumberParser.isBlank(bytes[i])) i++;
+				if (i >= length) break;
+				if (bytes[i] == '\n') {
+					i++;
+					continue;
+				}
+				if (bytes[i] == '#') {
+					while (i < length && bytes[i] != '\n') i++;
+					i++;
+					continue;
+				}
+				int col = 0;
+				while (i < length && bytes[i] != '\n') {
+					if (NumberParser.isBlank(bytes[i])) {
+						i++;
+						continue;
+					}
+					if (col == cols) {
+						throw new IOException("Row " + (row + 1) + " has more than " + cols + " values");
+					}
+					i = numbers.parse(bytes, i, length);
+					if (floats != null) {
+						floats[col][row] = (float) numbers.getValue();
+					} else {
+						doubles[col][row] = numbers.getValue();
+					}
+					col++;
+				}
+				if (col != cols) {
+					throw new IOException("Row " + (row + 1) + " has " + col + " values instead of " + cols);
+				}
+				row++;
+				i++;
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map.Entry;
+
+/**
+ * Writes a ColumnTable as a columnfile that ColumnFileReader and the python
+ * columnfile both read: the parameters, the titles and one line per row.
+ * Whole numbers are written without decimals, other values with the
+ * shortest text which reads back to the same float or double.
+ */
+public class ColumnFileWriter {
+
+	/**
+	 * @param table
+	 *            the table or a filtered view of it
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public static void write(final ColumnTable table, final String fileName) throws IOException {
+		final Writer out = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		try {
+			for (Entry<String, String> parameter : table.getParameters().entrySet()) {
+				out.write("# " + parameter.getKey() + " = " + parameter.getValue() + "\n");
+			}
+			out.write("#");
+			for (String title : table.getTitles()) {
+				out.write("  " + title);
+			}
+			out.write("\n");
+
+			final int cols = table.getColumnCount();
+			final boolean doubles = table.isDouble();
+			final StringBuilder line = new StringBuilder();
+			for (int i = 0; i < table.getRowCount(); i++) {
+				line.setLength(0);
+				for (int j = 0; j < cols; j++) {
+					line.append("  ");
+					final double value = table.getDouble(i, j);
+					if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+						line.append((long) value);
+					} else if (doubles) {
+						line.append(value);
+					} else {
+						line.append((float) value);
+					}
+				}
+				line.append('\n');
+				out.append(line);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
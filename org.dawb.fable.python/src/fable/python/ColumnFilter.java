@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.Arrays;
+
+/**
+ * Selects rows of a ColumnTable in Java, as the masks of the python
+ * columnfile did. The result is the list of the rows selected, which
+ * ColumnTable.select(...) turns into a view without copying the columns.
+ */
+public class ColumnFilter {
+
+	/**
+	 * The rows with both values in their range, bounds included, or the other
+	 * rows. A NaN is in no range.
+	 *
+	 * @param table
+	 * @param column1
+	 * @param min1
+	 * @param max1
+	 * @param column2
+	 * @param min2
+	 * @param max2
+	 * @param inside
+	 *            true for the rows in the ranges, false for the others
+	 * @return the rows, in the order of the table
+	 */
+	public static int[] inRanges(final ColumnTable table,
+			                     final int column1, final double min1, final double max1,
+			                     final int column2, final double min2, final double max2,
+			                     final boolean inside) {
+		final int rows = table.getRowCount();
+		final int[] selected = new int[rows];
+		int count = 0;
+		for (int i = 0; i < rows; i++) {
+			final double value1 = table.getDouble(i, column1);
+			final double value2 = table.getDouble(i, column2);
+			final boolean in = value1 >= min1 && value1 <= max1 && value2 >= min2 && value2 <= max2;
+			if (in == inside) selected[count++] = i;
+		}
+		return Arrays.copyOf(selected, count);
+	}
+
+	/**
+	 * The rows whose value, as an int, is one of the ids or the other rows.
+	 *
+	 * @param table
+	 * @param column
+	 *            a column of ids, like spot3d_id
+	 * @param ids
+	 * @param inside
+	 *            true for the rows with one of the ids, false for the others
+	 * @return the rows, in the order of the table
+	 */
+	public static int[] inSet(final ColumnTable table, final int column, final int[] ids,
+			                  final boolean inside) {
+		final IntSet set = new IntSet(ids.length);
+		for (int id : ids) set.add(id);
+		final int rows = table.getRowCount();
+		final int[] selected = new int[rows];
+		int count = 0;
+		for (int i = 0; i < rows; i++) {
+			if (set.contains((int) table.getDouble(i, column)) == inside) selected[count++] = i;
+		}
+		return Arrays.copyOf(selected, count);
+	}
+
+	/**
+	 * Set of ints with open addressing, no boxing.
+	 */
+	private static class IntSet {
+
+		private static final int EMPTY = Integer.MIN_VALUE;
+
+		private final int[] slots;
+		private final int   mask;
+		private boolean     hasEmpty;
+
+		IntSet(final int expected) {
+			int size = 16;
+			while (size < 2 * expected) size *= 2;
+			slots = new int[size];
+			mask  = size - 1;
+			Arrays.fill(slots, EMPTY);
+		}
+
+		void add(final int value) {
+			if (value == EMPTY) {
+				hasEmpty = true;
+				return;
+			}
+			int i = hash(value);
+			while (slots[i] != EMPTY) {
+				if (slots[i] == value) return;
+				i = (i + 1) & mask;
+			}
+			slots[i] = value;
+		}
+
+		boolean contains(final int value) {
+			if (value == EMPTY) return hasEmpty;
+			int i = hash(value);
+			while (slots[i] != EMPTY) {
+				if (slots[i] == value) return true;
+				i = (i + 1) & mask;
+			}
+			return false;
+		}
+
+		private int hash(final int value) {
+			final int h = value * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+	}
+}
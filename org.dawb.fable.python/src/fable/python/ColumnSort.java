@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Orders the rows of a ColumnTable on one column, in Java, as numpy.argsort
+ * did in python: NaN come last and a descending order is the ascending one
+ * reversed.
+ * <p>
+ * Float columns are sorted as longs made of the bits of the value, turned so
+ * that they sort as the floats do, and of the row, so no comparator or boxed
+ * index is needed and equal values stay in the order of the file. Large
+ * columns are cut in runs sorted by several threads and merged two by two,
+ * the merges of one round also being done in parallel.
+ */
+public class ColumnSort {
+
+	/**
+	 * Columns shorter than this are sorted in the calling thread.
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	private static ExecutorService executor;
+
+	/**
+	 * @param table
+	 * @param column
+	 *            the column to sort on, the rows are left in the order of the
+	 *            file if it is not a column of the table
+	 * @param ascending
+	 * @return the rows in sorted order
+	 * @throws OperationCanceledException
+	 *             if the thread is interrupted while the runs are sorted
+	 */
+	public static int[] argsort(final ColumnTable table, final int column, final boolean ascending) {
+		final int rows = table.getRowCount();
+		final int[] order;
+		if (column < 0 || column >= table.getColumnCount()) {
+			order = new int[rows];
+			for (int i = 0; i < rows; i++) order[i] = i;
+		} else if (table.isDouble()) {
+			order = argsort(table.getDoubleColumn(column), rows);
+		} else {
+			order = argsort(table.getFloatColumn(column), rows);
+		}
+		if (!ascending) reverse(order);
+		return order;
+	}
+
+	private static int[] argsort(final float[] values, final int rows) {
+		long[] keys = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			keys[i] = ((long) sortable(values[i]) << 32) | i;
+		}
+		keys = new LongRuns(keys).sort();
+		final int[] order = new int[rows];
+		for (int i = 0; i < rows; i++) order[i] = (int) keys[i];
+		return order;
+	}
+
+	/**
+	 * @return an int which compares as Float.compare(...) does on the values
+	 */
+	static int sortable(final float value) {
+		final int bits = Float.floatToIntBits(value);
+		return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+	}
+
+	private static int[] argsort(final double[] values, final int rows) {
+		final int[] order = new int[rows];
+		for (int i = 0; i < rows; i++) order[i] = i;
+		return new IndexRuns(order, values).sort();
+	}
+
+	private static void reverse(final int[] order) {
+		for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+			final int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+
+	/**
+	 * Sorts an array by sorting runs of it, then merging neighbouring runs
+	 * until one is left.
+	 */
+	private static abstract class Runs {
+
+		protected final int length;
+
+		Runs(final int length) {
+			this.length = length;
+		}
+
+		abstract void sortRun(int from, int to);
+
+		/** Merge [from, middle) and [middle, to) of the source into the target */
+		abstract void merge(int from, int middle, int to);
+
+		/** Exchange source and target after a round of merges */
+		abstract void swap();
+
+		void sortRuns() {
+			final int cpus = Runtime.getRuntime().availableProcessors();
+			if (length < PARALLEL_THRESHOLD || cpus < 2) {
+				sortRun(0, length);
+				return;
+			}
+			int runs = 1;
+			while (runs < 2 * cpus) runs *= 2;
+			final int size = (length + runs - 1) / runs;
+
+			final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int from = 0; from < length; from += size) {
+				final int start = from, end = Math.min(length, from + size);
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						sortRun(start, end);
+						return null;
+					}
+				});
+			}
+			run(tasks);
+
+			for (int width = size; width < length; width *= 2) {
+				tasks.clear();
+				final boolean parallel = length / (2 * width) > 1;
+				for (int from = 0; from < length; from += 2 * width) {
+					final int start = from;
+					final int middle = Math.min(length, from + width);
+					final int end = Math.min(length, from + 2 * width);
+					tasks.add(new Callable<Object>() {
+						@Override
+						public Object call() {
+							merge(start, middle, end);
+							return null;
+						}
+					});
+				}
+				if (parallel) {
+					run(tasks);
+				} else {
+					for (Callable<Object> task : tasks) {
+						try {
+							task.call();
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+				swap();
+			}
+		}
+	}
+
+	private static class LongRuns extends Runs {
+
+		private long[] source, target;
+
+		LongRuns(final long[] keys) {
+			super(keys.length);
+			this.source = keys;
+		}
+
+		long[] sort() {
+			if (length >= PARALLEL_THRESHOLD) target = new long[length];
+			sortRuns();
+			return source;
+		}
+
+		@Override
+		void sortRun(final int from, final int to) {
+			Arrays.sort(source, from, to);
+		}
+
+		@Override
+		void merge(final int from, final int middle, final int to) {
+			int i = from, j = middle, k = from;
+			while (i < middle && j < to) {
+				target[k++] = source[j] < source[i] ? source[j++] : source[i++];
+			}
+			System.arraycopy(source, i, target, k, middle - i);
+			k += middle - i;
+			System.arraycopy(source, j, target, k, to - j);
+		}
+
+		@Override
+		void swap() {
+			final long[] swap = source;
+			source = target;
+			target = swap;
+		}
+	}
+
+	private static class IndexRuns extends Runs {
+
+		private final double[] values;
+		private int[] source, target;
+
+		IndexRuns(final int[] order, final double[] values) {
+			super(order.length);
+			this.source = order;
+			this.values = values;
+			this.target = new int[order.length];
+		}
+
+		int[] sort() {
+			sortRuns();
+			return source;
+		}
+
+		@Override
+		void sortRun(final int from, final int to) {
+			// Bottom up merge sort of the run, stable, ends in source
+			int[] in = source, out = target;
+			for (int width = 1; width < to - from; width *= 2) {
+				for (int start = from; start < to; start += 2 * width) {
+					final int middle = Math.min(start + width, to);
+					final int end = Math.min(start + 2 * width, to);
+					merge(in, out, start, middle, end);
+				}
+				final int[] swap = in;
+				in = out;
+				out = swap;
+			}
+			if (in != source) System.arraycopy(in, from, source, from, to - from);
+		}
+
+		@Override
+		void merge(final int from, final int middle, final int to) {
+			merge(source, target, from, middle, to);
+		}
+
+		private void merge(final int[] in, final int[] out, final int from, final int middle, final int to) {
+			int i = from, j = middle, k = from;
+			while (i < middle && j < to) {
+				out[k++] = Double.compare(values[in[j]], values[in[i]]) < 0 ? in[j++] : in[i++];
+			}
+			while (i < middle) out[k++] = in[i++];
+			while (j < to) out[k++] = in[j++];
+		}
+
+		@Override
+		void swap() {
+			final int[] swap = source;
+			source = target;
+			target = swap;
+		}
+	}
+
+	private static void run(final List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			// The results of the tasks are not complete
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Column sort " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The content of a columnfile kept in Java: the titles, the "# name = value"
+ * parameters of the header and one primitive array per column, in float or
+ * in double precision.
+ * <p>
+ * Columns are kept separate instead of in one table so that files with more
+ * rows x columns than an array can hold are still read, and so that a column
+ * is plotted or sorted without being copied out of a larger array.
+ * <p>
+ * A filtered table is a view: it shares the columns of the table it comes
+ * from and keeps only the list of its rows, so filtering does not copy the
+ * data.
+ */
+public class ColumnTable {
+
+	private final String[]             titles;
+	private final Map<String, String>  parameters;
+	private final Map<String, Integer> index;
+	private final float[][]            floats;
+	private final double[][]           doubles;
+	/** Rows of the columns in this table, null for all */
+	private final int[]                selection;
+	private final int                  rows;
+
+	/**
+	 * @param titles
+	 * @param parameters
+	 *            may be null
+	 * @param columns
+	 *            one array per title, at least rows long
+	 * @param rows
+	 */
+	public ColumnTable(final String[] titles, final Map<String, String> parameters,
+			           final float[][] columns, final int rows) {
+		this(titles, parameters, columns, null, null, rows);
+	}
+
+	/**
+	 * @param titles
+	 * @param parameters
+	 *            may be null
+	 * @param columns
+	 *            one array per title, at least rows long
+	 * @param rows
+	 */
+	public ColumnTable(final String[] titles, final Map<String, String> parameters,
+			           final double[][] columns, final int rows) {
+		this(titles, parameters, null, columns, null, rows);
+	}
+
+	private ColumnTable(final String[] titles, final Map<String, String> parameters,
+			            final float[][] floats, final double[][] doubles,
+			            final int[] selection, final int rows) {
+		this.titles     = titles;
+		this.parameters = parameters != null ? parameters : new LinkedHashMap<String, String>();
+		this.floats     = floats;
+		this.doubles    = doubles;
+		this.selection  = selection;
+		this.rows       = rows;
+		this.index      = new HashMap<String, Integer>();
+		for (int i = 0; i < titles.length; i++) {
+			index.put(titles[i], i);
+		}
+	}
+
+	/**
+	 * Make a table from the float32 bigarray of the python columnfile.
+	 *
+	 * @param titles
+	 * @param data
+	 *            index = row + column * rows
+	 * @param rows
+	 * @return the table
+	 */
+	public static ColumnTable fromBigArray(final String[] titles, final float[] data, final int rows) {
+		final float[][] columns = new float[titles.length][];
+		for (int i = 0; i < titles.length; i++) {
+			columns[i] = new float[rows];
+			System.arraycopy(data, i * rows, columns[i], 0, rows);
+		}
+		return new ColumnTable(titles, null, columns, rows);
+	}
+
+	/**
+	 * A view of some rows of this table, sharing its columns.
+	 *
+	 * @param selected
+	 *            rows of this table, in the order wanted
+	 * @return the view
+	 */
+	public ColumnTable select(final int[] selected) {
+		int[] map = selected;
+		if (selection != null) {
+			map = new int[selected.length];
+			for (int i = 0; i < map.length; i++) map[i] = selection[selected[i]];
+		}
+		return new ColumnTable(titles, parameters, floats, doubles, map, selected.length);
+	}
+
+	/**
+	 * @return false if this table shows some rows of another
+	 */
+	public boolean isComplete() {
+		return selection == null;
+	}
+
+	public String[] getTitles() {
+		return titles;
+	}
+
+	public Map<String, String> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public int getColumnCount() {
+		return titles.length;
+	}
+
+	/**
+	 * @return true if the values are kept as doubles
+	 */
+	public boolean isDouble() {
+		return doubles != null;
+	}
+
+	/**
+	 * @param title
+	 * @return the index of the column or -1 if there is no such title
+	 */
+	public int getColumnIndex(final String title) {
+		final Integer i = index.get(title);
+		return i != null ? i : -1;
+	}
+
+	public float getFloat(int row, final int column) {
+		if (selection != null) row = selection[row];
+		return floats != null ? floats[column][row] : (float) doubles[column][row];
+	}
+
+	public double getDouble(int row, final int column) {
+		if (selection != null) row = selection[row];
+		return floats != null ? floats[column][row] : doubles[column][row];
+	}
+
+	/**
+	 * @param column
+	 * @return the column itself if kept as floats and not filtered, a copy
+	 *         otherwise
+	 */
+	public float[] getFloatColumn(final int column) {
+		if (floats != null && selection == null) return floats[column];
+		final float[] copy = new float[rows];
+		for (int i = 0; i < rows; i++) copy[i] = getFloat(i, column);
+		return copy;
+	}
+
+	/**
+	 * @param column
+	 * @return the column itself if kept as doubles and not filtered, a copy
+	 *         otherwise
+	 */
+	public double[] getDoubleColumn(final int column) {
+		if (doubles != null && selection == null) return doubles[column];
+		final double[] copy = new double[rows];
+		for (int i = 0; i < rows; i++) copy[i] = getDouble(i, column);
+		return copy;
+	}
+
+	/**
+	 * @param row
+	 * @param values
+	 *            array to fill if getColumnCount() long, may be null
+	 * @return the values of the row in the order of the titles
+	 */
+	public float[] getRow(final int row, float[] values) {
+		if (values == null || values.length != titles.length) values = new float[titles.length];
+		for (int i = 0; i < values.length; i++) values[i] = getFloat(row, i);
+		return values;
+	}
+
+	/**
+	 * @return a copy of all the values in one array, index = row + column * rows
+	 */
+	public float[] toBigArray() {
+		if ((long) rows * titles.length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many values to put in one array");
+		}
+		final float[] data = new float[rows * titles.length];
+		for (int i = 0; i < titles.length; i++) {
+			if (floats != null && selection == null) {
+				System.arraycopy(floats[i], 0, data, i * rows, rows);
+			} else {
+				for (int j = 0; j < rows; j++) data[j + i * rows] = getFloat(j, i);
+			}
+		}
+		return data;
+	}
+}
@@ -10,6 +10,7 @@
 package fable.python;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -21,6 +22,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
 
+import org.dawb.fabio.CachedImage;
+import org.dawb.fabio.EdfReader;
 import org.dawb.fabio.FabioFileException;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.ImageLoader;
@@ -252,14 +255,26 @@ public class EdfFile {
 	}
 
 	public int[] getImageAsInt() {
-		if (buffer == null) {
-			readBuffer();
-		}
 		if (imageAsInt == null) {
-			System.out.println("getImageAsInt(): convert buffer to int");
+			// all EDF data types and byte orders are decoded by EdfReader
+			try {
+				final CachedImage image = EdfReader.read(new File(fileName));
+				if (image != null) {
+					final float[] data = image.getData();
+					imageAsInt = new int[data.length];
+					for (int i = 0; i < data.length; i++) {
+						imageAsInt[i] = (int) data[i];
+					}
+					return imageAsInt;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (buffer == null) {
+				readBuffer();
+			}
 			imageAsInt = new int[getWidth() * getHeight()];
-			// this assumes the image is unsigned short
-			// TODO treat different EDF type e.g. float and double
+			// compressed file, this assumes the image is unsigned short
 			int msb, lsb;
 			for (int i = 0; i < buffer.length / 2; i++) {
 				lsb = 0x000000FF & (int) buffer[i * 2];
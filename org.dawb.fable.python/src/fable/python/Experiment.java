@@ -70,6 +70,7 @@ public class Experiment {
 	 * 
 	 */
 	public boolean removeSample(Sample s){
+		s.dispose();
 		return samples.removeElement(s);
 	}
 	
@@ -78,12 +79,15 @@ public class Experiment {
 	 */
 	public void removeSampleAt(int index){
 		try{
-			samples.remove(index);
+			samples.remove(index).dispose();
 		}catch(ArrayIndexOutOfBoundsException e){
 			System.out.println("Can not remove sample. Index not found");
 		}
 	}
 	public void removeAll(){
+		for (Sample s : samples) {
+			s.dispose();
+		}
 		samples.removeAllElements();
 	}
 }
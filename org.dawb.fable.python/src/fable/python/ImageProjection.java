@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.ImageArea;
+import org.dawb.fabio.ImageCacheKey;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * The maximum, sum, mean and standard deviation of every pixel through all
+ * the frames of a scan, made in one pass over the files.
+ * <p>
+ * A few reader threads take the next frame to read in turn, so that only
+ * one frame per reader is in memory, and add it to an accumulator of their
+ * own without locking. The accumulators keep the maximum, the mean and the
+ * sum of the squared differences to the mean, which are merged when all the
+ * frames are read. Each accumulator takes 20 bytes per pixel, the number of
+ * readers is kept so that they use at most a quarter of the heap.
+ */
+public class ImageProjection {
+
+	/** Projection types for getImage(...) */
+	public static final int MAX = 0, SUM = 1, MEAN = 2, STD = 3;
+
+	private static final int MAX_READERS = 4;
+	private static final int ACCUMULATOR_BYTES = 20;
+
+	private static ExecutorService executor;
+
+	private final ImageCacheKey[] keys;
+	private final int width, height;
+	private final Accumulator result;
+
+	/**
+	 * Per pixel statistics of the frames added to it.
+	 */
+	private static class Accumulator {
+		final float[]  max;
+		final double[] mean;
+		final double[] m2;
+		long count;
+
+		Accumulator(final int pixels) {
+			max  = new float[pixels];
+			mean = new double[pixels];
+			m2   = new double[pixels];
+			Arrays.fill(max, Float.NEGATIVE_INFINITY);
+		}
+
+		void add(final float[] frame) {
+			count++;
+			for (int i = 0; i < frame.length; i++) {
+				final float value = frame[i];
+				if (value > max[i]) max[i] = value;
+				final double delta = value - mean[i];
+				mean[i] += delta / count;
+				m2[i] += delta * (value - mean[i]);
+			}
+		}
+
+		/** Add the frames of another accumulator, as if they had been added one by one */
+		void merge(final Accumulator other) {
+			if (other.count == 0) return;
+			final long total = count + other.count;
+			for (int i = 0; i < max.length; i++) {
+				if (other.max[i] > max[i]) max[i] = other.max[i];
+				final double delta = other.mean[i] - mean[i];
+				mean[i] += delta * other.count / total;
+				m2[i] += other.m2[i] + delta * delta * count * other.count / total;
+			}
+			count = total;
+		}
+	}
+
+	private ImageProjection(final List<FabioFile> files, final int width, final int height, final Accumulator result) {
+		this.keys = new ImageCacheKey[files.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = files.get(i).getCacheKey();
+		}
+		this.width  = width;
+		this.height = height;
+		this.result = result;
+	}
+
+	/**
+	 * Read all the files and project them. The files must all have the size
+	 * of the first.
+	 *
+	 * @param files
+	 * @param monitor
+	 *            may be null, given one unit of work per frame, the
+	 *            projection is not made if it is canceled
+	 * @return the projection
+	 * @throws IOException
+	 *             if a file cannot be read
+	 * @throws OperationCanceledException
+	 */
+	public static ImageProjection project(final List<FabioFile> files, final IProgressMonitor monitor) throws IOException {
+		if (files.isEmpty()) throw new IOException("No frame to project");
+		final ImageArea first = ImageStack.readFrame(files.get(0));
+		final int width = first.getWidth(), height = first.getHeight();
+		final int pixels = width * height;
+
+		final long budget = Runtime.getRuntime().maxMemory() / 4;
+		final int readers = (int) Math.max(1, Math.min(Math.min(MAX_READERS, files.size()),
+				budget / ((long) ACCUMULATOR_BYTES * Math.max(1, pixels))));
+		final Accumulator[] accumulators = new Accumulator[readers];
+		for (int i = 0; i < readers; i++) {
+			accumulators[i] = new Accumulator(pixels);
+		}
+		accumulators[0].add(first.getData());
+
+		final AtomicInteger next = new AtomicInteger(1);
+		final AtomicInteger done = new AtomicInteger(1);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int i = 0; i < readers; i++) {
+			final Accumulator accumulator = accumulators[i];
+			futures.add(getExecutor().submit(new Callable<Object>() {
+				public Object call() throws IOException {
+					for (int frame = next.getAndIncrement(); frame < files.size() && !stop.get(); frame = next.getAndIncrement()) {
+						final ImageArea image = ImageStack.readFrame(files.get(frame));
+						if (image.getWidth() != width || image.getHeight() != height) {
+							throw new IOException(files.get(frame).getFullFilename() + " is " + image.getWidth()
+									+ " x " + image.getHeight() + ", the other frames are " + width + " x " + height);
+						}
+						accumulator.add(image.getData());
+						done.incrementAndGet();
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			int reported = 1;
+			if (monitor != null) monitor.worked(1);
+			for (Future<Object> future : futures) {
+				while (true) {
+					try {
+						future.get(200, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						if (monitor != null) {
+							final int count = done.get();
+							monitor.worked(count - reported);
+							reported = count;
+							if (monitor.isCanceled()) throw new OperationCanceledException();
+						}
+					}
+				}
+			}
+			if (monitor != null) monitor.worked(done.get() - reported);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			stop.set(true);
+		}
+
+		for (int i = 1; i < readers; i++) {
+			accumulators[0].merge(accumulators[i]);
+		}
+		return new ImageProjection(files, width, height, accumulators[0]);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getFrameCount() {
+		return keys.length;
+	}
+
+	/**
+	 * @param files
+	 * @return true if this is the projection of these files as they are now
+	 */
+	public boolean isProjectionOf(final List<FabioFile> files) {
+		if (files.size() != keys.length) return false;
+		for (int i = 0; i < keys.length; i++) {
+			if (!keys[i].equals(files.get(i).getCacheKey())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param type
+	 *            MAX, SUM, MEAN or STD
+	 * @return a new image of width x height values
+	 */
+	public float[] getImage(final int type) {
+		final int pixels = width * height;
+		final float[] image = new float[pixels];
+		switch (type) {
+		case MAX:
+			System.arraycopy(result.max, 0, image, 0, pixels);
+			break;
+		case SUM:
+			for (int i = 0; i < pixels; i++) image[i] = (float) (result.mean[i] * result.count);
+			break;
+		case MEAN:
+			for (int i = 0; i < pixels; i++) image[i] = (float) result.mean[i];
+			break;
+		case STD:
+			// Of the population of frames
+			for (int i = 0; i < pixels; i++) image[i] = (float) Math.sqrt(result.m2[i] / result.count);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown projection " + type);
+		}
+		return image;
+	}
+
+	/**
+	 * @return the name of a projection type, for titles
+	 */
+	public static String getName(final int type) {
+		switch (type) {
+		case MAX:
+			return "Maximum";
+		case SUM:
+			return "Sum";
+		case MEAN:
+			return "Mean";
+		case STD:
+			return "Standard deviation";
+		default:
+			throw new IllegalArgumentException("Unknown projection " + type);
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count = 0;
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Image projection " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
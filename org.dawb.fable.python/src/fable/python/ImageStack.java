@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.ImageArea;
+import org.dawb.fabio.ImageCacheKey;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * The frames of a scan as one volume, frames x rows x columns of floats,
+ * kept in a temporary file so that slices across many frames do not read
+ * the images again. Projections through all the frames are made by
+ * ImageProjection in one pass over the files.
+ * <p>
+ * The file is written once, the frames being read in parallel, and is cut
+ * in chunks of CHUNK_FRAMES frames of CHUNK_ROWS x CHUNK_COLS pixels, each
+ * chunk being contiguous. An area or a sinogram across the frames touches
+ * only the chunks it crosses. Each CHUNK_FRAMES frames are mapped in memory,
+ * the operating system keeping the pages used in memory instead of the Java
+ * heap.
+ * <p>
+ * The values are floats whatever the type of the files, as the images are
+ * shown.
+ * <p>
+ * The file is sparse until it is written, so a stack which would take more
+ * than half of the free space of the temporary directory is not made:
+ * writing to a mapping of a full disk crashes instead of failing.
+ */
+public class ImageStack {
+
+	static final int CHUNK_FRAMES = 8;
+	static final int CHUNK_ROWS   = 64;
+	static final int CHUNK_COLS   = 64;
+	private static final int CHUNK_SIZE = CHUNK_FRAMES * CHUNK_ROWS * CHUNK_COLS;
+
+	private static ExecutorService executor;
+
+	private final ImageCacheKey[] keys;
+	private final int frames, width, height;
+	private final int rowChunks, colChunks;
+	private final File cacheFile;
+	private final RandomAccessFile access;
+	/** One mapping per CHUNK_FRAMES frames, only read with absolute gets */
+	private final FloatBuffer[] blocks;
+
+	private ImageStack(final List<FabioFile> files, final int width, final int height) throws IOException {
+		this.frames    = files.size();
+		this.width     = width;
+		this.height    = height;
+		this.rowChunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+		this.colChunks = (width + CHUNK_COLS - 1) / CHUNK_COLS;
+		this.keys      = new ImageCacheKey[frames];
+		for (int i = 0; i < frames; i++) {
+			keys[i] = files.get(i).getCacheKey();
+		}
+
+		final long blockBytes = getBlockBytes(width, height);
+		if (blockBytes > Integer.MAX_VALUE) {
+			throw new IOException("Frames of " + width + " x " + height + " are too large to be stacked");
+		}
+		this.blocks    = new FloatBuffer[getBlockCount(frames)];
+		this.cacheFile = File.createTempFile("fable_stack", ".f32");
+		cacheFile.deleteOnExit();
+		this.access = new RandomAccessFile(cacheFile, "rw");
+		try {
+			access.setLength(blockBytes * blocks.length);
+			final FileChannel channel = access.getChannel();
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * blockBytes, blockBytes)
+						.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private static long getBlockBytes(final int width, final int height) {
+		final long rowChunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+		final long colChunks = (width + CHUNK_COLS - 1) / CHUNK_COLS;
+		return 4L * CHUNK_SIZE * rowChunks * colChunks;
+	}
+
+	private static int getBlockCount(final int frames) {
+		return (int) ((frames + (long) CHUNK_FRAMES - 1) / CHUNK_FRAMES);
+	}
+
+	/**
+	 * @return the size in bytes of the file of a stack of these frames
+	 */
+	public static long getSizeInBytes(final int frames, final int width, final int height) {
+		return getBlockBytes(width, height) * getBlockCount(frames);
+	}
+
+	/**
+	 * @return true if a stack of these frames leaves at least half of the
+	 *         free space of the temporary directory
+	 */
+	public static boolean fits(final int frames, final int width, final int height) {
+		final File directory = new File(System.getProperty("java.io.tmpdir"));
+		return getSizeInBytes(frames, width, height) <= directory.getUsableSpace() / 2;
+	}
+
+	/**
+	 * Read the files into a new stack. The files must all have the size of
+	 * the first.
+	 *
+	 * @param files
+	 *            the frames in order
+	 * @param monitor
+	 *            may be null, given one unit of work per frame, the stack is
+	 *            not made if it is canceled
+	 * @return the stack, to be closed when it is not needed any more, or
+	 *         null if it does not fit in the temporary directory, see
+	 *         fits(...)
+	 * @throws IOException
+	 *             if a file cannot be read or the stack cannot be written
+	 * @throws OperationCanceledException
+	 */
+	public static ImageStack create(final List<FabioFile> files, final IProgressMonitor monitor) throws IOException {
+		if (files.isEmpty()) throw new IOException("No frame to stack");
+		final ImageArea first = readFrame(files.get(0));
+		if (!fits(files.size(), first.getWidth(), first.getHeight())) return null;
+		final ImageStack stack = new ImageStack(files, first.getWidth(), first.getHeight());
+		boolean made = false;
+		try {
+			stack.putFrame(0, first);
+			if (monitor != null) monitor.worked(1);
+
+			final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int i = 1; i < files.size(); i++) {
+				final int frame = i;
+				futures.add(getExecutor().submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						stack.putFrame(frame, readFrame(files.get(frame)));
+						return null;
+					}
+				}));
+			}
+			try {
+				for (Future<Object> future : futures) {
+					if (monitor != null && monitor.isCanceled()) {
+						for (Future<Object> f : futures) f.cancel(true);
+						throw new OperationCanceledException();
+					}
+					future.get();
+					if (monitor != null) monitor.worked(1);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} catch (ExecutionException e) {
+				for (Future<Object> f : futures) f.cancel(true);
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException(e.getCause().getMessage(), e.getCause());
+			}
+			made = true;
+			return stack;
+		} finally {
+			if (!made) stack.close();
+		}
+	}
+
+	/**
+	 * Read a whole image, uncompressed EDF files are read without going
+	 * through the image cache.
+	 */
+	static ImageArea readFrame(final FabioFile file) throws IOException {
+		try {
+			return file.getImageArea(null, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IOException("Cannot read " + file.getFullFilename() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void putFrame(final int frame, final ImageArea image) throws IOException {
+		if (image.getWidth() != width || image.getHeight() != height) {
+			throw new IOException(keys[frame].getPath() + " is " + image.getWidth() + " x " + image.getHeight()
+					+ ", the other frames are " + width + " x " + height);
+		}
+		final float[] data = image.getData();
+		final FloatBuffer block = blocks[frame / CHUNK_FRAMES].duplicate();
+		try {
+			for (int row = 0; row < height; row++) {
+				for (int col = 0; col < width; col += CHUNK_COLS) {
+					block.position(index(frame, row, col));
+					block.put(data, row * width + col, Math.min(CHUNK_COLS, width - col));
+				}
+			}
+		} catch (InternalError e) {
+			// What a write to a mapping of a full disk throws
+			throw new IOException("Cannot write the image stack " + cacheFile + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the position of a pixel in the mapping of its frame
+	 */
+	private int index(final int frame, final int row, final int col) {
+		final int chunk = (row / CHUNK_ROWS) * colChunks + col / CHUNK_COLS;
+		return chunk * CHUNK_SIZE
+				+ ((frame % CHUNK_FRAMES) * CHUNK_ROWS + row % CHUNK_ROWS) * CHUNK_COLS
+				+ col % CHUNK_COLS;
+	}
+
+	public int getFrameCount() {
+		return frames;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param files
+	 * @return true if this stack holds these files as they are now
+	 */
+	public boolean isStackOf(final List<FabioFile> files) {
+		if (files.size() != frames) return false;
+		for (int i = 0; i < frames; i++) {
+			if (!keys[i].equals(files.get(i).getCacheKey())) return false;
+		}
+		return true;
+	}
+
+	public float get(final int frame, final int row, final int col) {
+		return blocks[frame / CHUNK_FRAMES].get(index(frame, row, col));
+	}
+
+	/**
+	 * Copy an area of one frame, clipped to the frame as
+	 * FabioFile.getImageArea(...) does.
+	 *
+	 * @param frame
+	 * @param x
+	 *            first column
+	 * @param y
+	 *            first row
+	 * @param areaWidth
+	 * @param areaHeight
+	 * @return the area
+	 */
+	public ImageArea getArea(final int frame, final int x, final int y, final int areaWidth, final int areaHeight) {
+		final int x1 = Math.max(0, x), y1 = Math.max(0, y);
+		final int x2 = (int) Math.min(width, (long) x + areaWidth);
+		final int y2 = (int) Math.min(height, (long) y + areaHeight);
+		final int w = Math.max(0, x2 - x1), h = Math.max(0, y2 - y1);
+		final float[] data = new float[w * h];
+		final FloatBuffer block = blocks[frame / CHUNK_FRAMES].duplicate();
+		for (int row = 0; row < h; row++) {
+			copyRow(block, frame, y1 + row, x1, x2, data, row * w);
+		}
+		return new ImageArea(data, x1, y1, w, h, width, height, 0);
+	}
+
+	/**
+	 * Copy columns [from, to) of a row of a frame, chunk by chunk.
+	 */
+	private void copyRow(final FloatBuffer block, final int frame, final int row,
+			final int from, final int to, final float[] data, int offset) {
+		for (int col = from; col < to;) {
+			final int n = Math.min(to, (col / CHUNK_COLS + 1) * CHUNK_COLS) - col;
+			block.position(index(frame, row, col));
+			block.get(data, offset, n);
+			offset += n;
+			col += n;
+		}
+	}
+
+	/**
+	 * A sinogram: one row of every frame.
+	 *
+	 * @param row
+	 * @return frames rows of width values, the row of frame i being row i
+	 * @throws OperationCanceledException
+	 *             if the thread is interrupted before all the chunks are read
+	 */
+	public float[] getSinogram(final int row) {
+		final float[] sinogram = new float[frames * width];
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int b = 0; b < blocks.length; b++) {
+			final int block = b;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					final FloatBuffer buffer = blocks[block].duplicate();
+					final int last = Math.min(frames, (block + 1) * CHUNK_FRAMES);
+					for (int frame = block * CHUNK_FRAMES; frame < last; frame++) {
+						copyRow(buffer, frame, row, 0, width, sinogram, frame * width);
+					}
+					return null;
+				}
+			});
+		}
+		run(tasks);
+		return sinogram;
+	}
+
+	/**
+	 * Close and delete the file. The data of a closed stack must not be used.
+	 */
+	public void close() {
+		try {
+			access.close();
+		} catch (IOException e) {
+			// Nothing was written since the mapping
+		}
+		// Not deleted on systems which do not delete mapped files, then on exit
+		cacheFile.delete();
+	}
+
+	private static void run(final List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> future : getExecutor().invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			// The results of the tasks are not complete
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Image stack " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
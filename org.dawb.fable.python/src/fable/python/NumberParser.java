@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.IOException;
+
+/**
+ * Parses decimal numbers straight from the bytes of a text file, without
+ * making a String for each, for the readers of columnfiles and peak files.
+ * One parser is used by one thread.
+ */
+class NumberParser {
+
+	private static final double[] POWERS = new double[23];
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+	}
+
+	private final boolean floatPrecision;
+
+	private double value;
+	private char[] chars = new char[64];
+
+	/**
+	 * @param floatPrecision
+	 *            true if the values are stored as floats, then numbers with
+	 *            many digits are parsed quickly to the nearest float instead
+	 *            of exactly to the nearest double
+	 */
+	NumberParser(final boolean floatPrecision) {
+		this.floatPrecision = floatPrecision;
+	}
+
+	/**
+	 * @return the value of the last number parsed
+	 */
+	double getValue() {
+		return value;
+	}
+
+	static boolean isBlank(final byte c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	static boolean isSeparator(final byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	/**
+	 * Parse the number starting at start into value.
+	 *
+	 * @return the index after the number
+	 * @throws IOException
+	 *             if it is not a number
+	 */
+	int parse(final byte[] bytes, final int start, final int length) throws IOException {
+		int i = start;
+		boolean negative = false;
+		if (bytes[i] == '-') {
+			negative = true;
+			i++;
+		} else if (bytes[i] == '+') {
+			i++;
+		}
+
+		long    mantissa = 0;
+		int     digits   = 0, exponent = 0;
+		boolean any      = false, exact = true;
+		for (; i < length; i++) {
+			final int d = bytes[i] - '0';
+			if (d < 0 || d > 9) break;
+			any = true;
+			if (mantissa == 0 && d == 0) continue;
+			if (digits < 18) {
+				mantissa = mantissa * 10 + d;
+				digits++;
+			} else {
+				exponent++;
+				if (d != 0) exact = false;
+			}
+		}
+		if (i < length && bytes[i] == '.') {
+			for (i++; i < length; i++) {
+				final int d = bytes[i] - '0';
+				if (d < 0 || d > 9) break;
+				any = true;
+				if (mantissa == 0 && d == 0) {
+					exponent--;
+				} else if (digits < 18) {
+					mantissa = mantissa * 10 + d;
+					digits++;
+					exponent--;
+				} else if (d != 0) {
+					exact = false;
+				}
+			}
+		}
+		if (any && i < length && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			int e = 0;
+			boolean anyExponent = false;
+			for (; i < length; i++) {
+				final int d = bytes[i] - '0';
+				if (d < 0 || d > 9) break;
+				anyExponent = true;
+				if (e < 10000) e = e * 10 + d;
+			}
+			if (!anyExponent) any = false;
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!any || (i < length && !isSeparator(bytes[i]))) {
+			return parseOther(bytes, start, length);
+		}
+
+		double v;
+		if (mantissa == 0) {
+			v = 0;
+		} else if (exact && digits <= 15 && exponent >= -22 && exponent <= 22) {
+			// Both exact in a double so the result is correctly rounded
+			v = exponent >= 0 ? mantissa * POWERS[exponent] : mantissa / POWERS[-exponent];
+		} else if (floatPrecision) {
+			// Close enough to round to the same float
+			v = exponent >= 0 ? mantissa * Math.pow(10, exponent) : mantissa / Math.pow(10, -exponent);
+		} else {
+			return parseOther(bytes, start, length);
+		}
+		value = negative ? -v : v;
+		return i;
+	}
+
+	/**
+	 * The slow way for nan, inf and numbers with too many digits.
+	 */
+	private int parseOther(final byte[] bytes, final int start, final int length) throws IOException {
+		int i = start;
+		while (i < length && !isSeparator(bytes[i])) i++;
+		if (chars.length < i - start) chars = new char[i - start];
+		for (int j = start; j < i; j++) chars[j - start] = (char) bytes[j];
+		final String text = new String(chars, 0, i - start);
+		final String lower = text.toLowerCase();
+		if (lower.equals("nan") || lower.equals("-nan") || lower.equals("+nan")) {
+			value = Double.NaN;
+		} else if (lower.equals("inf") || lower.equals("+inf") || lower.equals("infinity")) {
+			value = Double.POSITIVE_INFINITY;
+		} else if (lower.equals("-inf") || lower.equals("-infinity")) {
+			value = Double.NEGATIVE_INFINITY;
+		} else {
+			try {
+				value = Double.parseDouble(text);
+			} catch (NumberFormatException e) {
+				throw new IOException("Cannot read '" + text + "' as a number");
+			}
+		}
+		return i;
+	}
+}
@@ -30,6 +30,11 @@ import org.eclipse.swt.SWT;
  *         -1 and 1 with a value of 0 for a circular peak and +1 and -1 refering
  *         to elliptical shapes rotated by 90 degrees from each other.
  *         </p>
+ *         <p>
+ *         A peak read by SptReader holds no values, only its row in the
+ *         table of its PeakSearchSpt, and is compared on the float values of
+ *         the table.
+ *         </p>
  */
 public class Peak implements java.lang.Comparable<Object>,
 		IPropertyChangeListener {
@@ -55,6 +60,8 @@ public class Peak implements java.lang.Comparable<Object>,
 	private int comparedResult;
 	boolean show = true;
 	private PeakSearchSpt parent;
+	/** Row in the table of the parent, -1 if the values are in keyAndVal */
+	private final int row;
 
 	/**
 	 * @param id
@@ -83,6 +90,7 @@ public class Peak implements java.lang.Comparable<Object>,
 	 */
 	// Show or hide in image viewer
 	public Peak(String[] keys, String values) {
+		row = -1;
 		if (keys != null) {
 
 			keysInfile = keys;
@@ -106,6 +114,18 @@ public class Peak implements java.lang.Comparable<Object>,
 		}
 	}
 
+	/**
+	 * A peak of the table of its PeakSearchSpt.
+	 * 
+	 * @param father
+	 * @param tableRow
+	 */
+	Peak(PeakSearchSpt father, int tableRow) {
+		parent = father;
+		row = tableRow;
+		keysInfile = father.getKeys();
+	}
+
 	public void setParent(PeakSearchSpt father) {
 		parent = father;
 	}
@@ -114,19 +134,28 @@ public class Peak implements java.lang.Comparable<Object>,
 	 * 
 	 */
 	public void show(boolean b) {
-		show = b;
+		if (row >= 0) {
+			parent.show(row, b);
+		} else {
+			show = b;
+			if (parent != null) {
+				parent.peakShown();
+			}
+		}
 	}
 
 	public boolean isVisible() {
-		return show;
+		return row >= 0 ? parent.isVisible(row) : show;
 	}
 
 	public String getF() {
-		return f != null ? f : "0";
+		String value = row >= 0 ? getValue("f") : f;
+		return value != null ? value : "0";
 	}
 
 	public String getS() {
-		return s != null ? s : "0";
+		String value = row >= 0 ? getValue("s") : s;
+		return value != null ? value : "0";
 	}
 
 	public String toString() {
@@ -135,7 +164,7 @@ public class Peak implements java.lang.Comparable<Object>,
 
 		for (int i = 0; keysInfile != null && keysInfile.length > i; i++) {
 			String currentKey = keysInfile[i];
-			myString += currentKey + "=" + keyAndVal.get(currentKey);
+			myString += currentKey + "=" + getValue(currentKey);
 		}
 		return myString;
 	}
@@ -145,14 +174,29 @@ public class Peak implements java.lang.Comparable<Object>,
 
 		for (int i = 0; keysInfile != null && keysInfile.length > i; i++) {
 			String currentKey = keysInfile[i];
-			myString[i] = keyAndVal.get(currentKey);
+			myString[i] = getValue(currentKey);
 
 		}
 		return myString;
 	}
 
 	public String getValue(String k) {
-		return keyAndVal.get(k);
+		return row >= 0 ? parent.getValue(row, k) : keyAndVal.get(k);
+	}
+
+	/**
+	 * @param k
+	 * @return the value as a float, NaN if it is not a number
+	 */
+	public float getFloatValue(String k) {
+		if (row >= 0) {
+			return parent.getFloat(row, k);
+		}
+		try {
+			return Float.parseFloat(keyAndVal.get(k));
+		} catch (RuntimeException e) {
+			return Float.NaN;
+		}
 	}
 
 	public int compareTo(String key, Object other) {
@@ -161,6 +205,17 @@ public class Peak implements java.lang.Comparable<Object>,
 	}
 
 	public int compareTo(Object other) {
+		Peak otherPeak = (Peak) other;
+		if (row >= 0 && otherPeak.row >= 0) {
+			// Values of the table, no parsing
+			String key = parent.getComparatorKey();
+			float valueThis = parent.getFloat(row, key);
+			float valueOther = otherPeak.parent.getFloat(otherPeak.row, key);
+			comparedResult = parent.getComparatorDir() == SWT.UP ? Float
+					.compare(valueOther, valueThis) : Float.compare(valueThis,
+					valueOther);
+			return comparedResult;
+		}
 		String valueOther;
 		valueOther = ((Peak) other).getValue(comparatorKey);
 		String valueThis = this.getValue(comparatorKey);
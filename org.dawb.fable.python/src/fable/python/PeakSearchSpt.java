@@ -9,11 +9,14 @@
  */ 
 package fable.python;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Vector;
 
 import org.dawb.fabio.FabioFile;
@@ -22,29 +25,48 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.swt.SWT;
 
 import fable.framework.internal.IVarKeys;
+import fable.python.rcp.Activator;
 
 /**
  * 
  * @author G. Suchet fable.peaksearch 9 janv. 08 This class represents the
  *         output of peaksearcher.
+ *         <p>
+ *         The peaks are kept in a ColumnTable, one float column per key, and
+ *         sorted on their primitive values. The Peak objects the views show
+ *         are made when asked for and only point at a row of the table.
+ *         Peaks added one by one with addPeak(...) are kept as they are.
+ *         </p>
  */
 public class PeakSearchSpt {
 	private int npks = 0;
 	/** This is the name of spt file */
 	private String parentName = "";
-	private Vector<Peak> peaks; // keys (Number_of_pixels, Average_counts,f, s,
-	// fc, sc , sig_f sig_s cov_fs)
+	private Vector<Peak> peaks; // peaks added with addPeak
 	private float treshold = 0;
-	float[] tabPeak = null; // an array containing (x,y) values for image viewer
 	private List<IPropertyChangeListener> listeners = new ArrayList<IPropertyChangeListener>();
-	private String scannedPeak = ""; // file info block to be parsed when needed
-	private String[] peakKeys;//
+	private StringBuilder scannedPeak = new StringBuilder(); // file info block to be parsed when needed
+	private String[] peakKeys; // "#" then the columns of the table
+	/** Peaks read so far, keys (Number_of_pixels, Average_counts,f, s, fc, ...) */
+	private volatile ColumnTable table = null;
+	/** Rows of the table in the order of the last sort, null for file order */
+	private int[] order = null;
+	/** Peak of each row of the table, made when first asked for */
+	private Peak[] rowPeaks = new Peak[0];
+	/** Rows hidden in the image viewer */
+	private final BitSet hidden = new BitSet();
+	private String comparatorKey = "#";
+	private int comparatorDir = SWT.DOWN;
+	/** Changed when peaks are read, shown or hidden */
+	private volatile int version = 0;
 	private FabioFile imageFile = null;
 	private String fabioFileName = "";
 	private PeakSearchSpt parent = this;
@@ -98,27 +120,195 @@ public class PeakSearchSpt {
 
 	}
 
+	/**
+	 * Sort the peaks on the key and in the direction given to
+	 * setComparator(...), SWT.UP being the decreasing order.
+	 * 
+	 * @return the peaks in sorted order
+	 */
 	public Vector<Peak> getSortedpeaks() {
-
-		if (peaks != null && peaks.size() > 0) {
-			Collections.sort(peaks);
-
+		ColumnTable current = table;
+		if (current == null) {
+			if (peaks != null && peaks.size() > 0) {
+				Collections.sort(peaks);
+			}
+			return peaks;
 		}
-
-		return peaks;
+		int[] sorted = ColumnSort.argsort(current, current
+				.getColumnIndex(comparatorKey), comparatorDir != SWT.UP);
+		synchronized (this) {
+			order = sorted;
+		}
+		return getChildren();
 	}
 
 	public void setComparator(String Key, int dir) {
+		comparatorKey = Key;
+		comparatorDir = dir;
 		fireChangeSorter(Key);
 		firechangeSortdirection(dir);
 	}
 
 	public Peak getPeak(int i) {
-		return peaks.elementAt(i);
+		if (table == null) {
+			return peaks.elementAt(i);
+		}
+		synchronized (this) {
+			return getRowPeak(order != null && i < order.length ? order[i] : i);
+		}
 	}
 
 	public int getSize() {
-		return peaks.size();
+		ColumnTable current = table;
+		return current != null ? current.getRowCount() : peaks.size();
+	}
+
+	/**
+	 * @return the peak of a row of the table, the same object each time
+	 */
+	private synchronized Peak getRowPeak(int row) {
+		if (row >= rowPeaks.length) {
+			Peak[] grown = new Peak[Math.max(row + 1, Math.max(16,
+					2 * rowPeaks.length))];
+			System.arraycopy(rowPeaks, 0, grown, 0, rowPeaks.length);
+			rowPeaks = grown;
+		}
+		if (rowPeaks[row] == null) {
+			rowPeaks[row] = new Peak(this, row);
+		}
+		return rowPeaks[row];
+	}
+
+	/**
+	 * @return the peaks read so far as float columns, null if the peaks were
+	 *         added one by one
+	 */
+	public ColumnTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Called by SptReader with the peaks read so far.
+	 * 
+	 * @param peakTable
+	 * @param complete
+	 *            true if all peaks are read
+	 */
+	void setTable(ColumnTable peakTable, boolean complete) {
+		synchronized (this) {
+			table = peakTable;
+			if (order != null && order.length != peakTable.getRowCount()) {
+				order = null;
+			}
+		}
+		npks = Math.max(npks, peakTable.getRowCount());
+		version++;
+		if (complete) {
+			parsed = true;
+		} else {
+			fireSomePeaksLoaded();
+		}
+	}
+
+	/**
+	 * The text of a value of a row of the table, "#" being the row.
+	 */
+	String getValue(int row, String key) {
+		if (key.equals("#")) {
+			return String.valueOf(row);
+		}
+		ColumnTable current = table;
+		int column = current.getColumnIndex(key);
+		if (column < 0) {
+			return null;
+		}
+		float value = current.getFloat(row, column);
+		if (value == Math.rint(value) && Math.abs(value) < 1e7) {
+			return String.valueOf((int) value);
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * A value of a row of the table, "#" being the row, NaN if there is no
+	 * such key.
+	 */
+	float getFloat(int row, String key) {
+		if (key.equals("#")) {
+			return row;
+		}
+		ColumnTable current = table;
+		int column = current.getColumnIndex(key);
+		return column < 0 ? Float.NaN : current.getFloat(row, column);
+	}
+
+	String getComparatorKey() {
+		return comparatorKey;
+	}
+
+	int getComparatorDir() {
+		return comparatorDir;
+	}
+
+	boolean isVisible(int row) {
+		synchronized (hidden) {
+			return !hidden.get(row);
+		}
+	}
+
+	void show(int row, boolean b) {
+		synchronized (hidden) {
+			hidden.set(row, !b);
+		}
+		version++;
+	}
+
+	/**
+	 * Called when a peak added with addPeak is shown or hidden.
+	 */
+	void peakShown() {
+		version++;
+	}
+
+	/**
+	 * @return a number which changes when peaks are read, shown or hidden, to
+	 *         know if getPositions() would give something new
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return [s0, f0, s1, f1, ...] of the visible peaks
+	 */
+	public float[] getPositions() {
+		ColumnTable current = table;
+		if (current == null) {
+			float[] positions = new float[2 * peaks.size()];
+			int k = 0;
+			for (int i = 0; i < peaks.size(); i++) {
+				Peak peak = peaks.elementAt(i);
+				if (peak.isVisible()) {
+					positions[k++] = Float.valueOf(peak.getS());
+					positions[k++] = Float.valueOf(peak.getF());
+				}
+			}
+			return Arrays.copyOf(positions, k);
+		}
+		int s = current.getColumnIndex("s");
+		int f = current.getColumnIndex("f");
+		int rows = current.getRowCount();
+		float[] positions = new float[2 * rows];
+		int k = 0;
+		synchronized (hidden) {
+			for (int i = 0; i < rows; i++) {
+				if (!hidden.get(i)) {
+					positions[k++] = s < 0 ? 0 : current.getFloat(i, s);
+					positions[k++] = f < 0 ? 0 : current.getFloat(i, f);
+				}
+			}
+		}
+		return k == positions.length ? positions : Arrays.copyOf(positions, k);
 	}
 
 	public String getParentFileName() {
@@ -134,7 +324,18 @@ public class PeakSearchSpt {
 	}
 
 	public Vector<Peak> getChildren() {
-		return peaks;
+		ColumnTable current = table;
+		if (current == null) {
+			return peaks;
+		}
+		int rows = current.getRowCount();
+		Vector<Peak> children = new Vector<Peak>(rows);
+		synchronized (this) {
+			for (int i = 0; i < rows; i++) {
+				children.add(getRowPeak(order != null && i < order.length ? order[i] : i));
+			}
+		}
+		return children;
 	}
 
 	/**
@@ -142,8 +343,17 @@ public class PeakSearchSpt {
 	 * @return an array containing a pair of [i=s, i+1=f], for 2d peaks for
 	 *         visible peaks (bshow=true).<br>
 	 *         Peaks should be already parsed.
+	 * @see #getPositions()
 	 */
 	public Vector<Float> getTabChildren() {
+		if (table != null) {
+			float[] positions = getPositions();
+			Vector<Float> peaksToDisplay = new Vector<Float>(positions.length);
+			for (float position : positions) {
+				peaksToDisplay.add(position);
+			}
+			return peaksToDisplay;
+		}
 		Vector<Float> peaksToDisplay = new Vector<Float>(peaks.size());
 
 		if (peaks != null) {
@@ -180,7 +390,7 @@ public class PeakSearchSpt {
 	 */
 	public void setKeys(String listKeys) {
 
-		peakKeys = listKeys.split("\\s+");
+		setKeys(listKeys.trim().split("\\s+"));
 
 	}
 
@@ -191,12 +401,26 @@ public class PeakSearchSpt {
 	 */
 	public void setKeys(String[] listKeys) {
 
-		peakKeys = listKeys;
+		if (listKeys.length > 0 && listKeys[0].equals("#")) {
+			peakKeys = listKeys;
+		} else {
+			// The first key is always the number of the peak
+			peakKeys = new String[listKeys.length + 1];
+			peakKeys[0] = "#";
+			System.arraycopy(listKeys, 0, peakKeys, 1, listKeys.length);
+		}
+
+	}
 
+	/**
+	 * @return "#", the number of the peak, then the keys of the file
+	 */
+	public String[] getKeys() {
+		return peakKeys;
 	}
 
 	public void setPeaks(String blockWithAllPeaks) {
-		scannedPeak = blockWithAllPeaks;
+		scannedPeak = new StringBuilder(blockWithAllPeaks);
 	}
 
 	/**
@@ -208,9 +432,7 @@ public class PeakSearchSpt {
 	 */
 	public void concatPeaks(String peak) {
 
-		scannedPeak = scannedPeak.concat(peak);
-		scannedPeak = scannedPeak + System.getProperty("line.separator");
-		// scannedPeak=scannedPeak.concat("\\n");
+		scannedPeak.append(peak).append('\n');
 	}
 
 	public void parse() {
@@ -222,42 +444,20 @@ public class PeakSearchSpt {
 			protected IStatus run(IProgressMonitor monitor) {
 				if (!parsed) {
 					parsed = true;
-					Scanner scanner = new Scanner(scannedPeak);
-					scanner.useDelimiter("[\n\r]+");//
-					// System.out.println(scannedPeak);
-
-					monitor.beginTask("Wait while loading peaks", npks);
-					int percentage = 0;
-					int j = 0;
-					while (scanner.hasNext()) {
-						String line = scanner.nextLine();
-						if (!line.trim().equals("")) {
-							line = peaks.size() + " " + line;
-							Peak p = new Peak(peakKeys, line);
-							p.setParent(parent);
-							// The first time, all peaks can be displayed in the
-							// imageViewer
-							p.show(true);
-							peaks.add(p);
-							percentage = (peaks.size() * 100) / npks;
-							monitor.subTask(percentage + "% done");
-							// addPropertyChangeListener(p);
-							if (j % 250 == 0 && j > 0) {
-								fireSomePeaksLoaded();
-							} else if (j == npks - 1) {
-								fireSomePeaksLoaded();
-							}
-							j++;
-							monitor.worked(1);
-							if (monitor.isCanceled()) {
-								scanner.close();
-								return Status.CANCEL_STATUS;
-							}
-						}
+					monitor.beginTask("Wait while loading peaks",
+							npks > 0 ? npks : IProgressMonitor.UNKNOWN);
+					SptReader reader = new SptReader(parentName);
+					reader.setMonitor(monitor);
+					try {
+						byte[] bytes = scannedPeak.toString().getBytes("US-ASCII");
+						scannedPeak = new StringBuilder();
+						reader.read(new ByteArrayInputStream(bytes), parent);
+					} catch (OperationCanceledException e) {
+						return Status.CANCEL_STATUS;
+					} catch (IOException e) {
+						return new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+								e.getMessage(), e);
 					}
-
-					scanner.close();
-					// monitor.done();
 				}
 				monitor.done();
 				return Status.OK_STATUS;
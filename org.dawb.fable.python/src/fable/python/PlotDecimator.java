@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the points of a large data set which are worth drawing, so that a
+ * plot redraws in a time which depends on the size of the screen and not on
+ * the number of rows of the file.
+ * <p>
+ * A scatter plot keeps one point per cell of a grid laid over the visible
+ * part of the plot, cells being a few screen pixels wide: the other points
+ * of the cell would be drawn on top of it. A line keeps, for each column of
+ * screen pixels, the first, lowest, highest and last point, so peaks and the
+ * shape of the curve are the same as with all the points.
+ * <p>
+ * Both return the indices of the points kept, in increasing order, so that
+ * a point drawn can be found again in the full data.
+ */
+public class PlotDecimator {
+
+	/**
+	 * Data sets smaller than this are drawn whole.
+	 */
+	public static final int MIN_POINTS = 20000;
+
+	/**
+	 * @param values
+	 * @return {minimum, maximum} of the values which are not NaN, {NaN, NaN}
+	 *         if there are none
+	 */
+	public static double[] getRange(final double[] values) {
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (double value : values) {
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		if (min > max) return new double[] { Double.NaN, Double.NaN };
+		return new double[] { min, max };
+	}
+
+	/**
+	 * The points of a scatter plot to draw, one per occupied cell of a
+	 * columns x rows grid over [xMin, xMax] x [yMin, yMax]. Points outside
+	 * the grid or with a NaN are left out.
+	 *
+	 * @param x
+	 * @param y
+	 * @param xMin
+	 * @param xMax
+	 * @param yMin
+	 * @param yMax
+	 * @param columns
+	 * @param rows
+	 * @return the indices of the points to draw, null to draw them all
+	 */
+	public static int[] scatter(final double[] x, final double[] y,
+			                    final double xMin, final double xMax,
+			                    final double yMin, final double yMax,
+			                    final int columns, final int rows) {
+		final int length = Math.min(x.length, y.length);
+		if (length <= Math.max(MIN_POINTS, columns * rows) || columns <= 0 || rows <= 0) return null;
+		if (!(xMax >= xMin) || !(yMax >= yMin)) return null;
+
+		final double xScale = xMax > xMin ? columns / (xMax - xMin) : 0;
+		final double yScale = yMax > yMin ? rows / (yMax - yMin) : 0;
+		final boolean[] occupied = new boolean[columns * rows];
+		final int[] kept = new int[columns * rows];
+		int count = 0;
+		for (int i = 0; i < length && count < kept.length; i++) {
+			final double px = x[i], py = y[i];
+			if (!(px >= xMin && px <= xMax && py >= yMin && py <= yMax)) continue; // also NaN
+			final int column = Math.min(columns - 1, (int) ((px - xMin) * xScale));
+			final int row = Math.min(rows - 1, (int) ((py - yMin) * yScale));
+			final int cell = column + row * columns;
+			if (!occupied[cell]) {
+				occupied[cell] = true;
+				kept[count++] = i;
+			}
+		}
+		return Arrays.copyOf(kept, count);
+	}
+
+	/**
+	 * The points of a line to draw, the x of a point being its index: the
+	 * first, lowest, highest and last values of each of columns parts.
+	 *
+	 * @param values
+	 * @param length
+	 *            the number of values of the line
+	 * @param columns
+	 *            usually the width in pixels of the plot
+	 * @return the indices of the points to draw, null to draw them all
+	 */
+	public static int[] envelope(final float[] values, final int length, final int columns) {
+		if (length <= Math.max(MIN_POINTS, 4 * columns) || columns <= 0) return null;
+
+		final int[] kept = new int[4 * columns];
+		int count = 0;
+		for (int column = 0; column < columns; column++) {
+			final int from = (int) ((long) length * column / columns);
+			final int to   = (int) ((long) length * (column + 1) / columns);
+			if (from >= to) continue;
+			int low = from, high = from;
+			for (int i = from + 1; i < to; i++) {
+				if (values[i] < values[low]) low = i;
+				if (values[i] > values[high]) high = i;
+			}
+			// In the order of the line, without repeating a point
+			final int[] points = { from, Math.min(low, high), Math.max(low, high), to - 1 };
+			for (int point : points) {
+				if (count == 0 || kept[count - 1] < point) kept[count++] = point;
+			}
+		}
+		return Arrays.copyOf(kept, count);
+	}
+
+	/**
+	 * @param values
+	 * @param indices
+	 * @return the values at the indices
+	 */
+	public static double[] gather(final double[] values, final int[] indices) {
+		final double[] gathered = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) gathered[i] = values[indices[i]];
+		return gathered;
+	}
+}
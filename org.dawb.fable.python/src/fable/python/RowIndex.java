@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.Arrays;
+
+/**
+ * Finds the row of a value of a column, like the spot3d_id of a peak, in
+ * constant time instead of scanning the column for each value looked for.
+ * It is a hash table with open addressing on primitive arrays.
+ */
+public class RowIndex {
+
+	private final long[] keys;
+	private final int[]  rows;
+	private final int    mask;
+
+	/**
+	 * @param values
+	 *            the column, if a value is there more than once its first
+	 *            row is kept
+	 */
+	public RowIndex(final double[] values) {
+		int size = 16;
+		while (size < 2 * values.length) size *= 2;
+		keys = new long[size];
+		rows = new int[size];
+		mask = size - 1;
+		Arrays.fill(rows, -1);
+		for (int row = 0; row < values.length; row++) {
+			final long key = key(values[row]);
+			int i = hash(key);
+			while (rows[i] >= 0 && keys[i] != key) i = (i + 1) & mask;
+			if (rows[i] < 0) {
+				keys[i] = key;
+				rows[i] = row;
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return the first row with this value or -1
+	 */
+	public int getRow(final double value) {
+		final long key = key(value);
+		int i = hash(key);
+		while (rows[i] >= 0) {
+			if (keys[i] == key) return rows[i];
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static long key(final double value) {
+		// 0.0 and -0.0 are equal
+		return Double.doubleToLongBits(value == 0 ? 0 : value);
+	}
+
+	private int hash(final long key) {
+		final long h = (key ^ (key >>> 32)) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -10,30 +10,49 @@
 package fable.python;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.dawb.fabio.FabioFile;
 import org.dawb.fabio.FabioFileException;
 import org.dawb.fabio.FableJep;
+import org.dawb.fabio.HeaderIndex;
+import org.dawb.fabio.HeaderSort;
+import org.dawb.fabio.ImageCacheKey;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import fable.framework.internal.IVarKeys;
 import fable.framework.toolbox.IEdfVarKeys;
+import fable.python.rcp.Activator;
 
 /***
  * 
@@ -42,6 +61,8 @@ import fable.framework.toolbox.IEdfVarKeys;
  */
 public class Sample {
 
+	private static final Logger logger = LoggerFactory.getLogger(Sample.class);
+
 	/**
 	 * This was called experiment. This is the name of the parent directory of
 	 * the directory of this file serie. dir + 1
@@ -77,6 +98,24 @@ public class Sample {
 	private boolean isValide = true;
 	private FableJep fableJep;
 	private String stem = null;
+	private HeaderIndex headerIndex;
+	private File indexDirectory;
+	/** The files of fabioFiles by path, see key() */
+	private HashMap<String, FabioFile> fileIndex = new HashMap<String, FabioFile>();
+	private String comparatorKey;
+	private int comparatorDir = SWT.DOWN;
+	/** False once getSortedFiles() ordered fabioFiles on a header key */
+	private boolean pathOrder = true;
+
+	/** Files read by one task of loadHeaderValues(...) */
+	private static final int HEADER_VALUES_BATCH = 256;
+	/** Minimum time in ms between two plot updates while values are read */
+	private static final long HEADER_VALUES_REFRESH = 250;
+	private static ExecutorService headerValuesExecutor;
+	private ImageStack imageStack;
+	/** The files last asked for a stack without one being made */
+	private List<ImageCacheKey> stackRequest;
+	private ImageProjection projection;
 
 	// Mode off line
 	@SuppressWarnings("unchecked")
@@ -140,6 +179,7 @@ public class Sample {
 
 		}
 		filteredfabiofiles = (Vector<FabioFile>) fabioFiles.clone();
+		indexHeaders();
 		fireSampleHasNewFiles();
 	}
 
@@ -169,11 +209,15 @@ public class Sample {
 
 		}
 		filteredfabiofiles = (Vector<FabioFile>) fabioFiles.clone();
+		indexHeaders();
 		fireSampleHasNewFiles();
 	}
 
 	public void updatefabioFiles(String[] newFiles) throws FabioFileException {
+		final Vector<FabioFile> oldFiles = new Vector<FabioFile>(fabioFiles);
+		listeners.removeAll(new HashSet<FabioFile>(oldFiles));
 		fabioFiles.removeAllElements();
+		fileIndex.clear();
 		for (int i = 0; newFiles != null && i < newFiles.length; i++) {
 			// load header
 			addFabioFile(new FabioFile(newFiles[i]));
@@ -182,8 +226,105 @@ public class Sample {
 		for (int i = 0; fabioFiles != null && i < fabioFiles.size(); i++) {
 			currentFiles[i] = fabioFiles.elementAt(i).getFullFilename();
 		}
+		indexHeaders();
 		applyFilter();
-		fireUpdatefiles();
+		fireUpdatefiles(new SampleDelta(this, filteredfabiofiles,
+				new Vector<FabioFile>(), oldFiles, false));
+	}
+
+	/**
+	 * Fill the headers of the files from the header index of their directory
+	 * so that they are not read again. The files which are not in the index,
+	 * or changed since, are read and added to the index in a job.
+	 */
+	private void indexHeaders() {
+		indexHeaders(fabioFiles);
+	}
+
+	/**
+	 * Fill the headers of some of the files from the header index.
+	 * 
+	 * @param files
+	 *            files of this sample
+	 */
+	private void indexHeaders(final Collection<FabioFile> files) {
+		if (files.isEmpty()) return;
+		final File directory = new File(files.iterator().next()
+				.getFullFilename()).getAbsoluteFile().getParentFile();
+		if (directory == null) return;
+		if (headerIndex == null || !directory.equals(indexDirectory)) {
+			headerIndex = HeaderIndex.open(directory);
+			indexDirectory = directory;
+		}
+		final Vector<FabioFile> missing = new Vector<FabioFile>();
+		for (FabioFile fabioFile : files) {
+			final File file = new File(fabioFile.getFullFilename())
+					.getAbsoluteFile();
+			if (!directory.equals(file.getParentFile())) continue;
+			final LinkedHashMap<String, String> header = headerIndex.get(file);
+			if (header != null) {
+				fabioFile.setHeader(header);
+			} else {
+				missing.add(fabioFile);
+			}
+		}
+		if (missing.isEmpty()) return;
+
+		final HeaderIndex index = headerIndex;
+		final Job job = new Job("Index headers of " + directory.getName()) {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				monitor.beginTask("Reading headers of " + missing.size()
+						+ " files", missing.size());
+				FabioFile.loadHeaders(missing, monitor);
+				for (FabioFile fabioFile : missing) {
+					final LinkedHashMap<String, String> header = fabioFile
+							.getHeader();
+					if (header != null) {
+						index.put(new File(fabioFile.getFullFilename()), header);
+					}
+				}
+				try {
+					index.save();
+				} catch (IOException e) {
+					logger.warn("Cannot save the header index of " + directory, e);
+				}
+				monitor.done();
+				return monitor.isCanceled() ? Status.CANCEL_STATUS
+						: Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * The values of a key for the filtered files taken from the header index,
+	 * dates are converted to milliseconds.
+	 * 
+	 * @param key
+	 * @return the values or null if a file is not indexed or a value is not a
+	 *         number.
+	 */
+	private double[] getIndexedHeaderValues(final String key) {
+		if (headerIndex == null) return null;
+		if (key.toLowerCase().contains("date")) {
+			final String[] dates = headerIndex.getValues(key, filteredfabiofiles);
+			if (dates == null) return null;
+			final double[] values = new double[dates.length];
+			for (int i = 0; i < dates.length; i++) {
+				final double time = HeaderSort.parseDate(dates[i]);
+				// Left at 0 as when the header is read
+				if (!Double.isNaN(time)) values[i] = time;
+			}
+			return values;
+		}
+		final double[] values = headerIndex.getDoubles(key, filteredfabiofiles);
+		if (values == null) return null;
+		for (double value : values) {
+			if (Double.isNaN(value)) return null;
+		}
+		return values;
 	}
 
 	/**
@@ -200,6 +341,7 @@ public class Sample {
 		addPropertyChangeListener(_fabioFile);
 		_fabioFile.addIndex(fabioFiles.size());
 		fabioFiles.add(_fabioFile);
+		fileIndex.put(key(_fabioFile.getFullFilename()), _fabioFile);
 		// init filtered file here too
 		filteredfabiofiles.add(_fabioFile);
 		return true;
@@ -403,78 +545,54 @@ public class Sample {
 		return this.filteredfabiofiles;
 	}
 
-	public void setComparator(String Key, int dir) {
-		fireSetComparator(Key);
-		fireSetDirection(dir);
-	}
-
-	/**
-	 * This function is used to sort a vector of fabio files.
-	 * 
-	 * @return a sorted vector of fabio files
-	 */
-	public Vector<FabioFile> getSortedFiles() {
-		// Date now = new Date();
-		Collections.sort(fabioFiles);
-		return fabioFiles;
-	}
-
 	/**
-	 * This function is used to set a key comparator to each fabio files which
-	 * are listening to Sample events.
-	 * <p>
-	 * For example, if you want to sort fabio files based on omega (key
-	 * available in fabio header), this function send a comparator event with
-	 * key as new value to all fabio files registered for this sample.
+	 * Set the header key and the direction getSortedFiles() sorts on,
+	 * SWT.UP being the decreasing order.
 	 * 
-	 * @param key
+	 * @param Key
+	 * @param dir
 	 */
-	private void fireSetComparator(String key) {
-		for (Iterator<IPropertyChangeListener> it = listeners.iterator(); it
-				.hasNext();) {
-			IPropertyChangeListener element = (IPropertyChangeListener) it
-					.next();
-			if (element != null) {
-				element.propertyChange(new PropertyChangeEvent(this,
-						"comparator", null, key));
-			}
-		}
+	public void setComparator(String Key, int dir) {
+		comparatorKey = Key;
+		comparatorDir = dir;
 	}
 
 	/**
-	 * This function is used to set a comparator direction to each fabio files
-	 * which are listening to Sample events.
-	 * <p>
-	 * For example, if you want to sort fabio files based on a key previously
-	 * set (key available in fabio header), this function send a comparator
-	 * direction event with ASC OR DESC as new value to all fabio files
-	 * registered for this sample.
+	 * Sort the files on the key and in the direction given to
+	 * setComparator(...) with HeaderSort, which takes the values from the
+	 * header index, reads the headers of the files it does not have and
+	 * compares the values as numbers or dates when they are.
 	 * 
-	 * @param key
+	 * @return the files of the sample in sorted order
 	 */
-	private void fireSetDirection(int dir) {
-		for (Iterator<IPropertyChangeListener> it = listeners.iterator(); it
-				.hasNext();) {
-			IPropertyChangeListener element = (IPropertyChangeListener) it
-					.next();
-			if (element != null) {
-				element.propertyChange(new PropertyChangeEvent(this, "dir",
-						null, dir));
+	public Vector<FabioFile> getSortedFiles() {
+		if (comparatorKey == null) return fabioFiles;
+		synchronized (fabioFiles) {
+			final FabioFile[] files = fabioFiles.toArray(new FabioFile[fabioFiles.size()]);
+			final int[] order = HeaderSort.argsort(Arrays.asList(files),
+					comparatorKey, comparatorDir != SWT.UP, headerIndex);
+			for (int i = 0; i < order.length; i++) {
+				fabioFiles.set(i, files[order[i]]);
 			}
+			pathOrder = false;
 		}
+		return fabioFiles;
 	}
 
 	/**
 	 * This function is used to update sample files.
+	 * 
+	 * @param delta
+	 *            the files added and removed, the new value of the event
 	 */
-	private void fireUpdatefiles() {
+	private void fireUpdatefiles(SampleDelta delta) {
 		for (Iterator<IPropertyChangeListener> it = listeners.iterator(); it
 				.hasNext();) {
 			IPropertyChangeListener element = (IPropertyChangeListener) it
 					.next();
 			if (element != null) {
 				element.propertyChange(new PropertyChangeEvent(this,
-						IVarKeys.UPDATEFILES_EVENT, null, this));
+						IVarKeys.UPDATEFILES_EVENT, null, delta));
 			}
 		}
 
@@ -498,12 +616,15 @@ public class Sample {
 			currentFiles = null;
 			fabioFiles.removeAllElements();
 			filteredfabiofiles.removeAllElements();
+			fileIndex.clear();
+			dispose();
 			fireSampleHasChanged();
 		}
 	}
 
 	public void removeFileAt(int indice) {
 		if (hasFile()) {
+			fileIndex.remove(key(fabioFiles.elementAt(indice).getFullFilename()));
 			fabioFiles.removeElementAt(indice);
 			fireSampleHasChanged();
 		}
@@ -512,6 +633,7 @@ public class Sample {
 	public void removeFabioFile(FabioFile f) {
 		if (hasFile() && f != null) {
 			fabioFiles.removeElement(f);
+			fileIndex.remove(key(f.getFullFilename()));
 			if (filteredfabiofiles != null && filteredfabiofiles.size() > 0) {
 				filteredfabiofiles.remove(f);
 			}
@@ -539,40 +661,18 @@ public class Sample {
 	 * @param filter
 	 *            the name of the filter to apply for the regular expression.
 	 */
-	@SuppressWarnings("unchecked")
-	// KE: Don't see a way to avoid this warning
 	private void applyFilter() {
 		assert (fabioFiles != null);
-		filteredfabiofiles = (Vector<FabioFile>) fabioFiles.clone();
-		if (filter != null && !filter.trim().equals("")) {
-			/*
-			 * if(filter.contains("*")){
-			 * 
-			 * filter = filter.replaceAll("\\*",".*"); }
-			 */
-
-			// Pattern pattern = Pattern.compile(filter);
-			for (Iterator<FabioFile> iterate = fabioFiles.iterator(); iterate
-					.hasNext();) {
-				FabioFile file = iterate.next();
-				String filename = file.getFileName();
-				if (!filename.contains(filter)) {
-					filteredfabiofiles.remove(file);
-				} else {
-					int updateIndex = filteredfabiofiles.indexOf(file);
-					if (updateIndex >= 0) {
-						file.addHeaderInfo("#", String.valueOf(updateIndex));
-					}
-				}
-			}
-
-		} else {
-			// init index for fabio
-			for (int i = 0; i < fabioFiles.size(); i++) {
-				((FabioFile) fabioFiles.elementAt(i)).addHeaderInfo("#", String
-						.valueOf(i));
+		final Vector<FabioFile> filtered = new Vector<FabioFile>(fabioFiles
+				.size());
+		for (FabioFile file : fabioFiles) {
+			if (matchesFilter(file)) {
+				// init index for fabio
+				file.addHeaderInfo("#", String.valueOf(filtered.size()));
+				filtered.add(file);
 			}
 		}
+		filteredfabiofiles = filtered;
 	}
 
 	/******************************************************************/
@@ -593,7 +693,7 @@ public class Sample {
 	}
 
 	/**
-	 * update plot every 10 files read
+	 * Tell the plots that header values were read, see loadHeaderValues(...)
 	 */
 	public void fireSomeHeaderValuesLoaded() {
 		for (Iterator<IPropertyChangeListener> it = listeners.iterator(); it
@@ -737,6 +837,10 @@ public class Sample {
 
 	/**
 	 * used in Header plot
+	 * <p>
+	 * The values not in the header index are read in a job, see
+	 * loadHeaderValues(...), the array returned being filled as they are
+	 * read.
 	 * 
 	 * @param key
 	 *            header key with number values. Except for the date.
@@ -747,75 +851,16 @@ public class Sample {
 	public double[] getHeaderValues(final String key) throws SampleException {
 		final int size = filteredfabiofiles.size();
 		double[] values = headerValues.get(key);
-		Job job = new Job("Get values for " + key) {
-			@Override
-			protected IStatus run(final IProgressMonitor monitor) {
-				monitor.beginTask("Wait while getting values for " + key
-						+ " in sample " + getDirectoryName(),
-						filteredfabiofiles.size());
-				if (hasFile()) {
-					int i = 0;
-					// get all header values if it has not been done for this
-					// key\
-					for (Iterator<FabioFile> it = filteredfabiofiles.iterator(); it
-							.hasNext();) {
-						if (monitor.isCanceled()) {
-							return Status.CANCEL_STATUS;
-						}
-						final FabioFile f = ((FabioFile) it.next());
-						if (i < headerValues.get(key).length) {
-							final int j = i;
-							Display.getDefault().syncExec(new Runnable() {
-								public void run() {
-									double[] fillValues = headerValues.get(key);
-									try {
-										if (key.toLowerCase().contains("date")) {
-											// convert date final
-											SimpleDateFormat dateFormat = new SimpleDateFormat(
-													"EEE MMM dd HH:mm:ss yyyy",
-													Locale.UK);
-											try {
-												Date date = dateFormat.parse(f
-														.getValue(key));
-												// long l = date.getTime();
-												fillValues[j] = date.getTime();
-											} catch (ParseException e) {
-												// e.printStackTrace();
-											}
-										} else {
-											fillValues[j] = Double.valueOf(f
-													.getValue(key));
-										}
-										// Send a message every 10 files
-										if (j % 10 == 0 && j > 0) {
-											fireSomeHeaderValuesLoaded();
-										} else if (j == fillValues.length - 1) {
-											fireSomeHeaderValuesLoaded();
-										}
-									} catch (NumberFormatException e) {
-										monitor.setCanceled(true);
-
-									} catch (FabioFileException e) {
-										monitor.setCanceled(true);
-									}
-								}
-							});
-
-							i++;
-							monitor.worked(1);
-						}
-					}
-				}
-				monitor.done();
-				return Status.OK_STATUS;
-			}
-		};
-		job.setUser(true);
 		if (values == null || values.length != size) {
+			values = getIndexedHeaderValues(key);
+			if (values != null) {
+				headerValues.put(key, values);
+				return values;
+			}
 			values = new double[size];
 			headerValues.put(key, values);
 			// Load header values
-			job.schedule();
+			loadHeaderValues(key, values, false);
 		}
 		return headerValues.get(key);
 	}
@@ -829,80 +874,297 @@ public class Sample {
 	 * 
 	 * @param key
 	 *            header key
-	 * @return double[] all double values for this key for all fabio files in
-	 *         this sample
+	 * @return double[] the difference between the value of each file and
+	 *         the next for this key, 0 for the last file
 	 * @throws SampleException
 	 */
 	public double[] getHeaderValuesDiff(final String key)
 			throws SampleException {
 		final int size = filteredfabiofiles.size();
 		double[] values = headerdiffValues.get(key);
-		Job job = new Job("Get values for " + key) {
+		if (values == null || values.length != size) {
+			final double[] indexed = key.toLowerCase().contains("date") ? null
+					: getIndexedHeaderValues(key);
+			if (indexed != null) {
+				values = new double[size];
+				for (int i = 0; i + 1 < size; i++) {
+					values[i] = indexed[i + 1] - indexed[i];
+				}
+				headerdiffValues.put(key, values);
+				return values;
+			}
+			values = new double[size];
+			headerdiffValues.put(key, values);
+			// Load header values
+			loadHeaderValues(key, values, true);
+		}
+		return headerdiffValues.get(key);
+	}
+
+	/**
+	 * Fill values with the values of a key for the filtered files in a job.
+	 * <p>
+	 * The files are cut in batches read in parallel, off the display thread,
+	 * each batch being copied into values once read. An updateHeaderValues
+	 * event is sent from the display thread at most every
+	 * HEADER_VALUES_REFRESH ms while the values are read, and once at the
+	 * end. A value which cannot be read stops the job, which ends with an
+	 * error naming the file.
+	 * 
+	 * @param key
+	 * @param values
+	 *            one value per filtered file
+	 * @param diff
+	 *            true to fill values with the difference between the value
+	 *            of each file and the next
+	 */
+	private void loadHeaderValues(final String key, final double[] values,
+			final boolean diff) {
+		final FabioFile[] files = filteredfabiofiles
+				.toArray(new FabioFile[filteredfabiofiles.size()]);
+		final boolean date = !diff && key.toLowerCase().contains("date");
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final HeaderValuesRefresh refresh = new HeaderValuesRefresh();
+		final Job job = new Job("Get values for " + key) {
 			@Override
 			protected IStatus run(final IProgressMonitor monitor) {
 				monitor.beginTask("Wait while getting values for " + key
-						+ " in sample " + getDirectoryName(),
-						filteredfabiofiles.size());
-				if (hasFile()) {
-					// get all header values if it has not been done for this
-					// key\
-					for (int it = 0; it < filteredfabiofiles.size(); it++) {
+						+ " in sample " + getDirectoryName(), files.length);
+				final List<Future<?>> batches = new ArrayList<Future<?>>();
+				for (int from = 0; from < files.length; from += HEADER_VALUES_BATCH) {
+					final int start = from;
+					final int end = Math.min(files.length, from + HEADER_VALUES_BATCH);
+					batches.add(getHeaderValuesExecutor().submit(new Runnable() {
+						public void run() {
+							if (stop.get()) return;
+							final double[] batch = readHeaderValues(files, key,
+									date, diff, start, end, stop, failure);
+							System.arraycopy(batch, 0, values, start, batch.length);
+							refresh.request();
+						}
+					}));
+				}
+				try {
+					for (int i = 0; i < batches.size(); i++) {
 						if (monitor.isCanceled()) {
+							stop.set(true);
 							return Status.CANCEL_STATUS;
 						}
-						final FabioFile f = filteredfabiofiles.elementAt(it);
-						final FabioFile next;
-						if (it + 1 < filteredfabiofiles.size()) {
-							next = filteredfabiofiles.elementAt(it + 1);
-							if (it < headerdiffValues.get(key).length) {
-								final int j = it;
-								Display.getDefault().syncExec(new Runnable() {
-									public void run() {
-										double[] fillValues = headerdiffValues
-												.get(key);
-										try {
-											double dnext = Double.valueOf(next
-													.getValue(key));
-											double delem = Double.valueOf(f
-													.getValue(key));
-											fillValues[j] = dnext - delem;
-											// Send a message every 10 files
-											if (j % 10 == 0 && j > 0) {
-												fireSomeHeaderValuesLoaded();
-											} else if (j == fillValues.length - 1) {
-												fireSomeHeaderValuesLoaded();
-											}
-										} catch (NumberFormatException e) {
-											fillValues[j] = 0;
-											if (j % 10 == 0 && j > 0) {
-												fireSomeHeaderValuesLoaded();
-											} else if (j == fillValues.length - 1) {
-												fireSomeHeaderValuesLoaded();
-											}
-
-										} catch (FabioFileException e) {
-											monitor.setCanceled(true);
-										}
-									}
-								});
-
-								monitor.worked(1);
-							}
+						try {
+							batches.get(i).get();
+						} catch (ExecutionException e) {
+							logger.error("Cannot read the values of " + key,
+									e.getCause());
+							failure.compareAndSet(null, String.valueOf(e
+									.getCause()));
+							stop.set(true);
 						}
+						monitor.worked(Math.min(HEADER_VALUES_BATCH,
+								files.length - i * HEADER_VALUES_BATCH));
 					}
+				} catch (InterruptedException e) {
+					stop.set(true);
+					Thread.currentThread().interrupt();
+					return Status.CANCEL_STATUS;
+				} finally {
+					refresh.requestNow();
+					monitor.done();
+				}
+				if (failure.get() != null) {
+					return new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+							"Unable to load file headers: " + failure.get());
 				}
-				monitor.done();
 				return Status.OK_STATUS;
 			}
 		};
 		job.setUser(true);
-		if (values == null || values.length != size) {
-			values = new double[size];
-			headerdiffValues.put(key, values);
-			// Load header values
-			job.schedule();
+		job.schedule();
+	}
+
+	/**
+	 * Read the values of a key for files [from, to).
+	 * 
+	 * @param stop
+	 *            checked between files, set if a value cannot be read
+	 * @param failure
+	 *            set to why the first value which cannot be read is not read
+	 * @return the values, left at 0 from the first which cannot be read
+	 */
+	private static double[] readHeaderValues(final FabioFile[] files,
+			final String key, final boolean date, final boolean diff,
+			final int from, final int to, final AtomicBoolean stop,
+			final AtomicReference<String> failure) {
+		final double[] batch = new double[to - from];
+		// The differences need the value of the file after the batch
+		final int count = diff ? Math.min(files.length, to + 1) - from : batch.length;
+		final double[] read = diff ? new double[count] : batch;
+		for (int i = 0; i < count && !stop.get(); i++) {
+			final String value;
+			try {
+				value = files[from + i].getValue(key);
+			} catch (FabioFileException e) {
+				failure.compareAndSet(null, "cannot read the header of "
+						+ files[from + i].getFileName() + ", " + e.getMessage());
+				stop.set(true);
+				break;
+			}
+			if (date) {
+				final double time = HeaderSort.parseDate(value);
+				// Left at 0 if not a date
+				if (!Double.isNaN(time)) read[i] = time;
+			} else {
+				try {
+					read[i] = Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					if (!diff) {
+						failure.compareAndSet(null, key + " of "
+								+ files[from + i].getFileName()
+								+ " is not a number: " + value);
+						stop.set(true);
+						break;
+					}
+					read[i] = Double.NaN;
+				}
+			}
 		}
-		return headerdiffValues.get(key);
+		if (diff) {
+			for (int i = 0; i < batch.length && i + 1 < count; i++) {
+				final double difference = read[i + 1] - read[i];
+				batch[i] = Double.isNaN(difference) ? 0 : difference;
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Sends updateHeaderValues from the display thread while values are read,
+	 * the requests made while one is waiting or within HEADER_VALUES_REFRESH
+	 * ms of the last one being dropped.
+	 */
+	private class HeaderValuesRefresh implements Runnable {
+
+		private final AtomicBoolean pending = new AtomicBoolean();
+		private volatile long last;
+
+		void request() {
+			if (System.currentTimeMillis() - last < HEADER_VALUES_REFRESH) return;
+			requestNow();
+		}
+
+		void requestNow() {
+			if (pending.compareAndSet(false, true)) {
+				Display.getDefault().asyncExec(this);
+			}
+		}
+
+		public void run() {
+			// Values copied after this are sent by the next request
+			pending.set(false);
+			last = System.currentTimeMillis();
+			fireSomeHeaderValuesLoaded();
+		}
+	}
+
+	private static synchronized ExecutorService getHeaderValuesExecutor() {
+		if (headerValuesExecutor == null) {
+			headerValuesExecutor = Executors.newFixedThreadPool(Runtime
+					.getRuntime().availableProcessors(), new ThreadFactory() {
+				private int count = 0;
+
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Header values " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return headerValuesExecutor;
+	}
+
+	/**
+	 * The files as one volume for slices across them. Making the stack reads
+	 * the whole frames, so it is only made the second time in a row the same
+	 * files are asked for, and if it fits in the temporary directory. It is
+	 * kept until other files, or files which changed, are asked for.
+	 * 
+	 * @param files
+	 *            files of this sample in the order of the frames
+	 * @param monitor
+	 *            may be null, see ImageStack.create(...)
+	 * @return the stack, closed by the sample, or null if it is not made:
+	 *         the areas are then read from each file
+	 * @throws IOException
+	 */
+	public ImageStack getImageStack(final List<FabioFile> files,
+			final IProgressMonitor monitor) throws IOException {
+		final List<ImageCacheKey> keys = new ArrayList<ImageCacheKey>(
+				files.size());
+		for (FabioFile file : files) {
+			keys.add(file.getCacheKey());
+		}
+		synchronized (this) {
+			if (imageStack != null && imageStack.isStackOf(files)) {
+				return imageStack;
+			}
+			if (!keys.equals(stackRequest)) {
+				stackRequest = keys;
+				return null;
+			}
+		}
+		// Not locked while the files are read, other images can be asked for
+		final ImageStack stack = ImageStack.create(files, monitor);
+		if (stack == null) return null;
+		final ImageStack old;
+		synchronized (this) {
+			old = imageStack;
+			imageStack = stack;
+		}
+		if (old != null) old.close();
+		return stack;
+	}
+
+	/**
+	 * The projection of the filtered files, made in one pass over them the
+	 * first time and kept until the filtered files change.
+	 * 
+	 * @param monitor
+	 *            may be null, see ImageProjection.project(...)
+	 * @return the projection
+	 * @throws IOException
+	 */
+	public ImageProjection getProjection(final IProgressMonitor monitor)
+			throws IOException {
+		final List<FabioFile> files = new ArrayList<FabioFile>(
+				filteredfabiofiles);
+		synchronized (this) {
+			if (projection != null && projection.isProjectionOf(files)) {
+				return projection;
+			}
+			// The old one may be collected while the files are read
+			projection = null;
+		}
+		final ImageProjection made = ImageProjection.project(files, monitor);
+		synchronized (this) {
+			projection = made;
+		}
+		return made;
+	}
+
+	/**
+	 * Close the image stack, which deletes its temporary file, and forget the
+	 * projection, for a sample which is removed or has no files any more.
+	 * They are made again if they are asked for.
+	 */
+	public void dispose() {
+		final ImageStack stack;
+		synchronized (this) {
+			stack = imageStack;
+			imageStack = null;
+			stackRequest = null;
+			projection = null;
+		}
+		if (stack != null) stack.close();
 	}
 
 	public void setCurrentFile(FabioFile fabio) {
@@ -1015,53 +1277,214 @@ public class Sample {
 	/**
 	 * Update the list of FabioFiles by replacing the current list with the new
 	 * list of file names. For efficiency reasons reuse the existing FabioFile
-	 * if exists in the old list.
+	 * if exists in the old list, found by its path in the file index.
 	 * 
 	 * @param Files
 	 *            [] files - new list of files to replace existing list in
 	 *            Sample
 	 * @throws FabioFileException
 	 */
-	@SuppressWarnings("unchecked")
 	public void updateFabioFiles(File[] files) throws FabioFileException {
-		Vector<FabioFile> oldFabioFiles = (Vector<FabioFile>) fabioFiles
-				.clone();
-		fabioFiles.removeAllElements();
+		final HashMap<String, FabioFile> oldIndex = fileIndex;
+		final Vector<FabioFile> ordered = new Vector<FabioFile>();
+		final Vector<FabioFile> newFiles = new Vector<FabioFile>();
+		fileIndex = new HashMap<String, FabioFile>(2 * (files == null ? 0
+				: files.length));
 		for (int i = 0; files != null && i < files.length; i++) {
-			FabioFile fabioFile;
-			boolean fileFound = false;
-			int fileFoundIndex = -1;
-			/*
-			 * for efficiency reasons viz. to avoid rereading files, first look
-			 * if the file name exists in the old list if so reuse the FabioFile
-			 * from the old list
-			 */
-			for (int j = 0; j < currentFiles.length && !fileFound; j++) {
-				if (currentFiles[j]
-						.equalsIgnoreCase(files[i].getAbsolutePath())
-						&& j < oldFabioFiles.size()) {
-					fileFound = true;
-					fileFoundIndex = j;
-					// if (false) {
-					// Logger logger = Logger.getLogger(Sample.class);
-					// logger.debug("found FabioFile at index "
-					// + fileFoundIndex);
-					// }
+			final String path = files[i].getAbsolutePath();
+			FabioFile fabioFile = oldIndex.remove(key(path));
+			if (fabioFile == null) {
+				fabioFile = new FabioFile(path);
+				addPropertyChangeListener(fabioFile);
+				newFiles.add(fabioFile);
+			}
+			fabioFile.addIndex(i);
+			fileIndex.put(key(path), fabioFile);
+			ordered.add(fabioFile);
+		}
+		// The files left in the old index are gone
+		final Collection<FabioFile> removed = oldIndex.values();
+		listeners.removeAll(new HashSet<FabioFile>(removed));
+		setFabioFiles(ordered);
+		indexHeaders();
+		fireUpdatefiles(new SampleDelta(this, filtered(newFiles),
+				new Vector<FabioFile>(), removed, false));
+	}
+
+	/**
+	 * Fill fabioFiles, currentFiles and the filtered files.
+	 * 
+	 * @param ordered
+	 *            the files of the sample, in order
+	 */
+	private void setFabioFiles(final Vector<FabioFile> ordered) {
+		fabioFiles.clear();
+		fabioFiles.addAll(ordered);
+		pathOrder = true;
+		currentFiles = new String[ordered.size()];
+		for (int i = 0; i < currentFiles.length; i++) {
+			currentFiles[i] = ordered.elementAt(i).getFullFilename();
+		}
+		applyFilter();
+	}
+
+	/**
+	 * @param files
+	 * @return the files which pass the filter
+	 */
+	private Vector<FabioFile> filtered(final Collection<FabioFile> files) {
+		final Vector<FabioFile> filtered = new Vector<FabioFile>();
+		for (FabioFile file : files) {
+			if (matchesFilter(file)) filtered.add(file);
+		}
+		return filtered;
+	}
+
+	/**
+	 * @param path
+	 * @return the key of a file in the file index, paths are compared
+	 *         ignoring case as they were before
+	 */
+	private static String key(final String path) {
+		return path.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Update the list of FabioFiles with the files created and deleted since
+	 * the last update.
+	 * 
+	 * @see #updateFabioFiles(File[], File[], File[])
+	 */
+	public SampleDelta updateFabioFiles(File[] added, File[] removed)
+			throws FabioFileException {
+		return updateFabioFiles(added, new File[0], removed);
+	}
+
+	/**
+	 * Update the list of FabioFiles with the files created, rewritten and
+	 * deleted since the last update, as found by a DirectoryWatcher. Files
+	 * which come after the last file, as during an acquisition, are appended
+	 * without going through the other files, otherwise the files are sorted
+	 * by path again, and then on the header key of setComparator(...) if
+	 * there is one. Files already in the sample are not added twice. The
+	 * headers of the rewritten files are read again and replaced in the
+	 * header index.
+	 * 
+	 * @param added
+	 *            new files sorted by path
+	 * @param modified
+	 *            files rewritten since they were listed
+	 * @param removed
+	 *            deleted files
+	 * @return the files added, rewritten and removed, also sent to the
+	 *         listeners
+	 * @throws FabioFileException
+	 */
+	public SampleDelta updateFabioFiles(File[] added, File[] modified,
+			File[] removed) throws FabioFileException {
+		final Vector<FabioFile> newFiles = new Vector<FabioFile>(added.length);
+		for (File file : added) {
+			final String path = file.getAbsolutePath();
+			if (!fileIndex.containsKey(key(path))) {
+				final FabioFile fabioFile;
+				try {
+					fabioFile = new FabioFile(path);
+				} catch (FabioFileException e) {
+					logger.debug("Deleted before it was added: " + path);
+					continue;
 				}
+				addPropertyChangeListener(fabioFile);
+				fileIndex.put(key(path), fabioFile);
+				newFiles.add(fabioFile);
 			}
-			if (!fileFound) {
-				fabioFile = new FabioFile(files[i].getAbsolutePath());
-			} else {
-				fabioFile = oldFabioFiles.elementAt(fileFoundIndex);
+		}
+		final Set<FabioFile> deleted = new HashSet<FabioFile>();
+		for (File file : removed) {
+			final FabioFile fabioFile = fileIndex.remove(key(file
+					.getAbsolutePath()));
+			if (fabioFile != null) deleted.add(fabioFile);
+		}
+		final Vector<FabioFile> rewritten = new Vector<FabioFile>();
+		for (File file : modified) {
+			final FabioFile fabioFile = fileIndex.get(key(file
+					.getAbsolutePath()));
+			if (fabioFile != null) {
+				// The row of the index is out of date, indexHeaders reads it again
+				fabioFile.resetHeader();
+				rewritten.add(fabioFile);
 			}
-			addFabioFile(fabioFile);
 		}
-		currentFiles = new String[fabioFiles.size()];
-		for (int i = 0; fabioFiles != null && i < fabioFiles.size(); i++) {
-			currentFiles[i] = fabioFiles.elementAt(i).getFullFilename();
+		if (!rewritten.isEmpty()) {
+			headerValues.clear();
+			headerdiffValues.clear();
+			indexHeaders(rewritten);
 		}
-		applyFilter();
-		fireUpdatefiles();
+		if (newFiles.isEmpty() && deleted.isEmpty()) {
+			final SampleDelta delta = new SampleDelta(this, newFiles,
+					filtered(rewritten), deleted, true);
+			if (!delta.isEmpty()) fireUpdatefiles(delta);
+			return delta;
+		}
+
+		// Files sorted on a header key are sorted again
+		final boolean append = deleted.isEmpty()
+				&& pathOrder
+				&& comparatorKey == null
+				&& (fabioFiles.isEmpty() || newFiles.firstElement()
+						.getFullFilename().compareTo(
+								fabioFiles.lastElement().getFullFilename()) > 0);
+		final SampleDelta delta;
+		if (append) {
+			final Vector<FabioFile> shown = new Vector<FabioFile>();
+			for (FabioFile fabioFile : newFiles) {
+				fabioFile.addIndex(fabioFiles.size());
+				fabioFiles.add(fabioFile);
+				if (matchesFilter(fabioFile)) {
+					fabioFile.addHeaderInfo("#", String
+							.valueOf(filteredfabiofiles.size()));
+					filteredfabiofiles.add(fabioFile);
+					shown.add(fabioFile);
+				}
+			}
+			final int n = currentFiles == null ? 0 : currentFiles.length;
+			currentFiles = currentFiles == null ? new String[newFiles.size()]
+					: Arrays.copyOf(currentFiles, n + newFiles.size());
+			for (int i = 0; i < newFiles.size(); i++) {
+				currentFiles[n + i] = newFiles.elementAt(i).getFullFilename();
+			}
+			delta = new SampleDelta(this, shown, filtered(rewritten),
+					deleted, true);
+		} else {
+			final Vector<FabioFile> ordered = new Vector<FabioFile>(fabioFiles
+					.size()
+					+ newFiles.size());
+			for (FabioFile fabioFile : fabioFiles) {
+				if (!deleted.contains(fabioFile)) ordered.add(fabioFile);
+			}
+			ordered.addAll(newFiles);
+			Collections.sort(ordered, new Comparator<FabioFile>() {
+				public int compare(FabioFile f1, FabioFile f2) {
+					return f1.getFullFilename().compareTo(
+							f2.getFullFilename());
+				}
+			});
+			for (int i = 0; i < ordered.size(); i++) {
+				ordered.elementAt(i).addIndex(i);
+			}
+			listeners.removeAll(deleted);
+			setFabioFiles(ordered);
+			delta = new SampleDelta(this, filtered(newFiles),
+					filtered(rewritten), deleted, false);
+		}
+		indexHeaders(newFiles);
+		if (comparatorKey != null) getSortedFiles();
+		fireUpdatefiles(delta);
+		return delta;
+	}
+
+	private boolean matchesFilter(FabioFile file) {
+		return filter == null || filter.trim().equals("")
+				|| file.getFileName().contains(filter);
 	}
 
 	/**
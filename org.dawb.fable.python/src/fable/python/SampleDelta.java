@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import org.dawb.fabio.FabioFile;
+
+/**
+ * The files added to, rewritten in and removed from a sample by one update.
+ * It is the new value of the IVarKeys.UPDATEFILES_EVENT sent by the sample,
+ * so that views showing the filtered files only add the new rows when the
+ * files were appended and only refresh the rows of the rewritten files.
+ */
+public class SampleDelta {
+
+	private final Sample          sample;
+	private final List<FabioFile> added;
+	private final List<FabioFile> modified;
+	private final List<FabioFile> removed;
+	private final boolean         appended;
+
+	/**
+	 * @param sample
+	 * @param added
+	 *            the new files which pass the filter of the sample
+	 * @param modified
+	 *            the files rewritten since they were read which pass the
+	 *            filter, their headers are read again
+	 * @param removed
+	 *            the files which are not in the sample any more
+	 * @param appended
+	 *            true if the added files are at the end of the filtered
+	 *            files and the other files did not move
+	 */
+	SampleDelta(final Sample sample, final Collection<FabioFile> added,
+			final Collection<FabioFile> modified,
+			final Collection<FabioFile> removed, final boolean appended) {
+		this.sample   = sample;
+		this.added    = Collections.unmodifiableList(new Vector<FabioFile>(added));
+		this.modified = Collections.unmodifiableList(new Vector<FabioFile>(modified));
+		this.removed  = Collections.unmodifiableList(new Vector<FabioFile>(removed));
+		this.appended = appended;
+	}
+
+	public Sample getSample() {
+		return sample;
+	}
+
+	/**
+	 * @return the new files which pass the filter, in the order of the
+	 *         filtered files
+	 */
+	public List<FabioFile> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return the files rewritten which pass the filter
+	 */
+	public List<FabioFile> getModified() {
+		return modified;
+	}
+
+	public List<FabioFile> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return true if the files added are at the end of the filtered files
+	 *         and none was removed, false if the filtered files must be shown
+	 *         again
+	 */
+	public boolean isAppended() {
+		return appended;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+	}
+}
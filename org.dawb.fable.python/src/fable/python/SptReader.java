@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Reads the output of peaksearch (.spt) in one pass, straight into one float
+ * column per key for each image of the file.
+ * <p>
+ * A block starts with "# File name", followed by "# name value" lines and
+ * the keys line, "# Number_of_pixels Average_counts f s ...", then one line
+ * of numbers per peak. Lines are taken from a byte buffer and their numbers
+ * parsed without making strings, so the memory used is the columns whatever
+ * the size of the file. The peaks read so far are given to their
+ * PeakSearchSpt every few thousand lines so that views can show them while
+ * the rest is read.
+ */
+public class SptReader {
+
+	/**
+	 * Rows read between two updates of the peaks seen by the views.
+	 */
+	private static final int BATCH = 1 << 12;
+
+	private final String fileName;
+	private IProgressMonitor monitor;
+
+	private final NumberParser numbers = new NumberParser(true);
+	private final List<PeakSearchSpt> result = new ArrayList<PeakSearchSpt>();
+
+	// The block being read
+	private PeakSearchSpt current;
+	private String[]      titles;
+	private float[][]     columns;
+	private int           rows;
+	private int           lineNumber;
+
+	/**
+	 * @param fileName
+	 *            the .spt file
+	 */
+	public SptReader(final String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * @param monitor
+	 *            told of each batch of peaks read, reading stops with an
+	 *            OperationCanceledException when it is canceled
+	 */
+	public void setMonitor(final IProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return one PeakSearchSpt per image of the file, with its peaks
+	 * @throws IOException
+	 */
+	public List<PeakSearchSpt> read() throws IOException {
+		final InputStream in = new FileInputStream(fileName);
+		try {
+			return read(in, null);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param in
+	 * @param first
+	 *            the PeakSearchSpt the peaks before the first "# File" line
+	 *            go to, with its keys already set, or null to skip them
+	 * @return the PeakSearchSpt with peaks, first included
+	 * @throws IOException
+	 */
+	List<PeakSearchSpt> read(final InputStream in, final PeakSearchSpt first) throws IOException {
+		if (first != null) {
+			startBlock(first);
+			setTitles(first.getKeys());
+		}
+		byte[] buffer = new byte[1 << 16];
+		int start = 0, end = 0, scan = 0;
+		boolean eof = false;
+		while (true) {
+			int newLine = -1;
+			for (int i = scan; i < end; i++) {
+				if (buffer[i] == '\n') {
+					newLine = i;
+					break;
+				}
+			}
+			if (newLine >= 0) {
+				readLine(buffer, start, newLine);
+				start = scan = newLine + 1;
+				continue;
+			}
+			if (eof) {
+				if (start < end) readLine(buffer, start, end);
+				break;
+			}
+			// Keep the start of the line and read more
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			scan = end;
+			start = 0;
+			if (end == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			final int n = in.read(buffer, end, buffer.length - end);
+			if (n < 0) {
+				eof = true;
+			} else {
+				end += n;
+			}
+		}
+		endBlock();
+		return result;
+	}
+
+	private void readLine(final byte[] bytes, final int from, final int to) throws IOException {
+		lineNumber++;
+		int i = from;
+		while (i < to && NumberParser.isBlank(bytes[i])) i++;
+		if (i == to) return;
+		if (bytes[i] == '#') {
+			readHeader(new String(bytes, i + 1, to - i - 1, "US-ASCII").trim());
+			return;
+		}
+		if (columns == null) return;
+
+		if (rows == columns[0].length) {
+			final int capacity = 2 * rows;
+			for (int c = 0; c < columns.length; c++) columns[c] = Arrays.copyOf(columns[c], capacity);
+		}
+		for (int c = 0; c < columns.length; c++) {
+			while (i < to && NumberParser.isBlank(bytes[i])) i++;
+			if (i < to) {
+				try {
+					i = numbers.parse(bytes, i, to);
+				} catch (IOException e) {
+					throw new IOException("Line " + lineNumber + " of " + fileName + ": " + e.getMessage());
+				}
+				columns[c][rows] = (float) numbers.getValue();
+			} else {
+				columns[c][rows] = Float.NaN;
+			}
+		}
+		rows++;
+		if (rows % BATCH == 0) {
+			publish(false);
+			if (monitor != null) {
+				monitor.worked(BATCH);
+				if (monitor.isCanceled()) throw new OperationCanceledException();
+			}
+		}
+	}
+
+	private void readHeader(final String text) {
+		if (text.startsWith("File ")) {
+			endBlock();
+			final PeakSearchSpt block = new PeakSearchSpt(fileName);
+			block.setFabioFileName(text.substring(5).trim());
+			startBlock(block);
+			return;
+		}
+		if (current == null) return;
+		final String[] words = text.split("\\s+");
+		if (words[0].equals("Number_of_pixels") && words.length > 2) {
+			current.setKeys(words);
+			setTitles(current.getKeys());
+		} else if (text.startsWith("Threshold level") && words.length > 2) {
+			try {
+				current.setTreshold(Float.parseFloat(words[2]));
+			} catch (NumberFormatException e) {
+				// Not a number, left as it is
+			}
+		} else if (words[0].equals("Number_of_peaks") && words.length > 1) {
+			try {
+				current.setNbPeaks(Integer.parseInt(words[1]));
+			} catch (NumberFormatException e) {
+				// Not a number, left as it is
+			}
+		}
+	}
+
+	private void startBlock(final PeakSearchSpt block) {
+		current = block;
+		titles  = null;
+		columns = null;
+		rows    = 0;
+		result.add(block);
+	}
+
+	/**
+	 * @param keys
+	 *            "#" then the keys of the columns
+	 */
+	private void setTitles(final String[] keys) {
+		if (keys == null || keys.length < 2) return;
+		titles = Arrays.copyOfRange(keys, 1, keys.length);
+		columns = new float[titles.length][Math.max(16, current.getNbPeaks())];
+		rows = 0;
+	}
+
+	private void endBlock() {
+		if (current != null) {
+			publish(true);
+			current = null;
+		}
+	}
+
+	private void publish(final boolean complete) {
+		if (columns != null) {
+			current.setTable(new ColumnTable(titles, null, columns, rows), complete);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fable.python.ColumnFileReader;
+import fable.python.ColumnTable;
+
+public class ColumnFileReaderTest {
+
+	@Test
+	public void testHeaderAndValues() throws IOException {
+		File file = TestFiles.createFile(".flt", "# chi = 0.0\n"
+				+ "# wavelength=0.2\r\n"
+				+ "#  sc  fc  omega\n"
+				+ "  500.7403  704.4452  0.1250\n"
+				+ "-1.5e3 2E-2 +7\r\n"
+				+ "\n"
+				+ "# a comment\n"
+				+ "116780530185.8916 nan -inf\n"
+				+ "0.000000123456789 1234567890123456789012 -0.0");
+		ColumnTable table = new ColumnFileReader().read(file.getPath());
+
+		assertArrayEquals(new String[] { "sc", "fc", "omega" }, table.getTitles());
+		assertEquals("0.0", table.getParameters().get("chi"));
+		assertEquals("0.2", table.getParameters().get("wavelength"));
+		assertEquals(4, table.getRowCount());
+		assertEquals(2, table.getColumnIndex("omega"));
+		assertEquals(-1, table.getColumnIndex("spot3d_id"));
+
+		assertEquals(500.7403f, table.getFloat(0, 0), 0);
+		assertEquals(-1500f, table.getFloat(1, 0), 0);
+		assertEquals(0.02f, table.getFloat(1, 1), 0);
+		assertEquals(7f, table.getFloat(1, 2), 0);
+		assertEquals(116780530185.8916f, table.getFloat(2, 0), 0);
+		assertTrue(Float.isNaN(table.getFloat(2, 1)));
+		assertEquals(Float.NEGATIVE_INFINITY, table.getFloat(2, 2), 0);
+		assertEquals(0.000000123456789f, table.getFloat(3, 0), 0);
+		assertEquals(1234567890123456789012f, table.getFloat(3, 1), 0);
+		assertEquals(Float.floatToIntBits(-0f), Float.floatToIntBits(table.getFloat(3, 2)));
+	}
+
+	@Test
+	public void testChunksAndPrecision() throws IOException {
+		Random random = new Random(1);
+		StringBuilder content = new StringBuilder("# a b c\n");
+		String[][] text = new String[1000][3];
+		for (int i = 0; i < text.length; i++) {
+			text[i][0] = String.valueOf(i);
+			text[i][1] = String.valueOf(Math.round(random.nextDouble() * 2e7) / 1e4 - 1000);
+			text[i][2] = String.valueOf(random.nextGaussian() * 1e12);
+			content.append("  ").append(text[i][0]).append("  ").append(text[i][1])
+					.append("  ").append(text[i][2]).append('\n');
+		}
+		File file = TestFiles.createFile(".flt", content.toString());
+
+		ColumnFileReader reader = new ColumnFileReader();
+		ColumnTable whole = reader.read(file.getPath());
+		reader.setChunkSize(100);
+		reader.setThreads(3);
+		ColumnTable chunks = reader.read(file.getPath());
+		reader.setDoublePrecision(true);
+		ColumnTable doubles = reader.read(file.getPath());
+
+		assertEquals(text.length, whole.getRowCount());
+		assertEquals(text.length, chunks.getRowCount());
+		assertTrue(doubles.isDouble());
+		for (int i = 0; i < text.length; i++) {
+			for (int j = 0; j < 3; j++) {
+				assertEquals(Float.parseFloat(text[i][j]), whole.getFloat(i, j), 0);
+				assertEquals(Float.parseFloat(text[i][j]), chunks.getFloat(i, j), 0);
+				assertEquals(Double.parseDouble(text[i][j]), doubles.getDouble(i, j), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testBadRow() throws IOException {
+		File file = TestFiles.createFile(".flt", "# a b\n1 2\n3\n");
+		try {
+			new ColumnFileReader().read(file.getPath());
+			fail("A row with a missing value was read");
+		} catch (IOException expected) {
+			// The message gives the row
+		}
+	}
+
+	/**
+	 * Prints the time to read the peaks file given with the tests.
+	 */
+	@Test
+	public void testPeaksFile() throws IOException {
+		URL url = getClass().getResource("peaks_t10000.flt");
+		assertNotNull("peaks_t10000.flt is not on the class path", url);
+		ColumnTable table = new ColumnFileReader().read(new File(url.getPath()).getPath());
+		assertEquals(13879, table.getRowCount());
+		assertEquals("spot3d_id", table.getTitles()[table.getColumnCount() - 1]);
+		assertEquals(500.7403f, table.getFloat(0, 0), 0);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fable.python.ColumnFileReader;
+import fable.python.ColumnFileWriter;
+import fable.python.ColumnTable;
+
+public class ColumnFileWriterTest {
+
+	private static final String[] TITLES = { "sc", "fc", "omega" };
+
+	private static ColumnTable write(ColumnTable table, boolean doublePrecision) throws IOException {
+		File file = File.createTempFile("columnfile", ".flt");
+		file.deleteOnExit();
+		ColumnFileWriter.write(table, file.getPath());
+		ColumnFileReader reader = new ColumnFileReader();
+		reader.setDoublePrecision(doublePrecision);
+		return reader.read(file.getPath());
+	}
+
+	@Test
+	public void testFloats() throws IOException {
+		float[][] columns = { { 0, -3, 1e16f, 123456789f }, { 0.1f, -2.5f, 1.17549435E-38f, 3.4028235e38f },
+				{ 1f / 3, (float) Math.PI, -1e-7f, 65535.5f } };
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		parameters.put("cell__a", "4.04");
+		parameters.put("chi", "0.0");
+		ColumnTable table = new ColumnTable(TITLES, parameters, columns, 4);
+
+		ColumnTable read = write(table, false);
+		assertArrayEquals(TITLES, read.getTitles());
+		assertEquals(parameters, read.getParameters());
+		assertEquals(4, read.getRowCount());
+		for (int j = 0; j < TITLES.length; j++) {
+			assertArrayEquals(columns[j], read.getFloatColumn(j), 0);
+		}
+	}
+
+	@Test
+	public void testDoubles() throws IOException {
+		double[][] columns = { { 0, -3, 1e16, 1234567890123L }, { 0.1, -2.5, 4.9e-324, Double.MAX_VALUE },
+				{ 1.0 / 3, Math.PI, -1e-17, 65535.123456789 } };
+		ColumnTable table = new ColumnTable(TITLES, null, columns, 4);
+
+		ColumnTable read = write(table, true);
+		assertEquals(0, read.getParameters().size());
+		for (int j = 0; j < TITLES.length; j++) {
+			assertArrayEquals(columns[j], read.getDoubleColumn(j), 0);
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		ColumnTable read = write(new ColumnTable(TITLES, null, new float[3][0], 0), false);
+		assertArrayEquals(TITLES, read.getTitles());
+		assertEquals(0, read.getRowCount());
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fable.python.ColumnFileReader;
+import fable.python.ColumnFileWriter;
+import fable.python.ColumnFilter;
+import fable.python.ColumnTable;
+import fable.python.RowIndex;
+
+public class ColumnFilterTest {
+
+	private static ColumnTable createTable() {
+		float[][] columns = { { 1, 2, 3, 4, Float.NaN, 6 },
+				{ 10, 20, 30, 40, 50, 60 }, { 0, 1, 2, 3, 4, 5 } };
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		parameters.put("chi", "0.5");
+		return new ColumnTable(new String[] { "x", "y", "spot3d_id" }, parameters, columns, 6);
+	}
+
+	@Test
+	public void testRanges() {
+		ColumnTable table = createTable();
+		assertArrayEquals(new int[] { 1, 2 }, ColumnFilter.inRanges(table, 0, 2, 5, 1, 0, 30, true));
+		assertArrayEquals(new int[] { 0, 3, 4, 5 }, ColumnFilter.inRanges(table, 0, 2, 5, 1, 0, 30, false));
+	}
+
+	@Test
+	public void testIdsAndViews() {
+		ColumnTable table = createTable();
+		ColumnTable view = table.select(ColumnFilter.inSet(table, 2, new int[] { 1, 3, 5, 99 }, false));
+		assertFalse(view.isComplete());
+		assertEquals(3, view.getRowCount());
+		assertEquals(1f, view.getFloat(0, 0), 0);
+		assertEquals(3f, view.getFloat(1, 0), 0);
+		assertArrayEquals(new float[] { 10, 30, 50 }, view.getFloatColumn(1), 0);
+
+		// A view of a view maps to the rows of the first table
+		ColumnTable last = view.select(ColumnFilter.inSet(view, 2, new int[] { 4, Integer.MIN_VALUE }, true));
+		assertEquals(1, last.getRowCount());
+		assertEquals(50f, last.getFloat(0, 1), 0);
+	}
+
+	@Test
+	public void testWriteView() throws IOException {
+		ColumnTable table = createTable();
+		ColumnTable view = table.select(new int[] { 5, 0, 4 });
+		File file = File.createTempFile("columnfile", ".flt");
+		file.deleteOnExit();
+		ColumnFileWriter.write(view, file.getPath());
+
+		ColumnTable read = new ColumnFileReader().read(file.getPath());
+		assertArrayEquals(table.getTitles(), read.getTitles());
+		assertEquals("0.5", read.getParameters().get("chi"));
+		assertEquals(3, read.getRowCount());
+		for (int j = 0; j < 3; j++) {
+			assertArrayEquals(view.getFloatColumn(j), read.getFloatColumn(j), 0);
+		}
+	}
+
+	@Test
+	public void testRowIndex() {
+		double[] ids = new double[10000];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = 3 * (ids.length - i);
+		}
+		ids[7] = ids[5];
+		RowIndex index = new RowIndex(ids);
+		assertEquals(0, index.getRow(30000));
+		assertEquals(5, index.getRow(ids[5]));
+		assertEquals(ids.length - 1, index.getRow(3));
+		assertEquals(-1, index.getRow(4));
+		assertEquals(-1, index.getRow(0));
+	}
+}
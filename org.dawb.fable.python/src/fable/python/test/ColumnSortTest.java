@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.junit.Test;
+
+import fable.python.ColumnSort;
+import fable.python.ColumnTable;
+
+public class ColumnSortTest {
+
+	private static final String[] TITLES = { "a", "b" };
+
+	@Test
+	public void testFloats() {
+		float[][] columns = { { 3, Float.NaN, -1, 3, -0f, 0f, 2 }, { 0, 1, 2, 3, 4, 5, 6 } };
+		ColumnTable table = new ColumnTable(TITLES, null, columns, 7);
+		assertArrayEquals(new int[] { 2, 4, 5, 6, 0, 3, 1 }, ColumnSort.argsort(table, 0, true));
+		assertArrayEquals(new int[] { 1, 3, 0, 6, 5, 4, 2 }, ColumnSort.argsort(table, 0, false));
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6 }, ColumnSort.argsort(table, -1, true));
+	}
+
+	@Test
+	public void testDoubles() {
+		double[][] columns = { { 3, Double.NaN, -1, 3, 1e300, -1e300, 2 }, { 0, 1, 2, 3, 4, 5, 6 } };
+		ColumnTable table = new ColumnTable(TITLES, null, columns, 7);
+		assertArrayEquals(new int[] { 5, 2, 6, 0, 3, 4, 1 }, ColumnSort.argsort(table, 0, true));
+		assertArrayEquals(new int[] { 6, 5, 4, 3, 2, 1, 0 }, ColumnSort.argsort(table, 1, false));
+	}
+
+	/**
+	 * Large enough to be sorted in parallel runs.
+	 */
+	@Test
+	public void testLarge() {
+		int rows = 300000;
+		Random random = new Random(2);
+		float[][] floats = { new float[rows] };
+		double[][] doubles = { new double[rows] };
+		for (int i = 0; i < rows; i++) {
+			floats[0][i] = random.nextInt(1000) / 10f;
+			doubles[0][i] = random.nextGaussian();
+		}
+		int[] order = ColumnSort.argsort(new ColumnTable(new String[] { "a" }, null, floats, rows), 0, true);
+		for (int i = 1; i < rows; i++) {
+			float previous = floats[0][order[i - 1]], value = floats[0][order[i]];
+			assertTrue(previous < value || (previous == value && order[i - 1] < order[i]));
+		}
+		order = ColumnSort.argsort(new ColumnTable(new String[] { "a" }, null, doubles, rows), 0, false);
+		for (int i = 1; i < rows; i++) {
+			assertTrue(doubles[0][order[i - 1]] >= doubles[0][order[i]]);
+		}
+	}
+
+	@Test
+	public void testInterrupted() {
+		if (Runtime.getRuntime().availableProcessors() < 2) return; // Sorted in one run
+		int rows = 300000;
+		float[][] floats = { new float[rows] };
+		Thread.currentThread().interrupt();
+		try {
+			ColumnSort.argsort(new ColumnTable(new String[] { "a" }, null, floats, rows), 0, true);
+			fail("Order returned without all the runs");
+		} catch (OperationCanceledException e) {
+			assertTrue(Thread.interrupted());
+		}
+	}
+}
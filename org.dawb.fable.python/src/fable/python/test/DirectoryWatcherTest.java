@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import fable.framework.toolbox.DirectoryWatcher;
+
+public class DirectoryWatcherTest {
+
+	@Test
+	public void testChanges() throws IOException {
+		File directory = TestFiles.createDirectory("watch");
+		File old = TestFiles.createFile(directory, "image0001.edf", 10, 60000);
+		TestFiles.createFile(directory, "image0002.edf", 10, 60000);
+		TestFiles.createFile(directory, "notes.txt", 10, 60000);
+
+		DirectoryWatcher watcher = new DirectoryWatcher(directory, ".+(edf)");
+		watcher.setKnownFiles(new String[] { old.getPath() });
+		DirectoryWatcher.Changes changes = watcher.poll();
+		assertArrayEquals(new File[] { new File(directory, "image0002.edf") }, changes.added);
+		assertEquals(0, changes.removed.length);
+		assertTrue(watcher.poll().isEmpty());
+
+		// Written now, not settled yet
+		File recent = TestFiles.createFile(directory, "image0003.edf", 10, 0);
+		assertEquals(0, watcher.poll().added.length);
+		watcher.setSettleTime(0);
+		assertArrayEquals(new File[] { recent }, watcher.poll().added);
+
+		old.delete();
+		new File(directory, "image0004.edf").mkdir();
+		changes = watcher.poll();
+		assertArrayEquals(new File[] { old }, changes.removed);
+		assertEquals(0, changes.added.length);
+
+		// Known files are checked in turn
+		TestFiles.createFile(directory, "image0002.edf", 20, 0);
+		assertArrayEquals(new File[] { new File(directory, "image0002.edf") }, watcher.poll().modified);
+		assertTrue(watcher.poll().isEmpty());
+	}
+}
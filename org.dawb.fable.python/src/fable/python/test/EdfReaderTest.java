@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.dawb.fabio.CachedImage;
+import org.dawb.fabio.EdfHeader;
+import org.dawb.fabio.EdfReader;
+import org.dawb.fabio.ImageArea;
+import org.junit.Test;
+
+public class EdfReaderTest {
+
+	@Test
+	public void testUnsignedShortLowByteFirst() throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(3 * 2 * 2).order(
+				ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 6; i++) {
+			data.putShort((short) (60000 + i));
+		}
+		File file = TestFiles.writeEdf("UnsignedShort", "LowByteFirst", null, data, 3, 2);
+		CachedImage image = EdfReader.read(file);
+		assertEquals(3, image.getWidth());
+		assertEquals(2, image.getHeight());
+		for (int i = 0; i < 6; i++) {
+			assertEquals(60000 + i, image.getData()[i], 0);
+		}
+		assertEquals(60000, image.getMinimum(), 0);
+		assertEquals(60005, image.getMaximum(), 0);
+	}
+
+	@Test
+	public void testFloatHighByteFirst() throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(2 * 2 * 4).order(
+				ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < 4; i++) {
+			data.putFloat(-1.5f * i);
+		}
+		File file = TestFiles.writeEdf("FloatValue", "HighByteFirst", null, data, 2, 2);
+		CachedImage image = EdfReader.read(file);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(-1.5f * i, image.getData()[i], 0);
+		}
+	}
+
+	@Test
+	public void testSignedIntegerAndHeader() throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(4 * 4).order(
+				ByteOrder.LITTLE_ENDIAN);
+		data.putInt(-7).putInt(0).putInt(7).putInt(Integer.MAX_VALUE);
+		File file = TestFiles.writeEdf("SignedInteger", "LowByteFirst", "None", data, 4, 1);
+		EdfHeader header = EdfHeader.read(file);
+		assertEquals("12.5", header.getValue("omega"));
+		assertEquals(EdfHeader.BLOCKSIZE, header.getDataOffset());
+		CachedImage image = EdfReader.read(file);
+		assertEquals(-7, image.getData()[0], 0);
+		assertEquals(7, image.getData()[2], 0);
+	}
+
+	@Test
+	public void testCompressedIsNotRead() throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(8);
+		File file = TestFiles.writeEdf("UnsignedShort", "LowByteFirst", "gzip", data, 2, 2);
+		assertNull(EdfReader.read(file));
+	}
+
+	@Test
+	public void testReadArea() throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(5 * 4 * 2).order(
+				ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < 20; i++) {
+			data.putShort((short) i);
+		}
+		File file = TestFiles.writeEdf("SignedShort", "HighByteFirst", null, data, 5, 4);
+		ImageArea area = EdfReader.readArea(file, 1, 2, 3, 2);
+		assertEquals(5, area.getFrameWidth());
+		assertEquals(4, area.getFrameHeight());
+		assertEquals(3, area.getWidth());
+		assertEquals(2, area.getHeight());
+		assertEquals(11, area.getData()[0], 0);
+		assertEquals(13, area.getData()[2], 0);
+		assertEquals(16, area.getData()[3], 0);
+		assertEquals(18, area.get(3, 3), 0);
+
+		// Clipped to the frame
+		area = EdfReader.readArea(file, 3, -1, 10, 2);
+		assertEquals(2, area.getWidth());
+		assertEquals(1, area.getHeight());
+		assertEquals(3, area.getData()[0], 0);
+		assertEquals(4, area.getData()[1], 0);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import jep.JepException;
+
+import org.dawb.fabio.FableJep;
+import org.dawb.fabio.FableJepPool;
+import org.dawb.fabio.FableJepPool.JepTask;
+import org.junit.Test;
+
+/**
+ * The pool with the interpreters left out, so that no Python is needed: each
+ * thread of the pool records when it opens and closes its interpreter.
+ */
+public class FableJepPoolTest {
+
+	private static class TestPool extends FableJepPool {
+
+		final List<Thread> opened = Collections.synchronizedList(new ArrayList<Thread>());
+		final List<Thread> closed = Collections.synchronizedList(new ArrayList<Thread>());
+
+		TestPool(int size, long idleSeconds) {
+			super(size, idleSeconds, new String[0]);
+		}
+
+		@Override
+		protected FableJep openInterpreter() {
+			opened.add(Thread.currentThread());
+			return null;
+		}
+
+		@Override
+		protected void closeInterpreter(FableJep fableJep) {
+			closed.add(Thread.currentThread());
+		}
+	}
+
+	private static final JepTask<Thread> CURRENT_THREAD = new JepTask<Thread>() {
+		@Override
+		public Thread run(FableJep fableJep) {
+			return Thread.currentThread();
+		}
+	};
+
+	private static void waitFor(TestPool pool, int closed) throws InterruptedException {
+		for (int i = 0; i < 100 && pool.closed.size() < closed; i++) {
+			Thread.sleep(50);
+		}
+	}
+
+	@Test
+	public void testOwnership() throws Throwable {
+		final TestPool pool = new TestPool(2, 60);
+		final Thread thread = pool.run(CURRENT_THREAD);
+		assertNotSame(Thread.currentThread(), thread);
+		assertEquals(Collections.singletonList(thread), pool.opened);
+
+		// A task run from a task uses the interpreter of its thread
+		final Thread nested = pool.run(new JepTask<Thread>() {
+			@Override
+			public Thread run(FableJep fableJep) throws Throwable {
+				return pool.run(CURRENT_THREAD);
+			}
+		});
+		assertTrue(pool.opened.contains(nested));
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(pool.opened.contains(pool.run(CURRENT_THREAD)));
+		}
+		assertEquals(pool.opened.size(), pool.getInterpretersCreated());
+		assertTrue(pool.getInterpretersCreated() <= 2);
+		assertTrue(pool.closed.isEmpty());
+	}
+
+	@Test
+	public void testIdleTimeout() throws Throwable {
+		final TestPool pool = new TestPool(1, 1);
+		final Thread thread = pool.run(CURRENT_THREAD);
+		assertEquals(1, pool.getInterpreterCount());
+
+		// Closed by the thread which opened it
+		waitFor(pool, 1);
+		assertEquals(Collections.singletonList(thread), pool.closed);
+		assertEquals(0, pool.getInterpreterCount());
+
+		final Thread next = pool.run(CURRENT_THREAD);
+		assertNotSame(thread, next);
+		assertEquals(2, pool.getInterpretersCreated());
+		assertSame(next, pool.opened.get(1));
+	}
+
+	@Test
+	public void testErrors() throws Throwable {
+		final TestPool pool = new TestPool(1, 60);
+		try {
+			pool.run(new JepTask<Object>() {
+				@Override
+				public Object run(FableJep fableJep) throws Throwable {
+					throw new JepException("expected");
+				}
+			});
+			fail("The error of the task was lost");
+		} catch (JepException e) {
+			assertEquals("expected", e.getMessage());
+		}
+		// The thread and its interpreter are kept
+		pool.run(CURRENT_THREAD);
+		assertEquals(1, pool.getInterpretersCreated());
+		assertEquals(2, pool.getTaskCount());
+	}
+
+	@Test
+	public void testMetrics() throws Throwable {
+		final TestPool pool = new TestPool(1, 60);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final JepTask<Object> blocking = new JepTask<Object>() {
+			@Override
+			public Object run(FableJep fableJep) throws Throwable {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		};
+		final List<Thread> callers = new ArrayList<Thread>();
+		for (int i = 0; i < 2; i++) {
+			Thread caller = new Thread() {
+				@Override
+				public void run() {
+					try {
+						pool.run(blocking);
+					} catch (Throwable e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			caller.start();
+			callers.add(caller);
+			started.await();
+		}
+		for (int i = 0; i < 100 && pool.getQueueLength() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, pool.getBusyCount());
+		assertEquals(1, pool.getQueueLength());
+		assertEquals(0, pool.getTaskCount());
+
+		Thread.sleep(50);
+		release.countDown();
+		for (Thread caller : callers) {
+			caller.join();
+		}
+		assertEquals(0, pool.getBusyCount());
+		assertEquals(0, pool.getQueueLength());
+		assertEquals(2, pool.getTaskCount());
+		// The second task waited for the first one
+		assertTrue(pool.getMaxWait() >= 50);
+		assertTrue(pool.getMeanWait() >= pool.getMaxWait() / 2);
+		assertTrue(pool.getUtilisation() > 0 && pool.getUtilisation() <= 1);
+		assertTrue(pool.getStatistics().startsWith("Python interpreters: 1/1 open, 0 busy, 0 waiting, 2 tasks"));
+	}
+}
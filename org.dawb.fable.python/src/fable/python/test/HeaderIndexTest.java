@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.HeaderIndex;
+import org.junit.Test;
+
+public class HeaderIndexTest {
+
+	private static LinkedHashMap<String, String> header(String omega,
+			String title) {
+		LinkedHashMap<String, String> header = new LinkedHashMap<String, String>();
+		header.put("omega", omega);
+		header.put("title", title);
+		return header;
+	}
+
+	@Test
+	public void testSaveAndOpen() throws IOException, FabioFileException {
+		File dir = TestFiles.createDirectory("headerindex");
+		File a = TestFiles.createFile(dir, "a_0001.edf", 10, 0);
+		File b = TestFiles.createFile(dir, "a_0002.edf", 20, 0);
+
+		HeaderIndex index = HeaderIndex.open(dir);
+		assertEquals(0, index.size());
+		index.put(a, header("1.5", "scan"));
+		index.put(b, header("2.5", "scan"));
+		index.save();
+		assertFalse(index.isDirty());
+		new File(dir, HeaderIndex.FILE_NAME).deleteOnExit();
+
+		index = HeaderIndex.open(dir);
+		assertEquals(2, index.size());
+		assertEquals(header("2.5", "scan"), index.get(b));
+
+		List<FabioFile> files = Arrays.asList(new FabioFile(b
+				.getAbsolutePath()), new FabioFile(a.getAbsolutePath()));
+		assertArrayEquals(new double[] { 2.5, 1.5 }, index.getDoubles(
+				"omega", files), 0);
+		assertArrayEquals(new String[] { "scan", "scan" }, index.getValues(
+				"title", files));
+		assertEquals(Double.NaN, index.getDoubles("title", files)[0], 0);
+		assertNull(index.getDoubles("phi", files));
+	}
+
+	@Test
+	public void testChangedFileIsNotUsed() throws IOException,
+			FabioFileException {
+		File dir = TestFiles.createDirectory("headerindex");
+		File a = TestFiles.createFile(dir, "b_0001.edf", 10, 0);
+		HeaderIndex index = HeaderIndex.open(dir);
+		index.put(a, header("1.5", "scan"));
+
+		TestFiles.createFile(dir, "b_0001.edf", 30, 0);
+		assertNull(index.get(a));
+		assertNull(index.getDoubles("omega", Arrays.asList(new FabioFile(a
+				.getAbsolutePath()))));
+
+		// Rewritten with the same size, seen by the values without get(...)
+		File b = TestFiles.createFile(dir, "b_0002.edf", 10, 0);
+		index.put(b, header("2.5", "scan"));
+		List<FabioFile> files = Arrays.asList(new FabioFile(b.getAbsolutePath()));
+		assertArrayEquals(new double[] { 2.5 }, index.getDoubles("omega", files), 0);
+		b.setLastModified(b.lastModified() - 10000);
+		assertNull(index.getValues("title", files));
+		assertNull(index.getDoubles("omega", files));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+
+import org.dawb.fabio.HeaderScanner;
+import org.junit.Test;
+
+public class HeaderScannerTest {
+
+	private static void putRecord(ByteBuffer buffer, int record, String text) {
+		buffer.position(record * 80);
+		for (int i = 0; i < 80; i++) {
+			buffer.put((byte) (i < text.length() ? text.charAt(i) : ' '));
+		}
+	}
+
+	/**
+	 * @param order
+	 *            the byte order of the MAR CCD header
+	 * @return the first bytes of a little endian tif with a MAR CCD header
+	 */
+	private static ByteBuffer marccd(int byteOrder, ByteOrder order) {
+		ByteBuffer buffer = ByteBuffer.allocate(4096).order(order);
+		buffer.put(new byte[] { 0x49, 0x49, 0x2a, 0x00, 0x08, 0x00 });
+		buffer.putInt(1024 + 28, byteOrder);
+		buffer.putInt(1024 + 80, 2048); // nfast
+		buffer.putInt(1024 + 84, 1024); // nslow
+		return buffer;
+	}
+
+	@Test
+	public void testEdf() throws IOException {
+		File file = TestFiles.writeEdf("UnsignedShort", "LowByteFirst", null, ByteBuffer.allocate(8), 2, 2);
+		LinkedHashMap<String, String> header = HeaderScanner.scan(file);
+		assertEquals("12.5", header.get("omega"));
+		assertEquals("2", header.get("Dim_1"));
+	}
+
+	@Test
+	public void testBruker() throws IOException {
+		// More blocks than the first read, a record in the last one
+		ByteBuffer buffer = ByteBuffer.allocate(10 * 512);
+		for (int record = 0; record < 10 * 512 / 80; record++) {
+			putRecord(buffer, record, "FILLER :");
+		}
+		putRecord(buffer, 0, "FORMAT :        86");
+		putRecord(buffer, 1, "HDRBLKS:        10");
+		putRecord(buffer, 2, "TITLE  : first line");
+		putRecord(buffer, 3, "TITLE  : second line");
+		putRecord(buffer, 60, "NROWS  :      1024");
+		LinkedHashMap<String, String> header = HeaderScanner.scan(TestFiles.createFile(".sfrm", buffer.array()));
+		assertEquals("86", header.get("FORMAT"));
+		assertEquals("first line\nsecond line", header.get("TITLE"));
+		assertEquals("1024", header.get("NROWS"));
+	}
+
+	@Test
+	public void testMarCCD() throws IOException {
+		LinkedHashMap<String, String> header = HeaderScanner.scan(TestFiles.createFile(".mccd",
+				marccd(1234, ByteOrder.LITTLE_ENDIAN).array()));
+		assertEquals("1234", header.get("header_byte_order"));
+		assertEquals("2048", header.get("nfast"));
+		assertEquals("1024", header.get("nslow"));
+
+		// Written on a big endian machine
+		header = HeaderScanner.scan(TestFiles.createFile(".mccd", marccd(4321, ByteOrder.BIG_ENDIAN).array()));
+		assertEquals("4321", header.get("header_byte_order"));
+		assertEquals("2048", header.get("nfast"));
+		assertEquals("1024", header.get("nslow"));
+	}
+
+	@Test
+	public void testOtherTif() throws IOException {
+		// Left to fabio: a tif which is not named .mccd, or without a MAR CCD header
+		assertNull(HeaderScanner.scan(TestFiles.createFile(".tif", marccd(1234, ByteOrder.LITTLE_ENDIAN).array())));
+		assertNull(HeaderScanner.scan(TestFiles.createFile(".mccd", marccd(0, ByteOrder.LITTLE_ENDIAN).array())));
+	}
+}
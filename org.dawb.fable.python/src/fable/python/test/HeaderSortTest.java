@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.HeaderIndex;
+import org.dawb.fabio.HeaderSort;
+import org.junit.Test;
+
+public class HeaderSortTest {
+
+	/**
+	 * @return one file per value, the header having the key only if the
+	 *         value is not null
+	 */
+	private static List<FabioFile> createFiles(String key, String[] values) throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (String value : values) {
+			File file = File.createTempFile("sort", ".edf");
+			file.deleteOnExit();
+			FabioFile fabioFile = new FabioFile(file.getPath());
+			LinkedHashMap<String, String> header = new LinkedHashMap<String, String>();
+			if (value != null) header.put(key, value);
+			fabioFile.setHeader(header);
+			files.add(fabioFile);
+		}
+		return files;
+	}
+
+	@Test
+	public void testNumbers() throws IOException, FabioFileException {
+		List<FabioFile> files = createFiles("Omega", new String[] { "10.0", "9.5", null, "-1", " 9.5 ", "1e1" });
+		// Equal values keep their order, missing values come last
+		assertArrayEquals(new int[] { 3, 1, 4, 0, 5, 2 }, HeaderSort.argsort(files, "Omega", true));
+		assertArrayEquals(new int[] { 0, 5, 1, 4, 3, 2 }, HeaderSort.argsort(files, "Omega", false));
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5 }, HeaderSort.argsort(files, null, true));
+	}
+
+	@Test
+	public void testIndex() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		HeaderIndex index = null;
+		for (String value : new String[] { "3", "1", "2" }) {
+			File file = File.createTempFile("sort", ".edf");
+			file.deleteOnExit();
+			if (index == null) index = HeaderIndex.open(file.getParentFile());
+			LinkedHashMap<String, String> header = new LinkedHashMap<String, String>();
+			header.put("Omega", value);
+			index.put(file, header);
+			files.add(new FabioFile(file.getPath()));
+		}
+		// The empty files are not read, the values come from the index
+		assertArrayEquals(new int[] { 1, 2, 0 }, HeaderSort.argsort(files, "Omega", true, index));
+		assertFalse(files.get(0).headerRead);
+	}
+
+	@Test
+	public void testDatesAndText() throws IOException, FabioFileException {
+		List<FabioFile> files = createFiles("Date", new String[] { "Tue Jan 15 10:00:00 2008",
+				"Mon Jan 14 23:59:59 2008", "Wed Jan 02 08:00:00 2008" });
+		assertArrayEquals(new int[] { 2, 1, 0 }, HeaderSort.argsort(files, "Date", true));
+		assertTrue(HeaderSort.parseDate("Mon Jan 14 23:59:59 2008") < HeaderSort.parseDate(" Tue Jan 15 10:00:00 2008"));
+		assertTrue(Double.isNaN(HeaderSort.parseDate("image10")));
+
+		files = createFiles("Title", new String[] { "image10", "image9", "Image1", "image09b", "image9" });
+		assertArrayEquals(new int[] { 2, 1, 4, 3, 0 }, HeaderSort.argsort(files, "Title", true));
+		assertTrue(HeaderSort.compare("9.5", "10.0") < 0);
+		assertTrue(HeaderSort.compare("a2", "a10") < 0);
+	}
+}
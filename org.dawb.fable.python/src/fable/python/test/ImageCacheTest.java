@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawb.fabio.CachedImage;
+import org.dawb.fabio.ImageCache;
+import org.dawb.fabio.ImageCacheKey;
+import org.junit.Test;
+
+public class ImageCacheTest {
+
+	private static ImageCacheKey key(int i) {
+		return new ImageCacheKey("/data/frame" + i + ".edf", 1000);
+	}
+
+	private static CachedImage image() {
+		return new CachedImage(new float[100], 10, 10, 0);
+	}
+
+	/** Size of the frames of the tests */
+	private static final long BYTES = image().getSizeInBytes();
+
+	private static Callable<CachedImage> loader(final CachedImage image, final AtomicInteger calls) {
+		return new Callable<CachedImage>() {
+			@Override
+			public CachedImage call() {
+				calls.incrementAndGet();
+				return image;
+			}
+		};
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		ImageCache cache = new ImageCache(3 * BYTES);
+		for (int i = 0; i < 3; i++) {
+			cache.put(key(i), image());
+		}
+		assertEquals(3 * BYTES, cache.getSizeInBytes());
+
+		// Frame 1 becomes the least recently used
+		assertNotNull(cache.getIfPresent(key(0)));
+		cache.put(key(3), image());
+		assertNull(cache.getIfPresent(key(1)));
+		assertNotNull(cache.getIfPresent(key(0)));
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+
+		cache.setMaxBytes(BYTES);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.getIfPresent(key(0)));
+		assertEquals(BYTES, cache.getSizeInBytes());
+
+		// Larger than the cache, not kept and nothing evicted
+		cache.put(key(4), new CachedImage(new float[200], 20, 10, 0));
+		assertNull(cache.getIfPresent(key(4)));
+		assertEquals(1, cache.size());
+
+		cache.invalidate(key(0));
+		assertEquals(0, cache.getSizeInBytes());
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		ImageCache cache = new ImageCache(10 * BYTES);
+		AtomicInteger calls = new AtomicInteger();
+		CachedImage image = image();
+		assertSame(image, cache.get(key(0), loader(image, calls)));
+		assertSame(image, cache.get(key(0), loader(image(), calls)));
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+
+		// A failed load is not kept
+		try {
+			cache.get(key(1), new Callable<CachedImage>() {
+				@Override
+				public CachedImage call() throws Exception {
+					throw new IOException("expected");
+				}
+			});
+			fail("The error of the loader was lost");
+		} catch (IOException e) {
+			assertEquals("expected", e.getMessage());
+		}
+		assertNull(cache.getIfPresent(key(1)));
+		assertSame(image, cache.get(key(1), loader(image, calls)));
+	}
+
+	@Test
+	public void testSharedLoad() throws Exception {
+		final ImageCache cache = new ImageCache(10 * BYTES);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final CachedImage image = image();
+		final CachedImage[] result = new CachedImage[1];
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = cache.get(key(0), new Callable<CachedImage>() {
+						@Override
+						public CachedImage call() throws Exception {
+							calls.incrementAndGet();
+							loading.countDown();
+							release.await();
+							return image;
+						}
+					});
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		first.start();
+		loading.await();
+
+		// Waits for the first thread instead of reading the frame again
+		Thread second = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// Released sooner
+				}
+				release.countDown();
+			}
+		};
+		second.start();
+		assertSame(image, cache.get(key(0), loader(image(), calls)));
+		first.join();
+		assertSame(image, result[0]);
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testKey() throws IOException {
+		File file = TestFiles.createFile(".edf", new byte[1]);
+		ImageCacheKey key = ImageCacheKey.forFile(file);
+		assertEquals(key, ImageCacheKey.forFile(new File(file.getParentFile(), "./" + file.getName())));
+		assertEquals(key.hashCode(), new ImageCacheKey(key.getPath(), key.getLastModified()).hashCode());
+
+		// A rewritten file is another frame
+		file.setLastModified(key.getLastModified() - 10000);
+		assertFalse(key.equals(ImageCacheKey.forFile(file)));
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.junit.Test;
+
+import fable.python.ImageProjection;
+
+public class ImageProjectionTest {
+
+	// More frames than readers
+	private static final int FRAMES = 10, WIDTH = 70, HEIGHT = 3;
+
+	private static float value(int frame, int row, int col) {
+		return frame * 10000 + row * 100 + col;
+	}
+
+	private static FabioFile writeFrame(int frame, int width, int height) throws IOException, FabioFileException {
+		ByteBuffer data = ByteBuffer.allocate(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				data.putFloat(value(frame, row, col));
+			}
+		}
+		File file = TestFiles.writeEdf("FloatValue", "LowByteFirst", null, data, width, height);
+		return new FabioFile(file.getPath());
+	}
+
+	@Test
+	public void testProjection() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			files.add(writeFrame(frame, WIDTH, HEIGHT));
+		}
+		ImageProjection projection = ImageProjection.project(files, null);
+		assertEquals(FRAMES, projection.getFrameCount());
+		assertEquals(WIDTH, projection.getWidth());
+		assertEquals(HEIGHT, projection.getHeight());
+		assertTrue(projection.isProjectionOf(files));
+		assertFalse(projection.isProjectionOf(files.subList(1, FRAMES)));
+
+		int pixel = 2 * WIDTH + 66;
+		float sum = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			sum += value(frame, 2, 66);
+		}
+		assertEquals(value(FRAMES - 1, 2, 66), projection.getImage(ImageProjection.MAX)[pixel], 0);
+		assertEquals(sum, projection.getImage(ImageProjection.SUM)[pixel], 0.1f);
+		assertEquals(sum / FRAMES, projection.getImage(ImageProjection.MEAN)[pixel], 1e-2);
+
+		// The frames differ by 10000 from one to the next
+		double variance = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			variance += Math.pow((frame - (FRAMES - 1) / 2.0) * 10000, 2) / FRAMES;
+		}
+		assertEquals(Math.sqrt(variance), projection.getImage(ImageProjection.STD)[WIDTH + 5], 1e-2);
+	}
+
+	@Test
+	public void testFrameSize() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		files.add(writeFrame(0, WIDTH, HEIGHT));
+		files.add(writeFrame(1, WIDTH, HEIGHT + 1));
+		try {
+			ImageProjection.project(files, null);
+			fail("Frames of different sizes projected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
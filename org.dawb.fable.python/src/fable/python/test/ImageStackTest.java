@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.dawb.fabio.ImageArea;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.junit.Test;
+
+import fable.python.ImageStack;
+
+public class ImageStackTest {
+
+	// Across the chunks of frames and of columns
+	private static final int FRAMES = 10, WIDTH = 70, HEIGHT = 3;
+
+	private static float value(int frame, int row, int col) {
+		return frame * 10000 + row * 100 + col;
+	}
+
+	private static FabioFile writeFrame(int frame, int width, int height) throws IOException, FabioFileException {
+		ByteBuffer data = ByteBuffer.allocate(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				data.putFloat(value(frame, row, col));
+			}
+		}
+		File file = TestFiles.writeEdf("FloatValue", "LowByteFirst", null, data, width, height);
+		return new FabioFile(file.getPath());
+	}
+
+	@Test
+	public void testSlices() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			files.add(writeFrame(frame, WIDTH, HEIGHT));
+		}
+		ImageStack stack = ImageStack.create(files, null);
+		try {
+			assertEquals(FRAMES, stack.getFrameCount());
+			assertTrue(stack.isStackOf(files));
+			assertFalse(stack.isStackOf(files.subList(1, FRAMES)));
+			assertEquals(value(9, 2, 69), stack.get(9, 2, 69), 0);
+
+			// Clipped to the frame
+			ImageArea area = stack.getArea(8, 60, 1, 20, 5);
+			assertEquals(60, area.getX());
+			assertEquals(10, area.getWidth());
+			assertEquals(2, area.getHeight());
+			assertEquals(value(8, 2, 65), area.get(65, 2), 0);
+
+			float[] sinogram = stack.getSinogram(1);
+			assertEquals(FRAMES * WIDTH, sinogram.length);
+			assertEquals(value(7, 1, 64), sinogram[7 * WIDTH + 64], 0);
+		} finally {
+			stack.close();
+		}
+	}
+
+	@Test
+	public void testInterrupted() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			files.add(writeFrame(frame, WIDTH, HEIGHT));
+		}
+		ImageStack stack = ImageStack.create(files, null);
+		try {
+			Thread.currentThread().interrupt();
+			stack.getSinogram(1);
+			fail("Sinogram returned without all the chunks");
+		} catch (OperationCanceledException e) {
+			assertTrue(Thread.interrupted());
+		} finally {
+			stack.close();
+		}
+	}
+
+	@Test
+	public void testFits() {
+		// Two blocks of 8 frames of 2 x 1 chunks
+		assertEquals(2 * 4 * 8 * 64 * 64 * 2, ImageStack.getSizeInBytes(FRAMES, WIDTH, HEIGHT));
+		assertTrue(ImageStack.fits(FRAMES, WIDTH, HEIGHT));
+		assertFalse(ImageStack.fits(Integer.MAX_VALUE, 4096, 4096));
+	}
+
+	@Test
+	public void testFrameSize() throws IOException, FabioFileException {
+		List<FabioFile> files = new ArrayList<FabioFile>();
+		files.add(writeFrame(0, WIDTH, HEIGHT));
+		files.add(writeFrame(1, WIDTH, HEIGHT + 1));
+		try {
+			ImageStack.create(files, null).close();
+			fail("Frames of different sizes stacked");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
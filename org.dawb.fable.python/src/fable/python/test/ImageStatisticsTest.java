@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.dawb.fabio.ImageStatistics;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.junit.Test;
+
+public class ImageStatisticsTest {
+
+	@Test
+	public void testStatistics() {
+		float[] data = new float[1000 * 1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 100;
+		}
+		data[5] = Float.NaN;
+		data[7] = 1e6f;
+		ImageStatistics statistics = ImageStatistics.compute(data, 1000, 1000);
+		assertEquals(data.length - 1, statistics.getCount());
+		assertEquals(0, statistics.getMinimum(), 0);
+		assertEquals(1e6f, statistics.getMaximum(), 0);
+
+		double sum = 0;
+		for (float value : data) {
+			if (!Float.isNaN(value)) sum += value;
+		}
+		double mean = sum / statistics.getCount();
+		assertEquals(mean, statistics.getMean(), 1e-9);
+
+		int total = 0;
+		for (int count : statistics.getHistogram()) total += count;
+		assertEquals(statistics.getCount(), total);
+
+		// The hot pixel does not move the high percentile
+		assertEquals(0, statistics.getPercentile(0.0005), 0.1);
+		assertEquals(98.9, statistics.getPercentile(0.999), 0.1);
+		assertEquals(1e6f, statistics.getPercentile(1), 0);
+	}
+
+	@Test
+	public void testRectangle() {
+		float[] data = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		ImageStatistics statistics = ImageStatistics.compute(data, 3, 1, 1, 2, 2);
+		assertEquals(4, statistics.getCount());
+		assertEquals(5, statistics.getMinimum(), 0);
+		assertEquals(9, statistics.getMaximum(), 0);
+		assertEquals(7, statistics.getMean(), 0);
+		assertEquals(Math.sqrt(2.5), statistics.getStandardDeviation(), 1e-9);
+	}
+
+	@Test
+	public void testInterrupted() {
+		if (Runtime.getRuntime().availableProcessors() < 2) return; // Done in one band
+		Thread.currentThread().interrupt();
+		try {
+			ImageStatistics.compute(new float[1000 * 1000], 1000, 1000);
+			fail("Statistics made of bands which were not done");
+		} catch (OperationCanceledException e) {
+			assertTrue(Thread.interrupted());
+		}
+	}
+}
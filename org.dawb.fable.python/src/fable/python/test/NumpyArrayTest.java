@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.dawb.fabio.NumpyArray;
+import org.junit.Test;
+
+public class NumpyArrayTest {
+
+	@Test
+	public void testUnsignedShort() {
+		ByteBuffer bytes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putShort((short) 0).putShort((short) 1).putShort((short) 40000);
+		bytes.putShort((short) 65535).putShort((short) 7).putShort((short) 300);
+		NumpyArray array = new NumpyArray(bytes.array(), "<u2", new int[] { 2, 3 });
+
+		assertEquals("uint16", array.getTypeName());
+		assertEquals(6, array.size());
+		assertArrayEquals(new int[] { 2, 3 }, array.getShape());
+		assertEquals(40000, array.asShortBuffer().get(2) & 0xffff);
+		assertArrayEquals(new float[] { 0, 1, 40000, 65535, 7, 300 }, array.toFloatArray(), 0);
+	}
+
+	@Test
+	public void testByteOrder() {
+		ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+		bytes.putFloat(1.5f).putFloat(-2f);
+		NumpyArray array = new NumpyArray(bytes.array(), ">f4", new int[] { 2 });
+		assertEquals(-2f, array.asFloatBuffer().get(1), 0);
+		assertArrayEquals(new float[] { 1.5f, -2f }, array.toFloatArray(), 0);
+
+		bytes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putInt(-5).putInt(Integer.MAX_VALUE).putInt(0).putInt(12);
+		array = new NumpyArray(bytes.array(), "<i4", new int[] { 4 });
+		assertEquals(Integer.MAX_VALUE, array.asIntBuffer().get(1));
+		assertArrayEquals(new float[] { -5, Integer.MAX_VALUE, 0, 12 }, array.toFloatArray(), 0);
+
+		array = new NumpyArray(new byte[] { (byte) 200, 3 }, "|u1", new int[] { 2 });
+		assertArrayEquals(new float[] { 200, 3 }, array.toFloatArray(), 0);
+	}
+
+	@Test
+	public void testErrors() {
+		try {
+			new NumpyArray(new byte[6], "<f4", new int[] { 2 });
+			fail("Wrong size accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			new NumpyArray(new byte[8], "<f8", new int[] { 1 }).asFloatBuffer();
+			fail("float64 seen as float32");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+}
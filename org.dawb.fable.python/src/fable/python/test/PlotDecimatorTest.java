@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fable.python.PlotDecimator;
+
+public class PlotDecimatorTest {
+
+	@Test
+	public void testScatter() {
+		int n = 100000;
+		Random random = new Random(3);
+		double[] x = new double[n], y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = random.nextDouble() * 10;
+			y[i] = random.nextDouble() * 10;
+		}
+		assertNull(PlotDecimator.scatter(new double[10], new double[10], 0, 1, 0, 1, 5, 5));
+
+		// Every cell has points, one of each is kept
+		int[] rows = PlotDecimator.scatter(x, y, 0, 10, 0, 10, 20, 10);
+		assertEquals(200, rows.length);
+		boolean[] seen = new boolean[200];
+		for (int k = 0; k < rows.length; k++) {
+			if (k > 0) assertTrue(rows[k - 1] < rows[k]);
+			int cell = (int) (x[rows[k]] * 2) + 20 * (int) y[rows[k]];
+			assertTrue(!seen[cell]);
+			seen[cell] = true;
+		}
+
+		// Zoomed on a corner, only the points in it
+		rows = PlotDecimator.scatter(x, y, 0, 1, 0, 1, 100, 100);
+		for (int row : rows) {
+			assertTrue(x[row] <= 1 && y[row] <= 1);
+		}
+		assertTrue(rows.length > 500);
+	}
+
+	@Test
+	public void testEnvelope() {
+		int n = 50000;
+		float[] values = new float[n + 10];
+		for (int i = 0; i < n; i++) values[i] = (float) Math.sin(i / 100.);
+		values[12345] = 100;
+		values[33333] = -100;
+		int[] points = PlotDecimator.envelope(values, n, 100);
+		assertTrue(points.length <= 400);
+		assertEquals(0, points[0]);
+		assertEquals(n - 1, points[points.length - 1]);
+		boolean peak = false, dip = false;
+		for (int k = 0; k < points.length; k++) {
+			if (k > 0) assertTrue(points[k - 1] < points[k]);
+			peak |= points[k] == 12345;
+			dip |= points[k] == 33333;
+		}
+		assertTrue(peak && dip);
+		assertNull(PlotDecimator.envelope(values, 1000, 100));
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import fable.python.RowIndex;
+
+public class RowIndexTest {
+
+	@Test
+	public void testGetRow() {
+		// Ids in a shuffled order, more than the smallest table
+		int n = 1000;
+		double[] ids = new double[n];
+		for (int row = 0; row < n; row++) {
+			ids[row] = (row * 7919) % n;
+		}
+		RowIndex index = new RowIndex(ids);
+		for (int row = 0; row < n; row++) {
+			assertEquals(row, index.getRow(ids[row]));
+		}
+		assertEquals(-1, index.getRow(n));
+		assertEquals(-1, index.getRow(0.5));
+		assertEquals(-1, index.getRow(Double.NaN));
+	}
+
+	@Test
+	public void testSameValues() {
+		// The first row of a value is kept, 0.0 and -0.0 are the same
+		RowIndex index = new RowIndex(new double[] { 3, -0.0, 3, 5, 0.0, Double.NaN });
+		assertEquals(0, index.getRow(3));
+		assertEquals(1, index.getRow(0));
+		assertEquals(1, index.getRow(-0.0));
+		assertEquals(3, index.getRow(5));
+		assertEquals(5, index.getRow(Double.NaN));
+		assertEquals(-1, new RowIndex(new double[0]).getRow(0));
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dawb.fabio.FabioFile;
+import org.dawb.fabio.FabioFileException;
+import org.eclipse.swt.SWT;
+import org.junit.Test;
+
+import fable.python.ImageStack;
+import fable.python.Sample;
+import fable.python.SampleDelta;
+
+public class SampleTest {
+
+	private static File[] createFiles(File directory, int from, int to) throws IOException {
+		File[] files = new File[to - from];
+		for (int i = from; i < to; i++) {
+			files[i - from] = new File(directory, String.format("image%04d.edf", i));
+			files[i - from].createNewFile();
+			files[i - from].deleteOnExit();
+		}
+		return files;
+	}
+
+	@Test
+	public void testUpdate() throws IOException, FabioFileException {
+		File directory = TestFiles.createDirectory("sample");
+		File[] files = createFiles(directory, 0, 10);
+		Sample sample = new Sample(directory.getPath(), files);
+		sample.setFilter("image000");
+		assertEquals(10, sample.getFilteredfiles().size());
+		FabioFile first = sample.getFabioFiles().firstElement();
+
+		// Appended, files already there are left out
+		File[] added = createFiles(directory, 10, 13);
+		SampleDelta delta = sample.updateFabioFiles(new File[] { files[3], added[0], added[1], added[2] }, new File[0]);
+		assertTrue(delta.isAppended());
+		assertEquals(0, delta.getAdded().size());
+		assertEquals(13, sample.getFabioFiles().size());
+		assertEquals(13, sample.getFiles().length);
+		assertEquals(10, sample.getFilteredfiles().size());
+
+		// Removed and added in the middle
+		File middle = new File(directory, "image0005b.edf");
+		middle.createNewFile();
+		middle.deleteOnExit();
+		delta = sample.updateFabioFiles(new File[] { middle }, new File[] { files[2] });
+		assertFalse(delta.isAppended());
+		assertEquals(1, delta.getRemoved().size());
+		assertEquals(1, delta.getAdded().size());
+		assertEquals(13, sample.getFabioFiles().size());
+		assertEquals(middle.getAbsolutePath(), sample.getFabioFiles().elementAt(5).getFullFilename());
+		assertEquals(files[6].getAbsolutePath(), sample.getFiles()[6]);
+		assertEquals(10, sample.getFilteredfiles().size());
+
+		// Rewritten, the header is read again
+		FabioFile rewritten = sample.getFabioFiles().elementAt(3);
+		assertEquals(files[4].getAbsolutePath(), rewritten.getFullFilename());
+		rewritten.setHeader(Collections.singletonMap("omega", "1"));
+		delta = sample.updateFabioFiles(new File[0], new File[] { files[4] }, new File[0]);
+		assertEquals(1, delta.getModified().size());
+		assertFalse(delta.isEmpty());
+		assertFalse(rewritten.headerRead);
+
+		// The full update keeps the FabioFiles it knows
+		sample.setFilter("");
+		sample.updateFabioFiles(files);
+		assertEquals(10, sample.getFabioFiles().size());
+		assertSame(first, sample.getFabioFiles().firstElement());
+		assertEquals(10, sample.getFilteredfiles().size());
+	}
+
+	/**
+	 * @return an EDF file of the directory whose Dim_1 is width
+	 */
+	private static File createFrame(File directory, String name, int width) throws IOException {
+		File file = new File(directory, name);
+		TestFiles.writeEdf("UnsignedShort", "LowByteFirst", null, ByteBuffer.allocate(2 * width), width, 1)
+				.renameTo(file);
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testUpdateSorted() throws IOException, FabioFileException {
+		File directory = TestFiles.createDirectory("sample");
+		File[] files = { createFrame(directory, "image0000.edf", 3), createFrame(directory, "image0001.edf", 1) };
+		Sample sample = new Sample(directory.getPath(), files);
+		sample.setComparator("Dim_1", SWT.DOWN);
+		assertEquals("image0001.edf", sample.getSortedFiles().elementAt(0).getFileName());
+
+		// Placed on the key, not appended after the last path
+		File added = createFrame(directory, "image0002.edf", 2);
+		SampleDelta delta = sample.updateFabioFiles(new File[] { added }, new File[0]);
+		assertFalse(delta.isAppended());
+		assertEquals("image0001.edf", sample.getFabioFiles().elementAt(0).getFileName());
+		assertEquals("image0002.edf", sample.getFabioFiles().elementAt(1).getFileName());
+		assertEquals("image0000.edf", sample.getFabioFiles().elementAt(2).getFileName());
+	}
+
+	@Test
+	public void testImageStack() throws IOException, FabioFileException {
+		File[] files = new File[3];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = TestFiles.writeEdf("UnsignedShort", "LowByteFirst", null, ByteBuffer.allocate(8), 2, 2);
+		}
+		Sample sample = new Sample(files[0].getParent(), files);
+		List<FabioFile> frames = new ArrayList<FabioFile>(sample.getFabioFiles());
+		List<FabioFile> others = frames.subList(1, 3);
+
+		// Made only when the same files are asked for twice in a row
+		assertNull(sample.getImageStack(frames, null));
+		assertNull(sample.getImageStack(others, null));
+		assertNull(sample.getImageStack(frames, null));
+		ImageStack stack = sample.getImageStack(frames, null);
+		assertNotNull(stack);
+		assertEquals(3, stack.getFrameCount());
+		assertSame(stack, sample.getImageStack(frames, null));
+		sample.dispose();
+		assertNull(sample.getImageStack(frames, null));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import org.eclipse.swt.SWT;
+import org.junit.Test;
+
+import fable.python.Peak;
+import fable.python.PeakSearchSpt;
+import fable.python.SptReader;
+
+public class SptReaderTest {
+
+	@Test
+	public void testBlocks() throws IOException {
+		File file = TestFiles.createFile(".spt", "# File /data/image0001.edf\n"
+				+ "# Frame 0\n"
+				+ "# Threshold level 100.000000\n"
+				+ "# Number_of_pixels Average_counts    f   s\n"
+				+ "4  1040.879432  1025.619308  10.5\n"
+				+ "12  88.25  3.0  20.25\r\n"
+				+ "\n"
+				+ "7  500  2000.5  1.75\n"
+				+ "# File /data/image0002.edf\n"
+				+ "# Threshold level 50\n"
+				+ "# Number_of_pixels Average_counts    f   s\n"
+				+ "1  2  3  4");
+		List<PeakSearchSpt> blocks = new SptReader(file.getPath()).read();
+
+		assertEquals(2, blocks.size());
+		PeakSearchSpt first = blocks.get(0);
+		assertEquals("/data/image0001.edf", first.getFabioFileName());
+		assertEquals(file.getPath(), first.getParentFileName());
+		assertEquals(100f, first.getTreshold(), 0);
+		assertTrue(first.isParsed());
+		assertArrayEquals(new String[] { "#", "Number_of_pixels", "Average_counts", "f", "s" }, first.getKeys());
+		assertEquals(3, first.getSize());
+		assertEquals(1, blocks.get(1).getSize());
+		assertEquals(50f, blocks.get(1).getTreshold(), 0);
+
+		Peak peak = first.getPeak(1);
+		assertSame(peak, first.getPeak(1));
+		assertSame(first, peak.getParent());
+		assertEquals("1", peak.getValue("#"));
+		assertEquals("12", peak.getValue("Number_of_pixels"));
+		assertEquals("88.25", peak.getValue("Average_counts"));
+		assertEquals("3", peak.getF());
+		assertEquals("20.25", peak.getS());
+		assertEquals(1040.879432f, first.getPeak(0).getFloatValue("Average_counts"), 0);
+
+		// s then f of the visible peaks
+		first.getPeak(0).show(false);
+		assertFalse(first.getPeak(0).isVisible());
+		Vector<Float> positions = first.getTabChildren();
+		assertEquals(4, positions.size());
+		assertEquals(20.25f, positions.get(0), 0);
+		assertEquals(3f, positions.get(1), 0);
+	}
+
+	@Test
+	public void testSort() throws IOException {
+		StringBuilder content = new StringBuilder("# File image.edf\n# Number_of_pixels f s\n");
+		int n = 10000;
+		for (int i = 0; i < n; i++) {
+			content.append(i % 7).append(' ').append((i * 7919) % n).append(' ').append(i).append('\n');
+		}
+		PeakSearchSpt peaks = new SptReader(TestFiles.createFile(".spt", content.toString()).getPath()).read().get(0);
+		assertEquals(n, peaks.getSize());
+
+		peaks.setComparator("f", SWT.DOWN);
+		Vector<Peak> sorted = peaks.getSortedpeaks();
+		assertEquals(n, sorted.size());
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, sorted.get(i).getFloatValue("f"), 0);
+			assertSame(sorted.get(i), peaks.getPeak(i));
+		}
+
+		peaks.setComparator("Number_of_pixels", SWT.UP);
+		sorted = peaks.getSortedpeaks();
+		assertEquals(6, sorted.get(0).getFloatValue("Number_of_pixels"), 0);
+		assertEquals(0, sorted.get(n - 1).getFloatValue("Number_of_pixels"), 0);
+		assertTrue(sorted.get(0).compareTo(sorted.get(n - 1)) < 0);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2012 European Synchrotron Radiation Facility,
+ *                    Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package fable.python.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.dawb.fabio.EdfHeader;
+
+/**
+ * Temporary files for the tests, all deleted on exit.
+ */
+public class TestFiles {
+
+	/**
+	 * @return a new empty directory
+	 */
+	public static File createDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	/**
+	 * @param suffix
+	 *            the extension of the file, for instance ".flt"
+	 * @param content
+	 *            written in ISO-8859-1
+	 * @return a new file with this text
+	 */
+	public static File createFile(String suffix, String content) throws IOException {
+		return createFile(suffix, content.getBytes("ISO-8859-1"));
+	}
+
+	/**
+	 * @return a new file with these bytes
+	 */
+	public static File createFile(String suffix, byte[] content) throws IOException {
+		File file = File.createTempFile("test", suffix);
+		file.deleteOnExit();
+		write(file, content);
+		return file;
+	}
+
+	/**
+	 * Create or replace a file of a directory.
+	 *
+	 * @param length
+	 *            number of zero bytes written
+	 * @param age
+	 *            time in ms since the file was last modified
+	 */
+	public static File createFile(File directory, String name, int length, long age) throws IOException {
+		File file = new File(directory, name);
+		file.deleteOnExit();
+		write(file, new byte[length]);
+		file.setLastModified(System.currentTimeMillis() - age);
+		return file;
+	}
+
+	/**
+	 * Write an EDF file of one frame with an omega key.
+	 *
+	 * @param dataType
+	 *            the EDF DataType, for instance FloatValue
+	 * @param byteOrder
+	 *            LowByteFirst or HighByteFirst, the order of data
+	 * @param compression
+	 *            the Compression key, none if null
+	 * @param data
+	 *            the values, written as they are
+	 */
+	public static File writeEdf(String dataType, String byteOrder, String compression, ByteBuffer data, int dim1,
+			int dim2) throws IOException {
+		StringBuilder header = new StringBuilder("{\n");
+		header.append("HeaderID = EH:000001:000000:000000 ;\n");
+		header.append("ByteOrder = " + byteOrder + " ;\n");
+		header.append("DataType = " + dataType + " ;\n");
+		header.append("Dim_1 = " + dim1 + " ;\n");
+		header.append("Dim_2 = " + dim2 + " ;\n");
+		header.append("Size = " + data.capacity() + " ;\n");
+		if (compression != null) {
+			header.append("Compression = " + compression + " ;\n");
+		}
+		header.append("omega = 12.5 ;\n");
+		while (header.length() < EdfHeader.BLOCKSIZE - 2) {
+			header.append(' ');
+		}
+		header.append("}\n");
+		byte[] bytes = header.toString().getBytes("ISO-8859-1");
+		byte[] content = new byte[bytes.length + data.capacity()];
+		System.arraycopy(bytes, 0, content, 0, bytes.length);
+		System.arraycopy(data.array(), 0, content, bytes.length, data.capacity());
+		return createFile(".edf", content);
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
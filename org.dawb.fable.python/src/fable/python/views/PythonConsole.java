@@ -20,6 +20,7 @@ import jep.Jep;
 import jep.JepException;
 
 import org.dawb.fabio.FableJep;
+import org.dawb.fabio.NumpyArray;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.PartInitException;
@@ -212,10 +213,7 @@ public class PythonConsole {
 		final String arrayName = _arrayName;
 		final float arrayData[];
 		try {
-			jep
-					.eval("res = " + arrayName
-							+ ".astype(numpy.float32).tostring()");
-			arrayData = (float[]) jep.getValue_floatarray("res");
+			arrayData = NumpyArray.getFloats(jep, arrayName);
 			if (!Display.getDefault().isDisposed()) {
 				Display.getDefault().syncExec(new Runnable() {
 					public void run() {